@@ -428,6 +428,18 @@ public abstract class UntypedResultSet implements Iterable<UntypedResultSet.Row>
             return colSpec;
         }
 
+        /**
+         * @return the size in bytes of the column values of this row.
+         */
+        public long dataSize()
+        {
+            long size = 0;
+            for (ByteBuffer value : colValues)
+                if (value != null)
+                    size += value.remaining();
+            return size;
+        }
+
         @Override
         public String toString()
         {
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.cassandra.db.commitlog;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.ColumnSerializer;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.io.util.FastByteArrayInputStream;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Commitlog replayer exposing the position of the mutation being replayed to secondary indexes, so that
+ * Elasticsearch indices can skip mutations already covered by their last Lucene commit (see {@link #currentReplayPosition()}).
+ *
+ * Cassandra applies replayed mutations asynchronously without their position, so mutations below the indexed position
+ * are registered by content when read, and matched back on the mutation stage just before being applied.
+ *
+ * @author vroyer
+ *
+ */
+public class ElassandraCommitLogReplayer extends CommitLogReplayer
+{
+    private static final Logger logger = LoggerFactory.getLogger(ElassandraCommitLogReplayer.class);
+
+    private static volatile boolean replaying = false;
+    private static final ThreadLocal<ReplayPosition> currentPosition = new ThreadLocal<ReplayPosition>();
+
+    // replayed mutations at or below indexedPosition, waiting to be applied.
+    private final ConcurrentHashMap<Fingerprint, ReplayPosition> registered = new ConcurrentHashMap<Fingerprint, ReplayPosition>();
+    private final ReplayPosition indexedPosition;
+
+    ElassandraCommitLogReplayer(CommitLog commitLog, ReplayPosition globalPosition, Map<UUID, ReplayPosition.ReplayFilter> cfPersisted, ReplayFilter replayFilter, ReplayPosition indexedPosition)
+    {
+        super(commitLog, globalPosition, cfPersisted, replayFilter);
+        this.indexedPosition = indexedPosition;
+    }
+
+    /**
+     * @return true while the commitlog is replayed and replayed mutations are not all applied.
+     */
+    public static boolean isReplaying()
+    {
+        return replaying;
+    }
+
+    /**
+     * @return the commitlog position of the mutation being applied by the current thread during commitlog replay, or null.
+     */
+    public static ReplayPosition currentReplayPosition()
+    {
+        return replaying ? currentPosition.get() : null;
+    }
+
+    @Override
+    void replayMutation(byte[] inputBuffer, int size, int entryLocation, CommitLogDescriptor desc) throws IOException
+    {
+        ReplayPosition position = new ReplayPosition(desc.id, entryLocation);
+        if (position.compareTo(indexedPosition) <= 0)
+        {
+            try (FastByteArrayInputStream bufIn = new FastByteArrayInputStream(inputBuffer, 0, size))
+            {
+                Mutation mutation = Mutation.serializer.deserialize(new DataInputStream(bufIn), desc.getMessagingVersion(), ColumnSerializer.Flag.LOCAL);
+                registered.merge(new Fingerprint(mutation), position, (p1, p2) -> p1.compareTo(p2) >= 0 ? p1 : p2);
+            }
+            catch (Throwable t)
+            {
+                // let the regular replay handle invalid mutations.
+            }
+        }
+        super.replayMutation(inputBuffer, size, entryLocation, desc);
+    }
+
+    /**
+     * Called on the mutation stage just before applying a replayed mutation.
+     */
+    @Override
+    protected boolean pointInTimeExceeded(Mutation mutation)
+    {
+        currentPosition.set(registered.isEmpty() ? null : registered.remove(new Fingerprint(mutation)));
+        return super.pointInTimeExceeded(mutation);
+    }
+
+    /**
+     * Same as {@link CommitLog#recover()}, but replays with an {@link ElassandraCommitLogReplayer}.
+     * @param indexedPosition commitlog position covered by all Elasticsearch indices.
+     */
+    public static int recover(CommitLog commitLog, ReplayPosition indexedPosition) throws IOException
+    {
+        // If createReserveSegments is already flipped, the CLSM is running and recovery has already taken place.
+        if (commitLog.allocator.createReserveSegments)
+            return 0;
+
+        FilenameFilter unmanagedFilesFilter = new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return CommitLogDescriptor.isValid(name) && CommitLogSegment.shouldReplay(name);
+            }
+        };
+
+        for (File file : new File(DatabaseDescriptor.getCommitLogLocation()).listFiles(unmanagedFilesFilter))
+        {
+            commitLog.archiver.maybeArchive(file.getPath(), file.getName());
+            commitLog.archiver.maybeWaitForArchiving(file.getName());
+        }
+
+        assert commitLog.archiver.archivePending.isEmpty() : "Not all commit log archive tasks were completed before restore";
+        commitLog.archiver.maybeRestoreArchive();
+
+        File[] files = new File(DatabaseDescriptor.getCommitLogLocation()).listFiles(unmanagedFilesFilter);
+        int replayed = 0;
+        if (files.length == 0)
+        {
+            logger.info("No commitlog files found; skipping replay");
+        }
+        else
+        {
+            Arrays.sort(files, new CommitLogSegment.CommitLogSegmentFileComparator());
+            logger.info("Replaying {}, Elasticsearch indices covering up to {}", StringUtils.join(files, ", "), indexedPosition);
+            ElassandraCommitLogReplayer replayer = construct(commitLog, indexedPosition);
+            replaying = true;
+            try
+            {
+                replayer.recover(files);
+                replayed = replayer.blockForWrites();
+            }
+            finally
+            {
+                replaying = false;
+                replayer.registered.clear();
+            }
+            logger.info("Log replay complete, {} replayed mutations", replayed);
+
+            for (File f : files)
+                commitLog.allocator.recycleSegment(f);
+        }
+
+        commitLog.allocator.enableReserveSegmentCreation();
+        return replayed;
+    }
+
+    /**
+     * Same as {@link CommitLogReplayer#construct(CommitLog)}.
+     */
+    static ElassandraCommitLogReplayer construct(CommitLog commitLog, ReplayPosition indexedPosition)
+    {
+        // compute per-CF and global replay positions
+        Map<UUID, ReplayPosition.ReplayFilter> cfPersisted = new HashMap<>();
+        ReplayFilter replayFilter = ReplayFilter.create();
+        ReplayPosition globalPosition = null;
+        for (ColumnFamilyStore cfs : ColumnFamilyStore.all())
+        {
+            // but, if we've truncated the cf in question, then we need to need to start replay after the truncation
+            ReplayPosition truncatedAt = SystemKeyspace.getTruncatedPosition(cfs.metadata.cfId);
+            if (truncatedAt != null)
+            {
+                // Point in time restore is taken to mean that the tables need to be recovered even if they were
+                // deleted at a later point in time. Any truncation record after that point must thus be cleared prior
+                // to recovery (CASSANDRA-9195).
+                long restoreTime = commitLog.archiver.restorePointInTime;
+                long truncatedTime = SystemKeyspace.getTruncatedAt(cfs.metadata.cfId);
+                if (truncatedTime > restoreTime)
+                {
+                    if (replayFilter.includes(cfs.metadata))
+                    {
+                        logger.info("Restore point in time is before latest truncation of table {}.{}. Clearing truncation record.",
+                                    cfs.metadata.ksName,
+                                    cfs.metadata.cfName);
+                        SystemKeyspace.removeTruncationRecord(cfs.metadata.cfId);
+                        truncatedAt = null;
+                    }
+                }
+            }
+
+            ReplayPosition.ReplayFilter filter = new ReplayPosition.ReplayFilter(cfs.getSSTables(), truncatedAt);
+            if (!filter.isEmpty())
+                cfPersisted.put(cfs.metadata.cfId, filter);
+            else
+                globalPosition = ReplayPosition.NONE; // if we have no ranges for this CF, we must replay everything and filter
+        }
+        if (globalPosition == null)
+            globalPosition = ReplayPosition.firstNotCovered(cfPersisted.values());
+        logger.debug("Global replay position is {} from columnfamilies {}", globalPosition, FBUtilities.toString(cfPersisted));
+        return new ElassandraCommitLogReplayer(commitLog, globalPosition, cfPersisted, replayFilter, indexedPosition);
+    }
+
+    /**
+     * Identifies a mutation by content, hashed on cheap properties and compared on column families content.
+     */
+    static class Fingerprint
+    {
+        final String keyspace;
+        final ByteBuffer key;
+        final Map<UUID, ColumnFamily> columnFamilies = new HashMap<UUID, ColumnFamily>();
+        final int hash;
+
+        Fingerprint(Mutation mutation)
+        {
+            this.keyspace = mutation.getKeyspaceName();
+            this.key = mutation.key();
+            int hash = 31 * keyspace.hashCode() + key.hashCode();
+            for (ColumnFamily cf : mutation.getColumnFamilies())
+            {
+                columnFamilies.put(cf.id(), cf);
+                long maxTimestamp = cf.maxTimestamp();
+                hash += cf.id().hashCode() ^ (int) (maxTimestamp ^ (maxTimestamp >>> 32)) ^ cf.getColumnCount();
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Fingerprint))
+                return false;
+            Fingerprint that = (Fingerprint) o;
+            return hash == that.hash && keyspace.equals(that.keyspace) && key.equals(that.key) && columnFamilies.equals(that.columnFamilies);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
@@ -17,34 +17,50 @@
  */
 package org.apache.cassandra.db.index;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
 import org.apache.cassandra.db.compaction.CompactionInfo;
 import org.apache.cassandra.db.compaction.CompactionInterruptedException;
 import org.apache.cassandra.db.compaction.CompactionManager;
 import org.apache.cassandra.db.compaction.OperationType;
 import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
 import org.apache.cassandra.io.sstable.ReducingKeyIterator;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.utils.IMergeIterator;
+import org.apache.cassandra.utils.MergeIterator;
 import org.apache.cassandra.utils.UUIDGen;
+import org.elasticsearch.cassandra.index.IndexDigest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.RateLimiter;
+
 /**
  * Manages building an entire index from column family data. Runs on to compaction manager.
+ * With the Murmur3 partitioner and more than one index thread, the token ring is split into
+ * one slice per thread, and each thread indexes the partitions of its own slice with range scanners.
+ * When reconciling, Elasticsearch indices skip the partitions whose documents are unchanged (see {@link #isReconciling()}).
+ * When digesting, Elasticsearch indices only add the content hash of documents to an {@link IndexDigest} (see {@link #currentDigest()}).
  */
 public class SecondaryIndexBuilder extends CompactionInfo.Holder
 {
@@ -55,38 +71,146 @@ public class SecondaryIndexBuilder extends CompactionInfo.Holder
     private final ReducingKeyIterator iter;
     private final UUID compactionId;
 
-    public static int queue_depth = Integer.parseInt(System.getProperty("rebuild_index_queue_depth","128"));
+    private static final ThreadLocal<Boolean> reconciling = new ThreadLocal<Boolean>();
+    private static final ThreadLocal<IndexDigest> digesting = new ThreadLocal<IndexDigest>();
     
     int indexThreads;
-    boolean isMultithreaded;
-    BlockingQueue<DecoratedKey>[] queues;
-	AtomicBoolean finished;
+    boolean isSliced;
+    Collection<SSTableReader> sstables;
+    TokenSliceBuilder[] slices;
+    long totalBytes;
+    boolean reconcile;
+    IndexDigest digest;
 	
 	public SecondaryIndexBuilder(ColumnFamilyStore cfs, Set<String> idxNames, ReducingKeyIterator iter)
     {
-		this(1, cfs, idxNames, iter);
+		this.indexThreads = 1;
+        this.cfs = cfs;
+        this.idxNames = idxNames;
+        this.iter = iter;
+        compactionId = UUIDGen.getTimeUUID();
     }
 	
-    public SecondaryIndexBuilder(int indexThreads, ColumnFamilyStore cfs, Set<String> idxNames, ReducingKeyIterator iter)
+    public SecondaryIndexBuilder(int indexThreads, ColumnFamilyStore cfs, Set<String> idxNames, Collection<SSTableReader> sstables)
+    {
+        this(indexThreads, cfs, idxNames, sstables, false);
+    }
+    
+    /**
+     * @param reconcile when true, only index partitions that differ from the indexed documents, 
+     *        for SSTables containing data that may already be indexed (repair streams, refresh).
+     */
+    public SecondaryIndexBuilder(int indexThreads, ColumnFamilyStore cfs, Set<String> idxNames, Collection<SSTableReader> sstables, boolean reconcile)
+    {
+        this(indexThreads, cfs, idxNames, sstables, reconcile, null, null);
+    }
+    
+    /**
+     * Murmur3 partitioner only.
+     * @param bounds when not null, only index partitions of this token range (no wrap around).
+     * @param digest when not null, add the content hash of documents to digest instead of indexing them, throttled like a validation compaction.
+     */
+    public SecondaryIndexBuilder(int indexThreads, ColumnFamilyStore cfs, Set<String> idxNames, Collection<SSTableReader> sstables, Range<Token> bounds, IndexDigest digest)
+    {
+        this(indexThreads, cfs, idxNames, sstables, false, bounds, digest);
+    }
+    
+    private SecondaryIndexBuilder(int indexThreads, ColumnFamilyStore cfs, Set<String> idxNames, Collection<SSTableReader> sstables, boolean reconcile, Range<Token> bounds, IndexDigest digest)
     {
     	this.indexThreads = indexThreads;
+    	this.reconcile = reconcile;
+    	this.digest = digest;
         this.cfs = cfs;
         this.idxNames = idxNames;
-        this.iter = iter;
         compactionId = UUIDGen.getTimeUUID();
         
-        isMultithreaded = (DatabaseDescriptor.getPartitioner() instanceof Murmur3Partitioner) && (indexThreads > 1);
-        if (isMultithreaded) 
+        boolean murmur3 = DatabaseDescriptor.getPartitioner() instanceof Murmur3Partitioner;
+        if ((bounds != null || digest != null) && !murmur3)
+            throw new IllegalArgumentException("Token range index build requires the Murmur3Partitioner");
+        
+        isSliced = murmur3 && (indexThreads > 1 || bounds != null || digest != null);
+        if (isSliced) 
+        {
+            this.iter = null;
+            this.sstables = sstables;
+            for (SSTableReader sstable : sstables)
+                totalBytes += sstable.uncompressedLength();
+            
+            // split bounds, or ]Long.MIN_VALUE, Long.MAX_VALUE], in indexThreads contiguous slices.
+            long[] splits = (bounds == null) ? split(Long.MIN_VALUE, Long.MAX_VALUE, Math.max(1, indexThreads))
+                                             : split((Long) bounds.left.getTokenValue(), (Long) bounds.right.getTokenValue(), Math.max(1, indexThreads));
+            slices = new TokenSliceBuilder[splits.length - 1];
+            for (int i = 0; i < slices.length; i++)
+                slices[i] = new TokenSliceBuilder(splits[i], splits[i+1]);
+        }
+        else
         {
-        	finished = new AtomicBoolean(false);
-	    	queues = new BlockingQueue[indexThreads];
-	    	for(int i=0; i < indexThreads; i++)
-	        	this.queues[i] = new LinkedBlockingQueue<DecoratedKey>(queue_depth);
+            this.iter = new ReducingKeyIterator(sstables);
+        }
+    }
+
+    /**
+     * Split the token range ]left, right] in n contiguous ranges, where range i is ]bounds[i], bounds[i+1]].
+     */
+    public static long[] split(long left, long right, int n)
+    {
+        long[] bounds = new long[n + 1];
+        BigInteger width = BigInteger.valueOf(right).subtract(BigInteger.valueOf(left));
+        for (int i = 0; i < n; i++)
+            bounds[i] = BigInteger.valueOf(left).add(width.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(n))).longValue();
+        bounds[n] = right;
+        return bounds;
+    }
+
+    /**
+     * @return the digest of the current thread when computing an index digest, or null.
+     */
+    public static IndexDigest currentDigest()
+    {
+        return digesting.get();
+    }
+    
+    /**
+     * @return true when the current thread indexes partitions for a reconciling build.
+     */
+    public static boolean isReconciling()
+    {
+        return reconciling.get() == Boolean.TRUE;
+    }
+    
+    private void indexRow(DecoratedKey key)
+    {
+        if (reconcile)
+            reconciling.set(Boolean.TRUE);
+        if (digest != null)
+            digesting.set(digest);
+        try
+        {
+            Keyspace.indexRow(key, cfs, idxNames);
+        }
+        finally
+        {
+            if (reconcile)
+                reconciling.remove();
+            if (digest != null)
+                digesting.remove();
         }
     }
 
     public CompactionInfo getCompactionInfo()
     {
+        if (isSliced)
+        {
+            // murmur3 tokens are uniformly distributed, so token progress in each slice approximates the bytes read.
+            double progress = 0;
+            for (TokenSliceBuilder slice : slices)
+                progress += slice.progress();
+            return new CompactionInfo(cfs.metadata,
+                                      (digest != null) ? OperationType.VALIDATION : OperationType.INDEX_BUILD,
+                                      (long) (totalBytes * progress / slices.length),
+                                      totalBytes,
+                                      compactionId);
+        }
         return new CompactionInfo(cfs.metadata,
                                   OperationType.INDEX_BUILD,
                                   iter.getBytesRead(),
@@ -96,54 +220,23 @@ public class SecondaryIndexBuilder extends CompactionInfo.Holder
 
     public void build()
     {
-    	ExecutorService indexExecutor = null;
-    	AtomicLong indexedRows = null;
-    	
-    	if (isMultithreaded) 
-    	{
-    		indexedRows = new AtomicLong(0L);
-    		indexExecutor = Executors.newFixedThreadPool(indexThreads, new NamedThreadFactory("IndexBuilder-"+compactionId));
-	    	for(int i=0; i < indexThreads; i++)
-	    		indexExecutor.execute(new IndexBuilder(this.queues[i], indexedRows));
-    	}
-    	
-    	long start = System.currentTimeMillis();
+        if (isSliced)
+        {
+            buildSlices();
+            return;
+        }
+        
         while (iter.hasNext())
         {
             if (isStopRequested()) 
-            {
-            	if (isMultithreaded) {
-            		logger.debug(compactionId+" stopped.");
-            		indexExecutor.shutdownNow();
-            	}
                 throw new CompactionInterruptedException(getCompactionInfo());
-            }
             DecoratedKey key = iter.next();
-            
-	        if (isMultithreaded) {
-	            Long token = (Long) key.getToken().getTokenValue();
-	            try {
-					this.queues[ (int) (((token % indexThreads) + indexThreads) % indexThreads) ].put(key);
-				} catch (InterruptedException e) {
-					logger.error(compactionId+" failed to put key "+key);
-				}
-            } else {
-            	Keyspace.indexRow(key, cfs, idxNames);
-            }
+            indexRow(key);
         }
 
         try
         {
         	iter.close();
-        	
-        	if (isMultithreaded) {
-        		logger.debug(compactionId+" awating termination of index rebuild on "+cfs.metadata.ksName+"."+cfs.metadata.cfName);
-        		finished.set(true);
-		        indexExecutor.shutdown();
-		        indexExecutor.awaitTermination(60, TimeUnit.SECONDS);
-		        long duration = System.currentTimeMillis() - start;
-		        logger.debug(compactionId+" index rebuild terminated, "+indexedRows.get()+" partitions, duration = " + (duration/1000) + "s");
-        	}
         }
         catch (Exception e)
         {
@@ -151,38 +244,123 @@ public class SecondaryIndexBuilder extends CompactionInfo.Holder
         }
     }
     
-    public class IndexBuilder implements Runnable {
-    	BlockingQueue<DecoratedKey> queue;
-    	AtomicLong indexedRows;
-    	
-    	public IndexBuilder(BlockingQueue<DecoratedKey> q, AtomicLong i) {
-    		this.queue = q;
-    		this.indexedRows  = i;
-    	}
-    	
-    	@Override
-    	public void run() {
-    		int rowCount = 0;
-    		try {
-    			DecoratedKey key;
-    			while (true)
-    			{
-    				key = queue.poll(5, TimeUnit.SECONDS);
-    				if (finished.get() && (key == null))
-    					break;
-    				
-    				if (key != null) 
-    				{
-    					Keyspace.indexRow(key, cfs, idxNames);
-	    				rowCount++;
-    				}
-    			}
-    		} catch (Exception e) {
-    			logger.error("error:",e);
-    		} 
-    		indexedRows.addAndGet(rowCount);
-    		logger.debug(rowCount + " partitions indexed.");
-    	}
+    private void buildSlices()
+    {
+        long start = System.currentTimeMillis();
+        AtomicLong indexedRows = new AtomicLong(0L);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService indexExecutor = Executors.newFixedThreadPool(slices.length, new NamedThreadFactory("IndexBuilder-"+compactionId));
+        try
+        {
+            for (TokenSliceBuilder slice : slices)
+            {
+                slice.indexedRows = indexedRows;
+                slice.failure = failure;
+                indexExecutor.execute(slice);
+            }
+            indexExecutor.shutdown();
+            while (!indexExecutor.awaitTermination(1, TimeUnit.SECONDS))
+                logger.trace(compactionId+" awaiting termination of index rebuild on "+cfs.metadata.ksName+"."+cfs.metadata.cfName);
+        }
+        catch (InterruptedException e)
+        {
+            indexExecutor.shutdownNow();
+            throw new RuntimeException(e);
+        }
+        
+        if (isStopRequested())
+        {
+            logger.debug(compactionId+" stopped.");
+            throw new CompactionInterruptedException(getCompactionInfo());
+        }
+        if (failure.get() != null)
+            throw new RuntimeException(failure.get());
+        
+        long duration = System.currentTimeMillis() - start;
+        logger.debug(compactionId+" index rebuild terminated, "+indexedRows.get()+" partitions, "+slices.length+" token slices, duration = " + (duration/1000) + "s");
+    }
+    
+    private static final Comparator<OnDiskAtomIterator> keyComparator = new Comparator<OnDiskAtomIterator>() 
+    {
+        @Override
+        public int compare(OnDiskAtomIterator o1, OnDiskAtomIterator o2)
+        {
+            return o1.getKey().compareTo(o2.getKey());
+        }
+    };
+    
+    /**
+     * Index partitions of the token range ]left, right] from all sstables.
+     */
+    public class TokenSliceBuilder implements Runnable {
+        final long left;
+        final long right;
+        volatile long position;
+        AtomicLong indexedRows;
+        AtomicReference<Throwable> failure;
+        
+        public TokenSliceBuilder(long left, long right) {
+            this.left = left;
+            this.right = right;
+            this.position = left;
+        }
+        
+        double progress() {
+            return ((double) position - (double) left) / ((double) right - (double) left);
+        }
+        
+        @Override
+        public void run() {
+            Range<Token> range = new Range<Token>(new Murmur3Partitioner.LongToken(left), new Murmur3Partitioner.LongToken(right));
+            List<ISSTableScanner> scanners = new ArrayList<ISSTableScanner>(sstables.size());
+            long rowCount = 0;
+            IMergeIterator<OnDiskAtomIterator, DecoratedKey> keys = null;
+            try {
+                RateLimiter limiter = (digest != null) ? CompactionManager.instance.getRateLimiter() : null;
+                for (SSTableReader sstable : sstables)
+                    scanners.add(sstable.getScanner(range, limiter));
+                keys = MergeIterator.get(scanners, keyComparator, new MergeIterator.Reducer<OnDiskAtomIterator, DecoratedKey>()
+                {
+                    DecoratedKey reduced = null;
+
+                    @Override
+                    public void reduce(OnDiskAtomIterator current)
+                    {
+                        reduced = current.getKey();
+                    }
+
+                    @Override
+                    protected DecoratedKey getReduced()
+                    {
+                        return reduced;
+                    }
+                });
+                while (keys.hasNext() && !isStopRequested() && failure.get() == null)
+                {
+                    DecoratedKey key = keys.next();
+                    indexRow(key);
+                    position = (Long) key.getToken().getTokenValue();
+                    rowCount++;
+                }
+                if (!isStopRequested() && failure.get() == null)
+                    position = right;
+            } catch (Throwable t) {
+                logger.error(compactionId+" failed to index token range "+range, t);
+                failure.compareAndSet(null, t);
+            } finally {
+                try {
+                    if (keys != null) 
+                        keys.close();
+                    else
+                        for (ISSTableScanner scanner : scanners)
+                            scanner.close();
+                } catch (Exception e) {
+                    logger.warn(compactionId+" failed to close scanners", e);
+                }
+            }
+            indexedRows.addAndGet(rowCount);
+            logger.debug(rowCount + " partitions indexed in token range " + range);
+        }
     }
     
-}
\ No newline at end of file
+}
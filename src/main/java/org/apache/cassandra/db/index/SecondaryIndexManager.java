@@ -35,11 +35,13 @@ import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Future;
 
 import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.IndexType;
 import org.apache.cassandra.db.Cell;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.ExpiringCell;
 import org.apache.cassandra.db.IndexExpression;
 import org.apache.cassandra.db.Row;
 import org.apache.cassandra.db.SystemKeyspace;
@@ -48,12 +50,13 @@ import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.filter.ExtendedFilter;
 import org.apache.cassandra.exceptions.InvalidRequestException;
-import org.apache.cassandra.io.sstable.ReducingKeyIterator;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.concurrent.OpOrder;
 import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.cassandra.index.BaseElasticSecondaryIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,6 +70,11 @@ public class SecondaryIndexManager
 {
     private static final Logger logger = LoggerFactory.getLogger(SecondaryIndexManager.class);
 
+    /**
+     * Number of token slices indexed in parallel when building indexes of loaded or streamed SSTables.
+     */
+    public static final int INDEX_BUILD_THREADS = Integer.getInteger("elassandra.index_build_threads", DatabaseDescriptor.getConcurrentCompactors());
+
     public static final Updater nullUpdater = new Updater()
     {
         public void insert(Cell cell) { }
@@ -148,6 +156,18 @@ public class SecondaryIndexManager
         return names;
     }
 
+    /**
+     * @return names of the Elasticsearch secondary indexes
+     */
+    public Set<String> elasticIndexesNames()
+    {
+        Set<String> names = new HashSet<>();
+        for (SecondaryIndex index : allIndexes)
+            if (index instanceof BaseElasticSecondaryIndex)
+                names.add(index.getIndexName());
+        return names;
+    }
+
     /**
      * Does a full, blocking rebuild of the indexes specified by columns from the sstables.
      * Does nothing if columns is empty.
@@ -159,19 +179,40 @@ public class SecondaryIndexManager
      */
     public void maybeBuildSecondaryIndexes(Collection<SSTableReader> sstables, Set<String> idxNames)
     {
-    	maybeBuildSecondaryIndexes(1, sstables, idxNames);
+    	// SSTables loaded or streamed (repair) in a node of the ring may contain already indexed data.
+    	maybeBuildSecondaryIndexes(INDEX_BUILD_THREADS, sstables, idxNames, StorageService.instance.isJoined());
     }
     
     public void maybeBuildSecondaryIndexes(int indexThreads, Collection<SSTableReader> sstables, Set<String> idxNames)
+    {
+        maybeBuildSecondaryIndexes(indexThreads, sstables, idxNames, false);
+    }
+    
+    public void maybeBuildSecondaryIndexes(int indexThreads, Collection<SSTableReader> sstables, Set<String> idxNames, boolean reconcile)
     {
         idxNames = filterByColumn(idxNames);
         if (idxNames.isEmpty())
             return;
 
-        logger.info(String.format("Submitting index build of %s for data in %s",
-                                  idxNames, StringUtils.join(sstables, ", ")));
+        if (StorageService.instance.isIndexBuildDeferred(baseCfs.keyspace.getName()))
+        {
+            // Elasticsearch indices are filled with token range segments of the streaming sources.
+            Set<String> deferred = new HashSet<>(idxNames);
+            deferred.retainAll(elasticIndexesNames());
+            if (!deferred.isEmpty())
+            {
+                logger.info("Deferring index build of {} for data in {}", deferred, StringUtils.join(sstables, ", "));
+                idxNames = new HashSet<>(idxNames);
+                idxNames.removeAll(deferred);
+                if (idxNames.isEmpty())
+                    return;
+            }
+        }
 
-        SecondaryIndexBuilder builder = new SecondaryIndexBuilder(indexThreads, baseCfs, idxNames, new ReducingKeyIterator(sstables));
+        logger.info(String.format("Submitting index %s of %s for data in %s",
+                                  reconcile ? "reconciliation" : "build", idxNames, StringUtils.join(sstables, ", ")));
+
+        SecondaryIndexBuilder builder = new SecondaryIndexBuilder(indexThreads, baseCfs, idxNames, sstables, reconcile);
         Future<?> future = CompactionManager.instance.submitIndexBuild(builder);
         FBUtilities.waitOnFuture(future);
 
@@ -760,6 +801,7 @@ public class SecondaryIndexManager
     private final class GCUpdater implements Updater
     {
         private final DecoratedKey key;
+        private boolean expired = false;
 
         public GCUpdater(DecoratedKey key)
         {
@@ -779,7 +821,17 @@ public class SecondaryIndexManager
         public void remove(Cell cell)
         {
             if (!cell.isLive())
+            {
+                // expired cells purged by compaction, documents having a TTL are removed without tombstones.
+                if (cell instanceof ExpiringCell && !expired)
+                {
+                    expired = true;
+                    for (SecondaryIndex index : rowLevelIndexMap.values())
+                        if (index instanceof BaseElasticSecondaryIndex)
+                            ((BaseElasticSecondaryIndex) index).deleteExpired(key);
+                }
                 return;
+            }
 
             for (SecondaryIndex index : indexFor(cell.name()))
             {
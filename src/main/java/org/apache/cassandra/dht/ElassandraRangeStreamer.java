@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.cassandra.dht;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.locator.IEndpointSnitch;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.streaming.StreamEvent;
+import org.apache.cassandra.streaming.StreamEventHandler;
+import org.apache.cassandra.streaming.StreamResultFuture;
+import org.apache.cassandra.streaming.StreamState;
+import org.apache.cassandra.utils.progress.ProgressEvent;
+import org.apache.cassandra.utils.progress.ProgressEventType;
+import org.apache.cassandra.utils.progress.ProgressListener;
+
+import com.google.common.collect.Multimap;
+
+/**
+ * Range streamer exposing the source endpoint of each fetched range, so that Elasticsearch indices
+ * can be fetched from the same sources than SSTables.
+ *
+ * @author vroyer
+ *
+ */
+public class ElassandraRangeStreamer extends RangeStreamer
+{
+    public ElassandraRangeStreamer(TokenMetadata metadata,
+                                   Collection<Token> tokens,
+                                   InetAddress address,
+                                   String description,
+                                   boolean useStrictConsistency,
+                                   IEndpointSnitch snitch,
+                                   StreamStateStore stateStore)
+    {
+        super(metadata, tokens, address, description, useStrictConsistency, snitch, stateStore);
+    }
+
+    /**
+     * @return for each keyspace, the fetched ranges by source endpoint.
+     */
+    public Multimap<String, Map.Entry<InetAddress, Collection<Range<Token>>>> sources()
+    {
+        return toFetch();
+    }
+
+    /**
+     * Same as {@link #fetchAsync()}, reporting the streaming progress to listener the same way {@link BootStrapper#bootstrap} does.
+     */
+    public StreamResultFuture fetchAsync(final String tag, final ProgressListener listener)
+    {
+        StreamResultFuture result = fetchAsync();
+        result.addEventListener(new StreamEventHandler()
+        {
+            private final AtomicInteger receivedFiles = new AtomicInteger();
+            private final AtomicInteger totalFilesToReceive = new AtomicInteger();
+
+            @Override
+            public void handleStreamEvent(StreamEvent event)
+            {
+                switch (event.eventType)
+                {
+                    case STREAM_PREPARED:
+                        StreamEvent.SessionPreparedEvent prepared = (StreamEvent.SessionPreparedEvent) event;
+                        int currentTotal = totalFilesToReceive.addAndGet((int) prepared.session.getTotalFilesToReceive());
+                        listener.progress(tag, new ProgressEvent(ProgressEventType.PROGRESS, receivedFiles.get(), currentTotal, "prepare with " + prepared.session.peer + " complete"));
+                        break;
+
+                    case FILE_PROGRESS:
+                        StreamEvent.ProgressEvent progress = (StreamEvent.ProgressEvent) event;
+                        if (progress.progress.isCompleted())
+                        {
+                            int received = receivedFiles.incrementAndGet();
+                            listener.progress(tag, new ProgressEvent(ProgressEventType.PROGRESS, received, totalFilesToReceive.get(), "received file " + progress.progress.fileName));
+                        }
+                        break;
+
+                    case STREAM_COMPLETE:
+                        StreamEvent.SessionCompleteEvent completeEvent = (StreamEvent.SessionCompleteEvent) event;
+                        listener.progress(tag, new ProgressEvent(ProgressEventType.PROGRESS, receivedFiles.get(), totalFilesToReceive.get(), "session with " + completeEvent.peer + " complete"));
+                        break;
+                }
+            }
+
+            @Override
+            public void onSuccess(StreamState streamState)
+            {
+                ProgressEventType type;
+                String message;
+                if (streamState.hasFailedSession())
+                {
+                    type = ProgressEventType.ERROR;
+                    message = "Some " + tag + " stream failed";
+                }
+                else
+                {
+                    type = ProgressEventType.SUCCESS;
+                    message = tag + " streaming success";
+                }
+                listener.progress(tag, new ProgressEvent(type, receivedFiles.get(), totalFilesToReceive.get(), message));
+            }
+
+            @Override
+            public void onFailure(Throwable throwable)
+            {
+                listener.progress(tag, new ProgressEvent(ProgressEventType.ERROR, receivedFiles.get(), totalFilesToReceive.get(), throwable.getMessage()));
+            }
+        });
+        return result;
+    }
+}
@@ -17,6 +17,7 @@
  */
 package org.apache.cassandra.service;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
@@ -25,9 +26,11 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.RMIServerSocketFactory;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -56,7 +59,12 @@ import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.commitlog.ElassandraCommitLogReplayer;
+import org.apache.cassandra.db.commitlog.ReplayPosition;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.exceptions.StartupException;
 import org.apache.cassandra.io.FSError;
 import org.apache.cassandra.io.sstable.CorruptSSTableException;
@@ -282,7 +290,9 @@ public class CassandraDaemon
         // replay the log if necessary
         try
         {
-            CommitLog.instance.recover();
+            // always replay with the ElassandraCommitLogReplayer, so that indexes know when the replay is in progress.
+            ReplayPosition indexedPosition = indexedCommitLogPosition();
+            ElassandraCommitLogReplayer.recover(CommitLog.instance, (indexedPosition == null) ? ReplayPosition.NONE : indexedPosition);
         }
         catch (IOException e)
         {
@@ -598,6 +608,59 @@ public class CassandraDaemon
     public void userKeyspaceInitialized() {
     }
 
+    /**
+     * This is a hook for concrete daemons having secondary indexes not backed by a CFS.
+     * Returns the commitlog position covered by these indexes, so that the commitlog replay
+     * can skip their indexing work up to this position, or null to replay everything.
+     */
+    public ReplayPosition indexedCommitLogPosition() {
+        return null;
+    }
+
+    /**
+     * Hook to fill the secondary indices of a keyspace with the token ranges subset of the indices of a source node,
+     * on bootstrap or rebuild when elassandra.stream_index_segments is true.
+     * @return true if indices have been filled, false if they should be rebuilt from SSTables.
+     */
+    public boolean fetchIndexSegments(String keyspaceName, InetAddress source, Collection<Range<Token>> ranges) {
+        return false;
+    }
+
+    /**
+     * Hook to snapshot the secondary indices of a keyspace along with its SSTables. Existing index snapshots are checked
+     * before the SSTables are snapshotted, and indices are committed and linked once they are, see {@link IndicesSnapshot}.
+     * @return the prepared snapshot, or null when the keyspace has no such indices.
+     */
+    public IndicesSnapshot prepareIndicesSnapshot(String tag, String keyspaceName) throws IOException {
+        return null;
+    }
+
+    /**
+     * Secondary indices to commit once the SSTables of the keyspace snapshot are flushed and known.
+     */
+    public interface IndicesSnapshot extends Closeable {
+        /**
+         * Commits the indices and links the commits in the snapshot. Nothing is left linked on failure.
+         * @param sstables SSTables included in the keyspace snapshot.
+         */
+        void link(Collection<SSTableReader> sstables) throws IOException;
+    }
+
+    /**
+     * Hook to remove the secondary indices snapshots of keyspaces, all keyspaces when none is specified.
+     */
+    public void clearIndicesSnapshot(String tag, String... keyspaceNames) throws IOException {
+    }
+
+    /**
+     * Hook to compare per token range digests of the secondary indices of a table with its SSTables.
+     * @param repair reindex the mismatching token ranges.
+     * @return the mismatching token ranges.
+     */
+    public List<String> verifyIndices(String keyspaceName, String tableName, Set<String> idxNames, int indexThreads, int ranges, boolean repair) throws IOException {
+        return Collections.emptyList();
+    }
+
     /**
      * This is a hook for concrete daemons to initialize themselves suitably.
      * Subclasses should override this to initialize before cassandra bootstrap
@@ -2,8 +2,13 @@ package org.apache.cassandra.service;
 
 import static com.google.common.collect.Sets.newHashSet;
 
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
@@ -17,8 +22,12 @@ import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.cql3.QueryProcessor;
 import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.db.commitlog.ReplayPosition;
 import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.Version;
 import org.elasticsearch.bootstrap.Bootstrap;
@@ -28,6 +37,9 @@ import org.elasticsearch.cassandra.cluster.InternalCassandraClusterService;
 import org.elasticsearch.cassandra.discovery.CassandraDiscovery;
 import org.elasticsearch.cassandra.index.BaseElasticSecondaryIndex;
 import org.elasticsearch.cassandra.shard.CassandraShardStateObserver;
+import org.elasticsearch.cassandra.shard.IndexDigestService;
+import org.elasticsearch.cassandra.shard.LocalSnapshotService;
+import org.elasticsearch.cassandra.shard.TokenRangeSegmentsService;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
@@ -45,7 +57,10 @@ import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.logging.logback.LogbackESLoggerFactory;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.shard.IndexShard;
 import org.elasticsearch.indices.IndicesLifecycle;
+import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.monitor.jvm.JvmInfo;
 import org.elasticsearch.monitor.process.ProcessProbe;
 import org.elasticsearch.node.Node;
@@ -190,6 +205,58 @@ public class ElassandraDaemon extends CassandraDaemon {
     }
     
     
+    /**
+     * Returns the highest commitlog position covered by the last Lucene commit of local shards,
+     * started before the commitlog replay by {@link #systemKeyspaceInitialized()}.
+     */
+    @Override
+    public ReplayPosition indexedCommitLogPosition() {
+        if (node == null)
+            return null;
+        ReplayPosition indexedPosition = null;
+        try {
+            for (IndexService indexService : node.injector().getInstance(IndicesService.class)) {
+                IndexShard indexShard = indexService.shard(0);
+                if (indexShard != null) {
+                    ReplayPosition position = indexShard.committedCommitLogPosition();
+                    if (position != null && (indexedPosition == null || position.compareTo(indexedPosition) > 0))
+                        indexedPosition = position;
+                }
+            }
+        } catch(Throwable e) {
+            logger.warn("Failed to read indexed commitlog positions, replaying all mutations", e);
+            return null;
+        }
+        return indexedPosition;
+    }
+    
+    @Override
+    public boolean fetchIndexSegments(String keyspaceName, InetAddress source, Collection<Range<Token>> ranges) {
+        if (node == null)
+            return false;
+        return node.injector().getInstance(TokenRangeSegmentsService.class).fetchSegments(keyspaceName, source, ranges);
+    }
+    
+    @Override
+    public IndicesSnapshot prepareIndicesSnapshot(String tag, String keyspaceName) throws IOException {
+        if (node == null)
+            return null;
+        return node.injector().getInstance(LocalSnapshotService.class).prepareSnapshot(tag, keyspaceName);
+    }
+    
+    @Override
+    public void clearIndicesSnapshot(String tag, String... keyspaceNames) throws IOException {
+        if (node != null)
+            node.injector().getInstance(LocalSnapshotService.class).clearSnapshot(tag, keyspaceNames);
+    }
+    
+    @Override
+    public List<String> verifyIndices(String keyspaceName, String tableName, Set<String> idxNames, int indexThreads, int ranges, boolean repair) throws IOException {
+        if (node == null)
+            return Collections.emptyList();
+        return node.injector().getInstance(IndexDigestService.class).verify(keyspaceName, tableName, idxNames, indexThreads, ranges, repair);
+    }
+    
     @Override
     public void beforeBootstrap() {
     	boostraped = true;
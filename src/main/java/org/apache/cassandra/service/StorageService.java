@@ -87,6 +87,7 @@ import org.apache.cassandra.db.TruncateVerbHandler;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.compaction.CompactionManager;
 import org.apache.cassandra.dht.BootStrapper;
+import org.apache.cassandra.dht.ElassandraRangeStreamer;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.RangeStreamer;
@@ -111,6 +112,7 @@ import org.apache.cassandra.gms.TokenSerializer;
 import org.apache.cassandra.gms.VersionedValue;
 import org.apache.cassandra.io.sstable.SSTableDeletingTask;
 import org.apache.cassandra.io.sstable.SSTableLoader;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.locator.AbstractReplicationStrategy;
 import org.apache.cassandra.locator.DynamicEndpointSnitch;
@@ -146,6 +148,7 @@ import org.apache.cassandra.utils.OutputHandler;
 import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.utils.WindowsTimer;
 import org.apache.cassandra.utils.WrappedRunnable;
+import org.apache.cassandra.utils.concurrent.OpOrder;
 import org.apache.cassandra.utils.progress.ProgressEvent;
 import org.apache.cassandra.utils.progress.ProgressEventType;
 import org.apache.cassandra.utils.progress.jmx.JMXProgressSupport;
@@ -285,6 +288,10 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
 
     private final StreamStateStore streamStateStore = new StreamStateStore();
 
+    /* when true, bootstrap and rebuild fetch the token range subset of elasticsearch indices from the streaming sources instead of reindexing streamed SSTables */
+    public static final boolean STREAM_INDEX_SEGMENTS = Boolean.getBoolean("elassandra.stream_index_segments");
+    private final Set<String> indexBuildDeferredKeyspaces = Sets.newConcurrentHashSet();
+
     /** This method updates the local token on disk  */
     public void setTokens(Collection<Token> tokens)
     {
@@ -1115,9 +1122,10 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
 
         logger.info("rebuild from dc: {}", sourceDc == null ? "(any dc)" : sourceDc);
 
+        List<String> deferredKeyspaces = Collections.emptyList();
         try
         {
-            RangeStreamer streamer = new RangeStreamer(tokenMetadata,
+            ElassandraRangeStreamer streamer = new ElassandraRangeStreamer(tokenMetadata,
                                                        null,
                                                        FBUtilities.getBroadcastAddress(),
                                                        "Rebuild",
@@ -1131,9 +1139,15 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
             for (String keyspaceName : Schema.instance.getNonSystemKeyspaces())
                 streamer.addRanges(keyspaceName, getLocalRanges(keyspaceName));
 
+            if (STREAM_INDEX_SEGMENTS && daemon != null)
+            {
+                deferredKeyspaces = Schema.instance.getNonSystemKeyspaces();
+                indexBuildDeferredKeyspaces.addAll(deferredKeyspaces);
+            }
             StreamResultFuture resultFuture = streamer.fetchAsync();
             // wait for result
             resultFuture.get();
+            fetchIndexSegments(streamer, deferredKeyspaces);
         }
         catch (InterruptedException e)
         {
@@ -1148,6 +1162,7 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         finally
         {
             // rebuild is done (successfully or not)
+            indexBuildDeferredKeyspaces.removeAll(deferredKeyspaces);
             isRebuilding.set(false);
         }
     }
@@ -1250,9 +1265,36 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         }
 
         setMode(Mode.JOINING, "Starting to bootstrap...", true);
-        BootStrapper bootstrapper = new BootStrapper(FBUtilities.getBroadcastAddress(), tokens, tokenMetadata);
-        bootstrapper.addProgressListener(progressSupport);
-        ListenableFuture<StreamState> bootstrapStream = bootstrapper.bootstrap(streamStateStore, !replacing && useStrictConsistency); // handles token update
+        ElassandraRangeStreamer streamer = null;
+        List<String> deferredKeyspaces = Collections.emptyList();
+        ListenableFuture<StreamState> bootstrapStream;
+        if (STREAM_INDEX_SEGMENTS && daemon != null)
+        {
+            // same as BootStrapper.bootstrap(), keeping the streamer to fetch index segments from the same sources.
+            streamer = new ElassandraRangeStreamer(tokenMetadata,
+                                                   tokens,
+                                                   FBUtilities.getBroadcastAddress(),
+                                                   "Bootstrap",
+                                                   !replacing && useStrictConsistency,
+                                                   DatabaseDescriptor.getEndpointSnitch(),
+                                                   streamStateStore);
+            streamer.addSourceFilter(new RangeStreamer.FailureDetectorSourceFilter(FailureDetector.instance));
+            streamer.addSourceFilter(new RangeStreamer.ExcludeLocalNodeFilter());
+            deferredKeyspaces = Schema.instance.getNonSystemKeyspaces();
+            for (String keyspaceName : deferredKeyspaces)
+            {
+                AbstractReplicationStrategy strategy = Keyspace.open(keyspaceName).getReplicationStrategy();
+                streamer.addRanges(keyspaceName, strategy.getPendingAddressRanges(tokenMetadata, tokens, FBUtilities.getBroadcastAddress()));
+            }
+            indexBuildDeferredKeyspaces.addAll(deferredKeyspaces);
+            bootstrapStream = streamer.fetchAsync("bootstrap", progressSupport);
+        }
+        else
+        {
+            BootStrapper bootstrapper = new BootStrapper(FBUtilities.getBroadcastAddress(), tokens, tokenMetadata);
+            bootstrapper.addProgressListener(progressSupport);
+            bootstrapStream = bootstrapper.bootstrap(streamStateStore, !replacing && useStrictConsistency); // handles token update
+        }
         Futures.addCallback(bootstrapStream, new FutureCallback<StreamState>()
         {
             @Override
@@ -1271,6 +1313,8 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         try
         {
             bootstrapStream.get();
+            if (streamer != null)
+                fetchIndexSegments(streamer, deferredKeyspaces);
             return true;
         }
         catch (Throwable e)
@@ -1278,6 +1322,49 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
             logger.error("Error while waiting on bootstrap to complete. Bootstrap will have to be restarted.", e);
             return false;
         }
+        finally
+        {
+            indexBuildDeferredKeyspaces.removeAll(deferredKeyspaces);
+        }
+    }
+
+    /**
+     * @return true while the build of elasticsearch indices of keyspace is deferred until index segments are fetched.
+     */
+    public boolean isIndexBuildDeferred(String keyspaceName)
+    {
+        return indexBuildDeferredKeyspaces.contains(keyspaceName);
+    }
+
+    /**
+     * Fill elasticsearch indices of deferred keyspaces with the token range segments of the streaming sources,
+     * or rebuild them from SSTables when a source fails.
+     */
+    private void fetchIndexSegments(ElassandraRangeStreamer streamer, Collection<String> keyspaceNames)
+    {
+        for (String keyspaceName : keyspaceNames)
+        {
+            boolean complete = true;
+            for (Map.Entry<InetAddress, Collection<Range<Token>>> source : streamer.sources().get(keyspaceName))
+            {
+                if (!daemon.fetchIndexSegments(keyspaceName, source.getKey(), source.getValue()))
+                {
+                    complete = false;
+                    break;
+                }
+            }
+            indexBuildDeferredKeyspaces.remove(keyspaceName);
+            if (!complete)
+            {
+                logger.warn("Failed to fetch index segments of keyspace {}, rebuilding elasticsearch indices from SSTables", keyspaceName);
+                for (ColumnFamilyStore cfs : Keyspace.open(keyspaceName).getColumnFamilyStores())
+                {
+                    Set<String> names = cfs.indexManager.elasticIndexesNames();
+                    if (!names.isEmpty())
+                        ColumnFamilyStore.rebuildSecondaryIndex(1, keyspaceName, cfs.name, names.toArray(new String[names.size()]));
+                }
+            }
+        }
     }
 
     public boolean resumeBootstrap()
@@ -2694,8 +2781,60 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
                 throw new IOException("Snapshot " + tag + " already exists.");
 
 
-        for (Keyspace keyspace : keyspaces)
-            keyspace.snapshot(tag, null);
+        // check elasticsearch index snapshots of all keyspaces first, so that an existing index snapshot fails before anything is linked.
+        // indices are committed once SSTables are flushed and snapshotted, behind a write barrier, so that the index commit includes
+        // the documents of every row of the snapshotted SSTables.
+        Map<Keyspace, CassandraDaemon.IndicesSnapshot> indicesSnapshots = new LinkedHashMap<>();
+        List<String> snapshotted = new ArrayList<>();
+        boolean success = false;
+        try
+        {
+            if (daemon != null)
+                for (Keyspace keyspace : keyspaces)
+                    indicesSnapshots.put(keyspace, daemon.prepareIndicesSnapshot(tag, keyspace.getName()));
+
+            for (Keyspace keyspace : keyspaces)
+            {
+                // same as keyspace.snapshot(tag, null), keeping snapshotted SSTables for the elasticsearch indices snapshot manifest.
+                snapshotted.add(keyspace.getName());
+                Set<SSTableReader> sstables = new HashSet<>();
+                for (ColumnFamilyStore cfs : keyspace.getColumnFamilyStores())
+                    sstables.addAll(cfs.snapshot(tag));
+                CassandraDaemon.IndicesSnapshot indicesSnapshot = indicesSnapshots.get(keyspace);
+                if (indicesSnapshot != null)
+                {
+                    OpOrder.Barrier barrier = keyspace.writeOrder.newBarrier();
+                    barrier.issue();
+                    barrier.await();
+                    indicesSnapshot.link(sstables);
+                }
+            }
+            success = true;
+        }
+        finally
+        {
+            for (CassandraDaemon.IndicesSnapshot indicesSnapshot : indicesSnapshots.values())
+                FileUtils.closeQuietly(indicesSnapshot);
+            if (!success && !snapshotted.isEmpty())
+            {
+                logger.warn("Snapshot {} failed, removing snapshot of keyspaces {}", tag, snapshotted);
+                String[] names = snapshotted.toArray(new String[snapshotted.size()]);
+                for (String keyspaceName : names)
+                    Keyspace.clearSnapshot(tag, keyspaceName);
+                if (daemon != null)
+                    daemon.clearIndicesSnapshot(tag, names);
+            }
+        }
+    }
+
+    /**
+     * Takes the snapshot of a keyspace, replacing a previous snapshot with the same tag.
+     */
+    public synchronized void retakeSnapshot(String tag, String keyspaceName) throws IOException
+    {
+        if (getValidKeyspace(keyspaceName).snapshotExists(tag))
+            clearSnapshot(tag, keyspaceName);
+        takeSnapshot(tag, keyspaceName);
     }
 
     /**
@@ -2825,6 +2964,9 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         for (String keyspace : keyspaces)
             Keyspace.clearSnapshot(tag, keyspace);
 
+        if (daemon != null)
+            daemon.clearIndicesSnapshot(tag, keyspaceNames);
+
         if (logger.isDebugEnabled())
             logger.debug("Cleared out snapshot directories");
     }
@@ -4407,6 +4549,16 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         ColumnFamilyStore.rebuildSecondaryIndex(indexThreads, ksName, cfName, idxNames);
     }
 
+    public List<String> verifySecondaryIndex(int indexThreads, int ranges, boolean repair, String ksName, String cfName, String... idxNames) throws IOException
+    {
+        ColumnFamilyStore cfs = Keyspace.open(ksName).getColumnFamilyStore(cfName);
+        Set<String> indexes = new HashSet<String>(Arrays.asList(idxNames));
+        indexes.retainAll(cfs.indexManager.elasticIndexesNames());
+        if (daemon == null || indexes.isEmpty())
+            throw new UnsupportedOperationException("Only Elasticsearch secondary indexes can be verified");
+        return daemon.verifyIndices(ksName, cfName, indexes, indexThreads, ranges, repair);
+    }
+
     public void resetLocalSchema() throws IOException
     {
         MigrationManager.resetLocalSchema();
@@ -544,6 +544,14 @@ public interface StorageServiceMBean extends NotificationEmitter
     public void rebuildSecondaryIndex(String ksName, String cfName, String... idxNames);
     public void rebuildSecondaryIndex(int indexThreads, String ksName, String cfName, String... idxNames);
 
+    /**
+     * Compare per token range digests of the specified indexes with the table data.
+     * @param ranges number of token ranges the ring is split in
+     * @param repair reindex the mismatching token ranges
+     * @return the mismatching token ranges
+     */
+    public List<String> verifySecondaryIndex(int indexThreads, int ranges, boolean repair, String ksName, String cfName, String... idxNames) throws IOException;
+
     public void resetLocalSchema() throws IOException;
 
     /**
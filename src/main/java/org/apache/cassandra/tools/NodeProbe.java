@@ -967,6 +967,11 @@ public class NodeProbe implements AutoCloseable
         ssProxy.rebuildSecondaryIndex(indexThread, ksName, cfName, idxNames);
     }
 
+    public List<String> verifyIndex(int indexThread, int ranges, boolean repair, String ksName, String cfName, String... idxNames) throws IOException
+    {
+        return ssProxy.verifySecondaryIndex(indexThread, ranges, repair, ksName, cfName, idxNames);
+    }
+
     public String getGossipInfo()
     {
         return fdProxy.getAllEndpointStates();
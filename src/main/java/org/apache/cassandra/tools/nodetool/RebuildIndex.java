@@ -20,6 +20,7 @@ package org.apache.cassandra.tools.nodetool;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Iterables.toArray;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -36,6 +37,15 @@ public class RebuildIndex extends NodeToolCmd
 	@Option(name = "--threads", description = "Number of indexing threads (default = 1)")
     public int indexingThreads = 1;
 	
+	@Option(name = "--verify", description = "Compare per token range digests of Elasticsearch indexes with the table data, and only rebuild the mismatching token ranges")
+    public boolean verify = false;
+	
+	@Option(name = "--dry-run", description = "With --verify, only report the mismatching token ranges")
+    public boolean dryRun = false;
+	
+	@Option(name = "--ranges", description = "With --verify, number of token ranges the ring is split in (default = 256)")
+    public int ranges = 256;
+	
     @Arguments(usage = "<keyspace> <table> <indexName...>", description = "The keyspace and table name followed by a list of index names (IndexNameExample: Standard3.IdxName Standard3.IdxName1)")
     List<String> args = new ArrayList<>();
 
@@ -43,6 +53,28 @@ public class RebuildIndex extends NodeToolCmd
     public void execute(NodeProbe probe)
     {
         checkArgument(args.size() >= 3, "rebuild_index requires ks, cf and idx args");
+        if (verify)
+        {
+            try
+            {
+                List<String> mismatches = probe.verifyIndex(indexingThreads, ranges, !dryRun, args.get(0), args.get(1), toArray(args.subList(2, args.size()), String.class));
+                int unknown = 0;
+                for (String mismatch : mismatches)
+                    if (mismatch.endsWith(" unknown"))
+                        unknown++;
+                int mismatching = mismatches.size() - unknown;
+                System.out.println(mismatching + " mismatching token ranges" + ((mismatching == 0 || dryRun) ? "" : " rebuilt"));
+                if (unknown > 0)
+                    System.out.println(unknown + " unknown token ranges, with documents indexed without content hash, not rebuilt");
+                for (String mismatch : mismatches)
+                    System.out.println(mismatch);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Error verifying index", e);
+            }
+            return;
+        }
         probe.rebuildIndex(indexingThreads, args.get(0), args.get(1), toArray(args.subList(2, args.size()), String.class));
     }
 }
\ No newline at end of file
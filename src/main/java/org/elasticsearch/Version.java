@@ -275,8 +275,13 @@ public class Version {
     public static final Version V_2_1_0 = new Version(V_2_1_0_ID, false, org.apache.lucene.util.Version.LUCENE_5_3_1);
     public static final int V_2_1_1_ID = 2010199;
     public static final Version V_2_1_1 = new Version(V_2_1_1_ID, false, org.apache.lucene.util.Version.LUCENE_5_3_1);
+    // elassandra wire format revision, adding secondary index, refresh and fetch statistics. This is not the upstream
+    // elasticsearch 2.1.2: nodes and transport clients older than this revision do not receive the new statistics,
+    // jvm plugins must be built for 2.1.2 and new indices are created with this version (see doc/source/integration.rst).
+    public static final int V_2_1_2_ID = 2010299;
+    public static final Version V_2_1_2 = new Version(V_2_1_2_ID, false, org.apache.lucene.util.Version.LUCENE_5_3_1);
     
-    public static final Version CURRENT = V_2_1_1;
+    public static final Version CURRENT = V_2_1_2;
 
     static {
         assert CURRENT.luceneVersion.equals(Lucene.VERSION) : "Version must be upgraded to [" + Lucene.VERSION + "] is still set to [" + CURRENT.luceneVersion + "]";
@@ -288,6 +293,8 @@ public class Version {
 
     public static Version fromId(int id) {
         switch (id) {
+            case V_2_1_2_ID:
+                return V_2_1_2;
             case V_2_1_1_ID:
                 return V_2_1_1;
             case V_2_1_0_ID:
@@ -19,8 +19,10 @@
 
 package org.elasticsearch.action.admin.cluster.node.stats;
 
+import org.elasticsearch.Version;
 import org.elasticsearch.action.support.nodes.BaseNodeResponse;
 import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cassandra.index.SecondaryIndexStats;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
@@ -77,6 +79,9 @@ public class NodeStats extends BaseNodeResponse implements ToXContent {
     @Nullable
     private ScriptStats scriptStats;
 
+    @Nullable
+    private SecondaryIndexStats secondaryIndexStats;
+
     NodeStats() {
     }
 
@@ -84,7 +89,8 @@ public class NodeStats extends BaseNodeResponse implements ToXContent {
                      @Nullable OsStats os, @Nullable ProcessStats process, @Nullable JvmStats jvm, @Nullable ThreadPoolStats threadPool,
                      @Nullable FsInfo fs, @Nullable TransportStats transport, @Nullable HttpStats http,
                      @Nullable AllCircuitBreakerStats breaker,
-                     @Nullable ScriptStats scriptStats) {
+                     @Nullable ScriptStats scriptStats,
+                     @Nullable SecondaryIndexStats secondaryIndexStats) {
         super(node);
         this.timestamp = timestamp;
         this.indices = indices;
@@ -97,6 +103,7 @@ public class NodeStats extends BaseNodeResponse implements ToXContent {
         this.http = http;
         this.breaker = breaker;
         this.scriptStats = scriptStats;
+        this.secondaryIndexStats = secondaryIndexStats;
     }
 
     public long getTimestamp() {
@@ -176,6 +183,14 @@ public class NodeStats extends BaseNodeResponse implements ToXContent {
         return this.scriptStats;
     }
 
+    /**
+     * Elasticsearch indexing of Cassandra writes statistics.
+     */
+    @Nullable
+    public SecondaryIndexStats getSecondaryIndexStats() {
+        return this.secondaryIndexStats;
+    }
+
     public static NodeStats readNodeStats(StreamInput in) throws IOException {
         NodeStats nodeInfo = new NodeStats();
         nodeInfo.readFrom(in);
@@ -212,6 +227,9 @@ public class NodeStats extends BaseNodeResponse implements ToXContent {
         }
         breaker = AllCircuitBreakerStats.readOptionalAllCircuitBreakerStats(in);
         scriptStats = in.readOptionalStreamable(new ScriptStats());
+        if (in.getVersion().onOrAfter(Version.V_2_1_2)) {
+            secondaryIndexStats = in.readOptionalStreamable(new SecondaryIndexStats());
+        }
 
     }
 
@@ -269,6 +287,9 @@ public class NodeStats extends BaseNodeResponse implements ToXContent {
         }
         out.writeOptionalStreamable(breaker);
         out.writeOptionalStreamable(scriptStats);
+        if (out.getVersion().onOrAfter(Version.V_2_1_2)) {
+            out.writeOptionalStreamable(secondaryIndexStats);
+        }
     }
 
     @Override
@@ -319,6 +340,9 @@ public class NodeStats extends BaseNodeResponse implements ToXContent {
         if (getScriptStats() != null) {
             getScriptStats().toXContent(builder, params);
         }
+        if (getSecondaryIndexStats() != null) {
+            getSecondaryIndexStats().toXContent(builder, params);
+        }
 
         return builder;
     }
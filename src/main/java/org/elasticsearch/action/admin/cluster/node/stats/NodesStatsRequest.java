@@ -19,6 +19,7 @@
 
 package org.elasticsearch.action.admin.cluster.node.stats;
 
+import org.elasticsearch.Version;
 import org.elasticsearch.action.admin.indices.stats.CommonStatsFlags;
 import org.elasticsearch.action.support.nodes.BaseNodesRequest;
 import org.elasticsearch.common.io.stream.StreamInput;
@@ -41,6 +42,7 @@ public class NodesStatsRequest extends BaseNodesRequest<NodesStatsRequest> {
     private boolean http;
     private boolean breaker;
     private boolean script;
+    private boolean secondaryIndex;
 
     protected NodesStatsRequest() {
     }
@@ -67,6 +69,7 @@ public class NodesStatsRequest extends BaseNodesRequest<NodesStatsRequest> {
         this.http = true;
         this.breaker = true;
         this.script = true;
+        this.secondaryIndex = true;
         return this;
     }
 
@@ -84,6 +87,7 @@ public class NodesStatsRequest extends BaseNodesRequest<NodesStatsRequest> {
         this.http = false;
         this.breaker = false;
         this.script = false;
+        this.secondaryIndex = false;
         return this;
     }
 
@@ -234,6 +238,18 @@ public class NodesStatsRequest extends BaseNodesRequest<NodesStatsRequest> {
         return this;
     }
 
+    /**
+     * Should the write path statistics of Elassandra secondary indices be returned.
+     */
+    public boolean secondaryIndex() {
+        return secondaryIndex;
+    }
+
+    public NodesStatsRequest secondaryIndex(boolean secondaryIndex) {
+        this.secondaryIndex = secondaryIndex;
+        return this;
+    }
+
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
@@ -247,6 +263,9 @@ public class NodesStatsRequest extends BaseNodesRequest<NodesStatsRequest> {
         http = in.readBoolean();
         breaker = in.readBoolean();
         script = in.readBoolean();
+        if (in.getVersion().onOrAfter(Version.V_2_1_2)) {
+            secondaryIndex = in.readBoolean();
+        }
     }
 
     @Override
@@ -262,6 +281,9 @@ public class NodesStatsRequest extends BaseNodesRequest<NodesStatsRequest> {
         out.writeBoolean(http);
         out.writeBoolean(breaker);
         out.writeBoolean(script);
+        if (out.getVersion().onOrAfter(Version.V_2_1_2)) {
+            out.writeBoolean(secondaryIndex);
+        }
     }
 
 }
@@ -67,6 +67,14 @@ public class NodesStatsRequestBuilder extends NodesOperationRequestBuilder<Nodes
         return this;
     }
 
+    /**
+     * Should the write path statistics of Elassandra secondary indices be returned.
+     */
+    public NodesStatsRequestBuilder setSecondaryIndex(boolean secondaryIndex) {
+        request.secondaryIndex(secondaryIndex);
+        return this;
+    }
+
     /**
      * Should the node indices stats be returned.
      */
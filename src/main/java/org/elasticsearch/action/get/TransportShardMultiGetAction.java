@@ -94,8 +94,14 @@ public class TransportShardMultiGetAction extends TransportSingleShardAction<Mul
         }
 
         MultiGetShardResponse response = new MultiGetShardResponse();
+        // read documents of the same table in multi-partition batches, other documents one by one.
+        GetResult[] batchResults = indexShard.getService().multiGet(request.items, request.ignoreErrorsOnGeneratedFields());
         for (int i = 0; i < request.locations.size(); i++) {
             MultiGetRequest.Item item = request.items.get(i);
+            if (batchResults[i] != null) {
+                response.add(request.locations.get(i), new GetResponse(batchResults[i]));
+                continue;
+            }
             try {
                 GetResult getResult = indexShard.getService().get(item.type(), item.id(), item.fields(), request.realtime(), item.version(), item.versionType(), item.fetchSourceContext(), request.ignoreErrorsOnGeneratedFields());
                 response.add(request.locations.get(i), new GetResponse(getResult));
@@ -357,6 +357,14 @@ public class SearchRequestBuilder extends ActionRequestBuilder<SearchRequest, Se
         return this;
     }
 
+    /**
+     * Only search the token range slice <code>id</code> of <code>max</code>, to scroll slices in parallel.
+     */
+    public SearchRequestBuilder setSlice(int id, int max) {
+        sourceBuilder().slice(id, max);
+        return this;
+    }
+
     /**
      * Sets no fields to be loaded, resulting in only id and type to be returned per field.
      */
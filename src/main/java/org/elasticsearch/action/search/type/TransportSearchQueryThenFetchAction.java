@@ -22,6 +22,8 @@ package org.elasticsearch.action.search.type;
 import com.carrotsearch.hppc.IntArrayList;
 
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRunnable;
 import org.elasticsearch.action.search.ReduceSearchPhaseException;
@@ -39,12 +41,18 @@ import org.elasticsearch.search.action.SearchServiceTransportAction;
 import org.elasticsearch.search.controller.SearchPhaseController;
 import org.elasticsearch.search.fetch.FetchSearchResult;
 import org.elasticsearch.search.fetch.ShardFetchSearchRequest;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHits;
 import org.elasticsearch.search.internal.InternalSearchResponse;
 import org.elasticsearch.search.internal.ShardSearchTransportRequest;
+import org.elasticsearch.search.query.QuerySearchResult;
 import org.elasticsearch.search.query.QuerySearchResultProvider;
 import org.elasticsearch.threadpool.ThreadPool;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -52,6 +60,16 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class TransportSearchQueryThenFetchAction extends TransportSearchTypeAction {
 
+    /**
+     * When true, fetch requests of shards are sent as soon as half of the shards returned their query results, instead of waiting for all of them.
+     */
+    public static final boolean PIPELINED_FETCH = Boolean.getBoolean("elassandra.pipelined_fetch");
+
+    /**
+     * Maximum number of documents of a pipelined fetch request, shards having more candidate documents are fetched after the query phase.
+     */
+    public static final int PIPELINED_FETCH_MAX_DOCS = Integer.getInteger("elassandra.pipelined_fetch_max_docs", 50);
+
     @Inject
     public TransportSearchQueryThenFetchAction(Settings settings, ThreadPool threadPool, ClusterService clusterService,
                                                SearchServiceTransportAction searchService, SearchPhaseController searchPhaseController,
@@ -68,11 +86,19 @@ public class TransportSearchQueryThenFetchAction extends TransportSearchTypeActi
 
         final AtomicArray<FetchSearchResult> fetchResults;
         final AtomicArray<IntArrayList> docIdsToLoad;
+        final AtomicArray<PipelinedFetch> pipelinedFetches;
+
+        // running top scores of the query results, guarded by itself
+        private final PriorityQueue<Float> topScores = new PriorityQueue<>();
+        private final List<Integer> reportedShards = new ArrayList<>();
+        private boolean pipelined;
 
         private AsyncAction(SearchRequest request, ActionListener<SearchResponse> listener) {
             super(request, listener);
             fetchResults = new AtomicArray<>(firstResults.length());
             docIdsToLoad = new AtomicArray<>(firstResults.length());
+            pipelinedFetches = new AtomicArray<>(firstResults.length());
+            pipelined = PIPELINED_FETCH && request.scroll() == null && firstResults.length() > 1;
         }
 
         @Override
@@ -85,6 +111,61 @@ public class TransportSearchQueryThenFetchAction extends TransportSearchTypeActi
             searchService.sendExecuteQuery(node, request, listener);
         }
 
+        /**
+         * Once half of the shards returned their query results, send the fetch requests of the shards having returned their results
+         * without waiting for the other ones, for searches starting from the first hit. The k-th best score of the results received so far is a lower bound of the score of the
+         * k-th document of the final page, so fetching the documents scoring above this bound fetches all the documents of the shard
+         * that may make the final page. Documents ranked out of the page by the next query results are dropped on merge.
+         */
+        @Override
+        protected void afterFirstPhaseResult(int shardIndex, QuerySearchResultProvider result) {
+            List<AtomicArray.Entry<IntArrayList>> fetches = null;
+            synchronized (topScores) {
+                if (!pipelined)
+                    return;
+                QuerySearchResult queryResult = result.queryResult();
+                TopDocs topDocs = queryResult.topDocs();
+                final int k = queryResult.size();
+                if (topDocs instanceof TopFieldDocs || k == 0 || queryResult.from() > 0) {
+                    // sorted results are merged by sort values, not by score, and documents before from are never returned.
+                    pipelined = false;
+                    return;
+                }
+                for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                    if (topScores.size() < k) {
+                        topScores.add(scoreDoc.score);
+                    } else if (scoreDoc.score > topScores.peek()) {
+                        topScores.poll();
+                        topScores.add(scoreDoc.score);
+                    }
+                }
+                reportedShards.add(shardIndex);
+                if (reportedShards.size() * 2 < firstResults.length())
+                    return;
+
+                final float bound = (topScores.size() < k) ? Float.NEGATIVE_INFINITY : topScores.peek();
+                fetches = new ArrayList<>();
+                for (Integer reportedShard : reportedShards) {
+                    IntArrayList docIds = new IntArrayList();
+                    for (ScoreDoc scoreDoc : firstResults.get(reportedShard).queryResult().topDocs().scoreDocs) {
+                        if (!(scoreDoc.score < bound))
+                            docIds.add(scoreDoc.doc);
+                    }
+                    // too many candidates, the shard fetches the documents of the final page after the query phase.
+                    if (docIds.size() > 0 && docIds.size() <= PIPELINED_FETCH_MAX_DOCS) {
+                        pipelinedFetches.set(reportedShard, new PipelinedFetch(docIds));
+                        fetches.add(new AtomicArray.Entry<>(reportedShard, docIds));
+                    }
+                }
+                reportedShards.clear();
+            }
+            for (AtomicArray.Entry<IntArrayList> entry : fetches) {
+                QuerySearchResultProvider queryResult = firstResults.get(entry.index);
+                DiscoveryNode node = nodes.get(queryResult.shardTarget().nodeId());
+                executePipelinedFetch(entry.index, queryResult.shardTarget(), createFetchRequest(queryResult.queryResult(), entry, null), node);
+            }
+        }
+
         @Override
         protected void moveToSecondPhase() throws Exception {
             boolean useScroll = request.scroll() != null;
@@ -102,12 +183,103 @@ public class TransportSearchQueryThenFetchAction extends TransportSearchTypeActi
             final AtomicInteger counter = new AtomicInteger(docIdsToLoad.asList().size());
             for (AtomicArray.Entry<IntArrayList> entry : docIdsToLoad.asList()) {
                 QuerySearchResultProvider queryResult = firstResults.get(entry.index);
+                PipelinedFetch pipelinedFetch = pipelinedFetches.get(entry.index);
+                if (pipelinedFetch != null) {
+                    pipelinedFetch.onSecondPhase(entry.index, queryResult.shardTarget(), entry.value, counter);
+                    continue;
+                }
                 DiscoveryNode node = nodes.get(queryResult.shardTarget().nodeId());
                 ShardFetchSearchRequest fetchSearchRequest = createFetchRequest(queryResult.queryResult(), entry, lastEmittedDocPerShard);
                 executeFetch(entry.index, queryResult.shardTarget(), counter, fetchSearchRequest, node);
             }
         }
 
+        void executePipelinedFetch(final int shardIndex, final SearchShardTarget shardTarget, final ShardFetchSearchRequest fetchSearchRequest, DiscoveryNode node) {
+            searchService.sendExecuteFetch(node, fetchSearchRequest, new ActionListener<FetchSearchResult>() {
+                @Override
+                public void onResponse(FetchSearchResult result) {
+                    result.shardTarget(shardTarget);
+                    pipelinedFetches.get(shardIndex).onFetch(result, null, fetchSearchRequest);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    pipelinedFetches.get(shardIndex).onFetch(null, t, fetchSearchRequest);
+                }
+            });
+        }
+
+        /**
+         * A fetch request sent before the end of the query phase, whose hits are filtered to the documents of the final page.
+         */
+        class PipelinedFetch {
+            private final IntArrayList fetchedDocIds;
+            private FetchSearchResult result;
+            private Throwable failure;
+            private ShardFetchSearchRequest fetchSearchRequest;
+            private boolean done;
+            // set when the shard has documents in the final page
+            private int shardIndex;
+            private SearchShardTarget shardTarget;
+            private IntArrayList docIds;
+            private AtomicInteger counter;
+
+            PipelinedFetch(IntArrayList fetchedDocIds) {
+                this.fetchedDocIds = fetchedDocIds;
+            }
+
+            void onFetch(FetchSearchResult result, Throwable failure, ShardFetchSearchRequest fetchSearchRequest) {
+                synchronized (this) {
+                    this.result = result;
+                    this.failure = failure;
+                    this.fetchSearchRequest = fetchSearchRequest;
+                    this.done = true;
+                    if (counter == null)
+                        return;
+                }
+                complete();
+            }
+
+            void onSecondPhase(int shardIndex, SearchShardTarget shardTarget, IntArrayList docIds, AtomicInteger counter) {
+                synchronized (this) {
+                    this.shardIndex = shardIndex;
+                    this.shardTarget = shardTarget;
+                    this.docIds = docIds;
+                    this.counter = counter;
+                    if (!done)
+                        return;
+                }
+                complete();
+            }
+
+            private void complete() {
+                if (failure != null) {
+                    docIdsToLoad.set(shardIndex, null);
+                    onFetchFailure(failure, fetchSearchRequest, shardIndex, shardTarget, counter);
+                    return;
+                }
+                // hits are returned in the order of the fetched documents, keep those of the final page.
+                InternalSearchHit[] fetchedHits = result.hits().internalHits();
+                InternalSearchHit[] hits = new InternalSearchHit[docIds.size()];
+                int j = 0;
+                for (int i = 0; i < docIds.size(); i++) {
+                    while (j < fetchedDocIds.size() && fetchedDocIds.get(j) != docIds.get(i))
+                        j++;
+                    if (j >= fetchedDocIds.size() || j >= fetchedHits.length) {
+                        docIdsToLoad.set(shardIndex, null);
+                        onFetchFailure(new IllegalStateException("document [" + docIds.get(i) + "] not fetched by the pipelined fetch"), fetchSearchRequest, shardIndex, shardTarget, counter);
+                        return;
+                    }
+                    hits[i] = fetchedHits[j++];
+                }
+                result.hits(new InternalSearchHits(hits, result.hits().totalHits(), result.hits().maxScore()));
+                fetchResults.set(shardIndex, result);
+                if (counter.decrementAndGet() == 0) {
+                    finishHim();
+                }
+            }
+        }
+
         void executeFetch(final int shardIndex, final SearchShardTarget shardTarget, final AtomicInteger counter, final ShardFetchSearchRequest fetchSearchRequest, DiscoveryNode node) {
             searchService.sendExecuteFetch(node, fetchSearchRequest, new ActionListener<FetchSearchResult>() {
                 @Override
@@ -216,6 +216,7 @@ public abstract class TransportSearchTypeAction extends TransportAction<SearchRe
         void onFirstPhaseResult(int shardIndex, ShardRouting shard, FirstResult result, ShardIterator shardIt) {
             result.shardTarget(new SearchShardTarget(shard.currentNodeId(), shard.index(), shard.id()));
             processFirstPhaseResult(shardIndex, result);
+            afterFirstPhaseResult(shardIndex, result);
             // we need to increment successful ops first before we compare the exit condition otherwise if we
             // are fast we could concurrently update totalOps but then preempt one of the threads which can
             // cause the successor to read a wrong value from successfulOps if second phase is very fast ie. count etc.
@@ -409,6 +410,12 @@ public abstract class TransportSearchTypeAction extends TransportAction<SearchRe
             }
         }
 
+        /**
+         * Called for each successful first phase result, before moving to the second phase when it is the last one.
+         */
+        protected void afterFirstPhaseResult(int shardIndex, FirstResult result) {
+        }
+
         final void innerMoveToSecondPhase() throws Exception {
             if (logger.isTraceEnabled()) {
                 StringBuilder sb = new StringBuilder();
@@ -1223,6 +1223,36 @@ public class InternalCassandraClusterService extends InternalClusterService {
         return process(cl, buildFetchQuery(ksName, index,cfName,columns, docPk.isStaticDocument), docPk. values);
     }
     
+    /**
+     * Fetch from the coordinator node the rows of a table having a single column primary key.
+     */
+    @Override
+    public UntypedResultSet fetchRows(final String ksName, final String index, final String cfName, final List<Object> pkValues, final String[] columns, final ConsistencyLevel cl) throws InvalidRequestException,
+            RequestExecutionException, RequestValidationException, IOException {
+        return process(cl, buildFetchRowsQuery(ksName, index, cfName, columns), pkValues);
+    }
+    
+    /**
+     * Fetch from the local node the rows of a table having a single column primary key.
+     */
+    @Override
+    public UntypedResultSet fetchRowsInternal(final String ksName, final String index, final String cfName, final List<Object> pkValues, final String[] columns) throws ConfigurationException, IOException {
+        return QueryProcessor.executeInternal(buildFetchRowsQuery(ksName, index, cfName, columns), pkValues);
+    }
+    
+    private String buildFetchRowsQuery(final String ksName, final String index, final String cfName, final String[] columns) throws ConfigurationException, IOException {
+        CFMetaData metadata = getCFMetaData(ksName, cfName);
+        if (metadata.partitionKeyColumns().size() != 1 || metadata.clusteringColumns().size() > 0)
+            throw new IllegalArgumentException("Table [" + ksName + "." + cfName + "] does not have a single column primary key");
+        String pkName = metadata.partitionKeyColumns().get(0).name.toString();
+        List<String> selectedColumns = new ArrayList<String>(Arrays.asList(columns));
+        if (!selectedColumns.contains(pkName))
+            selectedColumns.add(pkName);
+        StringBuilder query = new StringBuilder(buildSelectQuery(ksName, index, cfName, selectedColumns.toArray(new String[selectedColumns.size()]), false));
+        query.append(" WHERE \"").append(pkName).append("\" IN ?");
+        return query.toString();
+    }
+    
     public Engine.GetResult fetchSourceInternal(final String ksName, String index, String type, String id) throws IOException {
         DocPrimaryKey docPk = parseElasticId(index, type, id);
         String[] columns = mappedColumns(index, type, docPk.isStaticDocument, true);
@@ -1340,6 +1370,17 @@ public class InternalCassandraClusterService extends InternalClusterService {
     
     public String buildFetchQuery(final String ksName, final String index, final String cfName, final String[] requiredColumns, boolean forStaticDocument) 
             throws ConfigurationException, IndexNotFoundException, IOException 
+    {
+        CFMetaData metadata = getCFMetaData(ksName, cfName);
+        StringBuilder query = new StringBuilder(buildSelectQuery(ksName, index, cfName, requiredColumns, forStaticDocument));
+        query.append(" WHERE ").append((forStaticDocument) ? metadata.getCqlFragments().ptWhere : metadata.getCqlFragments().pkWhere );
+        if (forStaticDocument)
+            query.append(" LIMIT 1");
+        return query.toString();
+    }
+    
+    private String buildSelectQuery(final String ksName, final String index, final String cfName, final String[] requiredColumns, boolean forStaticDocument) 
+            throws ConfigurationException, IndexNotFoundException, IOException 
     {
         CFMetaData metadata = getCFMetaData(ksName, cfName);
         CFMetaData.CqlFragments cqlFragment = metadata.getCqlFragments();
@@ -1400,9 +1441,7 @@ public class InternalCassandraClusterService extends InternalClusterService {
                     query.append(query.length() > 7 ? ',':' ').append("\"").append(c).append("\"");
             }
         }
-        query.append(" FROM \"").append(ksName).append("\".\"").append(cfName).append("\" WHERE ").append((forStaticDocument) ? metadata.getCqlFragments().ptWhere : metadata.getCqlFragments().pkWhere );
-        if (forStaticDocument)
-            query.append(" LIMIT 1");
+        query.append(" FROM \"").append(ksName).append("\".\"").append(cfName).append("\"");
         return query.toString();
     }
     
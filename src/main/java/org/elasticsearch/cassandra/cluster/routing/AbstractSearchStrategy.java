@@ -202,8 +202,16 @@ public abstract class AbstractSearchStrategy {
     			return Router.this.greenShards;
     		}
     		
+    		/**
+    		 * @return token ranges without available replica by node, reported as unassigned primary shards, or null.
+    		 */
+    		public Map<DiscoveryNode, BitSet> unavailableShards() {
+    			return Router.this.redShards;
+    		}
+    		
 			public List<IndexShardRoutingTable> getShardRouting() {
-				List<IndexShardRoutingTable> isrt = new ArrayList<IndexShardRoutingTable>(selectedShards().size() + ((Router.this.redShards!=null) ? Router.this.redShards.size() : 0) );
+				final Map<DiscoveryNode, BitSet> unavailableShards = unavailableShards();
+				List<IndexShardRoutingTable> isrt = new ArrayList<IndexShardRoutingTable>(selectedShards().size() + ((unavailableShards!=null) ? unavailableShards.size() : 0) );
 				int i = 1;
 				boolean first = true;
 				for(DiscoveryNode node : selectedShards().keySet()) {
@@ -239,8 +247,8 @@ public abstract class AbstractSearchStrategy {
 						i++;
 				}
 				
-				if (Router.this.redShards != null) {
-					for(DiscoveryNode node : Router.this.redShards.keySet()) {
+				if (unavailableShards != null) {
+					for(DiscoveryNode node : unavailableShards.keySet()) {
 						int  shardId = (localNode.id().equals(node.id())) ? 0 : i;
 						UnassignedInfo info = null;
 						if (ShardRoutingState.UNASSIGNED.equals(Router.this.getShardRoutingState(node)))
@@ -252,7 +260,7 @@ public abstract class AbstractSearchStrategy {
 						ShardRouting primaryShardRouting = new ShardRouting(index, shardId, node.id(), true, 
 								Router.this.getShardRoutingState(node), version,
 								info,
-								Router.this.getTokenRanges(Router.this.redShards.get(node)));
+								Router.this.getTokenRanges(unavailableShards.get(node)));
 						isrt.add( new IndexShardRoutingTable(new ShardId(index,shardId), primaryShardRouting) );
 						if (shardId != 0)
 							i++;
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.cluster.routing;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNode.DiscoveryNodeStatus;
+import org.elasticsearch.cluster.routing.ShardRoutingState;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.transport.TransportAddress;
+
+/**
+ * For each newRoute(), assign each token range to the alive replica having the best rank,
+ * according to the search latency feedback collected by {@link SearchResponseCollector}.
+ * Nodes without recent feedback get the best rank, so that they are probed again.
+ *
+ * @author vroyer
+ *
+ */
+public class AdaptiveSearchStrategy extends AbstractSearchStrategy {
+
+    public class AdaptiveRouter extends Router {
+    	final int clientCount;
+
+    	public AdaptiveRouter(final String index, final String ksName, final Map<UUID, ShardRoutingState> shardStates, final ClusterState clusterState) {
+    		super(index, ksName, shardStates, clusterState);
+    		this.clientCount = clusterState.nodes().size();
+    	}
+
+		@Override
+		public Route newRoute(@Nullable String preference, TransportAddress src) {
+			// snapshot ranks once per route.
+			final Map<DiscoveryNode, Double> ranks = new HashMap<DiscoveryNode, Double>(greenShards.size());
+			for(DiscoveryNode node : greenShards.keySet()) {
+				if (node.status() == DiscoveryNodeStatus.ALIVE)
+					ranks.put(node, rank(node));
+			}
+
+			final Map<DiscoveryNode, BitSet> selectedShards = new HashMap<DiscoveryNode, BitSet>();
+			for(int i=0; i < tokens.size(); i++) {
+				DiscoveryNode choice = null;
+				double choiceRank = Double.MAX_VALUE;
+				for(Map.Entry<DiscoveryNode, Double> entry : ranks.entrySet()) {
+					if (greenShards.get(entry.getKey()).get(i)) {
+						double rank = entry.getValue();
+						// on tie, prefer the local node to save a network hop.
+						if (choice == null || rank < choiceRank || (rank == choiceRank && localNode.id().equals(entry.getKey().id()))) {
+							choice = entry.getKey();
+							choiceRank = rank;
+						}
+					}
+				}
+				if (choice != null) {
+					BitSet bs = selectedShards.get(choice);
+					if (bs == null) {
+						bs = new BitSet(tokens.size());
+						selectedShards.put(choice, bs);
+					}
+					bs.set(i);
+				}
+			}
+			if (logger.isTraceEnabled())
+				logger.trace("index={} ranks={} selected={}", index, ranks, selectedShards);
+
+			return new Route()  {
+				@Override
+				public Map<DiscoveryNode, BitSet> selectedShards() {
+	    			return selectedShards;
+	    		}
+			};
+		}
+
+		double rank(DiscoveryNode node) {
+			SearchResponseCollector.NodeStats stats = SearchResponseCollector.instance.getNodeStats(node);
+			if (stats == null)
+				return 0;
+			double rank = stats.rank(clientCount);
+			return Double.isNaN(rank) ? 0 : rank;
+		}
+    }
+
+	@Override
+	public Router newRouter(final String index, final String ksName, final Map<UUID, ShardRoutingState> shardStates, final ClusterState clusterState) {
+		return new AdaptiveRouter(index, ksName, shardStates, clusterState);
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.cluster.routing;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNode.DiscoveryNodeStatus;
+import org.elasticsearch.cluster.routing.ShardRoutingState;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.transport.TransportAddress;
+
+/**
+ * Minimize the number of nodes involved in a search by solving a weighted greedy set-cover
+ * of the token ranges over the live STARTED replicas.
+ * At each step, pick the node covering the most uncovered ranges per unit of weight,
+ * where the weight of a node reflects its search latency and queue depth (see {@link #weight(DiscoveryNode, double)}).
+ * Ties are broken randomly, so that searches are spread over equivalent covers.
+ *
+ * Token ranges having no alive replica are reported as unassigned shards, and thus as shard failures.
+ *
+ * @author vroyer
+ *
+ */
+public class RangePackingSearchStrategy extends AbstractSearchStrategy {
+
+    public class RangePackingRouter extends Router {
+    	final BitSet coverableRanges;
+    	final int clientCount;
+
+    	public RangePackingRouter(final String index, final String ksName, final Map<UUID, ShardRoutingState> shardStates, final ClusterState clusterState) {
+    		super(index, ksName, shardStates, clusterState);
+    		this.clientCount = clusterState.nodes().size();
+    		this.coverableRanges = new BitSet(tokens.size());
+    		for(BitSet bs : greenShards.values())
+    			coverableRanges.or(bs);
+    	}
+
+		@Override
+		public Route newRoute(@Nullable String preference, TransportAddress src) {
+			final Map<DiscoveryNode, BitSet> selectedShards = new HashMap<DiscoveryNode, BitSet>();
+			final BitSet uncovered = (BitSet) coverableRanges.clone();
+
+			// alive candidates in random order, so that ties do not always elect the same nodes.
+			final List<DiscoveryNode> candidates = new ArrayList<DiscoveryNode>(greenShards.size());
+			for(DiscoveryNode node : greenShards.keySet()) {
+				if (node.status() == DiscoveryNodeStatus.ALIVE)
+					candidates.add(node);
+			}
+			Collections.shuffle(candidates, ThreadLocalRandom.current());
+			final Map<DiscoveryNode, Double> weights = weights(candidates);
+
+			while (!uncovered.isEmpty()) {
+				DiscoveryNode choice = null;
+				BitSet choiceBitset = null;
+				double choiceScore = 0;
+				for(DiscoveryNode node : candidates) {
+					if (selectedShards.containsKey(node))
+						continue;
+					BitSet gain = (BitSet) greenShards.get(node).clone();
+					gain.and(uncovered);
+					int cardinality = gain.cardinality();
+					if (cardinality == 0)
+						continue;
+					double score = cardinality / weights.get(node);
+					if (score > choiceScore) {
+						choice = node;
+						choiceBitset = gain;
+						choiceScore = score;
+					}
+				}
+				if (choice == null)
+					break;  // remaining ranges have no alive replica.
+				selectedShards.put(choice, choiceBitset);
+				uncovered.andNot(choiceBitset);
+			}
+			final Map<DiscoveryNode, BitSet> unavailableShards = unavailableShards(uncovered);
+			if (logger.isTraceEnabled())
+				logger.trace("index={} weights={} selected={} unavailable={}", index, weights, selectedShards, unavailableShards);
+
+			return new Route()  {
+				@Override
+				public Map<DiscoveryNode, BitSet> selectedShards() {
+	    			return selectedShards;
+	    		}
+
+				@Override
+				public Map<DiscoveryNode, BitSet> unavailableShards() {
+					return unavailableShards;
+				}
+			};
+		}
+
+		/**
+		 * @return node weights relative to the best ranked node, nodes without recent feedback having the best weight.
+		 */
+		Map<DiscoveryNode, Double> weights(List<DiscoveryNode> candidates) {
+			final Map<DiscoveryNode, Double> ranks = new HashMap<DiscoveryNode, Double>(candidates.size());
+			double bestRank = Double.MAX_VALUE;
+			for(DiscoveryNode node : candidates) {
+				SearchResponseCollector.NodeStats stats = SearchResponseCollector.instance.getNodeStats(node);
+				double rank = (stats == null) ? Double.NaN : stats.rank(clientCount);
+				ranks.put(node, rank);
+				if (!Double.isNaN(rank) && rank > 0 && rank < bestRank)
+					bestRank = rank;
+			}
+			final Map<DiscoveryNode, Double> weights = new HashMap<DiscoveryNode, Double>(candidates.size());
+			for(Map.Entry<DiscoveryNode, Double> entry : ranks.entrySet())
+				weights.put(entry.getKey(), weight(entry.getKey(), entry.getValue() / bestRank));
+			return weights;
+		}
+
+		/**
+		 * @return the red shards of the router, plus the ranges having no alive replica assigned to one of their replicas.
+		 */
+		Map<DiscoveryNode, BitSet> unavailableShards(BitSet uncovered) {
+			BitSet orphans = (BitSet) uncovered.clone();
+			if (orphans.isEmpty())
+				return redShards;
+			Map<DiscoveryNode, BitSet> unavailable = new HashMap<DiscoveryNode, BitSet>();
+			if (redShards != null) {
+				for(Map.Entry<DiscoveryNode, BitSet> entry : redShards.entrySet())
+					unavailable.put(entry.getKey(), (BitSet) entry.getValue().clone());
+			}
+			for(Map.Entry<DiscoveryNode, BitSet> entry : greenShards.entrySet()) {
+				BitSet ranges = (BitSet) entry.getValue().clone();
+				ranges.and(orphans);
+				if (ranges.isEmpty())
+					continue;
+				BitSet bs = unavailable.get(entry.getKey());
+				if (bs == null)
+					unavailable.put(entry.getKey(), ranges);
+				else
+					bs.or(ranges);
+				orphans.andNot(ranges);
+			}
+			return unavailable;
+		}
+    }
+
+    /**
+     * Node weight >= 1, higher for loaded nodes.
+     * @param node
+     * @param relativeRank the search rank of the node divided by the best rank (see {@link SearchResponseCollector.NodeStats#rank(int)}), NaN when unknown.
+     * @return
+     */
+    public double weight(DiscoveryNode node, double relativeRank) {
+    	return (Double.isNaN(relativeRank) || Double.isInfinite(relativeRank) || relativeRank < 1) ? 1.0 : relativeRank;
+    }
+
+	@Override
+	public Router newRouter(final String index, final String ksName, final Map<UUID, ShardRoutingState> shardStates, final ClusterState clusterState) {
+		return new RangePackingRouter(index, ksName, shardStates, clusterState);
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.cluster.routing;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.transport.TransportResponse;
+
+/**
+ * Collects per node search feedback (EWMA of response time, service time and search queue size, plus outstanding requests)
+ * from the search responses received by this coordinator node, and ranks nodes as described in the C3 paper:
+ * rank = R - 1/mu + q^3/mu, where q = 1 + outstanding * n + queue size.
+ * Data nodes put their service time and search queue size in the {@link #SERVICE_TIME_HEADER} and {@link #QUEUE_SIZE_HEADER} response headers.
+ *
+ * @author vroyer
+ *
+ */
+public class SearchResponseCollector {
+    public static final String SERVICE_TIME_HEADER = "_search_service_time_nanos";
+    public static final String QUEUE_SIZE_HEADER = "_search_queue_size";
+
+    public static final double ALPHA = Double.parseDouble(System.getProperty("elassandra.search.ewma_alpha", "0.3"));
+    public static final long STALE_STATS_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("elassandra.search.stale_stats_ms", 10000));
+    public static final long FAILURE_PENALTY_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("elassandra.search.failure_penalty_ms", 1000));
+
+    public static final SearchResponseCollector instance = new SearchResponseCollector();
+
+    private final ConcurrentHashMap<String, NodeStats> nodeStats = new ConcurrentHashMap<String, NodeStats>();
+
+    public static class NodeStats {
+        final AtomicInteger outstanding = new AtomicInteger();
+        double responseTime = Double.NaN;   // nanos
+        double serviceTime = Double.NaN;    // nanos
+        double queueSize = 0;
+        long lastUpdate = 0;
+
+        synchronized void update(long responseTimeNanos, @Nullable Number serviceTimeNanos, @Nullable Number queueSize) {
+            this.responseTime = ewma(this.responseTime, responseTimeNanos);
+            // without service time header (older nodes), the response time is the best estimate.
+            this.serviceTime = ewma(this.serviceTime, (serviceTimeNanos == null) ? responseTimeNanos : serviceTimeNanos.doubleValue());
+            if (queueSize != null)
+                this.queueSize = ewma(this.queueSize, queueSize.doubleValue());
+            this.lastUpdate = System.nanoTime();
+        }
+
+        static double ewma(double current, double value) {
+            return Double.isNaN(current) ? value : ALPHA * value + (1 - ALPHA) * current;
+        }
+
+        /**
+         * @param clientCount number of coordinator nodes sending requests.
+         * @return the node rank, the lower the better, or NaN when no recent feedback is available.
+         */
+        public synchronized double rank(int clientCount) {
+            if (Double.isNaN(responseTime) || System.nanoTime() - lastUpdate > STALE_STATS_NANOS)
+                return Double.NaN;
+            double qHat = 1 + outstanding.get() * clientCount + queueSize;
+            return responseTime - serviceTime + Math.pow(qHat, 3) * serviceTime;
+        }
+
+        public int outstanding() {
+            return outstanding.get();
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("responseTime=%.0f serviceTime=%.0f queueSize=%.1f outstanding=%d", responseTime, serviceTime, queueSize, outstanding.get());
+        }
+    }
+
+    private NodeStats nodeStats(String nodeId) {
+        NodeStats stats = nodeStats.get(nodeId);
+        if (stats == null) {
+            stats = new NodeStats();
+            NodeStats previous = nodeStats.putIfAbsent(nodeId, stats);
+            if (previous != null)
+                stats = previous;
+        }
+        return stats;
+    }
+
+    /**
+     * Remove the statistics of nodes that left the cluster.
+     */
+    public void retain(DiscoveryNodes nodes) {
+        for (String nodeId : nodeStats.keySet()) {
+            if (!nodes.nodeExists(nodeId))
+                nodeStats.remove(nodeId);
+        }
+    }
+
+    @Nullable
+    public NodeStats getNodeStats(DiscoveryNode node) {
+        return nodeStats.get(node.id());
+    }
+
+    /**
+     * Wraps the listener to record the response time and response headers of a search request sent to node.
+     */
+    public <Response extends TransportResponse> ActionListener<Response> wrap(final DiscoveryNode node, final ActionListener<Response> listener) {
+        final NodeStats stats = nodeStats(node.id());
+        final long startTime = System.nanoTime();
+        stats.outstanding.incrementAndGet();
+        return new ActionListener<Response>() {
+            @Override
+            public void onResponse(Response response) {
+                stats.outstanding.decrementAndGet();
+                Number serviceTime = response.getHeader(SERVICE_TIME_HEADER);
+                Number queueSize = response.getHeader(QUEUE_SIZE_HEADER);
+                stats.update(System.nanoTime() - startTime, serviceTime, queueSize);
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                stats.outstanding.decrementAndGet();
+                // a failure is accounted as a slow response to move searches away from the node, even when it fails fast.
+                stats.update(Math.max(System.nanoTime() - startTime, FAILURE_PENALTY_NANOS), null, null);
+                listener.onFailure(e);
+            }
+        };
+    }
+}
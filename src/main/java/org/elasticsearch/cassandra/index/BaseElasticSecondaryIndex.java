@@ -26,6 +26,7 @@ import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.cql3.ColumnIdentifier;
 import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.index.PerRowSecondaryIndex;
 import org.apache.cassandra.db.index.SecondaryIndexSearcher;
@@ -101,6 +102,26 @@ public abstract class BaseElasticSecondaryIndex extends PerRowSecondaryIndex imp
     }
     
     public abstract void initMapping();
+    
+    /**
+     * @return the write path metrics of the secondary index, or null if not instrumented.
+     */
+    public SecondaryIndexMetrics metrics() {
+        return null;
+    }
+    
+    /**
+     * Called by compactions purging expired cells of a partition, the expired documents of the partition 
+     * are removed from Elasticsearch indices by the next {@link #purgeExpired()}, without writing any cassandra tombstone.
+     */
+    public void deleteExpired(DecoratedKey key) {
+    }
+    
+    /**
+     * Remove the expired documents of partitions registered by {@link #deleteExpired(DecoratedKey)}.
+     */
+    public void purgeExpired() {
+    }
 
     @Override
     public void init() {
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.index;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.elasticsearch.common.hash.MurmurHash3;
+import org.elasticsearch.index.mapper.ParseContext.Document;
+import org.elasticsearch.index.mapper.internal.TTLFieldMapper;
+import org.elasticsearch.index.mapper.internal.TimestampFieldMapper;
+import org.elasticsearch.index.mapper.internal.VersionFieldMapper;
+
+/**
+ * Hash of the Lucene fields of a document (including its nested documents), stored as a numeric doc value
+ * of the parent document, so that reindexing an unchanged Cassandra row can be skipped.
+ *
+ * @author vroyer
+ *
+ */
+public class ContentHash {
+
+    public static final String NAME = "_content_hash";
+
+    /**
+     * @return a 64 bits hash of the field names and values of docs, ignoring time dependent metadata fields.
+     */
+    public static long hash(List<Document> docs) {
+        final BytesRefBuilder bytes = new BytesRefBuilder();
+        for (Document doc : docs) {
+            for (IndexableField field : doc) {
+                final String name = field.name();
+                if (name.equals(NAME) || name.equals(VersionFieldMapper.NAME) || name.equals(TimestampFieldMapper.NAME) || name.equals(TTLFieldMapper.NAME))
+                    continue;
+                bytes.append(new BytesRef(name));
+                bytes.append((byte) 0);
+                if (field.binaryValue() != null) {
+                    bytes.append(field.binaryValue());
+                } else if (field.stringValue() != null) {
+                    bytes.append(new BytesRef(field.stringValue()));
+                } else if (field.numericValue() != null) {
+                    Number number = field.numericValue();
+                    long value = (number instanceof Double || number instanceof Float) ? Double.doubleToLongBits(number.doubleValue()) : number.longValue();
+                    for (int i = 0; i < 8; i++)
+                        bytes.append((byte) (value >>> (i * 8)));
+                }
+                bytes.append((byte) 0);
+            }
+        }
+        return MurmurHash3.hash128(bytes.bytes(), 0, bytes.length(), 0, new MurmurHash3.Hash128()).h1;
+    }
+
+    /**
+     * @return true if the live parent document of uid in reader has the provided content hash.
+     */
+    public static boolean matches(IndexReader reader, Term uid, long hash) throws IOException {
+        for (LeafReaderContext context : reader.leaves()) {
+            final LeafReader leaf = context.reader();
+            final Terms terms = leaf.terms(uid.field());
+            if (terms == null)
+                continue;
+            final TermsEnum termsEnum = terms.iterator();
+            if (!termsEnum.seekExact(uid.bytes()))
+                continue;
+            final NumericDocValues hashes = leaf.getNumericDocValues(NAME);
+            final Bits docsWithHash = leaf.getDocsWithField(NAME);
+            if (hashes == null || docsWithHash == null)
+                return false;
+            final Bits liveDocs = leaf.getLiveDocs();
+            // nested documents share the uid of their parent, only the parent has a content hash.
+            final PostingsEnum docs = termsEnum.postings(null, PostingsEnum.NONE);
+            for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+                if ((liveDocs == null || liveDocs.get(doc)) && docsWithHash.get(doc))
+                    return hashes.get(doc) == hash;
+            }
+        }
+        return false;
+    }
+}
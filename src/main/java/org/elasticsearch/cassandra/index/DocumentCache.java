@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.index;
+
+import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.MetricName;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.caffinitas.ohc.CacheSerializer;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+
+/**
+ * Off-heap, size bounded LRU cache of the documents rebuilt from Cassandra rows, serving GET and the search fetch phase.
+ * Entries are keyed by index, table and primary key, and hold the XContent source built for search hits or for GET.
+ * <p>
+ * Documents are removed by the Elasticsearch secondary index when their row is updated, and partition wide updates
+ * (static columns, partition or range deletions, expired partitions) invalidate the documents of the partition read before.
+ * Because the secondary index is updated before the mutation is visible, documents read less than
+ * {@link #WRITE_WINDOW_IN_MS} after an update of their row or partition are not cached. Cached documents expire
+ * after <code>elassandra.document_cache_max_age_in_ms</code> to bound the staleness of documents with expiring cells.
+ *
+ * @author vroyer
+ *
+ */
+public class DocumentCache {
+
+    public static final long SIZE_IN_MB = Long.getLong("elassandra.document_cache_size_in_mb", 0);
+    public static final long MAX_AGE_IN_MS = Long.getLong("elassandra.document_cache_max_age_in_ms", 60000);
+
+    /**
+     * The node document cache, null when disabled.
+     */
+    public static final DocumentCache instance = (SIZE_IN_MB > 0) ? new DocumentCache(SIZE_IN_MB * 1024 * 1024) : null;
+
+    public enum Form {
+        // source rebuilt with the document mapper for search hits
+        SEARCH('s'),
+        // source map of the row for GET
+        GET('g');
+
+        final char prefix;
+
+        Form(char prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    private static final String GROUP = "org.apache.cassandra.metrics";
+    private static final String TYPE = "ElasticDocumentCache";
+    private static final int STRIPES = 1 << 16;
+    static final long WRITE_WINDOW_IN_MS = 1000;
+
+    private final OHCache<String, Entry> cache;
+    // last update time of rows and partitions, by hash of their primary key.
+    private final AtomicLongArray rowUpdates = new AtomicLongArray(STRIPES);
+    private final AtomicLongArray partitionUpdates = new AtomicLongArray(STRIPES);
+    final Counter hits;
+    final Counter misses;
+
+    DocumentCache(long capacity) {
+        this.cache = OHCacheBuilder.<String, Entry>newBuilder()
+                .capacity(capacity)
+                .keySerializer(new KeySerializer())
+                .valueSerializer(new EntrySerializer())
+                .build();
+        this.hits = register("Hits", new Counter());
+        this.misses = register("Misses", new Counter());
+        register("HitRate", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return hitRate();
+            }
+        });
+        register("Evictions", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.stats().getEvictionCount();
+            }
+        });
+        register("Entries", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.size();
+            }
+        });
+        register("Size", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.memUsed();
+            }
+        });
+        register("Capacity", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.capacity();
+            }
+        });
+    }
+
+    private static <T extends com.codahale.metrics.Metric> T register(String name, T metric) {
+        MetricName metricName = new MetricName(GROUP, TYPE, name, null, GROUP + ":type=" + TYPE + ",name=" + name);
+        return Metrics.register(metricName, metric);
+    }
+
+    /**
+     * Key of a document, to be built before reading the document.
+     * @param pkValues partition key values, followed by clustering key values for a row of a wide table.
+     * @param staticDocument true for the document of the static columns of a partition.
+     */
+    public Key key(String index, CFMetaData metadata, Object[] pkValues, boolean staticDocument) {
+        return new Key(index, metadata, pkValues, staticDocument);
+    }
+
+    /**
+     * @return the cached source, or null. Entries read close to an update of their row or partition are dropped, 
+     * because the update may have invalidated the row before the entry was put.
+     */
+    public byte[] get(Form form, Key key) {
+        Entry entry = cache.get(form.prefix + key.key);
+        if (entry == null) {
+            misses.inc();
+            return null;
+        }
+        if (entry.timestamp - rowUpdates.get(key.rowStripe) < WRITE_WINDOW_IN_MS || entry.timestamp - partitionUpdates.get(key.partitionStripe) < WRITE_WINDOW_IN_MS 
+                || key.timestamp - entry.timestamp > MAX_AGE_IN_MS) {
+            cache.remove(form.prefix + key.key);
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return entry.source;
+    }
+
+    /**
+     * Cache the source read after the key was built, unless the document was recently updated.
+     */
+    public void put(Form form, Key key, byte[] source) {
+        if (key.timestamp - rowUpdates.get(key.rowStripe) < WRITE_WINDOW_IN_MS || key.timestamp - partitionUpdates.get(key.partitionStripe) < WRITE_WINDOW_IN_MS)
+            return;
+        cache.put(form.prefix + key.key, new Entry(key.timestamp, source));
+    }
+
+    /**
+     * Remove the cached documents of a row from the cache of each index.
+     */
+    public void invalidateRow(Collection<String> indices, CFMetaData metadata, Object[] pkValues, boolean staticDocument) {
+        for (String index : indices) {
+            Key key = new Key(index, metadata, pkValues, staticDocument);
+            rowUpdates.set(key.rowStripe, key.timestamp);
+            for (Form form : Form.values())
+                cache.remove(form.prefix + key.key);
+        }
+    }
+
+    /**
+     * Invalidate the cached documents of a partition.
+     * @param partitionKey components of the partition key.
+     */
+    public void invalidatePartition(CFMetaData metadata, ByteBuffer[] partitionKey) {
+        StringBuilder sb = new StringBuilder(metadata.ksName).append('.').append(metadata.cfName);
+        for (ByteBuffer component : partitionKey)
+            sb.append('/').append(ByteBufferUtil.bytesToHex(component));
+        partitionUpdates.set(stripe(sb.toString()), System.currentTimeMillis());
+    }
+
+    public double hitRate() {
+        long total = hits.getCount() + misses.getCount();
+        return (total == 0) ? 0 : (double) hits.getCount() / total;
+    }
+
+    public DocumentCacheStats stats() {
+        return new DocumentCacheStats(cache.size(), cache.memUsed(), cache.capacity(), hits.getCount(), misses.getCount(), cache.stats().getEvictionCount());
+    }
+
+    private static int stripe(String s) {
+        int h = s.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    public class Key {
+        final String key;
+        final int rowStripe;
+        final int partitionStripe;
+        final long timestamp = System.currentTimeMillis();
+
+        Key(String index, CFMetaData metadata, Object[] pkValues, boolean staticDocument) {
+            StringBuilder sb = new StringBuilder(metadata.ksName).append('.').append(metadata.cfName);
+            int ptLen = metadata.partitionKeyColumns().size();
+            for (int i = 0; i < ptLen; i++)
+                sb.append('/').append(hex(metadata.partitionKeyColumns().get(i), pkValues[i]));
+            this.partitionStripe = stripe(sb.toString());
+            for (int i = ptLen; i < pkValues.length; i++)
+                sb.append('/').append(hex(metadata.clusteringColumns().get(i - ptLen), pkValues[i]));
+            if (staticDocument)
+                sb.append("/static");
+            this.rowStripe = stripe(sb.toString());
+            this.key = sb.append('/').append(index).toString();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String hex(ColumnDefinition cd, Object value) {
+        return ByteBufferUtil.bytesToHex(((AbstractType<Object>) cd.type).decompose(value));
+    }
+
+    static class Entry {
+        // time the document read started
+        final long timestamp;
+        final byte[] source;
+
+        Entry(long timestamp, byte[] source) {
+            this.timestamp = timestamp;
+            this.source = source;
+        }
+    }
+
+    static class KeySerializer implements CacheSerializer<String> {
+        @Override
+        public void serialize(String key, DataOutput out) throws IOException {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public String deserialize(DataInput in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int serializedSize(String key) {
+            return 4 + key.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    static class EntrySerializer implements CacheSerializer<Entry> {
+        @Override
+        public void serialize(Entry entry, DataOutput out) throws IOException {
+            out.writeLong(entry.timestamp);
+            out.writeInt(entry.source.length);
+            out.write(entry.source);
+        }
+
+        @Override
+        public Entry deserialize(DataInput in) throws IOException {
+            long timestamp = in.readLong();
+            byte[] source = new byte[in.readInt()];
+            in.readFully(source);
+            return new Entry(timestamp, source);
+        }
+
+        @Override
+        public int serializedSize(Entry entry) {
+            return 12 + entry.source.length;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.index;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+
+/**
+ * Statistics of the node {@link DocumentCache}, counts are cumulative.
+ *
+ * @author vroyer
+ *
+ */
+public class DocumentCacheStats implements Streamable, ToXContent {
+    private long entries;
+    private long size;
+    private long capacity;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    DocumentCacheStats() {
+    }
+
+    DocumentCacheStats(long entries, long size, long capacity, long hits, long misses, long evictions) {
+        this.entries = entries;
+        this.size = size;
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    public static DocumentCacheStats readDocumentCacheStats(StreamInput in) throws IOException {
+        DocumentCacheStats stats = new DocumentCacheStats();
+        stats.readFrom(in);
+        return stats;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public double getHitRatio() {
+        return (hits + misses == 0) ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        entries = in.readVLong();
+        size = in.readVLong();
+        capacity = in.readVLong();
+        hits = in.readVLong();
+        misses = in.readVLong();
+        evictions = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVLong(entries);
+        out.writeVLong(size);
+        out.writeVLong(capacity);
+        out.writeVLong(hits);
+        out.writeVLong(misses);
+        out.writeVLong(evictions);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(Fields.DOCUMENT_CACHE);
+        builder.field(Fields.ENTRIES, entries);
+        builder.byteSizeField(Fields.SIZE_IN_BYTES, Fields.SIZE, size);
+        builder.byteSizeField(Fields.CAPACITY_IN_BYTES, Fields.CAPACITY, capacity);
+        builder.field(Fields.HITS, hits);
+        builder.field(Fields.MISSES, misses);
+        builder.field(Fields.HIT_RATIO, getHitRatio());
+        builder.field(Fields.EVICTIONS, evictions);
+        builder.endObject();
+        return builder;
+    }
+
+    static final class Fields {
+        static final XContentBuilderString DOCUMENT_CACHE = new XContentBuilderString("document_cache");
+        static final XContentBuilderString ENTRIES = new XContentBuilderString("entries");
+        static final XContentBuilderString SIZE = new XContentBuilderString("size");
+        static final XContentBuilderString SIZE_IN_BYTES = new XContentBuilderString("size_in_bytes");
+        static final XContentBuilderString CAPACITY = new XContentBuilderString("capacity");
+        static final XContentBuilderString CAPACITY_IN_BYTES = new XContentBuilderString("capacity_in_bytes");
+        static final XContentBuilderString HITS = new XContentBuilderString("hits");
+        static final XContentBuilderString MISSES = new XContentBuilderString("misses");
+        static final XContentBuilderString HIT_RATIO = new XContentBuilderString("hit_ratio");
+        static final XContentBuilderString EVICTIONS = new XContentBuilderString("evictions");
+    }
+}
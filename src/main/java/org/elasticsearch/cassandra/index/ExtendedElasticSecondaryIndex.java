@@ -29,8 +29,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import org.apache.cassandra.config.ColumnDefinition;
@@ -43,10 +47,13 @@ import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.DeletionInfo;
 import org.apache.cassandra.db.RangeTombstone;
+import org.apache.cassandra.db.commitlog.ElassandraCommitLogReplayer;
+import org.apache.cassandra.db.commitlog.ReplayPosition;
 import org.apache.cassandra.db.composites.CType;
 import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.Composite;
 import org.apache.cassandra.db.composites.CompoundSparseCellName;
+import org.apache.cassandra.db.index.SecondaryIndexBuilder;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.BytesType;
 import org.apache.cassandra.db.marshal.CollectionType;
@@ -63,23 +70,29 @@ import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.concurrent.OpOrder.Group;
 import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.TermsQuery;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
 import org.apache.lucene.util.CloseableThreadLocal;
+import org.apache.lucene.util.NumericUtils;
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.node.ArrayNode;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.admin.indices.flush.FlushRequest;
 import org.elasticsearch.cassandra.cluster.InternalCassandraClusterService;
+import org.elasticsearch.cassandra.index.SecondaryIndexMetrics.Phase;
+import org.elasticsearch.cassandra.indices.CassandraIndicesClusterStateService;
 import org.elasticsearch.cluster.ClusterChangedEvent;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
@@ -94,6 +107,8 @@ import org.elasticsearch.common.geo.builders.ShapeBuilder;
 import org.elasticsearch.common.lucene.all.AllEntries;
 import org.elasticsearch.common.lucene.uid.Versions;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentParser;
@@ -132,6 +147,7 @@ import org.elasticsearch.index.mapper.object.RootObjectMapper;
 import org.elasticsearch.index.shard.IndexShard;
 import org.elasticsearch.index.shard.IndexShardState;
 import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.indices.ttl.IndicesTTLService;
 import org.elasticsearch.percolator.PercolatorService;
 
 import com.carrotsearch.hppc.cursors.ObjectCursor;
@@ -662,13 +678,15 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
             final boolean refresh;
             final boolean includeNodeId;
             final IndexService indexService;
-            Map<String,Object> mapping;
+            final Map<String,Object> mapping;
+            final SecondaryIndexMetrics.IndexMetrics metrics;
             
             public IndexInfo(String name, IndexService indexService, MappingMetaData mappingMetaData) throws IOException {
                 this.name = name;
                 this.indexService = indexService;
+                this.metrics = ExtendedElasticSecondaryIndex.this.metrics.index(name);
                 this.mapping = mappingMetaData.sourceAsMap();
-                this.refresh = false;
+                this.refresh = indexService.indexSettings().getAsBoolean(IndexMetaData.SETTING_SYNCHRONOUS_REFRESH, false);
                 this.includeNodeId = indexService.indexSettings().getAsBoolean(IndexMetaData.SETTING_INCLUDE_NODE, false);
             }
 
@@ -736,16 +754,19 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
         final BitSet fieldsIsStatic;
         final boolean[] indexedPkColumns;
         final long metadataVersion;
+        final long clusterStateVersion;
         final String nodeId;
         final String typeName = ClusterService.Utils.cfNameToType(ExtendedElasticSecondaryIndex.this.baseCfs.metadata.cfName);
-        boolean forceStatic = false;
+        final boolean forceStatic;
         
         MappingInfo(final ClusterState state) {
             this.metadataVersion = state.metaData().version();
+            this.clusterStateVersion = state.version();
             this.nodeId = state.nodes().localNodeId();
             
             if (state.blocks().hasGlobalBlock(ClusterBlockLevel.WRITE)) {
                 logger.debug("global write blocked");
+                this.forceStatic = false;
                 this.fields = null;
                 this.fieldsToRead = null;
                 this.fieldsIsStatic = null;
@@ -756,6 +777,7 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
             
             Map<String, Boolean> fieldsMap = new HashMap<String, Boolean>();
             Map<String, PartitionFunction> partFuncs = null;
+            boolean staticForced = false;
             
             for(Iterator<IndexMetaData> indexMetaDataIterator = state.metaData().iterator(); indexMetaDataIterator.hasNext(); ) {
                 IndexMetaData indexMetaData = indexMetaDataIterator.next();
@@ -780,7 +802,7 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                         	Map<String,Object> meta = (Map<String,Object>)mappingMap.get("_meta");
                         	if (meta.get("_static") != null) {
                         		logger.debug("_meta _static for {}" , index);
-                        		forceStatic = true;
+                        		staticForced = true;
                         	}
                         		
                         }
@@ -835,6 +857,7 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                     }
                 }
             }
+            this.forceStatic = staticForced;
             
             if (indices.size() == 0) {
                 if (logger.isTraceEnabled())
@@ -963,6 +986,19 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
             final Object[] pkCols = new Object[baseCfs.metadata.partitionKeyColumns().size()+baseCfs.metadata.clusteringColumns().size()];
             final String partitionKey;
             
+            // index operations of the partition update, applied per index in a single engine call.
+            final Map<IndexInfo, List<Engine.Index>> batches = new HashMap<IndexInfo, List<Engine.Index>>();
+            
+            // commitlog position of the mutation when replaying the commitlog.
+            final ReplayPosition replayPosition = ElassandraCommitLogReplayer.currentReplayPosition();
+            
+            // when reindexing repaired or loaded SSTables, skip documents having the same content hash.
+            final boolean reconciling = SecondaryIndexBuilder.isReconciling();
+            final Map<IndexInfo, Engine.Searcher> searchers = reconciling ? new HashMap<IndexInfo, Engine.Searcher>() : null;
+            
+            // when verifying indices, only add the content hash of documents to the digest.
+            final IndexDigest digest = SecondaryIndexBuilder.currentDigest();
+            
             public RowcumentFactory(final ByteBuffer rowKey, final ColumnFamily cf) throws JsonGenerationException, JsonMappingException, IOException {
                 this.rowKey = rowKey;
                 this.cf = cf;
@@ -982,19 +1018,104 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
             
            
             public void index(Iterator<Cell> cellIterator) throws IOException {
-                Rowcument doc = new Rowcument(cellIterator.next());
-                while (cellIterator.hasNext()) {
-                    Cell cell = cellIterator.next();
-                    CellName cellName = cell.name();
-                    assert cellName instanceof CompoundSparseCellName;
-                    if (baseCfs.metadata.clusteringColumns().size() > 0 && cellName.clusteringSize() > 0)  {
-                        doc.flush();
-                        doc = new Rowcument(cell);
-                    } else {
-                        doc.readCellValue(cell);
+                try {
+                    Rowcument doc = new Rowcument(cellIterator.next());
+                    while (cellIterator.hasNext()) {
+                        Cell cell = cellIterator.next();
+                        CellName cellName = cell.name();
+                        assert cellName instanceof CompoundSparseCellName;
+                        if (baseCfs.metadata.clusteringColumns().size() > 0 && cellName.clusteringSize() > 0)  {
+                            doc.flush();
+                            doc = new Rowcument(cell);
+                        } else {
+                            doc.readCellValue(cell);
+                        }
+                    }
+                    doc.flush();
+                    indexBatches();
+                } finally {
+                    if (searchers != null) {
+                        for(Engine.Searcher searcher : searchers.values())
+                            searcher.close();
+                        searchers.clear();
                     }
                 }
-                doc.flush();
+            }
+            
+            /**
+             * When reconciling, returns true if the indexed document has the same content hash.
+             */
+            boolean unchanged(IndexInfo indexInfo, Term uid, long contentHash) {
+                final IndexShard indexShard = indexInfo.shard();
+                if (indexShard == null)
+                    return false;
+                Engine.Searcher searcher = searchers.get(indexInfo);
+                if (searcher == null) {
+                    searcher = indexShard.acquireSearcher("reconcile");
+                    searchers.put(indexInfo, searcher);
+                }
+                try {
+                    return ContentHash.matches(searcher.reader(), uid, contentHash);
+                } catch (IOException e) {
+                    logger.warn("failed to read the content hash of {} in index {}", e, uid.text(), indexInfo.name);
+                    return false;
+                }
+            }
+            
+            /**
+             * When replaying the commitlog, returns true if the last Lucene commit of the index already covers the mutation.
+             * The engine does not advance the committed position while the commitlog is replayed, so it stays the one
+             * of the commit found at startup for the whole replay.
+             */
+            boolean alreadyIndexed(IndexShard indexShard) {
+                if (replayPosition == null)
+                    return false;
+                ReplayPosition committed = indexShard.committedCommitLogPosition();
+                return committed != null && replayPosition.compareTo(committed) <= 0;
+            }
+            
+            void indexBatches() {
+                for(Map.Entry<IndexInfo, List<Engine.Index>> entry : batches.entrySet()) {
+                    final IndexInfo indexInfo = entry.getKey();
+                    final List<Engine.Index> operations = entry.getValue();
+                    final IndexShard indexShard = indexInfo.shard();
+                    if (indexShard == null)
+                        continue;
+                    
+                    try {
+                        final long start = System.nanoTime();
+                        final Throwable[] failures = new Throwable[operations.size()];
+                        final boolean[] created = indexShard.index(operations, failures);
+                        indexInfo.metrics.record(Phase.ENGINE_INDEX, start);
+                        for(int i=0; i < operations.size(); i++) {
+                            Engine.Index operation = operations.get(i);
+                            if (failures[i] != null) {
+                                logger.error("failed to index document index={} type={} id={}", failures[i], indexInfo.name, typeName, operation.id());
+                                continue;
+                            }
+                            indexInfo.metrics.indexed.inc();
+                            if (logger.isDebugEnabled()) {
+                                logger.debug("document CF={}.{} index={} type={} id={} version={} created={} ttl={} refresh={} ", 
+                                    baseCfs.metadata.ksName, baseCfs.metadata.cfName,
+                                    indexInfo.name, typeName,
+                                    operation.id(), operation.version(), created[i], operation.ttl(), indexInfo.refresh);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        logger.error("error", e);
+                    }
+                    
+                    if (indexInfo.refresh) {
+                        try {
+                            final long start = System.nanoTime();
+                            indexShard.refreshAndWait("refresh_flag_index");
+                            indexInfo.metrics.record(Phase.REFRESH, start);
+                        } catch (Throwable e) {
+                            logger.error("error", e);
+                        }
+                    }
+                }
+                batches.clear();
             }
                 
             
@@ -1003,8 +1124,11 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
              * @throws IOException
              */
             public void prune() throws IOException {
+                if (digest != null)
+                    return;
                 DeletionInfo deletionInfo = cf.deletionInfo();
                 if (!deletionInfo.isLive()) {
+                    invalidateCachedPartition(rowKey);
                     if (deletionInfo.hasRanges()) {
                         Iterator<RangeTombstone> it = deletionInfo.rangeIterator();
                         while (it.hasNext()) {
@@ -1030,7 +1154,8 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                 
                 for (MappingInfo.IndexInfo indexInfo : targetIndicesForDelete(values.toArray())) {
                     IndexShard indexShard = indexInfo.indexService.shard(0);
-                    if (indexShard != null) {
+                    if (indexShard != null && !alreadyIndexed(indexShard)) {
+                        final long start = System.nanoTime();
                     	if (baseCfs.metadata.clusteringColumns().size() > 0) {
                     		// delete by query a wide row
 	                    	BooleanQuery.Builder builder = new BooleanQuery.Builder();
@@ -1056,13 +1181,17 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                     		if (logger.isTraceEnabled())
                                 logger.trace("deleting by id document from index.type={}.{} where partition_key={}", indexInfo.name, typeName, partitionKey);
                             
-                    		Engine.Delete delete = indexShard.prepareDelete(typeName, partitionKey, Versions.MATCH_ANY, VersionType.INTERNAL, Engine.Operation.Origin.PRIMARY);
+                    		Engine.Delete delete = indexShard.prepareDelete(typeName, partitionKey, Versions.MATCH_ANY, VersionType.INTERNAL, Engine.Operation.Origin.PRIMARY, true);
                             indexShard.delete(delete);
                     	}
+                        indexInfo.metrics.record(Phase.ENGINE_DELETE, start);
+                        indexInfo.metrics.deleted.inc();
                     	
                         if (indexInfo.refresh) {
                             try {
-                                indexShard.refresh("refresh_flag_index");
+                                final long refreshStart = System.nanoTime();
+                                indexShard.refreshAndWait("refresh_flag_index");
+                                indexInfo.metrics.record(Phase.REFRESH, refreshStart);
                             } catch (Throwable e) {
                                 logger.error("error", e);
                             }
@@ -1386,7 +1515,9 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                                 if (logger.isTraceEnabled()) {
                                     logger.trace(" {}.{} id={} missing columns names={} hasMissingClusteringKeys={}",baseCfs.metadata.ksName, baseCfs.metadata.cfName, id, missingColumns, hasMissingClusteringKeys);
                                 }
+                                final long start = System.nanoTime();
                                 UntypedResultSet results = getClusterService().fetchRowInternal(baseCfs.metadata.ksName, null, baseCfs.metadata.cfName, missingColumns, pk, hasStaticUpdate);
+                                metrics.record(Phase.READ_BEFORE_WRITE, start);
                                 if (!results.isEmpty()) {
                                     Object[] missingValues = rowAsArray(results.one());
                                     for(int i=0; i < x; i++) {
@@ -1513,7 +1644,11 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                     long ttl = (long)((this.docTtl < Integer.MAX_VALUE) ? this.docTtl : 0);
                     
                     for(IndexInfo ii : MappingInfo.this.targetIndices(values)) {
+                        final IndexShard shard = ii.shard();
+                        if (shard != null && alreadyIndexed(shard))
+                            continue;
                         try {
+                            final long buildStart = System.nanoTime();
                             Context context = buildContext(ii, staticDocumentOnly);
                             if (staticDocumentOnly &&  !(forceStatic || context.hasStaticField())) 
                                 continue;
@@ -1529,6 +1664,22 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                                 
                             }
                             context.finalize();
+                            ii.metrics.record(Phase.BUILD_CONTEXT, buildStart);
+                            
+                            // the content hash is stored in the parent document, last after finalize.
+                            final long contentHash = ContentHash.hash(context.docs());
+                            if (digest != null) {
+                                digest.add(context.indexInfo.name, token, uid.stringValue(), contentHash);
+                                continue;
+                            }
+                            if (reconciling && unchanged(context.indexInfo, context.docMapper.uidMapper().term(uid.stringValue()), contentHash)) {
+                                if (logger.isTraceEnabled())
+                                    logger.trace("index={} id={} unchanged, skipping", context.indexInfo.name, uid.stringValue());
+                                ii.metrics.unchanged.inc();
+                                continue;
+                            }
+                            context.docs().get(context.docs().size() - 1).add(new NumericDocValuesField(ContentHash.NAME, contentHash));
+                            
                             final ParsedDocument parsedDoc = new ParsedDocument(
                                     uid, 
                                     context.version(), 
@@ -1538,7 +1689,7 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                                     System.currentTimeMillis(), // timstamp
                                     ttl,
                                     token.longValue(), 
-                                    context.docs(), 
+                                    new ArrayList<Document>(context.docs()), // context is reused by the next row of the batch.
                                     context.source(), // source 
                                     (Mapping)null); // mappingUpdate
                             
@@ -1555,25 +1706,15 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                                         VersionType.INTERNAL, 
                                         Engine.Operation.Origin.PRIMARY, 
                                         startTime, 
-                                        false);
-                                
-                                final boolean created = operation.execute(indexShard);
-                                final long version = operation.version();
+                                        false,
+                                        true); // blind write, Cassandra already resolved the write conflict.
                                 
-                                if (context.indexInfo.refresh) {
-                                    try {
-                                        indexShard.refresh("refresh_flag_index");
-                                    } catch (Throwable e) {
-                                        logger.error("error", e);
-                                    }
-                                }
-                                
-                                if (logger.isDebugEnabled()) {
-                                    logger.debug("document CF={}.{} index={} type={} id={} version={} created={} ttl={} refresh={} ", 
-                                        baseCfs.metadata.ksName, baseCfs.metadata.cfName,
-                                        context.indexInfo.name, typeName,
-                                        parsedDoc.id(), version, created, ttl, context.indexInfo.refresh);
+                                List<Engine.Index> batch = batches.get(context.indexInfo);
+                                if (batch == null) {
+                                    batch = new ArrayList<Engine.Index>();
+                                    batches.put(context.indexInfo, batch);
                                 }
+                                batch.add(operation);
                              }
                         } catch (IOException e) {
                             logger.error("error", e);
@@ -1584,15 +1725,20 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                 public void delete() {
                     for (MappingInfo.IndexInfo indexInfo : targetIndices(values)) {
                         final IndexShard indexShard = indexInfo.shard();
-                        if (indexShard != null) {
+                        if (indexShard != null && !alreadyIndexed(indexShard)) {
                             if (logger.isDebugEnabled())
                                 logger.debug("deleting document from index.type={}.{} id={}", indexInfo.name, typeName, id);
-                            Engine.Delete delete = indexShard.prepareDelete(typeName, id, Versions.MATCH_ANY, VersionType.INTERNAL, Engine.Operation.Origin.PRIMARY);
+                            final long start = System.nanoTime();
+                            Engine.Delete delete = indexShard.prepareDelete(typeName, id, Versions.MATCH_ANY, VersionType.INTERNAL, Engine.Operation.Origin.PRIMARY, true);
                             indexShard.delete(delete);
+                            indexInfo.metrics.record(Phase.ENGINE_DELETE, start);
+                            indexInfo.metrics.deleted.inc();
                             
                             if (indexInfo.refresh) {
                                 try {
-                                    indexShard.refresh("refresh_flag_index");
+                                    final long refreshStart = System.nanoTime();
+                                    indexShard.refreshAndWait("refresh_flag_delete");
+                                    indexInfo.metrics.record(Phase.REFRESH, refreshStart);
                                 } catch (Throwable e) {
                                     logger.error("error", e);
                                 }
@@ -1603,9 +1749,20 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                 
                 
                 public void flush() throws JsonGenerationException, JsonMappingException, IOException {
+                    invalidateCachedDocuments();
                     complete();
                     index();
                 }
+                
+                // remove the cached documents of the row, or of the partition when updating static columns.
+                void invalidateCachedDocuments() {
+                    if (DocumentCache.instance == null || digest != null)
+                        return;
+                    if (hasStaticUpdate)
+                        invalidateCachedPartition(rowKey);
+                    else
+                        DocumentCache.instance.invalidateRow(indices.keySet(), baseCfs.metadata, pkCols.clone(), false);
+                }
             }
 
         }
@@ -1614,14 +1771,47 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
     
 
  
-    // updated when create/open/close/remove an ES index.
-    protected ReadWriteLock mappingInfoLock = new ReentrantReadWriteLock();
+    // immutable snapshot replaced when create/open/close/remove an ES index, read without lock on the write path.
     private volatile MappingInfo mappingInfo;
+    
+    // per phase latencies of the write path.
+    private volatile SecondaryIndexMetrics metrics;
+    
+    // tokens of partitions having expired cells purged by compactions.
+    private final Set<Long> expiredTokens = ConcurrentHashMap.newKeySet();
+    private static final int EXPIRED_BATCH_SIZE = Integer.getInteger("elassandra.expired_batch_size", 1024);
+    // single thread deleting expired documents out of compaction threads, purges of all tables are serialized.
+    private static final ExecutorService EXPIRED_EXECUTOR = EsExecutors.newScaling("ttl_expired", 0, 1, 60, TimeUnit.SECONDS, EsExecutors.daemonThreadFactory("ttl_expired"));
+    private final AtomicBoolean expiredPurgeScheduled = new AtomicBoolean(false);
+    
+    // latest cluster state waiting for a MappingInfo rebuild, coalesced when cluster state changes faster than rebuilds.
+    private final AtomicReference<ClusterState> pendingClusterState = new AtomicReference<ClusterState>();
+    private final Object rebuildLock = new Object();
 
     public ExtendedElasticSecondaryIndex() {
         super();
     }
 
+    @Override
+    public void init() {
+        // IndexInfo of the MappingInfo built by init() register their metrics.
+        if (this.metrics != null)
+            this.metrics.release();
+        this.metrics = new SecondaryIndexMetrics(this.baseCfs.metadata.ksName, this.baseCfs.metadata.cfName);
+        super.init();
+    }
+
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        this.metrics.release();
+    }
+
+    @Override
+    public SecondaryIndexMetrics metrics() {
+        return this.metrics;
+    }
+
     /**
      * Index a mutation. Set empty field for deleted cells.
      */
@@ -1631,6 +1821,7 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
     		return;
     	
         try {
+            final MappingInfo mappingInfo = mappingInfo();
             if (mappingInfo == null) {
                 if (logger.isWarnEnabled())  
                     logger.warn("No Elasticsearch index ready");
@@ -1645,17 +1836,14 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
             if (logger.isTraceEnabled())
                 logger.trace("mappingInfo.metadataVersion={} indices={}", mappingInfo.metadataVersion, mappingInfo.indices.keySet());
             
-            mappingInfoLock.readLock().lock();
-            try {
-                final MappingInfo.RowcumentFactory docFactory = mappingInfo.new RowcumentFactory(rowKey, cf);
-                final Iterator<Cell> cellIterator = cf.iterator();
-                if (cellIterator.hasNext()) {
-                    docFactory.index(cellIterator);
-                } else {
-                    docFactory.prune();
-                }
-            } finally {
-                mappingInfoLock.readLock().unlock();
+            final long start = System.nanoTime();
+            final MappingInfo.RowcumentFactory docFactory = mappingInfo.new RowcumentFactory(rowKey, cf);
+            metrics.record(Phase.ROWCUMENT_FACTORY, start);
+            final Iterator<Cell> cellIterator = cf.iterator();
+            if (cellIterator.hasNext()) {
+                docFactory.index(cellIterator);
+            } else {
+                docFactory.prune();
             }
         } catch (Throwable e) {
             logger.error("error:", e);
@@ -1673,18 +1861,20 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
     	if (!runsElassandra) 
     		return;
     	
+    	final MappingInfo mappingInfo = mappingInfo();
         if (mappingInfo == null || mappingInfo.indices.size() == 0) {
             // TODO: save the update in a commit log to replay it later....
             logger.warn("Elastic node not ready, cannot delete document");
             return;
         }
 
+        invalidateCachedPartition(key.getKey());
         Token token = key.getToken();
         Long  token_long = (Long) token.getTokenValue();
         String typeName = ClusterService.Utils.cfNameToType(ExtendedElasticSecondaryIndex.this.baseCfs.metadata.cfName);
         
         // Delete documents where _token = token_long
-        for (MappingInfo.IndexInfo indexInfo : this.mappingInfo.indices.values()) {
+        for (MappingInfo.IndexInfo indexInfo : mappingInfo.indices.values()) {
             if (logger.isTraceEnabled())
                 logger.trace("deleting documents where _token={} from index.type={}.{} id={}", token_long, indexInfo.name, typeName);
             IndexShard indexShard = indexInfo.indexService.shard(0);
@@ -1695,6 +1885,89 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
             }
         }
     }
+    
+    /**
+     * Invalidate the cached documents of a partition.
+     */
+    private void invalidateCachedPartition(ByteBuffer partitionKey) {
+        if (DocumentCache.instance == null)
+            return;
+        Composite composite = baseCfs.metadata.getKeyValidatorAsCType().fromByteBuffer(partitionKey);
+        ByteBuffer[] components = new ByteBuffer[composite.size()];
+        for (int i = 0; i < components.length; i++)
+            components[i] = composite.get(i);
+        DocumentCache.instance.invalidatePartition(baseCfs.metadata, components);
+    }
+    
+    @Override
+    public void deleteExpired(DecoratedKey key) {
+        if (!runsElassandra)
+            return;
+        invalidateCachedPartition(key.getKey());
+        expiredTokens.add((Long) key.getToken().getTokenValue());
+        if (expiredTokens.size() >= EXPIRED_BATCH_SIZE)
+            purgeExpired();
+    }
+    
+    /**
+     * Schedule the deletion of documents having an expired _ttl in partitions purged by compactions, 
+     * so that compaction threads never wait for Lucene.
+     */
+    @Override
+    public void purgeExpired() {
+        if (expiredTokens.isEmpty() || !expiredPurgeScheduled.compareAndSet(false, true))
+            return;
+        try {
+            EXPIRED_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    expiredPurgeScheduled.set(false);
+                    doPurgeExpired();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            expiredPurgeScheduled.set(false);
+            logger.warn("failed to schedule the deletion of expired documents of [{}]", e, this.index_name);
+        }
+    }
+    
+    /**
+     * Delete documents having an expired _ttl in partitions purged by compactions, with a single search per index.
+     */
+    private void doPurgeExpired() {
+        final MappingInfo mappingInfo = this.mappingInfo;
+        if (expiredTokens.isEmpty() || mappingInfo == null)
+            return;
+        
+        final List<BytesRef> terms = new ArrayList<BytesRef>(expiredTokens.size());
+        for(Iterator<Long> it = expiredTokens.iterator(); it.hasNext(); ) {
+            BytesRefBuilder bytes = new BytesRefBuilder();
+            NumericUtils.longToPrefixCoded(it.next(), 0, bytes);
+            terms.add(bytes.toBytesRef());
+            it.remove();
+        }
+        
+        final long now = System.currentTimeMillis();
+        final String typeName = ClusterService.Utils.cfNameToType(this.baseCfs.metadata.cfName);
+        for (MappingInfo.IndexInfo indexInfo : mappingInfo.indices.values()) {
+            final IndexShard indexShard = indexInfo.shard();
+            final DocumentMapper docMapper = indexInfo.indexService.mapperService().documentMapper(typeName);
+            if (indexShard == null || docMapper == null || !docMapper.TTLFieldMapper().enabled())
+                continue;
+            try {
+                Query query = new BooleanQuery.Builder()
+                        .add(new TermsQuery(TokenFieldMapper.NAME, terms), Occur.FILTER)
+                        .add(new TermQuery(new Term(TypeFieldMapper.NAME, typeName)), Occur.FILTER)
+                        .add(docMapper.TTLFieldMapper().fieldType().rangeQuery(null, now, false, true), Occur.FILTER)
+                        .build();
+                int deleted = IndicesTTLService.deleteExpiredDocuments(indexShard, query, null);
+                if (logger.isDebugEnabled())
+                    logger.debug("deleted {} expired documents of {} partitions from index.type={}.{}", deleted, terms.size(), indexInfo.name, typeName);
+            } catch (Throwable e) {
+                logger.error("failed to delete expired documents from index [{}]", e, indexInfo.name);
+            }
+        }
+    }
 
     /**
      * Cassandra index flush => Elasticsearch flush => lucene commit and disk
@@ -1705,6 +1978,7 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
     	if (!runsElassandra) 
     		return;
     	
+    	final MappingInfo mappingInfo = this.mappingInfo;
         if (mappingInfo == null || mappingInfo.indices.size() == 0) {
             logger.trace("Elasticsearch not ready, cannot flush Elasticsearch index");
             return;
@@ -1729,20 +2003,65 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
     }
 
     
-    public void initMapping() {
-        mappingInfoLock.writeLock().lock();
+    public synchronized void initMapping() {
         try {
            if (!registred) {
                getClusterService().addLast(this);
                registred = true;
            }
-           mappingInfo = new MappingInfo(getClusterService().state());
+           MappingInfo newMappingInfo = new MappingInfo(getClusterService().state());
+           publishMappingInfo(newMappingInfo);
            logger.debug("Secondary index=[{}.{}] initialized, metadata.version={} mappingInfo.indices={}", 
-                   this.baseCfs.metadata.ksName, index_name, mappingInfo.metadataVersion,  mappingInfo.indices.keySet());
+                   this.baseCfs.metadata.ksName, index_name, newMappingInfo.metadataVersion,  newMappingInfo.indices.keySet());
         } catch(ElasticsearchException e) {
         	 logger.warn("Cannot initialize index=[{}.{}], cluster service not available.", this.baseCfs.metadata.ksName, index_name);
-        } finally {
-            mappingInfoLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Publish a new MappingInfo snapshot, unless the current one was built from a more recent cluster state.
+     */
+    private synchronized void publishMappingInfo(MappingInfo newMappingInfo) {
+        if (this.mappingInfo == null || newMappingInfo.clusterStateVersion >= this.mappingInfo.clusterStateVersion) {
+            this.mappingInfo = newMappingInfo;
+            this.metrics.retain(newMappingInfo.indices.keySet());
+        }
+    }
+    
+    /**
+     * @return the MappingInfo of the latest applied cluster state. When a rebuild is pending, wait for it (or build it),
+     * so that writes following an index or mapping change are indexed with the new mapping.
+     */
+    private MappingInfo mappingInfo() {
+        if (pendingClusterState.get() != null)
+            rebuildMappingInfo();
+        return this.mappingInfo;
+    }
+    
+    /**
+     * Build MappingInfo for the latest pending cluster state until no more recent state is pending.
+     */
+    private void rebuildMappingInfo() {
+        synchronized (rebuildLock) {
+            rebuildPendingMappingInfo();
+        }
+    }
+    
+    private void rebuildPendingMappingInfo() {
+        ClusterState state;
+        while ((state = pendingClusterState.get()) != null) {
+            try {
+                long start = System.nanoTime();
+                MappingInfo newMappingInfo = new MappingInfo(state);
+                publishMappingInfo(newMappingInfo);
+                logger.debug("secondary index=[{}.{}] metadata.version={} mappingInfo.indices={} built in {}",
+                        this.baseCfs.metadata.ksName, this.index_name, state.metaData().version(), newMappingInfo.indices.keySet(),
+                        TimeValue.timeValueNanos(System.nanoTime() - start));
+            } catch (Throwable t) {
+                logger.error("secondary index=[{}.{}] failed to build mapping for metadata.version={}", t,
+                        this.baseCfs.metadata.ksName, this.index_name, state.metaData().version());
+            }
+            pendingClusterState.compareAndSet(state, null);
         }
     }
     
@@ -1763,14 +2082,18 @@ public class ExtendedElasticSecondaryIndex extends BaseElasticSecondaryIndex {
                 }
             }
         }
-        if (updateMapping) {
-            mappingInfoLock.writeLock().lock();
+        if (updateMapping && pendingClusterState.getAndSet(event.state()) == null) {
+            // build the new MappingInfo out of the cluster state applier thread on the bounded mapping executor,
+            // so that tables of a node are processed concurrently, writes wait for the new snapshot meanwhile.
             try {
-                mappingInfo = new MappingInfo(event.state());
-                logger.debug("secondary index=[{}.{}] metadata.version={} mappingInfo.indices={}",
-                        this.baseCfs.metadata.ksName, this.index_name, event.state().metaData().version(), mappingInfo.indices.keySet() );
-            } finally {
-                mappingInfoLock.writeLock().unlock();
+                ElassandraDaemon.injector().getInstance(CassandraIndicesClusterStateService.class).mappingExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        rebuildMappingInfo();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rebuildMappingInfo();
             }
         }
     }
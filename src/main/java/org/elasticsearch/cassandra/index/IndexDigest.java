@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.index;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per index and per token range digest of document content hashes (see {@link ContentHash}).
+ * A range digest is the sum of the content hashes of its documents, so it does not depend on the document order.
+ *
+ * @author vroyer
+ *
+ */
+public class IndexDigest {
+
+    // range i is ]bounds[i], bounds[i+1]]
+    private final long[] bounds;
+    private final ConcurrentMap<String, AtomicLongArray> digests = new ConcurrentHashMap<String, AtomicLongArray>();
+    // uids of digested documents by index, when collected.
+    private final ConcurrentMap<String, Set<String>> uids;
+
+    public IndexDigest(long[] bounds) {
+        this(bounds, false);
+    }
+
+    /**
+     * @param collectUids when true, also collect the uids of digested documents.
+     */
+    public IndexDigest(long[] bounds, boolean collectUids) {
+        this.bounds = bounds;
+        this.uids = collectUids ? new ConcurrentHashMap<String, Set<String>>() : null;
+    }
+
+    public long[] bounds() {
+        return bounds;
+    }
+
+    public int range(long token) {
+        int i = Arrays.binarySearch(bounds, token);
+        return (i >= 0) ? Math.max(0, i - 1) : Math.min(bounds.length - 2, Math.max(0, -i - 2));
+    }
+
+    public void add(String index, long token, String uid, long contentHash) {
+        if (uids != null) {
+            Set<String> indexUids = uids.get(index);
+            if (indexUids == null) {
+                Set<String> previous = uids.putIfAbsent(index, indexUids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+                if (previous != null)
+                    indexUids = previous;
+            }
+            indexUids.add(uid);
+        }
+        AtomicLongArray indexDigests = digests.get(index);
+        if (indexDigests == null) {
+            AtomicLongArray previous = digests.putIfAbsent(index, indexDigests = new AtomicLongArray(bounds.length - 1));
+            if (previous != null)
+                indexDigests = previous;
+        }
+        indexDigests.addAndGet(range(token), contentHash);
+    }
+
+    /**
+     * @return the uids of digested documents of index, when collected.
+     */
+    public Set<String> uids(String index) {
+        Set<String> indexUids = (uids == null) ? null : uids.get(index);
+        return (indexUids == null) ? Collections.<String>emptySet() : indexUids;
+    }
+
+    /**
+     * @return the digest of each token range of index.
+     */
+    public long[] digests(String index) {
+        long[] result = new long[bounds.length - 1];
+        AtomicLongArray indexDigests = digests.get(index);
+        if (indexDigests != null) {
+            for (int i = 0; i < result.length; i++)
+                result[i] = indexDigests.get(i);
+        }
+        return result;
+    }
+}
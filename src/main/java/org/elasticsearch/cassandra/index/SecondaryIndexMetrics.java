@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.index;
+
+import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.MetricName;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * Latency of each phase of the Elasticsearch indexing of Cassandra writes, per table and per index,
+ * and of the Cassandra reads of the search fetch phase, per index.
+ * Timers are HdrHistogram based and registered as Cassandra metrics next to the table metrics, with the JMX names
+ * <code>org.apache.cassandra.metrics:type=ColumnFamily,keyspace=&lt;ks&gt;,scope=&lt;table&gt;[,index=&lt;index&gt;],name=Elastic&lt;Phase&gt;Latency</code>.
+ *
+ * @author vroyer
+ *
+ */
+public class SecondaryIndexMetrics {
+
+    private static final String GROUP = "org.apache.cassandra.metrics";
+    private static final String TYPE = "ColumnFamily";
+
+    public enum Phase {
+        // per table phases
+        ROWCUMENT_FACTORY("rowcument_factory", "RowcumentFactory", false),
+        READ_BEFORE_WRITE("read_before_write", "ReadBeforeWrite", false),
+        // per index phases
+        BUILD_CONTEXT("build_context", "BuildContext", true),
+        ENGINE_INDEX("engine_index", "EngineIndex", true),
+        ENGINE_DELETE("engine_delete", "EngineDelete", true),
+        REFRESH("refresh", "Refresh", true),
+        // per index fetch phases
+        CASSANDRA_FETCH("cassandra_fetch", "CassandraFetch", true),
+        BUILD_DOCUMENT("build_document", "BuildDocument", true);
+
+        public final String restName;
+        final String jmxName;
+        final boolean perIndex;
+
+        Phase(String restName, String jmxName, boolean perIndex) {
+            this.restName = restName;
+            this.jmxName = jmxName;
+            this.perIndex = perIndex;
+        }
+    }
+
+    private final String ksName;
+    private final String cfName;
+    private final Map<Phase, Timer> timers = new EnumMap<>(Phase.class);
+    private final List<MetricName> names = new ArrayList<>();
+    private final ConcurrentMap<String, IndexMetrics> indices = new ConcurrentHashMap<>();
+
+    public SecondaryIndexMetrics(String ksName, String cfName) {
+        this.ksName = ksName;
+        this.cfName = cfName;
+        for (Phase phase : Phase.values()) {
+            if (!phase.perIndex)
+                timers.put(phase, register(names, null, "Elastic" + phase.jmxName + "Latency", new Timer(new HdrReservoir())));
+        }
+    }
+
+    /**
+     * @return the metrics of an index mapped to a table, or null when the table has no elastic secondary index.
+     */
+    public static IndexMetrics of(String ksName, String cfName, String index) {
+        BaseElasticSecondaryIndex secondaryIndex = BaseElasticSecondaryIndex.elasticSecondayIndices.get(ksName + "." + cfName);
+        SecondaryIndexMetrics metrics = (secondaryIndex == null) ? null : secondaryIndex.metrics();
+        return (metrics == null) ? null : metrics.index(index);
+    }
+
+    public String keyspace() {
+        return ksName;
+    }
+
+    public String table() {
+        return cfName;
+    }
+
+    public void record(Phase phase, long startNanos) {
+        timers.get(phase).update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Timer timer(Phase phase) {
+        return timers.get(phase);
+    }
+
+    /**
+     * @return the metrics of an index, registered on first use.
+     */
+    public IndexMetrics index(String index) {
+        IndexMetrics metrics = indices.get(index);
+        if (metrics == null) {
+            synchronized (indices) {
+                metrics = indices.get(index);
+                if (metrics == null) {
+                    metrics = new IndexMetrics(index);
+                    indices.put(index, metrics);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    public Collection<IndexMetrics> indices() {
+        return indices.values();
+    }
+
+    /**
+     * Unregister the metrics of indices no longer mapped to the table.
+     */
+    public void retain(Collection<String> mappedIndices) {
+        synchronized (indices) {
+            for (IndexMetrics metrics : indices.values()) {
+                if (!mappedIndices.contains(metrics.index)) {
+                    indices.remove(metrics.index);
+                    metrics.release();
+                }
+            }
+        }
+    }
+
+    public void release() {
+        synchronized (indices) {
+            for (IndexMetrics metrics : indices.values())
+                metrics.release();
+            indices.clear();
+        }
+        for (MetricName name : names)
+            Metrics.remove(name);
+    }
+
+    private <T extends Metric> T register(List<MetricName> registered, String index, String name, T metric) {
+        String scope = ksName + "." + cfName + (index == null ? "" : "." + index);
+        String mbeanName = GROUP + ":type=" + TYPE + ",keyspace=" + ksName + ",scope=" + cfName + (index == null ? "" : ",index=" + index) + ",name=" + name;
+        MetricName metricName = new MetricName(GROUP, TYPE, name, scope, mbeanName);
+        // a previous instance of the secondary index may not have been released.
+        Metrics.remove(metricName);
+        registered.add(metricName);
+        return Metrics.register(metricName, metric);
+    }
+
+    public class IndexMetrics {
+        public final String index;
+        private final Map<Phase, Timer> timers = new EnumMap<>(Phase.class);
+        private final List<MetricName> names = new ArrayList<>();
+        final Counter indexed;
+        final Counter deleted;
+        final Counter unchanged;
+
+        IndexMetrics(String index) {
+            this.index = index;
+            for (Phase phase : Phase.values()) {
+                if (phase.perIndex)
+                    timers.put(phase, register(names, index, "Elastic" + phase.jmxName + "Latency", new Timer(new HdrReservoir())));
+            }
+            this.indexed = register(names, index, "ElasticIndexedDocuments", new Counter());
+            this.deleted = register(names, index, "ElasticDeletedDocuments", new Counter());
+            this.unchanged = register(names, index, "ElasticUnchangedDocuments", new Counter());
+        }
+
+        public void record(Phase phase, long startNanos) {
+            timers.get(phase).update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void update(Phase phase, long nanos) {
+            timers.get(phase).update(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public Timer timer(Phase phase) {
+            return timers.get(phase);
+        }
+
+        void release() {
+            for (MetricName name : names)
+                Metrics.remove(name);
+        }
+    }
+
+    /**
+     * HdrHistogram reservoir reporting the distribution of the values recorded during the last complete minute,
+     * without the sampling bias of the default exponentially decaying reservoir.
+     */
+    static class HdrReservoir implements Reservoir {
+        private static final long INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+        private final Recorder recorder = new Recorder(2);
+        // last complete interval, intervals end every INTERVAL_NANOS whether or not snapshots are read.
+        private Histogram interval = recorder.getIntervalHistogram();
+        private volatile long intervalEnd = System.nanoTime() + INTERVAL_NANOS;
+
+        @Override
+        public void update(long value) {
+            final long now = System.nanoTime();
+            if (now - intervalEnd >= 0)
+                roll(now);
+            recorder.recordValue(Math.max(0, value));
+        }
+
+        @Override
+        public int size() {
+            return getSnapshot().size();
+        }
+
+        @Override
+        public synchronized Snapshot getSnapshot() {
+            roll(System.nanoTime());
+            return new HdrSnapshot(interval);
+        }
+
+        private synchronized void roll(long now) {
+            if (now - intervalEnd < 0)
+                return;
+            final long elapsedIntervals = (now - intervalEnd) / INTERVAL_NANOS + 1;
+            interval = recorder.getIntervalHistogram();
+            if (elapsedIntervals > 1) {
+                // values were recorded before the last complete interval, which had no update.
+                interval.reset();
+            }
+            intervalEnd += elapsedIntervals * INTERVAL_NANOS;
+        }
+    }
+
+    static class HdrSnapshot extends Snapshot {
+        private final Histogram histogram;
+
+        HdrSnapshot(Histogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            return histogram.getValueAtPercentile(quantile * 100.0);
+        }
+
+        /**
+         * @return the values at each percentile, recorded values are not kept.
+         */
+        @Override
+        public long[] getValues() {
+            if (histogram.getTotalCount() == 0)
+                return new long[0];
+            long[] values = new long[100];
+            for (int i = 0; i < values.length; i++)
+                values[i] = histogram.getValueAtPercentile(i + 1);
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public long getMax() {
+            return histogram.getMaxValue();
+        }
+
+        @Override
+        public double getMean() {
+            return histogram.getTotalCount() == 0 ? 0 : histogram.getMean();
+        }
+
+        @Override
+        public long getMin() {
+            return histogram.getTotalCount() == 0 ? 0 : histogram.getMinValue();
+        }
+
+        @Override
+        public double getStdDev() {
+            return histogram.getTotalCount() == 0 ? 0 : histogram.getStdDeviation();
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                for (long value : getValues())
+                    out.printf("%d%n", value);
+            }
+        }
+    }
+}
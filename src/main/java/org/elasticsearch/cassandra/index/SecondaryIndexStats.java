@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.index;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.elasticsearch.cassandra.index.SecondaryIndexMetrics.IndexMetrics;
+import org.elasticsearch.cassandra.index.SecondaryIndexMetrics.Phase;
+import org.elasticsearch.cassandra.indices.CassandraIndicesClusterStateService.StartupTimings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * Node level statistics of the Elasticsearch indexing of Cassandra writes, reported by <code>_nodes/stats/secondary_index</code>.
+ * Latencies are in microseconds, percentiles cover the last complete minute and counts are cumulative.
+ *
+ * @author vroyer
+ *
+ */
+public class SecondaryIndexStats implements Streamable, ToXContent {
+
+    // by keyspace.table
+    private Map<String, TableStats> tables = new TreeMap<>();
+    private DocumentCacheStats documentCache;
+    // by index name
+    private Map<String, StartupTimings> startup = new TreeMap<>();
+
+    public SecondaryIndexStats() {
+    }
+
+    /**
+     * @param startupTimings startup timings of the indices opened by this node.
+     * @return statistics of the secondary indices of this node.
+     */
+    public static SecondaryIndexStats stats(Map<String, StartupTimings> startupTimings) {
+        SecondaryIndexStats stats = new SecondaryIndexStats();
+        for (BaseElasticSecondaryIndex index : BaseElasticSecondaryIndex.elasticSecondayIndices.values()) {
+            SecondaryIndexMetrics metrics = index.metrics();
+            if (metrics != null)
+                stats.tables.put(metrics.keyspace() + "." + metrics.table(), new TableStats(metrics));
+        }
+        if (DocumentCache.instance != null)
+            stats.documentCache = DocumentCache.instance.stats();
+        stats.startup.putAll(startupTimings);
+        return stats;
+    }
+
+    public Map<String, TableStats> getTables() {
+        return tables;
+    }
+
+    /**
+     * @return statistics of the document cache, null when disabled.
+     */
+    public DocumentCacheStats getDocumentCache() {
+        return documentCache;
+    }
+
+    /**
+     * @return the startup timings of the indices opened by this node, by index name.
+     */
+    public Map<String, StartupTimings> getStartup() {
+        return startup;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        int size = in.readVInt();
+        for (int i = 0; i < size; i++) {
+            String table = in.readString();
+            TableStats tableStats = new TableStats();
+            tableStats.readFrom(in);
+            tables.put(table, tableStats);
+        }
+        if (in.readBoolean())
+            documentCache = DocumentCacheStats.readDocumentCacheStats(in);
+        size = in.readVInt();
+        for (int i = 0; i < size; i++) {
+            String index = in.readString();
+            startup.put(index, StartupTimings.readStartupTimings(in));
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVInt(tables.size());
+        for (Map.Entry<String, TableStats> entry : tables.entrySet()) {
+            out.writeString(entry.getKey());
+            entry.getValue().writeTo(out);
+        }
+        out.writeOptionalStreamable(documentCache);
+        out.writeVInt(startup.size());
+        for (Map.Entry<String, StartupTimings> entry : startup.entrySet()) {
+            out.writeString(entry.getKey());
+            entry.getValue().writeTo(out);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(Fields.SECONDARY_INDEX);
+        for (Map.Entry<String, TableStats> entry : tables.entrySet()) {
+            builder.startObject(entry.getKey(), XContentBuilder.FieldCaseConversion.NONE);
+            entry.getValue().toXContent(builder, params);
+            builder.endObject();
+        }
+        if (documentCache != null)
+            documentCache.toXContent(builder, params);
+        builder.startObject(Fields.STARTUP);
+        for (Map.Entry<String, StartupTimings> entry : startup.entrySet()) {
+            builder.startObject(entry.getKey(), XContentBuilder.FieldCaseConversion.NONE);
+            entry.getValue().toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endObject();
+        builder.endObject();
+        return builder;
+    }
+
+    private static Map<String, PhaseStats> readPhases(StreamInput in) throws IOException {
+        Map<String, PhaseStats> phases = new TreeMap<>();
+        int size = in.readVInt();
+        for (int i = 0; i < size; i++) {
+            String phase = in.readString();
+            PhaseStats phaseStats = new PhaseStats();
+            phaseStats.readFrom(in);
+            phases.put(phase, phaseStats);
+        }
+        return phases;
+    }
+
+    private static void writePhases(StreamOutput out, Map<String, PhaseStats> phases) throws IOException {
+        out.writeVInt(phases.size());
+        for (Map.Entry<String, PhaseStats> entry : phases.entrySet()) {
+            out.writeString(entry.getKey());
+            entry.getValue().writeTo(out);
+        }
+    }
+
+    private static void phasesToXContent(XContentBuilder builder, Params params, Map<String, PhaseStats> phases) throws IOException {
+        for (Map.Entry<String, PhaseStats> entry : phases.entrySet()) {
+            builder.startObject(entry.getKey());
+            entry.getValue().toXContent(builder, params);
+            builder.endObject();
+        }
+    }
+
+    public static class TableStats implements Streamable, ToXContent {
+        private Map<String, PhaseStats> phases = new TreeMap<>();
+        // by index name
+        private Map<String, IndexStats> indices = new TreeMap<>();
+
+        TableStats() {
+        }
+
+        TableStats(SecondaryIndexMetrics metrics) {
+            for (Phase phase : Phase.values()) {
+                if (metrics.timer(phase) != null)
+                    phases.put(phase.restName, new PhaseStats(metrics.timer(phase)));
+            }
+            for (IndexMetrics indexMetrics : metrics.indices())
+                indices.put(indexMetrics.index, new IndexStats(indexMetrics));
+        }
+
+        public Map<String, PhaseStats> getPhases() {
+            return phases;
+        }
+
+        public Map<String, IndexStats> getIndices() {
+            return indices;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            phases = readPhases(in);
+            int size = in.readVInt();
+            for (int i = 0; i < size; i++) {
+                String index = in.readString();
+                IndexStats indexStats = new IndexStats();
+                indexStats.readFrom(in);
+                indices.put(index, indexStats);
+            }
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            writePhases(out, phases);
+            out.writeVInt(indices.size());
+            for (Map.Entry<String, IndexStats> entry : indices.entrySet()) {
+                out.writeString(entry.getKey());
+                entry.getValue().writeTo(out);
+            }
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            phasesToXContent(builder, params, phases);
+            builder.startObject(Fields.INDICES);
+            for (Map.Entry<String, IndexStats> entry : indices.entrySet()) {
+                builder.startObject(entry.getKey(), XContentBuilder.FieldCaseConversion.NONE);
+                entry.getValue().toXContent(builder, params);
+                builder.endObject();
+            }
+            builder.endObject();
+            return builder;
+        }
+    }
+
+    public static class IndexStats implements Streamable, ToXContent {
+        private long indexed;
+        private long deleted;
+        private long unchanged;
+        private Map<String, PhaseStats> phases = new TreeMap<>();
+
+        IndexStats() {
+        }
+
+        IndexStats(IndexMetrics metrics) {
+            this.indexed = metrics.indexed.getCount();
+            this.deleted = metrics.deleted.getCount();
+            this.unchanged = metrics.unchanged.getCount();
+            for (Phase phase : Phase.values()) {
+                if (metrics.timer(phase) != null)
+                    phases.put(phase.restName, new PhaseStats(metrics.timer(phase)));
+            }
+        }
+
+        public long getIndexed() {
+            return indexed;
+        }
+
+        public long getDeleted() {
+            return deleted;
+        }
+
+        public long getUnchanged() {
+            return unchanged;
+        }
+
+        public Map<String, PhaseStats> getPhases() {
+            return phases;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            indexed = in.readVLong();
+            deleted = in.readVLong();
+            unchanged = in.readVLong();
+            phases = readPhases(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(indexed);
+            out.writeVLong(deleted);
+            out.writeVLong(unchanged);
+            writePhases(out, phases);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.field(Fields.INDEXED, indexed);
+            builder.field(Fields.DELETED, deleted);
+            builder.field(Fields.UNCHANGED, unchanged);
+            phasesToXContent(builder, params, phases);
+            return builder;
+        }
+    }
+
+    public static class PhaseStats implements Streamable, ToXContent {
+        private long count;
+        private long mean;
+        private long p50;
+        private long p99;
+        private long p999;
+        private long max;
+
+        PhaseStats() {
+        }
+
+        PhaseStats(Timer timer) {
+            Snapshot snapshot = timer.getSnapshot();
+            this.count = timer.getCount();
+            this.mean = toMicros(snapshot.getMean());
+            this.p50 = toMicros(snapshot.getMedian());
+            this.p99 = toMicros(snapshot.get99thPercentile());
+            this.p999 = toMicros(snapshot.get999thPercentile());
+            this.max = toMicros(snapshot.getMax());
+        }
+
+        private static long toMicros(double nanos) {
+            return (long) (nanos / 1000);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return mean;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            count = in.readVLong();
+            mean = in.readVLong();
+            p50 = in.readVLong();
+            p99 = in.readVLong();
+            p999 = in.readVLong();
+            max = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(count);
+            out.writeVLong(mean);
+            out.writeVLong(p50);
+            out.writeVLong(p99);
+            out.writeVLong(p999);
+            out.writeVLong(max);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.field(Fields.COUNT, count);
+            builder.field(Fields.MEAN_IN_MICROS, mean);
+            builder.field(Fields.P50_IN_MICROS, p50);
+            builder.field(Fields.P99_IN_MICROS, p99);
+            builder.field(Fields.P999_IN_MICROS, p999);
+            builder.field(Fields.MAX_IN_MICROS, max);
+            return builder;
+        }
+    }
+
+    static final class Fields {
+        static final XContentBuilderString SECONDARY_INDEX = new XContentBuilderString("secondary_index");
+        static final XContentBuilderString INDICES = new XContentBuilderString("indices");
+        static final XContentBuilderString STARTUP = new XContentBuilderString("startup");
+        static final XContentBuilderString INDEXED = new XContentBuilderString("indexed");
+        static final XContentBuilderString DELETED = new XContentBuilderString("deleted");
+        static final XContentBuilderString UNCHANGED = new XContentBuilderString("unchanged");
+        static final XContentBuilderString COUNT = new XContentBuilderString("count");
+        static final XContentBuilderString MEAN_IN_MICROS = new XContentBuilderString("mean_in_micros");
+        static final XContentBuilderString P50_IN_MICROS = new XContentBuilderString("p50_in_micros");
+        static final XContentBuilderString P99_IN_MICROS = new XContentBuilderString("p99_in_micros");
+        static final XContentBuilderString P999_IN_MICROS = new XContentBuilderString("p999_in_micros");
+        static final XContentBuilderString MAX_IN_MICROS = new XContentBuilderString("max_in_micros");
+    }
+}
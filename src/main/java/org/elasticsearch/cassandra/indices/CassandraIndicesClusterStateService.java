@@ -15,9 +15,18 @@
  */
 package org.elasticsearch.cassandra.indices;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.elasticsearch.cassandra.cluster.routing.AbstractSearchStrategy;
 import org.elasticsearch.cassandra.gateway.CassandraGatewayService;
@@ -39,8 +48,16 @@ import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.compress.CompressedXContent;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
 import org.elasticsearch.index.IndexService;
 import org.elasticsearch.index.IndexShardAlreadyExistsException;
 import org.elasticsearch.index.aliases.IndexAliasesService;
@@ -75,6 +92,12 @@ public class CassandraIndicesClusterStateService extends AbstractLifecycleCompon
     private final Object mutex = new Object();
     
     private final FailedEngineHandler failedEngineHandler = new FailedEngineHandler();
+
+    public static final int INDICES_THREADS = Integer.getInteger("elassandra.indices_threads", Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor mappingExecutor;
+    private final ConcurrentMap<String, StartupTimings> startupTimings = ConcurrentCollections.newConcurrentMap();
     
     @Inject
     public CassandraIndicesClusterStateService(Settings settings, IndicesService indicesService, 
@@ -83,6 +106,8 @@ public class CassandraIndicesClusterStateService extends AbstractLifecycleCompon
         this.indicesService = indicesService;
         this.clusterService = clusterService;
         this.threadPool = threadPool;
+        this.executor = EsExecutors.newScaling("indices", 0, INDICES_THREADS, 60, TimeUnit.SECONDS, EsExecutors.daemonThreadFactory(settings, "indices"));
+        this.mappingExecutor = EsExecutors.newScaling("secondary_index_mappings", 0, INDICES_THREADS, 60, TimeUnit.SECONDS, EsExecutors.daemonThreadFactory(settings, "secondary_index_mappings"));
     }
 
     @Override
@@ -97,6 +122,8 @@ public class CassandraIndicesClusterStateService extends AbstractLifecycleCompon
 
     @Override
     protected void doClose() {
+        executor.shutdown();
+        mappingExecutor.shutdown();
     }
 
     @Override
@@ -207,66 +234,250 @@ public class CassandraIndicesClusterStateService extends AbstractLifecycleCompon
 
 
     private boolean applyNewIndices(final ClusterChangedEvent event) {
-    	boolean newShards = false;
+        final List<IndexMetaData> newIndices = new ArrayList<>();
         for (IndexMetaData indexMetaData : event.state().metaData()) {
-        	IndexService indexService = indicesService.indexService(indexMetaData.getIndex());
-			if (indexService == null && indexMetaData.getState() == State.OPEN) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("[{}] creating index", indexMetaData.getIndex());
+            if (indexMetaData.getState() != State.OPEN)
+                continue;
+            IndexService indexService = indicesService.indexService(indexMetaData.getIndex());
+            if (indexService == null || indexService.shard(0) == null)
+                newIndices.add(indexMetaData);
+        }
+        if (newIndices.isEmpty())
+            return false;
+
+        // index services, mappings and shards of distinct indices are independent, open them concurrently.
+        final long start = System.nanoTime();
+        final AtomicBoolean newShards = new AtomicBoolean();
+        final CountDownLatch latch = new CountDownLatch(newIndices.size());
+        for (final IndexMetaData indexMetaData : newIndices) {
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (openIndex(event, indexMetaData))
+                            newShards.set(true);
+                    } finally {
+                        latch.countDown();
+                    }
                 }
+            };
+            if (newIndices.size() == 1) {
+                task.run();
+            } else {
                 try {
-                    indexService = indicesService.createIndex(indexMetaData.getIndex(), indexMetaData.getSettings(), event.state().nodes().localNode().id());
-                } catch (Throwable e) {
-                	if (logger.isWarnEnabled()) {
-                        logger.warn("[{}][{}] failed to create index", indexMetaData.getIndex(),  indexMetaData.getIndexUUID());
-                    }
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    task.run();
+                }
+            }
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (newIndices.size() > 1)
+            logger.info("opened {} indices in {} with {} threads", newIndices.size(), TimeValue.timeValueNanos(System.nanoTime() - start), Math.min(INDICES_THREADS, newIndices.size()));
+        return newShards.get();
+    }
+
+    /**
+     * Create the index service, apply mappings and create the shard of an index, shard recovery is asynchronous.
+     * @return true if a new shard was created.
+     */
+    private boolean openIndex(final ClusterChangedEvent event, final IndexMetaData indexMetaData) {
+        final String index = indexMetaData.getIndex();
+        final StartupTimings timings = new StartupTimings();
+        IndexService indexService = indicesService.indexService(index);
+        if (indexService == null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("[{}] creating index", index);
+            }
+            long start = System.nanoTime();
+            try {
+                indexService = indicesService.createIndex(index, indexMetaData.getSettings(), event.state().nodes().localNode().id());
+            } catch (Throwable e) {
+                logger.warn("[{}][{}] failed to create index", e, index, indexMetaData.getIndexUUID());
+                return false;
+            }
+            timings.createIndex = elapsed(start);
+        }
+        if (indexService.shard(0) != null)
+            return false;
+
+        // parse mappings before opening the shard, so that applyMappings has nothing left to do for this index.
+        long start = System.nanoTime();
+        if (!applyMappings(indexMetaData))
+            return false;
+        timings.mappings = elapsed(start);
+
+        try {
+            if (logger.isDebugEnabled()) {
+                logger.debug("[{}][{}] creating shard", index, 0);
+            }
+            start = System.nanoTime();
+            final ShardRouting shardRouting = new ShardRouting(index, 0, clusterService.localNode().id(), true,
+                    ShardRoutingState.INITIALIZING,
+                    event.state().metaData().version(),
+                    IndexRoutingTable.UNASSIGNED_INFO_INDEX_CREATED,
+                    AbstractSearchStrategy.EMPTY_RANGE_TOKEN);
+            final IndexShard indexShard = indexService.createShard(0, shardRouting);
+            indexShard.shardRouting(shardRouting);
+            indexShard.addFailedEngineListener(failedEngineHandler);
+            timings.createShard = elapsed(start);
+
+            // try to recover if index was existing but has no shards.
+            final long recoveryStart = System.nanoTime();
+            indexShard.recoverFromStore(shardRouting, new StoreRecoveryService.RecoveryListener() {
+                @Override
+                public void onRecoveryDone() {
+                    logger.debug("[{}][{}] recovery done, shard state={}", shardRouting.index(),0, indexShard.state());
+                    indexShard.moveToStart();
+                    timings.recovered(StartupTimings.STARTED, recoveryStart);
+                    startupTimings.put(index, timings);
+                    logger.debug("[{}] started, {}", index, timings);
+                }
+
+                @Override
+                public void onIgnoreRecovery(String reason) {
+                    logger.warn("[{}][{}] recovery ignored", shardRouting.index(),0);
+                    timings.recovered(StartupTimings.RECOVERY_IGNORED, recoveryStart);
+                    startupTimings.put(index, timings);
+                }
+
+                @Override
+                public void onRecoveryFailed(IndexShardRecoveryException e) {
+                    logger.warn("[{}][{}] recovery failed", e, shardRouting.index(),0);
+                    timings.recovered(StartupTimings.RECOVERY_FAILED, recoveryStart);
+                    startupTimings.put(index, timings);
                 }
-            } 
-			if (indexService != null && indexService.shard(0) == null && indexMetaData.getState() == State.OPEN) {
-				try {
-	                if (logger.isDebugEnabled()) {
-	                    logger.debug("[{}][{}] creating shard", indexMetaData.getIndex(), 0);
-	                }
-	                ShardRouting shardRouting = new ShardRouting(indexMetaData.getIndex(), 0, clusterService.localNode().id(), true, 
-	                        ShardRoutingState.INITIALIZING, 
-	                        event.state().metaData().version(), 
-	                        IndexRoutingTable.UNASSIGNED_INFO_INDEX_CREATED, 
-	                        AbstractSearchStrategy.EMPTY_RANGE_TOKEN);
-	                IndexShard indexShard = indexService.createShard(0, shardRouting);
-	                indexShard.shardRouting(shardRouting);
-	                indexShard.addFailedEngineListener(failedEngineHandler);
-	                newShards = true;
-	                
-	                // try to recover if index was existing but has no shards.
-	                indexShard.recoverFromStore(shardRouting, new StoreRecoveryService.RecoveryListener() {
-						@Override
-						public void onRecoveryDone() {
-							logger.debug("[{}][{}] recovery done, shard state={}", shardRouting.index(),0, indexShard.state());
-							indexShard.moveToStart();
-						}
-
-						@Override
-						public void onIgnoreRecovery(String reason) {
-							logger.warn("[{}][{}] recovery ignored", shardRouting.index(),0);
-						}
-
-						@Override
-						public void onRecoveryFailed(IndexShardRecoveryException e) {
-							logger.warn("[{}][{}] recovery failed", e, shardRouting.index(),0);
-						}
-	                });
-	                
-	                
-	            } catch (IndexShardAlreadyExistsException e) {
-	                // ignore this, the method call can happen several times
-	            } catch (Throwable e) {
-	            	logger.error("Unexpected error", e);
-	                failAndRemoveShard(indexService, true, "failed to create shard", e);
-	            }
-			}
-			
-		}
-        return newShards;
+            });
+            return true;
+        } catch (IndexShardAlreadyExistsException e) {
+            // ignore this, the method call can happen several times
+        } catch (Throwable e) {
+            logger.error("Unexpected error", e);
+            failAndRemoveShard(indexService, true, "failed to create shard", e);
+        }
+        return false;
+    }
+
+    private static long elapsed(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the time spent in each startup phase of the indices opened by this node, by index name, 
+     * reported by <code>_nodes/stats/secondary_index</code>.
+     */
+    public Map<String, StartupTimings> startupTimings() {
+        return Collections.unmodifiableMap(startupTimings);
+    }
+
+    /**
+     * Bounded executor building secondary index mappings, distinct from the executor opening indices 
+     * so that mapping updates never wait for a node startup.
+     */
+    public Executor mappingExecutor() {
+        return mappingExecutor;
+    }
+
+    /**
+     * Time spent in milliseconds in each phase of an index opening, and the outcome of the shard recovery.
+     */
+    public static class StartupTimings implements Streamable, ToXContent {
+        public static final String STARTED = "started";
+        public static final String RECOVERY_IGNORED = "recovery_ignored";
+        public static final String RECOVERY_FAILED = "recovery_failed";
+
+        volatile long createIndex;
+        volatile long mappings;
+        volatile long createShard;
+        volatile long recovery;
+        volatile String state;
+
+        void recovered(String state, long recoveryStart) {
+            this.recovery = elapsed(recoveryStart);
+            this.state = state;
+        }
+
+        public static StartupTimings readStartupTimings(StreamInput in) throws IOException {
+            StartupTimings timings = new StartupTimings();
+            timings.readFrom(in);
+            return timings;
+        }
+
+        /**
+         * @return {@link #STARTED}, {@link #RECOVERY_IGNORED} or {@link #RECOVERY_FAILED}.
+         */
+        public String state() {
+            return state;
+        }
+
+        public long createIndex() {
+            return createIndex;
+        }
+
+        public long mappings() {
+            return mappings;
+        }
+
+        public long createShard() {
+            return createShard;
+        }
+
+        public long recovery() {
+            return recovery;
+        }
+
+        public long total() {
+            return createIndex + mappings + createShard + recovery;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            createIndex = in.readVLong();
+            mappings = in.readVLong();
+            createShard = in.readVLong();
+            recovery = in.readVLong();
+            state = in.readString();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(createIndex);
+            out.writeVLong(mappings);
+            out.writeVLong(createShard);
+            out.writeVLong(recovery);
+            out.writeString(state);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.field(Fields.STATE, state);
+            builder.field(Fields.TOTAL_IN_MILLIS, total());
+            builder.field(Fields.CREATE_INDEX_IN_MILLIS, createIndex);
+            builder.field(Fields.MAPPINGS_IN_MILLIS, mappings);
+            builder.field(Fields.CREATE_SHARD_IN_MILLIS, createShard);
+            builder.field(Fields.RECOVERY_IN_MILLIS, recovery);
+            return builder;
+        }
+
+        static final class Fields {
+            static final XContentBuilderString STATE = new XContentBuilderString("state");
+            static final XContentBuilderString TOTAL_IN_MILLIS = new XContentBuilderString("total_in_millis");
+            static final XContentBuilderString CREATE_INDEX_IN_MILLIS = new XContentBuilderString("create_index_in_millis");
+            static final XContentBuilderString MAPPINGS_IN_MILLIS = new XContentBuilderString("mappings_in_millis");
+            static final XContentBuilderString CREATE_SHARD_IN_MILLIS = new XContentBuilderString("create_shard_in_millis");
+            static final XContentBuilderString RECOVERY_IN_MILLIS = new XContentBuilderString("recovery_in_millis");
+        }
+
+        @Override
+        public String toString() {
+            return state + ", took [" + TimeValue.timeValueMillis(total()) + "], create_index [" + TimeValue.timeValueMillis(createIndex) +
+                    "], mappings [" + TimeValue.timeValueMillis(mappings) + "], create_shard [" + TimeValue.timeValueMillis(createShard) +
+                    "], recovery [" + TimeValue.timeValueMillis(recovery) + "]";
+        }
     }
 
      
@@ -302,42 +513,51 @@ public class CassandraIndicesClusterStateService extends AbstractLifecycleCompon
                 // we only create / update here
                 continue;
             }
-            List<String> typesToRefresh = new ArrayList<>();
-            String index = indexMetaData.getIndex();
-            IndexService indexService = indicesService.indexService(index);
-            if (indexService == null) {
-                // got deleted on us, ignore (closing the node)
-                return;
-            }
-            try {
-                MapperService mapperService = indexService.mapperService();
-                // first, go over and update the _default_ mapping (if exists)
-                if (indexMetaData.getMappings().containsKey(MapperService.DEFAULT_MAPPING)) {
-                    boolean requireRefresh = processMapping(index, mapperService, MapperService.DEFAULT_MAPPING, indexMetaData.mapping(MapperService.DEFAULT_MAPPING).source());
-                    if (requireRefresh) {
-                        typesToRefresh.add(MapperService.DEFAULT_MAPPING);
-                    }
+            applyMappings(indexMetaData);
+        }
+    }
+
+    /**
+     * @return false if the mappings of the index failed to apply.
+     */
+    private boolean applyMappings(IndexMetaData indexMetaData) {
+        List<String> typesToRefresh = new ArrayList<>();
+        String index = indexMetaData.getIndex();
+        IndexService indexService = indicesService.indexService(index);
+        if (indexService == null) {
+            // got deleted on us, ignore (closing the node)
+            return false;
+        }
+        try {
+            MapperService mapperService = indexService.mapperService();
+            // first, go over and update the _default_ mapping (if exists)
+            if (indexMetaData.getMappings().containsKey(MapperService.DEFAULT_MAPPING)) {
+                boolean requireRefresh = processMapping(index, mapperService, MapperService.DEFAULT_MAPPING, indexMetaData.mapping(MapperService.DEFAULT_MAPPING).source());
+                if (requireRefresh) {
+                    typesToRefresh.add(MapperService.DEFAULT_MAPPING);
                 }
+            }
 
-                // go over and add the relevant mappings (or update them)
-                for (ObjectCursor<MappingMetaData> cursor : indexMetaData.getMappings().values()) {
-                    MappingMetaData mappingMd = cursor.value;
-                    String mappingType = mappingMd.type();
-                    CompressedXContent mappingSource = mappingMd.source();
-                    if (mappingType.equals(MapperService.DEFAULT_MAPPING)) { // we processed _default_ first
-                        continue;
-                    }
-                    boolean requireRefresh = processMapping(index, mapperService, mappingType, mappingSource);
-                    if (requireRefresh) {
-                        typesToRefresh.add(mappingType);
-                    }
+            // go over and add the relevant mappings (or update them)
+            for (ObjectCursor<MappingMetaData> cursor : indexMetaData.getMappings().values()) {
+                MappingMetaData mappingMd = cursor.value;
+                String mappingType = mappingMd.type();
+                CompressedXContent mappingSource = mappingMd.source();
+                if (mappingType.equals(MapperService.DEFAULT_MAPPING)) { // we processed _default_ first
+                    continue;
+                }
+                boolean requireRefresh = processMapping(index, mapperService, mappingType, mappingSource);
+                if (requireRefresh) {
+                    typesToRefresh.add(mappingType);
                 }
-            } catch (Throwable t) {
-                // if we failed the mappings anywhere, we need to fail the shards for this index, note, we safeguard
-                // by creating the processing the mappings on the master, or on the node the mapping was introduced on,
-                // so this failure typically means wrong node level configuration or something similar
-                failAndRemoveShard(indexService, true, "failed to update mappings", t);
             }
+            return true;
+        } catch (Throwable t) {
+            // if we failed the mappings anywhere, we need to fail the shards for this index, note, we safeguard
+            // by creating the processing the mappings on the master, or on the node the mapping was introduced on,
+            // so this failure typically means wrong node level configuration or something similar
+            failAndRemoveShard(indexService, true, "failed to update mappings", t);
+            return false;
         }
     }
 
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.shard;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.compaction.CompactionManager;
+import org.apache.cassandra.db.index.SecondaryIndexBuilder;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.concurrent.Refs;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Bits;
+import org.elasticsearch.cassandra.index.ContentHash;
+import org.elasticsearch.cassandra.index.IndexDigest;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.engine.Engine.Operation;
+import org.elasticsearch.index.fieldvisitor.JustUidFieldsVisitor;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.internal.TokenFieldMapper;
+import org.elasticsearch.index.mapper.internal.TypeFieldMapper;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.IndexShardState;
+import org.elasticsearch.indices.IndicesService;
+
+import com.carrotsearch.hppc.cursors.ObjectCursor;
+
+/**
+ * Checks that Elasticsearch indices match the Cassandra data of a table, by comparing per token range digests of
+ * document content hashes computed from Lucene and from SSTables (see {@link IndexDigest}), and optionally reindexes
+ * the mismatching token ranges only.
+ *
+ * @author vroyer
+ *
+ */
+public class IndexDigestService extends AbstractComponent {
+
+    private final IndicesService indicesService;
+    private final ClusterService clusterService;
+
+    @Inject
+    public IndexDigestService(Settings settings, IndicesService indicesService, ClusterService clusterService) {
+        super(settings);
+        this.indicesService = indicesService;
+        this.clusterService = clusterService;
+    }
+
+    /**
+     * Compare the Lucene and SSTables digests of the token ranges of a table.
+     * @param indexThreads number of threads reading SSTables.
+     * @param ranges number of token ranges the ring is split in.
+     * @param repair when true, reindex the mismatching token ranges.
+     * @return the mismatching token ranges by index.
+     */
+    public List<String> verify(String ksName, String cfName, Set<String> idxNames, int indexThreads, int ranges, boolean repair) throws IOException {
+        if (!(DatabaseDescriptor.getPartitioner() instanceof Murmur3Partitioner))
+            throw new UnsupportedOperationException("Index verification requires the Murmur3Partitioner");
+        if (ranges < 1)
+            throw new IllegalArgumentException("Number of token ranges must be positive");
+
+        final ColumnFamilyStore cfs = Keyspace.open(ksName).getColumnFamilyStore(cfName);
+        final List<IndexShard> shards = shards(ksName, cfName);
+        final long[] bounds = SecondaryIndexBuilder.split(Long.MIN_VALUE, Long.MAX_VALUE, ranges);
+
+        // compare flushed data with refreshed indices, concurrent writes may cause transient mismatches.
+        cfs.forceBlockingFlush();
+        for (IndexShard indexShard : shards)
+            indexShard.refresh("verify");
+
+        final IndexDigest digest = new IndexDigest(bounds);
+        build(cfs, idxNames, indexThreads, null, digest);
+
+        final List<String> mismatches = new ArrayList<>();
+        final SortedSet<Integer> mismatchingRanges = new TreeSet<>();
+        int unknown = 0;
+        for (IndexShard indexShard : shards) {
+            final String index = indexShard.shardId().getIndex();
+            final boolean[] unhashed = new boolean[bounds.length - 1];
+            final long[] luceneDigests = digest(indexShard, cfName, bounds, unhashed);
+            final long[] dataDigests = digest.digests(index);
+            for (int i = 0; i < luceneDigests.length; i++) {
+                if (unhashed[i]) {
+                    // documents indexed without content hash cannot be verified.
+                    mismatches.add(String.format("%s ]%d,%d] unknown", index, bounds[i], bounds[i + 1]));
+                    unknown++;
+                } else if (luceneDigests[i] != dataDigests[i]) {
+                    mismatches.add(String.format("%s ]%d,%d]", index, bounds[i], bounds[i + 1]));
+                    mismatchingRanges.add(i);
+                }
+            }
+        }
+        logger.info("verified table [{}.{}] in {} token ranges, {} mismatches, {} unknown{}", ksName, cfName, ranges,
+                mismatches.size() - unknown, unknown, (repair && !mismatchingRanges.isEmpty()) ? ", repairing" : "");
+
+        if (repair) {
+            for (int i : mismatchingRanges)
+                repair(cfs, cfName, idxNames, indexThreads, shards, bounds[i], bounds[i + 1]);
+        }
+        return mismatches;
+    }
+
+    /**
+     * Reindex a token range, then delete the documents of the range that were indexed before the repair but are not in SSTables,
+     * so that the range is never missing documents while repairing.
+     */
+    private void repair(ColumnFamilyStore cfs, String type, Set<String> idxNames, int indexThreads, List<IndexShard> shards, long left, long right) throws IOException {
+        // documents indexed before the flush have their rows in the flushed SSTables, unless deleted.
+        final Map<IndexShard, Set<String>> indexed = new HashMap<>();
+        for (IndexShard indexShard : shards) {
+            indexShard.refresh("verify");
+            indexed.put(indexShard, uids(indexShard, type, left, right));
+        }
+        cfs.forceBlockingFlush();
+
+        final Range<Token> range = new Range<Token>(new Murmur3Partitioner.LongToken(left), new Murmur3Partitioner.LongToken(right));
+        final IndexDigest data = new IndexDigest(new long[] { left, right }, true);
+        build(cfs, idxNames, indexThreads, range, data);
+        build(cfs, idxNames, indexThreads, range, null);
+
+        for (IndexShard indexShard : shards) {
+            final Set<String> stale = indexed.get(indexShard);
+            stale.removeAll(data.uids(indexShard.shardId().getIndex()));
+            for (String uid : stale) {
+                Uid parsed = Uid.createUid(uid);
+                indexShard.delete(indexShard.prepareDelete(parsed.type(), parsed.id(), Versions.MATCH_ANY, VersionType.INTERNAL, Operation.Origin.PRIMARY, true));
+            }
+            if (logger.isDebugEnabled())
+                logger.debug("index [{}] repaired token range ]{},{}], deleted {} stale documents", indexShard.shardId().getIndex(), left, right, stale.size());
+            indexShard.refresh("verify");
+        }
+    }
+
+    private void build(ColumnFamilyStore cfs, Set<String> idxNames, int indexThreads, Range<Token> bounds, IndexDigest digest) {
+        Collection<SSTableReader> sstables = cfs.getSSTables();
+        try (Refs<SSTableReader> refs = Refs.ref(sstables)) {
+            SecondaryIndexBuilder builder = new SecondaryIndexBuilder(indexThreads, cfs, idxNames, sstables, bounds, digest);
+            FBUtilities.waitOnFuture(CompactionManager.instance.submitIndexBuild(builder));
+        }
+    }
+
+    /**
+     * @param unhashed set for token ranges having documents without content hash.
+     * @return the sum of content hashes of the documents of type in each token range.
+     */
+    private long[] digest(IndexShard indexShard, String type, long[] bounds, final boolean[] unhashed) throws IOException {
+        final long[] digests = new long[bounds.length - 1];
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("verify")) {
+            for (int i = 0; i < digests.length; i++) {
+                final int range = i;
+                searcher.searcher().search(query(type, bounds[i], bounds[i + 1]), new SimpleCollector() {
+                    NumericDocValues hashes;
+                    Bits docsWithHash;
+
+                    @Override
+                    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                        hashes = DocValues.getNumeric(context.reader(), ContentHash.NAME);
+                        docsWithHash = DocValues.getDocsWithField(context.reader(), ContentHash.NAME);
+                    }
+
+                    @Override
+                    public void collect(int doc) throws IOException {
+                        if (docsWithHash.get(doc))
+                            digests[range] += hashes.get(doc);
+                        else
+                            unhashed[range] = true;
+                    }
+
+                    @Override
+                    public boolean needsScores() {
+                        return false;
+                    }
+                });
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * @return the uids of the documents of type in the token range.
+     */
+    private Set<String> uids(IndexShard indexShard, String type, long left, long right) throws IOException {
+        final Set<String> uids = new HashSet<>();
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("verify")) {
+            searcher.searcher().search(query(type, left, right), new SimpleCollector() {
+                final JustUidFieldsVisitor visitor = new JustUidFieldsVisitor();
+                LeafReader reader;
+
+                @Override
+                protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                    reader = context.reader();
+                }
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    visitor.reset();
+                    reader.document(doc, visitor);
+                    if (visitor.uid() != null)
+                        uids.add(visitor.uid().toString());
+                }
+
+                @Override
+                public boolean needsScores() {
+                    return false;
+                }
+            });
+        }
+        return uids;
+    }
+
+    private Query query(String type, long left, long right) {
+        return new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(TypeFieldMapper.NAME, type)), Occur.FILTER)
+                .add(NumericRangeQuery.newLongRange(TokenFieldMapper.NAME, TokenFieldMapper.Defaults.PRECISION_STEP_64_BIT, left, right, false, true), Occur.FILTER)
+                .build();
+    }
+
+    /**
+     * @return started shards of indices of the keyspace having a mapping for the table.
+     */
+    private List<IndexShard> shards(String ksName, String cfName) {
+        List<IndexShard> shards = new ArrayList<>();
+        Set<String> skipped = new HashSet<>();
+        for (ObjectCursor<IndexMetaData> cursor : clusterService.state().metaData().indices().values()) {
+            IndexMetaData indexMetaData = cursor.value;
+            if (!ksName.equals(indexMetaData.keyspace()) || indexMetaData.mapping(cfName) == null)
+                continue;
+            IndexService indexService = indicesService.indexService(indexMetaData.getIndex());
+            IndexShard indexShard = (indexService == null) ? null : indexService.shard(0);
+            if (indexShard == null || indexShard.state() != IndexShardState.STARTED)
+                skipped.add(indexMetaData.getIndex());
+            else
+                shards.add(indexShard);
+        }
+        if (!skipped.isEmpty())
+            logger.warn("indices {} not started, not verified", skipped);
+        return shards;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.shard;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.service.CassandraDaemon;
+import org.apache.cassandra.service.StorageService;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.util.IOUtils;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.SnapshotId;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.lease.Releasables;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.deletionpolicy.SnapshotIndexCommit;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.IndexShardState;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.EmptyTransportResponseHandler;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.transport.TransportRequestHandler;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportService;
+
+import com.carrotsearch.hppc.cursors.ObjectCursor;
+
+/**
+ * Local snapshots of Elasticsearch indices taken with Cassandra snapshots. The Lucene commit of each index mapped
+ * to the snapshotted keyspace is hard linked in <code>path.data/snapshots/&lt;index&gt;/&lt;snapshot&gt;</code>, with a manifest
+ * listing the Lucene segments and the SSTable generations of the snapshot, so that restored indices do not need a rebuild.
+ *
+ * @author vroyer
+ *
+ */
+public class LocalSnapshotService extends AbstractComponent {
+
+    public static class Actions {
+        public static final String CLEAR = "internal:cassandra/snapshot/clear";
+    }
+
+    public static final String SNAPSHOTS_FOLDER = "snapshots";
+    public static final String MANIFEST_FILE = "manifest.json";
+
+    private final IndicesService indicesService;
+    private final ClusterService clusterService;
+    private final TransportService transportService;
+    private final Path snapshotsPath;
+
+    @Inject
+    public LocalSnapshotService(Settings settings, Environment environment, IndicesService indicesService, ClusterService clusterService,
+            TransportService transportService) {
+        super(settings);
+        this.indicesService = indicesService;
+        this.clusterService = clusterService;
+        this.transportService = transportService;
+        this.snapshotsPath = environment.dataFiles()[0].resolve(SNAPSHOTS_FOLDER);
+
+        transportService.registerRequestHandler(Actions.CLEAR, ClearRequest.class, ThreadPool.Names.SNAPSHOT, new ClearRequestHandler());
+    }
+
+    /**
+     * @return the tag of the keyspace snapshot taken with the Elasticsearch snapshot of an index,
+     * namespaced so that it cannot be confused with a snapshot taken by nodetool.
+     */
+    public static String keyspaceSnapshotTag(SnapshotId snapshotId, String index) {
+        return "elasticsearch-" + snapshotId.getRepository() + "-" + snapshotId.getSnapshot() + "-" + index;
+    }
+
+    /**
+     * Remove, on all nodes, the keyspace snapshots taken with the deleted Elasticsearch snapshot of indices.
+     */
+    public void clearKeyspaceSnapshots(final SnapshotId snapshotId, List<String> indices) {
+        final String[] tags = new String[indices.size()];
+        for (int i = 0; i < tags.length; i++)
+            tags[i] = keyspaceSnapshotTag(snapshotId, indices.get(i));
+        for (final DiscoveryNode node : clusterService.state().nodes()) {
+            transportService.sendRequest(node, Actions.CLEAR, new ClearRequest(tags), new EmptyTransportResponseHandler(ThreadPool.Names.SAME) {
+                @Override
+                public void handleException(TransportException exp) {
+                    logger.warn("failed to clear keyspace snapshots of snapshot [{}] on node {}", exp, snapshotId, node);
+                }
+            });
+        }
+    }
+
+    /**
+     * Collects the Elasticsearch indices of a keyspace, to be committed and linked in the snapshot once its SSTables are snapshotted.
+     * Fails before anything is linked when the snapshot of an index already exists.
+     */
+    public CassandraDaemon.IndicesSnapshot prepareSnapshot(String tag, String keyspace) throws IOException {
+        KeyspaceSnapshot snapshot = new KeyspaceSnapshot(tag, keyspace);
+        boolean success = false;
+        try {
+            for (String index : indices(keyspace)) {
+                IndexService indexService = indicesService.indexService(index);
+                IndexShard indexShard = (indexService == null) ? null : indexService.shard(0);
+                if (indexShard == null || indexShard.state() != IndexShardState.STARTED) {
+                    logger.warn("index [{}] not started, not included in snapshot [{}]", index, tag);
+                    continue;
+                }
+                Path target = snapshotsPath.resolve(index).resolve(tag);
+                if (Files.exists(target))
+                    throw new IOException("Snapshot " + tag + " of index " + index + " already exists.");
+                snapshot.shards.add(indexShard);
+            }
+            success = true;
+            return snapshot;
+        } finally {
+            if (!success)
+                snapshot.close();
+        }
+    }
+
+    class KeyspaceSnapshot implements CassandraDaemon.IndicesSnapshot {
+        final String tag;
+        final String keyspace;
+        final List<IndexShard> shards = new ArrayList<>();
+        final List<SnapshotIndexCommit> commits = new ArrayList<>();
+
+        KeyspaceSnapshot(String tag, String keyspace) {
+            this.tag = tag;
+            this.keyspace = keyspace;
+        }
+
+        @Override
+        public void link(Collection<SSTableReader> sstables) throws IOException {
+            List<Path> targets = new ArrayList<>(shards.size());
+            boolean success = false;
+            try {
+                for (int i = 0; i < shards.size(); i++) {
+                    final Path target = snapshotsPath.resolve(shards.get(i).shardId().getIndex()).resolve(tag);
+                    if (Files.exists(target))
+                        throw new IOException("Snapshot " + tag + " of index " + shards.get(i).shardId().getIndex() + " already exists.");
+                    targets.add(target);
+                    // rows of the snapshotted SSTables are already indexed, the commit may also include later writes.
+                    SnapshotIndexCommit commit = shards.get(i).snapshotIndex(true);
+                    commits.add(commit);
+                    link(shards.get(i), commit, target, sstables);
+                }
+                success = true;
+            } finally {
+                if (!success) {
+                    for (Path target : targets)
+                        IOUtils.rm(target);
+                }
+            }
+        }
+
+        private void link(IndexShard indexShard, SnapshotIndexCommit commit, Path target, Collection<SSTableReader> sstables) throws IOException {
+            final String index = indexShard.shardId().getIndex();
+            final Path source = indexShard.shardPath().resolveIndex();
+            Files.createDirectories(target);
+            for (String name : commit.getFiles())
+                Files.createLink(target.resolve(name), source.resolve(name));
+
+            Map<String, List<Integer>> generations = new TreeMap<>();
+            for (SSTableReader sstable : sstables) {
+                List<Integer> tableGenerations = generations.get(sstable.descriptor.cfname);
+                if (tableGenerations == null) {
+                    tableGenerations = new ArrayList<>();
+                    generations.put(sstable.descriptor.cfname, tableGenerations);
+                }
+                tableGenerations.add(sstable.descriptor.generation);
+            }
+
+            XContentBuilder builder = XContentFactory.jsonBuilder().prettyPrint();
+            builder.startObject();
+            builder.field("index", index);
+            builder.field("keyspace", keyspace);
+            builder.field("commit_generation", commit.getGeneration());
+            builder.field("segments_file", commit.getSegmentsFileName());
+            builder.field(Engine.COMMITLOG_POSITION_KEY, commit.getUserData().get(Engine.COMMITLOG_POSITION_KEY));
+            builder.startArray("segments");
+            for (SegmentCommitInfo info : Lucene.readSegmentInfos(commit))
+                builder.value(info.info.name);
+            builder.endArray();
+            builder.startObject("sstables");
+            for (Map.Entry<String, List<Integer>> entry : generations.entrySet())
+                builder.field(entry.getKey(), entry.getValue());
+            builder.endObject();
+            builder.endObject();
+            try (OutputStream out = Files.newOutputStream(target.resolve(MANIFEST_FILE))) {
+                builder.bytes().writeTo(out);
+            }
+            logger.info("index [{}] snapshot [{}] linked {} files of commit {}", index, tag, commit.getFiles().length, commit.getSegmentsFileName());
+        }
+
+        @Override
+        public void close() {
+            Releasables.close(commits);
+        }
+    }
+
+    /**
+     * Remove local snapshots of the Elasticsearch indices of keyspaces, or of all indices when no keyspace is specified.
+     * @param tag the snapshot name, all snapshots when empty.
+     */
+    public void clearSnapshot(String tag, String... keyspaces) throws IOException {
+        if (!Files.isDirectory(snapshotsPath))
+            return;
+        List<String> indices = new ArrayList<>();
+        if (keyspaces.length == 0) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(snapshotsPath)) {
+                for (Path path : stream)
+                    indices.add(path.getFileName().toString());
+            }
+        } else {
+            for (String keyspace : keyspaces)
+                indices.addAll(indices(keyspace));
+        }
+        for (String index : indices) {
+            Path path = snapshotsPath.resolve(index);
+            IOUtils.rm((tag == null || tag.isEmpty()) ? path : path.resolve(tag));
+        }
+    }
+
+    class ClearRequestHandler implements TransportRequestHandler<ClearRequest> {
+        @Override
+        public void messageReceived(ClearRequest request, TransportChannel channel) throws Exception {
+            for (String tag : request.tags)
+                StorageService.instance.clearSnapshot(tag);
+            channel.sendResponse(TransportResponse.Empty.INSTANCE);
+        }
+    }
+
+    static class ClearRequest extends TransportRequest {
+        String[] tags;
+
+        ClearRequest() {
+        }
+
+        ClearRequest(String[] tags) {
+            this.tags = tags;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            tags = in.readStringArray();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeStringArray(tags);
+        }
+    }
+
+    private List<String> indices(String keyspace) {
+        List<String> indices = new ArrayList<>();
+        for (ObjectCursor<IndexMetaData> cursor : clusterService.state().metaData().indices().values()) {
+            if (keyspace.equals(cursor.value.keyspace()))
+                indices.add(cursor.value.getIndex());
+        }
+        return indices;
+    }
+}
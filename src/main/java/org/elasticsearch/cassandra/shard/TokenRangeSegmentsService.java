@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.shard;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.service.StorageService;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RateLimiter;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IOUtils;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.lucene.index.LiveDocsCodecReader;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.index.deletionpolicy.SnapshotIndexCommit;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.internal.TokenFieldMapper;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.indices.recovery.RecoverySettings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.EmptyTransportResponseHandler;
+import org.elasticsearch.transport.FutureTransportResponseHandler;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.transport.TransportRequestHandler;
+import org.elasticsearch.transport.TransportRequestOptions;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportService;
+
+import com.carrotsearch.hppc.cursors.ObjectCursor;
+
+/**
+ * Streams the token range subset of Elasticsearch indices between nodes, so that a node bootstrapping or rebuilding
+ * adds the Lucene segments of the streaming source instead of reindexing the streamed SSTables.
+ * <p>
+ * The source node extracts documents of the requested token ranges from its last Lucene commit into a new single segment index,
+ * the receiver downloads its files by chunks and adds them to its shard with {@link IndexShard#addIndexes(Directory, Engine.WritesTracker)},
+ * skipping the documents written or deleted locally since the session started.
+ *
+ * @author vroyer
+ *
+ */
+public class TokenRangeSegmentsService extends AbstractComponent {
+
+    public static class Actions {
+        public static final String PREPARE = "internal:index/shard/token_range_segments/prepare";
+        public static final String CHUNK = "internal:index/shard/token_range_segments/chunk";
+        public static final String RELEASE = "internal:index/shard/token_range_segments/release";
+    }
+
+    public static final String SEGMENTS_FOLDER = "token_range_segments";
+
+    private final TransportService transportService;
+    private final IndicesService indicesService;
+    private final ClusterService clusterService;
+    private final RecoverySettings recoverySettings;
+    private final ThreadPool threadPool;
+
+    private final AtomicLong sessionIdGenerator = new AtomicLong();
+    private final ConcurrentMap<Long, Session> sessions = ConcurrentCollections.newConcurrentMap();
+
+    @Inject
+    public TokenRangeSegmentsService(Settings settings, TransportService transportService, IndicesService indicesService,
+            ClusterService clusterService, RecoverySettings recoverySettings, ThreadPool threadPool) {
+        super(settings);
+        this.transportService = transportService;
+        this.indicesService = indicesService;
+        this.clusterService = clusterService;
+        this.recoverySettings = recoverySettings;
+        this.threadPool = threadPool;
+
+        transportService.registerRequestHandler(Actions.PREPARE, PrepareRequest.class, ThreadPool.Names.GENERIC, new PrepareRequestHandler());
+        transportService.registerRequestHandler(Actions.CHUNK, ChunkRequest.class, ThreadPool.Names.GENERIC, new ChunkRequestHandler());
+        transportService.registerRequestHandler(Actions.RELEASE, ReleaseRequest.class, ThreadPool.Names.GENERIC, new ReleaseRequestHandler());
+    }
+
+    /**
+     * Fetch the token ranges subset of all open indices of a keyspace from a source node, and add it to the local shards.
+     * @return true if all indices have been filled, false if they should be rebuilt from SSTables.
+     */
+    public boolean fetchSegments(String keyspace, InetAddress source, Collection<Range<Token>> ranges) {
+        ClusterState state = clusterService.state();
+        UUID hostId = StorageService.instance.getHostId(source);
+        DiscoveryNode node = (hostId == null) ? null : state.nodes().get(hostId.toString());
+        boolean complete = true;
+        for (ObjectCursor<IndexMetaData> cursor : state.metaData().indices().values()) {
+            IndexMetaData indexMetaData = cursor.value;
+            if (!keyspace.equals(indexMetaData.keyspace()) || indexMetaData.getState() != IndexMetaData.State.OPEN)
+                continue;
+            if (node == null) {
+                logger.warn("no elasticsearch node found for endpoint {}, cannot fetch token range segments of keyspace [{}]", source, keyspace);
+                return false;
+            }
+            try {
+                fetchSegments(node, indexMetaData.getIndex(), ranges);
+            } catch (Throwable t) {
+                logger.warn("failed to fetch token range segments of index [{}] from {}", t, indexMetaData.getIndex(), node);
+                complete = false;
+            }
+        }
+        return complete;
+    }
+
+    private void fetchSegments(DiscoveryNode node, String index, Collection<Range<Token>> ranges) throws IOException {
+        final IndexShard indexShard = indicesService.indexServiceSafe(index).shardSafe(0);
+        // local writes from now on are newer than the documents of the source snapshot.
+        try (Engine.WritesTracker writes = indexShard.trackWrites()) {
+            fetchSegments(node, index, ranges, indexShard, writes);
+        }
+    }
+
+    private void fetchSegments(DiscoveryNode node, String index, Collection<Range<Token>> ranges, IndexShard indexShard, Engine.WritesTracker writes) throws IOException {
+        final long start = System.currentTimeMillis();
+        final PrepareResponse prepared = transportService.submitRequest(node, Actions.PREPARE, new PrepareRequest(index, ranges),
+                TransportRequestOptions.options().withTimeout(recoverySettings.internalActionLongTimeout()),
+                new FutureTransportResponseHandler<PrepareResponse>() {
+                    @Override
+                    public PrepareResponse newInstance() {
+                        return new PrepareResponse();
+                    }
+                }).txGet();
+
+        final Path path = indexShard.shardPath().getDataPath().resolve(SEGMENTS_FOLDER).resolve("in-" + node.id() + "-" + prepared.sessionId);
+        long bytes = 0;
+        try {
+            try (Directory directory = FSDirectory.open(path)) {
+                final int chunkSize = (int) recoverySettings.fileChunkSize().bytes();
+                for (int i = 0; i < prepared.fileNames.length; i++) {
+                    try (IndexOutput output = directory.createOutput(prepared.fileNames[i], IOContext.DEFAULT)) {
+                        for (long position = 0; position < prepared.fileLengths[i]; ) {
+                            int length = (int) Math.min(chunkSize, prepared.fileLengths[i] - position);
+                            ChunkResponse chunk = transportService.submitRequest(node, Actions.CHUNK,
+                                    new ChunkRequest(prepared.sessionId, prepared.fileNames[i], position, length),
+                                    TransportRequestOptions.options().withTimeout(recoverySettings.internalActionTimeout()),
+                                    new FutureTransportResponseHandler<ChunkResponse>() {
+                                        @Override
+                                        public ChunkResponse newInstance() {
+                                            return new ChunkResponse();
+                                        }
+                                    }).txGet();
+                            BytesRef bytesRef = chunk.content.toBytesRef();
+                            output.writeBytes(bytesRef.bytes, bytesRef.offset, bytesRef.length);
+                            position += bytesRef.length;
+                        }
+                    }
+                    bytes += prepared.fileLengths[i];
+                }
+                int added = indexShard.addIndexes(directory, writes);
+                logger.info("index [{}] added {}/{} documents ({} bytes) of token ranges {} from {} in {} ms",
+                        index, added, prepared.numDocs, bytes, ranges, node, System.currentTimeMillis() - start);
+            }
+        } finally {
+            try {
+                transportService.submitRequest(node, Actions.RELEASE, new ReleaseRequest(prepared.sessionId), EmptyTransportResponseHandler.INSTANCE_SAME);
+            } finally {
+                IOUtils.rm(path);
+            }
+        }
+    }
+
+    private PrepareResponse prepare(PrepareRequest request) throws IOException {
+        final IndexShard indexShard = indicesService.indexServiceSafe(request.index).shardSafe(0);
+        final long sessionId = sessionIdGenerator.incrementAndGet();
+        final Path path = indexShard.shardPath().getDataPath().resolve(SEGMENTS_FOLDER).resolve("out-" + sessionId);
+        final Directory directory = FSDirectory.open(path);
+        boolean success = false;
+        try (SnapshotIndexCommit commit = indexShard.snapshotIndex(true);
+             DirectoryReader reader = DirectoryReader.open(commit)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setQueryCache(null);
+            Weight tokenWeight = searcher.createNormalizedWeight(tokenRangeQuery(request.lefts, request.rights), false);
+            Weight nestedWeight = searcher.createNormalizedWeight(Queries.newNestedFilter(), false);
+            List<CodecReader> readers = new ArrayList<>(reader.leaves().size());
+            for (LeafReaderContext context : reader.leaves()) {
+                FixedBitSet bits = matchingDocs(tokenWeight, context);
+                LiveDocsCodecReader.alignNestedDocs(bits, matchingDocs(nestedWeight, context));
+                bits.and(LiveDocsCodecReader.liveDocs(context.reader()));
+                readers.add(new LiveDocsCodecReader((CodecReader) context.reader(), bits));
+            }
+
+            IndexWriterConfig config = new IndexWriterConfig(Lucene.STANDARD_ANALYZER)
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+                    .setMergePolicy(NoMergePolicy.INSTANCE);
+            int numDocs;
+            try (IndexWriter writer = new IndexWriter(directory, config)) {
+                writer.addIndexes(readers.toArray(new CodecReader[readers.size()]));
+                writer.commit();
+                numDocs = writer.numDocs();
+            }
+
+            List<String> fileNames = new ArrayList<>();
+            for (String name : directory.listAll()) {
+                if (!IndexWriter.WRITE_LOCK_NAME.equals(name))
+                    fileNames.add(name);
+            }
+            PrepareResponse response = new PrepareResponse(sessionId, numDocs, fileNames.toArray(new String[fileNames.size()]));
+            for (int i = 0; i < response.fileNames.length; i++)
+                response.fileLengths[i] = directory.fileLength(response.fileNames[i]);
+            sessions.put(sessionId, new Session(path, directory));
+            scheduleExpiry(sessionId);
+            success = true;
+            logger.debug("index [{}] session [{}] prepared {} documents for token ranges, files={}", request.index, sessionId, numDocs, fileNames);
+            return response;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(directory);
+                IOUtils.rm(path);
+            }
+        }
+    }
+
+    private static FixedBitSet matchingDocs(Weight weight, LeafReaderContext context) throws IOException {
+        FixedBitSet bits = new FixedBitSet(context.reader().maxDoc());
+        Scorer scorer = weight.scorer(context);
+        if (scorer != null)
+            bits.or(scorer);
+        return bits;
+    }
+
+    /**
+     * Token ranges are unwrapped Murmur3 ranges (left,right], where a right bound equal to the minimum token stands for the end of the ring.
+     */
+    private static Query tokenRangeQuery(long[] lefts, long[] rights) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (int i = 0; i < lefts.length; i++) {
+            long right = (rights[i] == Long.MIN_VALUE) ? Long.MAX_VALUE : rights[i];
+            builder.add(NumericRangeQuery.newLongRange(TokenFieldMapper.NAME, TokenFieldMapper.Defaults.PRECISION_STEP_64_BIT, lefts[i], right, false, true), Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    private BytesReference readChunk(ChunkRequest request) throws IOException {
+        Session session = sessions.get(request.sessionId);
+        if (session == null)
+            throw new IllegalStateException("token range segments session [" + request.sessionId + "] not found");
+        session.lastAccessTime = System.currentTimeMillis();
+        byte[] buffer = new byte[request.length];
+        try (IndexInput input = session.directory.openInput(request.name, IOContext.READONCE)) {
+            input.seek(request.position);
+            input.readBytes(buffer, 0, request.length);
+        }
+        RateLimiter rateLimiter = recoverySettings.rateLimiter();
+        if (rateLimiter != null)
+            rateLimiter.pause(request.length);
+        return new BytesArray(buffer);
+    }
+
+    private void release(long sessionId) throws IOException {
+        Session session = sessions.remove(sessionId);
+        if (session != null)
+            session.close();
+    }
+
+    /**
+     * Release the session when its receiver is inactive for longer than the recovery activity timeout.
+     */
+    private void scheduleExpiry(final long sessionId) {
+        threadPool.schedule(recoverySettings.activityTimeout(), ThreadPool.Names.GENERIC, new Runnable() {
+            @Override
+            public void run() {
+                Session session = sessions.get(sessionId);
+                if (session == null)
+                    return;
+                if (session.lastAccessTime < System.currentTimeMillis() - recoverySettings.activityTimeout().millis()) {
+                    if (sessions.remove(sessionId, session)) {
+                        logger.warn("releasing inactive token range segments session [{}]", sessionId);
+                        try {
+                            session.close();
+                        } catch (IOException e) {
+                            logger.warn("failed to release token range segments session [{}]", e, sessionId);
+                        }
+                    }
+                } else {
+                    scheduleExpiry(sessionId);
+                }
+            }
+        });
+    }
+
+    static class Session {
+        final Path path;
+        final Directory directory;
+        volatile long lastAccessTime = System.currentTimeMillis();
+
+        Session(Path path, Directory directory) {
+            this.path = path;
+            this.directory = directory;
+        }
+
+        void close() throws IOException {
+            try {
+                directory.close();
+            } finally {
+                IOUtils.rm(path);
+            }
+        }
+    }
+
+    class PrepareRequestHandler implements TransportRequestHandler<PrepareRequest> {
+        @Override
+        public void messageReceived(PrepareRequest request, TransportChannel channel) throws Exception {
+            channel.sendResponse(prepare(request));
+        }
+    }
+
+    class ChunkRequestHandler implements TransportRequestHandler<ChunkRequest> {
+        @Override
+        public void messageReceived(ChunkRequest request, TransportChannel channel) throws Exception {
+            channel.sendResponse(new ChunkResponse(readChunk(request)));
+        }
+    }
+
+    class ReleaseRequestHandler implements TransportRequestHandler<ReleaseRequest> {
+        @Override
+        public void messageReceived(ReleaseRequest request, TransportChannel channel) throws Exception {
+            release(request.sessionId);
+            channel.sendResponse(TransportResponse.Empty.INSTANCE);
+        }
+    }
+
+    static class PrepareRequest extends TransportRequest {
+        String index;
+        long[] lefts;
+        long[] rights;
+
+        PrepareRequest() {
+        }
+
+        PrepareRequest(String index, Collection<Range<Token>> ranges) {
+            this.index = index;
+            List<Range<Token>> unwrapped = new ArrayList<>();
+            for (Range<Token> range : ranges)
+                unwrapped.addAll(range.unwrap());
+            this.lefts = new long[unwrapped.size()];
+            this.rights = new long[unwrapped.size()];
+            for (int i = 0; i < unwrapped.size(); i++) {
+                lefts[i] = (Long) unwrapped.get(i).left.getTokenValue();
+                rights[i] = (Long) unwrapped.get(i).right.getTokenValue();
+            }
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            index = in.readString();
+            lefts = in.readLongArray();
+            rights = in.readLongArray();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeString(index);
+            out.writeLongArray(lefts);
+            out.writeLongArray(rights);
+        }
+    }
+
+    static class PrepareResponse extends TransportResponse {
+        long sessionId;
+        int numDocs;
+        String[] fileNames;
+        long[] fileLengths;
+
+        PrepareResponse() {
+        }
+
+        PrepareResponse(long sessionId, int numDocs, String[] fileNames) {
+            this.sessionId = sessionId;
+            this.numDocs = numDocs;
+            this.fileNames = fileNames;
+            this.fileLengths = new long[fileNames.length];
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            sessionId = in.readLong();
+            numDocs = in.readVInt();
+            fileNames = in.readStringArray();
+            fileLengths = in.readLongArray();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeLong(sessionId);
+            out.writeVInt(numDocs);
+            out.writeStringArray(fileNames);
+            out.writeLongArray(fileLengths);
+        }
+    }
+
+    static class ChunkRequest extends TransportRequest {
+        long sessionId;
+        String name;
+        long position;
+        int length;
+
+        ChunkRequest() {
+        }
+
+        ChunkRequest(long sessionId, String name, long position, int length) {
+            this.sessionId = sessionId;
+            this.name = name;
+            this.position = position;
+            this.length = length;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            sessionId = in.readLong();
+            name = in.readString();
+            position = in.readVLong();
+            length = in.readVInt();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeLong(sessionId);
+            out.writeString(name);
+            out.writeVLong(position);
+            out.writeVInt(length);
+        }
+    }
+
+    static class ChunkResponse extends TransportResponse {
+        BytesReference content;
+
+        ChunkResponse() {
+        }
+
+        ChunkResponse(BytesReference content) {
+            this.content = content;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            content = in.readBytesReference();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeBytesReference(content);
+        }
+    }
+
+    static class ReleaseRequest extends TransportRequest {
+        long sessionId;
+
+        ReleaseRequest() {
+        }
+
+        ReleaseRequest(long sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            sessionId = in.readLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeLong(sessionId);
+        }
+    }
+}
@@ -494,12 +494,24 @@ public interface ClusterService extends LifecycleComponent<ClusterService> {
     public UntypedResultSet fetchRow(final String ksName, final String index, final String cfName, final  DocPrimaryKey docPk, final String[] columns, final ConsistencyLevel cl) 
             throws InvalidRequestException, RequestExecutionException, RequestValidationException, IOException;
     
+    /**
+     * Fetch the rows of a table having a single column primary key in one multi-partition read, partitions being read in parallel.
+     * The primary key column is always returned to map rows back to their document.
+     */
+    public UntypedResultSet fetchRows(final String ksName, final String index, final String cfName, final List<Object> pkValues, final String[] columns, final ConsistencyLevel cl) 
+            throws InvalidRequestException, RequestExecutionException, RequestValidationException, IOException;
+    
     public String buildFetchQuery(final String ksName, final String index, final String cfName, final String[] requiredColumns, boolean forStaticDocument) throws ConfigurationException, IndexNotFoundException, IOException;
     
     public UntypedResultSet fetchRowInternal(final String ksName, final String index, final String cfName, final String id, final String[] columns) throws ConfigurationException, IOException;
     public UntypedResultSet fetchRowInternal(final String ksName, final String index, final String cfName, final  DocPrimaryKey docPk, final String[] columns) throws ConfigurationException, IOException;
     public UntypedResultSet fetchRowInternal(final String ksName, final String index, final String cfName, final String[] columns, Object[] pkColumns, boolean forStaticDocument) throws ConfigurationException, IOException;
     
+    /**
+     * Local counterpart of {@link #fetchRows(String, String, String, List, String[], ConsistencyLevel)}.
+     */
+    public UntypedResultSet fetchRowsInternal(final String ksName, final String index, final String cfName, final List<Object> pkValues, final String[] columns) throws ConfigurationException, IOException;
+    
     public Engine.GetResult fetchSourceInternal(String ksName, String index, String type, String id) throws IOException;
     
     public Map<BytesRef, Query> loadQueries(final IndexService indexService,  PercolatorQueriesRegistry percolator);
@@ -186,6 +186,8 @@ public class IndexMetaData implements Diffable<IndexMetaData>, FromXContentBuild
     public static final String SETTING_SEARCH_STRATEGY_CLASS = "index.search_strategy_class"; 
     public static final String SETTING_PARTITION_FUNCTION = "index.partition_function"; 
     public static final String SETTING_INCLUDE_NODE = "index.include_node"; 
+    public static final String SETTING_SYNCHRONOUS_REFRESH = "index.synchronous_refresh"; 
+    public static final String SETTING_FETCH_FROM_DOC_VALUES = "index.fetch_from_doc_values";
     
 
     // hard-coded hash function as of 2.0
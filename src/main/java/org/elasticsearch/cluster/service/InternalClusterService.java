@@ -961,6 +961,10 @@ public abstract class InternalClusterService extends AbstractLifecycleComponent<
     public abstract UntypedResultSet fetchRow(final String ksName, final String index, final String cfName, final  DocPrimaryKey docPk, final String[] columns, final ConsistencyLevel cl) 
             throws InvalidRequestException, RequestExecutionException, RequestValidationException, IOException;
     
+    @Override
+    public abstract UntypedResultSet fetchRows(final String ksName, final String index, final String cfName, final List<Object> pkValues, final String[] columns, final ConsistencyLevel cl) 
+            throws InvalidRequestException, RequestExecutionException, RequestValidationException, IOException;
+    
     @Override
     public abstract Engine.GetResult fetchSourceInternal(String ksName, String index, String type, String id) throws IOException;
     
@@ -975,6 +979,9 @@ public abstract class InternalClusterService extends AbstractLifecycleComponent<
     
     @Override
     public abstract UntypedResultSet fetchRowInternal(final String ksName, final String index, String cfName, String[] requiredColumns, Object[] pkColumns, boolean forStaticDocument) throws ConfigurationException, IOException;
+    
+    @Override
+    public abstract UntypedResultSet fetchRowsInternal(final String ksName, final String index, final String cfName, final List<Object> pkValues, final String[] columns) throws ConfigurationException, IOException;
 
     @Override
     public abstract Map<String, Object> rowAsMap(String index, String type, Row row) throws IOException;
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.common.lucene.index;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.FilterCodecReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BitSet;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.common.Nullable;
+
+/**
+ * A {@link CodecReader} exposing a subset of the live documents of a segment, so that
+ * {@link org.apache.lucene.index.IndexWriter#addIndexes(CodecReader...)} only copies these documents.
+ *
+ * @author vroyer
+ *
+ */
+public final class LiveDocsCodecReader extends FilterCodecReader {
+
+    private final Bits liveDocs;
+    private final int numDocs;
+
+    public LiveDocsCodecReader(CodecReader in, FixedBitSet liveDocs) {
+        super(in);
+        this.liveDocs = liveDocs;
+        this.numDocs = liveDocs.cardinality();
+    }
+
+    @Override
+    public Bits getLiveDocs() {
+        return liveDocs;
+    }
+
+    @Override
+    public int numDocs() {
+        return numDocs;
+    }
+
+    /**
+     * @return a bitset of the live documents of the reader.
+     */
+    public static FixedBitSet liveDocs(LeafReader reader) {
+        FixedBitSet bits = new FixedBitSet(reader.maxDoc());
+        Bits liveDocs = reader.getLiveDocs();
+        if (liveDocs == null) {
+            bits.set(0, reader.maxDoc());
+        } else {
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (liveDocs.get(i))
+                    bits.set(i);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Clear documents of the reader having a term of field matching a live document of the other readers.
+     * @return the number of cleared documents.
+     */
+    public static int clearMatchingTerms(LeafReader reader, FixedBitSet bits, String field, List<? extends LeafReader> others) throws IOException {
+        Terms terms = reader.terms(field);
+        if (terms == null)
+            return 0;
+        TermsEnum[] otherTermsEnums = new TermsEnum[others.size()];
+        for (int i = 0; i < otherTermsEnums.length; i++) {
+            Terms otherTerms = others.get(i).terms(field);
+            otherTermsEnums[i] = (otherTerms == null) ? null : otherTerms.iterator();
+        }
+        int cleared = 0;
+        TermsEnum termsEnum = terms.iterator();
+        PostingsEnum postings = null;
+        PostingsEnum otherPostings = null;
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            boolean found = false;
+            for (int i = 0; i < otherTermsEnums.length && !found; i++) {
+                if (otherTermsEnums[i] != null && otherTermsEnums[i].seekExact(term)) {
+                    Bits otherLiveDocs = others.get(i).getLiveDocs();
+                    otherPostings = otherTermsEnums[i].postings(otherPostings, PostingsEnum.NONE);
+                    for (int doc = otherPostings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = otherPostings.nextDoc()) {
+                        if (otherLiveDocs == null || otherLiveDocs.get(doc)) {
+                            found = true;
+                            break;
+                        }
+                    }
+                }
+            }
+            if (found) {
+                postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    if (bits.get(doc)) {
+                        bits.clear(doc);
+                        cleared++;
+                    }
+                }
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * Keep documents of nested blocks (documents set in nested) only when their parent document, the next non-nested one, is kept.
+     */
+    public static void alignNestedDocs(FixedBitSet bits, @Nullable BitSet nested) {
+        boolean parentKept = false;
+        for (int doc = bits.length() - 1; doc >= 0; doc--) {
+            if (nested != null && nested.get(doc)) {
+                if (parentKept)
+                    bits.set(doc);
+                else
+                    bits.clear(doc);
+            } else {
+                parentKept = bits.get(doc);
+            }
+        }
+    }
+}
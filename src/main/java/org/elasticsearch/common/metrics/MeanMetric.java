@@ -33,6 +33,14 @@ public class MeanMetric implements Metric {
         sum.add(n);
     }
 
+    /**
+     * Record count values summing to n.
+     */
+    public void inc(long count, long n) {
+        counter.add(count);
+        sum.add(n);
+    }
+
     public void dec(long n) {
         counter.decrement();
         sum.add(-n);
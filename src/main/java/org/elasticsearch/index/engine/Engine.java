@@ -21,6 +21,8 @@ package org.elasticsearch.index.engine;
 
 import com.google.common.base.Preconditions;
 
+import org.apache.cassandra.db.commitlog.ReplayPosition;
+
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.FilterLeafReader;
 import org.apache.lucene.index.IndexCommit;
@@ -36,8 +38,10 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.join.BitSetProducer;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.common.Base64;
 import org.elasticsearch.common.Nullable;
@@ -51,6 +55,7 @@ import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.lucene.Lucene;
 import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 import org.elasticsearch.common.util.concurrent.ReleasableLock;
 import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.deletionpolicy.SnapshotDeletionPolicy;
@@ -67,10 +72,13 @@ import org.elasticsearch.index.translog.Translog;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Condition;
@@ -84,6 +92,8 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public abstract class Engine implements Closeable {
 
     public static final String SYNC_COMMIT_ID = "sync_id";
+    /** Cassandra commitlog position covered by a Lucene commit, formatted as segment:position */
+    public static final String COMMITLOG_POSITION_KEY = "commitlog_position";
 
     protected final ShardId shardId;
     protected final ESLogger logger;
@@ -224,6 +234,24 @@ public abstract class Engine implements Closeable {
 
     public abstract boolean index(Index index) throws EngineException;
 
+    /**
+     * Index a batch of documents, for example all rows of a Cassandra partition update.
+     * A document failure does not abort the batch, it is reported in failures.
+     * @param failures for each operation, set to the failure of the operation, or left null on success.
+     * @return for each operation, whether the document was created.
+     */
+    public boolean[] index(List<Index> indices, Throwable[] failures) throws EngineException {
+        final boolean[] created = new boolean[indices.size()];
+        for (int i = 0; i < created.length; i++) {
+            try {
+                created[i] = index(indices.get(i));
+            } catch (Throwable t) {
+                failures[i] = t;
+            }
+        }
+        return created;
+    }
+
     public abstract void delete(Delete delete) throws EngineException;
 
     /** @deprecated This was removed, but we keep this API so translog can replay any DBQs on upgrade. */
@@ -335,6 +363,30 @@ public abstract class Engine implements Closeable {
         return new CommitStats(getLastCommittedSegmentInfos());
     }
 
+    /**
+     * @return the Cassandra commitlog position covered by the last commit, or null when unknown.
+     */
+    @Nullable
+    public ReplayPosition committedCommitLogPosition() {
+        return parseCommitLogPosition(getLastCommittedSegmentInfos().getUserData().get(COMMITLOG_POSITION_KEY));
+    }
+
+    @Nullable
+    public static ReplayPosition parseCommitLogPosition(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        int i = value.indexOf(':');
+        if (i == -1) {
+            return null;
+        }
+        try {
+            return new ReplayPosition(Long.parseLong(value.substring(0, i)), Integer.parseInt(value.substring(i + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     /**
      * Read the last segments info from the commit pointed to by the searcher manager
      */
@@ -527,6 +579,20 @@ public abstract class Engine implements Closeable {
      */
     public abstract SnapshotIndexCommit snapshotIndex(boolean flushFirst) throws EngineException;
 
+    /**
+     * Starts recording the uids written or deleted and the delete by query applied to this engine, until the returned tracker is closed.
+     * Open it before the external index passed to {@link #addIndexes(Directory, WritesTracker)} is snapshotted on its source.
+     */
+    public abstract WritesTracker trackWrites() throws EngineException;
+
+    /**
+     * Adds the documents of an external Lucene index, for example the token range subset of a replica index streamed on bootstrap.
+     * Documents whose uid is already indexed, or written, deleted or matching a delete by query recorded by writes are skipped,
+     * as local writes are newer.
+     * @return the number of added documents.
+     */
+    public abstract int addIndexes(Directory directory, WritesTracker writes) throws EngineException;
+
     /**
      * fail engine due to some error. the engine will also be closed.
      * The underlying store is marked corrupted iff failure is caused by index corruption
@@ -597,6 +663,40 @@ public abstract class Engine implements Closeable {
         void onFailedEngine(ShardId shardId, String reason, @Nullable Throwable t);
     }
 
+    /**
+     * Uids written or deleted and delete by query applied to an engine since {@link Engine#trackWrites()}.
+     */
+    public static class WritesTracker implements Releasable {
+
+        private final Set<BytesRef> uids = ConcurrentCollections.newConcurrentSet();
+        private final Queue<Query> deleteQueries = ConcurrentCollections.newQueue();
+
+        public void onWrite(BytesRef uid) {
+            uids.add(BytesRef.deepCopyOf(uid));
+        }
+
+        public void onDeleteByQuery(Query query) {
+            deleteQueries.add(query);
+        }
+
+        public boolean written(BytesRef uid) {
+            return uids.contains(uid);
+        }
+
+        public Collection<BytesRef> uids() {
+            return uids;
+        }
+
+        public Collection<Query> deleteQueries() {
+            return deleteQueries;
+        }
+
+        @Override
+        public void close() {
+            // stop recording
+        }
+    }
+
     public static class Searcher implements Releasable {
 
         private final String source;
@@ -813,17 +913,32 @@ public abstract class Engine implements Closeable {
     }
 
     public static final class Index extends IndexingOperation {
+        private final boolean blindWrite;
 
-        public Index(Term uid, ParsedDocument doc, long version, VersionType versionType, Origin origin, long startTime, boolean canHaveDuplicates) {
+        /**
+         * @param blindWrite when true, the write conflict was already resolved by Cassandra and the engine skips the version lookup.
+         * The resulting version is then always 1, and the created flag returned by the engine is only true for a pending delete of the uid.
+         */
+        public Index(Term uid, ParsedDocument doc, long version, VersionType versionType, Origin origin, long startTime, boolean canHaveDuplicates, boolean blindWrite) {
             super(uid, doc, version, versionType, origin, startTime, canHaveDuplicates);
+            this.blindWrite = blindWrite;
+        }
+
+        public Index(Term uid, ParsedDocument doc, long version, VersionType versionType, Origin origin, long startTime, boolean canHaveDuplicates) {
+            this(uid, doc, version, versionType, origin, startTime, canHaveDuplicates, false);
         }
 
         public Index(Term uid, ParsedDocument doc, long version, VersionType versionType, Origin origin, long startTime) {
-            super(uid, doc, version, versionType, origin, startTime, true);
+            this(uid, doc, version, versionType, origin, startTime, true, false);
         }
 
         public Index(Term uid, ParsedDocument doc) {
             super(uid, doc);
+            this.blindWrite = false;
+        }
+
+        public boolean blindWrite() {
+            return this.blindWrite;
         }
 
         @Override
@@ -845,12 +960,16 @@ public abstract class Engine implements Closeable {
         private final VersionType versionType;
         private final Origin origin;
         private boolean found;
+        private final boolean blindWrite;
 
         private final long startTime;
         private long endTime;
         private Translog.Location location;
 
-        public Delete(String type, String id, Term uid, long version, VersionType versionType, Origin origin, long startTime, boolean found) {
+        /**
+         * @param blindWrite when true, the write conflict was already resolved by Cassandra and the engine skips the version lookup.
+         */
+        public Delete(String type, String id, Term uid, long version, VersionType versionType, Origin origin, long startTime, boolean found, boolean blindWrite) {
             this.type = type;
             this.id = id;
             this.uid = uid;
@@ -859,6 +978,11 @@ public abstract class Engine implements Closeable {
             this.origin = origin;
             this.startTime = startTime;
             this.found = found;
+            this.blindWrite = blindWrite;
+        }
+
+        public Delete(String type, String id, Term uid, long version, VersionType versionType, Origin origin, long startTime, boolean found) {
+            this(type, id, uid, version, versionType, origin, startTime, found, false);
         }
 
         public Delete(String type, String id, Term uid) {
@@ -866,7 +990,7 @@ public abstract class Engine implements Closeable {
         }
 
         public Delete(Delete template, VersionType versionType) {
-            this(template.type(), template.id(), template.uid(), template.version(), versionType, template.origin(), template.startTime(), template.found());
+            this(template.type(), template.id(), template.uid(), template.version(), versionType, template.origin(), template.startTime(), template.found(), template.blindWrite());
         }
 
         @Override
@@ -911,6 +1035,10 @@ public abstract class Engine implements Closeable {
             return this.found;
         }
 
+        public boolean blindWrite() {
+            return this.blindWrite;
+        }
+
         /**
          * Returns operation start time in nanoseconds.
          */
@@ -1108,6 +1236,12 @@ public abstract class Engine implements Closeable {
 
     protected abstract SearcherManager getSearcherManager();
 
+    /**
+     * Called by {@link #flushAndClose()} before acquiring the write lock, while in-flight operations can still complete.
+     */
+    protected void beforeFlushAndClose() {
+    }
+
     /**
      * Method to close the engine while the write lock is held.
      */
@@ -1119,6 +1253,7 @@ public abstract class Engine implements Closeable {
      */
     public void flushAndClose() throws IOException {
         if (isClosed.get() == false) {
+            beforeFlushAndClose();
             logger.trace("flushAndClose now acquire writeLock");
             try (ReleasableLock lock = writeLock.acquire()) {
                 logger.trace("flushAndClose now acquired writeLock");
@@ -22,14 +22,25 @@ package org.elasticsearch.index.engine;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.commitlog.ElassandraCommitLogReplayer;
+import org.apache.cassandra.db.commitlog.ReplayPosition;
+import org.apache.cassandra.utils.concurrent.OpOrder;
+import org.apache.lucene.index.CodecReader;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
@@ -40,22 +51,32 @@ import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.LiveIndexWriterConfig;
 import org.apache.lucene.index.MergePolicy;
 import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.SegmentCommitInfo;
 import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.InfoStream;
 import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.routing.DjbHashFunction;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.lease.Releasable;
@@ -64,6 +85,8 @@ import org.elasticsearch.common.lucene.LoggerInfoStream;
 import org.elasticsearch.common.lucene.Lucene;
 import org.elasticsearch.common.lucene.index.ElasticsearchDirectoryReader;
 import org.elasticsearch.common.lucene.index.ElasticsearchLeafReader;
+import org.elasticsearch.common.lucene.index.LiveDocsCodecReader;
+import org.elasticsearch.common.lucene.search.Queries;
 import org.elasticsearch.common.lucene.uid.Versions;
 import org.elasticsearch.common.math.MathUtils;
 import org.elasticsearch.common.settings.Settings;
@@ -73,6 +96,7 @@ import org.elasticsearch.common.util.concurrent.ReleasableLock;
 import org.elasticsearch.index.deletionpolicy.SnapshotIndexCommit;
 import org.elasticsearch.index.indexing.ShardIndexingService;
 import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
 import org.elasticsearch.index.merge.MergeStats;
 import org.elasticsearch.index.merge.OnGoingMerge;
 import org.elasticsearch.index.search.nested.IncludeNestedDocsQuery;
@@ -113,10 +137,18 @@ public class InternalEngine extends Engine {
 
     private final Object[] dirtyLocks;
 
+    // writes recorded while external indices are streamed to this engine, see trackWrites().
+    private final List<WritesTracker> writesTrackers = new CopyOnWriteArrayList<>();
+    // added segments are identified as the new ones after the copy, so external indices are added one at a time.
+    private final Object addIndexesMutex = new Object();
+
     private final AtomicBoolean versionMapRefreshPending = new AtomicBoolean();
 
     private volatile SegmentInfos lastCommittedSegmentInfos;
 
+    // commitlog position whose mutations are known to be indexed, recorded by the next commit.
+    private final AtomicReference<ReplayPosition> indexedCommitLogPosition = new AtomicReference<>();
+
     private final IndexThrottle throttle;
 
     public InternalEngine(EngineConfig engineConfig, boolean skipInitialTranslogRecovery) throws EngineException {
@@ -390,6 +422,7 @@ public class InternalEngine extends Engine {
             innerCreateNoLock(create, Versions.NOT_FOUND, null);
         } else {
             synchronized (dirtyLock(create.uid())) {
+                recordWrite(create.uid().bytes());
                 final long currentVersion;
                 final VersionValue versionValue;
                 versionValue = versionMap.getUnderLock(create.uid().bytes());
@@ -491,6 +524,39 @@ public class InternalEngine extends Engine {
         return created;
     }
 
+    /**
+     * Acquire the engine lock and the indexing throttle once for the whole batch,
+     * and check the version map size once at the end.
+     */
+    @Override
+    public boolean[] index(List<Index> indices, Throwable[] failures) throws EngineException {
+        final boolean[] created = new boolean[indices.size()];
+        try (ReleasableLock lock = readLock.acquire()) {
+            ensureOpen();
+            try (Releasable r = throttle.acquireThrottle()) {
+                for (int i = 0; i < created.length; i++) {
+                    final Index index = indices.get(i);
+                    try {
+                        created[i] = innerIndex(index);
+                    } catch (OutOfMemoryError | IllegalStateException | IOException t) {
+                        // the engine failed, remaining operations are not executed.
+                        maybeFailEngine("index", t);
+                        IndexFailedEngineException failure = new IndexFailedEngineException(shardId, index.type(), index.id(), t);
+                        for (int j = i; j < created.length; j++)
+                            failures[j] = failure;
+                        break;
+                    } catch (Throwable t) {
+                        // document failure, such as an immense term.
+                        failures[i] = t;
+                    }
+                }
+            }
+        } finally {
+            checkVersionMapRefresh();
+        }
+        return created;
+    }
+
     /**
      * Forces a refresh if the versionMap is using too much RAM
      */
@@ -520,6 +586,10 @@ public class InternalEngine extends Engine {
 
     private boolean innerIndex(Index index) throws IOException {
         synchronized (dirtyLock(index.uid())) {
+            recordWrite(index.uid().bytes());
+            if (index.blindWrite()) {
+                return innerBlindIndex(index);
+            }
             final long currentVersion;
             VersionValue versionValue = versionMap.getUnderLock(index.uid().bytes());
             if (versionValue == null) {
@@ -575,6 +645,46 @@ public class InternalEngine extends Engine {
         }
     }
 
+    /**
+     * Cassandra already resolved the write conflict, so update the document without loading its version from the index.
+     * The version map is only updated when it already tracks the uid, to keep it small. Caller holds the uid dirty lock.
+     * As a consequence, the document version is always 1, and the returned created flag is only true when the version map
+     * tracks a pending delete of the uid; an update of a document already in the index also returns false.
+     */
+    private boolean innerBlindIndex(Index index) throws IOException {
+        final VersionValue versionValue = versionMap.getUnderLock(index.uid().bytes());
+        final long updatedVersion = index.versionType().updateVersion(Versions.NOT_FOUND, index.version());
+        index.updateVersion(updatedVersion);
+        if (index.docs().size() > 1) {
+            indexWriter.updateDocuments(index.uid(), index.docs());
+        } else {
+            indexWriter.updateDocument(index.uid(), index.docs().get(0));
+        }
+        Translog.Location translogLocation = translog.add(null);
+        if (versionValue != null) {
+            versionMap.putUnderLock(index.uid().bytes(), new VersionValue(updatedVersion, translogLocation));
+        }
+        index.setTranslogLocation(translogLocation);
+        indexingService.postIndexUnderLock(index);
+        return versionValue != null && versionValue.delete();
+    }
+
+    /**
+     * Blind counterpart of {@link #innerBlindIndex(Index)}, always deletes the uid term. Caller holds the uid dirty lock.
+     */
+    private void innerBlindDelete(Delete delete) throws IOException {
+        final VersionValue versionValue = versionMap.getUnderLock(delete.uid().bytes());
+        final long updatedVersion = delete.versionType().updateVersion(Versions.NOT_FOUND, delete.version());
+        indexWriter.deleteDocuments(delete.uid());
+        delete.updateVersion(updatedVersion, versionValue == null || !versionValue.delete());
+        Translog.Location translogLocation = translog.add(new Translog.Delete(delete));
+        if (versionValue != null) {
+            versionMap.putUnderLock(delete.uid().bytes(), new DeleteVersionValue(updatedVersion, engineConfig.getThreadPool().estimatedTimeInMillis(), translogLocation));
+        }
+        delete.setTranslogLocation(translogLocation);
+        indexingService.postDeleteUnderLock(delete);
+    }
+
     @Override
     public void delete(Delete delete) throws EngineException {
         try (ReleasableLock lock = readLock.acquire()) {
@@ -600,6 +710,11 @@ public class InternalEngine extends Engine {
 
     private void innerDelete(Delete delete) throws IOException {
         synchronized (dirtyLock(delete.uid())) {
+            recordWrite(delete.uid().bytes());
+            if (delete.blindWrite()) {
+                innerBlindDelete(delete);
+                return;
+            }
             final long currentVersion;
             VersionValue versionValue = versionMap.getUnderLock(delete.uid().bytes());
             if (versionValue == null) {
@@ -673,6 +788,8 @@ public class InternalEngine extends Engine {
                 query = new IncludeNestedDocsQuery(query, delete.parentFilter());
             }
 
+            for (WritesTracker writes : writesTrackers)
+                writes.onDeleteByQuery(query);
             indexWriter.deleteDocuments(query);
             //translog.add(new Translog.DeleteByQuery(delete));
         } catch (Throwable t) {
@@ -722,6 +839,7 @@ public class InternalEngine extends Engine {
             logger.trace("can't sync commit [{}]. current commit id is not equal to expected.", syncId);
             return SyncedFlushResult.COMMIT_MISMATCH;
         }
+        awaitIndexedCommitLogPosition();
         try (ReleasableLock lock = writeLock.acquire()) {
             ensureOpen();
             if (indexWriter.hasUncommittedChanges()) {
@@ -751,6 +869,9 @@ public class InternalEngine extends Engine {
     @Override
     public CommitId flush(boolean force, boolean waitIfOngoing) throws EngineException {
         ensureOpen();
+        if (indexWriter.hasUncommittedChanges() || force) {
+            awaitIndexedCommitLogPosition();
+        }
         final byte[] newCommitId;
         /*
          * Unfortunately the lock order is important here. We have to acquire the readlock first otherwise
@@ -919,6 +1040,224 @@ public class InternalEngine extends Engine {
         }
     }
 
+    @Override
+    public WritesTracker trackWrites() throws EngineException {
+        ensureOpen();
+        WritesTracker writes = new WritesTracker() {
+            @Override
+            public void close() {
+                writesTrackers.remove(this);
+            }
+        };
+        writesTrackers.add(writes);
+        return writes;
+    }
+
+    private void recordWrite(BytesRef uid) {
+        for (WritesTracker writes : writesTrackers)
+            writes.onWrite(uid);
+    }
+
+    @Override
+    public int addIndexes(Directory directory, WritesTracker writes) throws EngineException {
+        int added = 0;
+        try (ReleasableLock lock = readLock.acquire()) {
+            ensureOpen();
+            synchronized (addIndexesMutex) {
+                added = innerAddIndexes(directory, writes);
+            }
+        } catch (AlreadyClosedException e) {
+            ensureOpen();
+            maybeFailEngine("add_indexes", e);
+            throw new EngineException(shardId, "failed to add indexes", e);
+        } catch (EngineClosedException e) {
+            throw e;
+        } catch (Throwable t) {
+            maybeFailEngine("add_indexes", t);
+            throw new EngineException(shardId, "failed to add indexes", t);
+        }
+        refresh("add_indexes");
+        return added;
+    }
+
+    /**
+     * Copies the documents of directory whose uid is not indexed locally nor recorded by writes, without blocking concurrent writes,
+     * then deletes the copied documents overwritten or deleted by a write recorded during the copy.
+     */
+    private int innerAddIndexes(Directory directory, WritesTracker writes) throws IOException {
+        int added = 0;
+        int expectedMaxDoc;
+        Set<String> localSegments = new HashSet<>();
+        try (DirectoryReader incoming = DirectoryReader.open(directory);
+             DirectoryReader local = DirectoryReader.open(indexWriter, true)) {
+            List<LeafReader> localLeaves = new ArrayList<>(local.leaves().size());
+            for (LeafReaderContext context : local.leaves()) {
+                localLeaves.add(context.reader());
+                localSegments.add(segmentReader(context.reader()).getSegmentName());
+            }
+            IndexSearcher searcher = new IndexSearcher(incoming);
+            searcher.setQueryCache(null);
+            List<Weight> deleteWeights = deleteWeights(searcher, writes);
+            Weight nestedWeight = searcher.createNormalizedWeight(Queries.newNestedFilter(), false);
+
+            List<CodecReader> readers = new ArrayList<>(incoming.leaves().size());
+            int skipped = 0;
+            for (LeafReaderContext context : incoming.leaves()) {
+                FixedBitSet liveDocs = LiveDocsCodecReader.liveDocs(context.reader());
+                skipped += LiveDocsCodecReader.clearMatchingTerms(context.reader(), liveDocs, UidFieldMapper.NAME, localLeaves);
+                skipped += clearWrittenUids(context.reader(), liveDocs, writes);
+                skipped += clearMatchingDocs(context, liveDocs, deleteWeights, nestedWeight);
+                added += liveDocs.cardinality();
+                readers.add(new LiveDocsCodecReader((CodecReader) context.reader(), liveDocs));
+            }
+            if (skipped == 0) {
+                // copy segment files as is.
+                indexWriter.addIndexes(directory);
+                expectedMaxDoc = incoming.maxDoc();
+            } else {
+                indexWriter.addIndexes(readers.toArray(new CodecReader[readers.size()]));
+                expectedMaxDoc = added;
+            }
+            logger.debug("added {} documents from {}, skipped {} already indexed or written documents", added, directory, skipped);
+        }
+        int reconciled = reconcileWrites(writes, localSegments, expectedMaxDoc);
+        if (reconciled > 0)
+            logger.debug("deleted {} added documents written during the copy from {}", reconciled, directory);
+        return added - reconciled;
+    }
+
+    /**
+     * Clears documents whose uid has a pending delete in the version map or is recorded by writes, as the local write is newer.
+     */
+    private int clearWrittenUids(LeafReader reader, FixedBitSet bits, WritesTracker writes) throws IOException {
+        Terms terms = reader.terms(UidFieldMapper.NAME);
+        if (terms == null)
+            return 0;
+        int cleared = 0;
+        TermsEnum termsEnum = terms.iterator();
+        PostingsEnum postings = null;
+        for (BytesRef uid = termsEnum.next(); uid != null; uid = termsEnum.next()) {
+            VersionValue versionValue = versionMap.getUnderLock(uid);
+            if ((versionValue != null && versionValue.delete()) || writes.written(uid)) {
+                postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    if (bits.get(doc)) {
+                        bits.clear(doc);
+                        cleared++;
+                    }
+                }
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * Clears documents matching a delete by query, with their nested documents.
+     */
+    private static int clearMatchingDocs(LeafReaderContext context, FixedBitSet bits, List<Weight> deleteWeights, Weight nestedWeight) throws IOException {
+        if (deleteWeights.isEmpty())
+            return 0;
+        int before = bits.cardinality();
+        for (Weight weight : deleteWeights) {
+            Scorer scorer = weight.scorer(context);
+            if (scorer != null) {
+                for (int doc = scorer.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = scorer.nextDoc())
+                    bits.clear(doc);
+            }
+        }
+        LiveDocsCodecReader.alignNestedDocs(bits, nestedDocs(context, nestedWeight));
+        return before - bits.cardinality();
+    }
+
+    @Nullable
+    private static FixedBitSet nestedDocs(LeafReaderContext context, Weight nestedWeight) throws IOException {
+        Scorer scorer = nestedWeight.scorer(context);
+        if (scorer == null)
+            return null;
+        FixedBitSet nested = new FixedBitSet(context.reader().maxDoc());
+        nested.or(scorer);
+        return nested;
+    }
+
+    /**
+     * Deletes the added documents whose uid was written or deleted, or matching a delete by query applied, during the copy,
+     * as buffered deletes of concurrent writes do not apply to segments added after them. Each uid is reconciled under its lock.
+     * Added segments are the new addIndexes segments, not in localSegments. When one of them was already merged, its documents
+     * cannot be told from local ones and the reconciliation fails, so that the token ranges get reindexed.
+     * @return the number of deleted added documents.
+     */
+    private int reconcileWrites(WritesTracker writes, Set<String> localSegments, int expectedMaxDoc) throws IOException {
+        if (writes.uids().isEmpty() && writes.deleteQueries().isEmpty())
+            return 0;
+        int deleted = 0;
+        try (DirectoryReader reader = DirectoryReader.open(indexWriter, true)) {
+            List<LeafReaderContext> addedLeaves = new ArrayList<>();
+            int maxDoc = 0;
+            for (LeafReaderContext context : reader.leaves()) {
+                SegmentReader segmentReader = segmentReader(context.reader());
+                if (!localSegments.contains(segmentReader.getSegmentName()) &&
+                    IndexWriter.SOURCE_ADDINDEXES_READERS.equals(segmentReader.getSegmentInfo().info.getDiagnostics().get(IndexWriter.SOURCE))) {
+                    addedLeaves.add(context);
+                    maxDoc += context.reader().maxDoc();
+                }
+            }
+            if (maxDoc != expectedMaxDoc)
+                throw new IllegalStateException("added segments were merged before their reconciliation with local writes");
+
+            for (BytesRef uid : writes.uids()) {
+                synchronized (dirtyLock(uid)) {
+                    for (LeafReaderContext context : addedLeaves) {
+                        Terms terms = context.reader().terms(UidFieldMapper.NAME);
+                        if (terms == null)
+                            continue;
+                        TermsEnum termsEnum = terms.iterator();
+                        if (termsEnum.seekExact(uid)) {
+                            PostingsEnum postings = termsEnum.postings(null, PostingsEnum.NONE);
+                            for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc())
+                                deleted += deleteAddedDoc(context, doc);
+                        }
+                    }
+                }
+            }
+
+            if (!writes.deleteQueries().isEmpty()) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                searcher.setQueryCache(null);
+                List<Weight> deleteWeights = deleteWeights(searcher, writes);
+                Weight nestedWeight = searcher.createNormalizedWeight(Queries.newNestedFilter(), false);
+                for (LeafReaderContext context : addedLeaves) {
+                    FixedBitSet bits = new FixedBitSet(context.reader().maxDoc());
+                    bits.set(0, bits.length());
+                    clearMatchingDocs(context, bits, deleteWeights, nestedWeight);
+                    for (int doc = 0; doc < bits.length(); doc++) {
+                        if (!bits.get(doc))
+                            deleted += deleteAddedDoc(context, doc);
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private static List<Weight> deleteWeights(IndexSearcher searcher, WritesTracker writes) throws IOException {
+        List<Weight> weights = new ArrayList<>();
+        for (Query query : writes.deleteQueries())
+            weights.add(searcher.createNormalizedWeight(query, false));
+        return weights;
+    }
+
+    /**
+     * @return 1 if the added document was live, 0 otherwise.
+     */
+    private int deleteAddedDoc(LeafReaderContext context, int doc) throws IOException {
+        Bits liveDocs = context.reader().getLiveDocs();
+        if (liveDocs != null && !liveDocs.get(doc))
+            return 0;
+        if (!indexWriter.tryDeleteDocument(context.reader(), doc))
+            throw new IllegalStateException("added segment [" + segmentReader(context.reader()).getSegmentName() + "] was merged before its reconciliation with local writes");
+        return 1;
+    }
+
     @Override
     protected boolean maybeFailEngine(String source, Throwable t) {
         boolean shouldFail = super.maybeFailEngine(source, t);
@@ -1271,6 +1610,12 @@ public class InternalEngine extends Engine {
             }
             indexWriter.setCommitData(commitData);
             */
+            final ReplayPosition commitLogPosition = indexedCommitLogPosition.get();
+            if (commitLogPosition != null) {
+                Map<String, String> commitData = new HashMap<>(writer.getCommitData());
+                commitData.put(Engine.COMMITLOG_POSITION_KEY, commitLogPosition.segment + ":" + commitLogPosition.position);
+                writer.setCommitData(commitData);
+            }
             writer.commit();
         } catch (Throwable ex) {
             failEngine("lucene commit failed", ex);
@@ -1278,6 +1623,38 @@ public class InternalEngine extends Engine {
         }
     }
 
+    /**
+     * Waits for in-flight writes to the index keyspace to be indexed, so that the next commit covers every mutation
+     * up to the current commitlog position. Must be called before acquiring the engine locks: in-flight mutations wait
+     * for the read lock inside their write group, so the barrier would never complete while this thread holds the write lock.
+     * Without a new position, the next commit keeps the position of the previous one.
+     */
+    private void awaitIndexedCommitLogPosition() {
+        if (rwl.isWriteLockedByCurrentThread() || rwl.getReadHoldCount() > 0) {
+            return;
+        }
+        // replayed mutations are not written to the current commitlog segment, so its position does not cover them.
+        if (ElassandraCommitLogReplayer.isReplaying()) {
+            return;
+        }
+        final Keyspace keyspace = Schema.instance.getKeyspaceInstance(engineConfig.getIndexSettings().get(IndexMetaData.SETTING_KEYSPACE, shardId.index().name()));
+        if (keyspace == null) {
+            return;
+        }
+        // mutations are written to the commitlog inside a write group, so they are indexed once the barrier completes.
+        final ReplayPosition position = CommitLog.instance.getContext();
+        final OpOrder.Barrier barrier = keyspace.writeOrder.newBarrier();
+        barrier.issue();
+        barrier.markBlocking();
+        barrier.await();
+        indexedCommitLogPosition.accumulateAndGet(position, (p1, p2) -> (p1 == null || p2.compareTo(p1) > 0) ? p2 : p1);
+    }
+
+    @Override
+    protected void beforeFlushAndClose() {
+        awaitIndexedCommitLogPosition();
+    }
+
     private void commitIndexWriter(IndexWriter writer, Translog translog) throws IOException {
         commitIndexWriter(writer, translog, null);
     }
@@ -24,6 +24,7 @@ import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.IOUtils;
 import org.elasticsearch.common.lucene.Lucene;
 import org.elasticsearch.common.lucene.index.ElasticsearchDirectoryReader;
@@ -213,6 +214,16 @@ public class ShadowEngine extends Engine {
         throw new UnsupportedOperationException("Can not take snapshot from a shadow engine");
     }
 
+    @Override
+    public WritesTracker trackWrites() throws EngineException {
+        throw new UnsupportedOperationException(shardId + " add indexes operation not allowed on shadow engine");
+    }
+
+    @Override
+    public int addIndexes(Directory directory, WritesTracker writes) throws EngineException {
+        throw new UnsupportedOperationException(shardId + " add indexes operation not allowed on shadow engine");
+    }
+
     @Override
     protected SearcherManager getSearcherManager() {
         return searcherManager;
@@ -50,6 +50,7 @@ import org.elasticsearch.index.mapper.internal.SourceFieldMapper;
 import org.elasticsearch.index.mapper.internal.TTLFieldMapper;
 import org.elasticsearch.index.mapper.internal.TimestampFieldMapper;
 import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
 import org.elasticsearch.search.internal.SearchContext;
 
 import com.google.common.collect.ImmutableMap;
@@ -111,12 +112,29 @@ public class FieldsVisitor extends StoredFieldVisitor {
             }
         }
         if (loadSource()) {
+            // only read columns included by the _source filtering, unless the whole source is used by highlighting, script fields or inner hits.
+            boolean filterColumns = filterColumns(searchContext);
             for(String s : clusterService.mappedColumns(searchContext.request().index(), uid.type(), isStaticDocument))
-                requiredColumns.add(s); 
+                if (!filterColumns || searchContext.fetchSourceContext().mayIncludeField(s))
+                    requiredColumns.add(s); 
         }
         return requiredColumns;
     }
     
+    /**
+     * @return true when the _source filtering of the search allows to read a subset of the mapped columns,
+     * false when the whole source is needed.
+     */
+    public static boolean filterColumns(SearchContext searchContext) {
+        if (!searchContext.hasFetchSourceContext() || searchContext.highlight() != null || searchContext.hasScriptFields() || searchContext.innerHits() != null)
+            return false;
+        FetchSourceContext fetchSourceContext = searchContext.fetchSourceContext();
+        if (fetchSourceContext.transformSource())
+            return false;
+        return (fetchSourceContext.includes() != null && fetchSourceContext.includes().length > 0)
+                || (fetchSourceContext.excludes() != null && fetchSourceContext.excludes().length > 0);
+    }
+
     public boolean loadSource() {
         return this.loadSource;
     }
@@ -22,6 +22,9 @@ package org.elasticsearch.index.get;
 import static com.google.common.collect.Maps.newHashMapWithExpectedSize;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -30,14 +33,21 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.cql3.UntypedResultSet;
 import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.exceptions.RequestExecutionException;
 import org.apache.cassandra.exceptions.RequestValidationException;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.cassandra.cluster.InternalCassandraClusterService;
+import org.elasticsearch.cassandra.index.DocumentCache;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterService.DocPrimaryKey;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.lucene.uid.Versions;
@@ -77,6 +87,8 @@ public final class ShardGetService extends AbstractIndexShardComponent {
     private final IndexShard indexShard;
     private final ClusterService clusterService;
     
+    public static final int MULTI_GET_BATCH_SIZE = Integer.getInteger("elassandra.mget_batch_size", 256);
+    
     public ShardGetService(IndexShard indexShard,
                            MapperService mapperService,
                            ClusterService clusterService) {
@@ -108,6 +120,120 @@ public final class ShardGetService extends AbstractIndexShardComponent {
         }
     }
 
+    /**
+     * Get the documents of tables having a single column primary key with one multi-partition read per table, requested columns
+     * and batch of <code>elassandra.mget_batch_size</code> ids, Cassandra reading the partitions of a batch in parallel.
+     * @return the results in the order of items, null for the documents to get one by one.
+     */
+    public GetResult[] multiGet(List<MultiGetRequest.Item> items, boolean ignoreErrorsOnGeneratedFields) {
+        GetResult[] results = new GetResult[items.size()];
+        final String index = shardId.index().name();
+        final String ksName = clusterService.state().metaData().index(index).keyspace();
+        
+        // group items by table and columns
+        Map<String, MultiGetBatch> batches = new HashMap<String, MultiGetBatch>();
+        for (int i = 0; i < items.size(); i++) {
+            MultiGetRequest.Item item = items.get(i);
+            String type = item.type();
+            if (type == null || type.equals("_all"))
+                continue;
+            DocumentMapper docMapper = mapperService.documentMapper(type);
+            if (docMapper == null)
+                continue;
+            CFMetaData metadata = InternalCassandraClusterService.getCFMetaData(ksName, ClusterService.Utils.typeToCfName(type));
+            if (metadata.partitionKeyColumns().size() != 1 || metadata.clusteringColumns().size() > 0)
+                continue;
+            try {
+                FetchSourceContext fetchSourceContext = normalizeFetchSourceContent(item.fetchSourceContext(), item.fields());
+                DocumentCache.Key cacheKey = documentCacheKey(type, item.id(), item.fields(), fetchSourceContext);
+                if (cacheKey != null) {
+                    byte[] source = DocumentCache.instance.get(DocumentCache.Form.GET, cacheKey);
+                    if (source != null) {
+                        results[i] = new GetResult(index, type, item.id(), 1L, true, new BytesArray(source), null);
+                        continue;
+                    }
+                }
+                Set<String> columns = columns(type, item.id(), item.fields(), fetchSourceContext, docMapper);
+                String[] columnArray = columns.toArray(new String[columns.size()]);
+                Arrays.sort(columnArray);
+                String batchKey = type + Arrays.toString(columnArray);
+                MultiGetBatch batch = batches.get(batchKey);
+                if (batch == null)
+                    batches.put(batchKey, batch = new MultiGetBatch(type, docMapper, metadata, columnArray));
+                batch.add(i, clusterService.parseElasticId(index, type, item.id()).values[0], fetchSourceContext, cacheKey);
+            } catch (Exception e) {
+                logger.debug("failed to batch multi_get of [{}]/[{}]", e, type, item.id());
+            }
+        }
+        
+        for (MultiGetBatch batch : batches.values()) {
+            for (int from = 0; from < batch.slots.size(); from += MULTI_GET_BATCH_SIZE) {
+                int to = Math.min(from + MULTI_GET_BATCH_SIZE, batch.slots.size());
+                currentMetric.inc(to - from);
+                try {
+                    long now = System.nanoTime();
+                    Map<ByteBuffer, UntypedResultSet.Row> rows = new HashMap<ByteBuffer, UntypedResultSet.Row>();
+                    String pkName = batch.metadata.partitionKeyColumns().get(0).name.toString();
+                    UntypedResultSet result = clusterService.fetchRows(ksName, index, batch.type, 
+                            new ArrayList<Object>(new HashSet<Object>(batch.pkValues.subList(from, to))), batch.columns, ConsistencyLevel.LOCAL_ONE);
+                    for (UntypedResultSet.Row row : result)
+                        rows.put(row.getBytes(pkName), row);
+                    long nanosPerItem = (System.nanoTime() - now) / (to - from);
+                    
+                    AbstractType pkType = batch.metadata.partitionKeyColumns().get(0).type;
+                    for (int j = from; j < to; j++) {
+                        int slot = batch.slots.get(j);
+                        MultiGetRequest.Item item = items.get(slot);
+                        UntypedResultSet.Row row = rows.get(pkType.decompose(batch.pkValues.get(j)));
+                        if (row == null) {
+                            results[slot] = new GetResult(index, batch.type, item.id(), -1, false, null, null);
+                            missingMetric.inc(nanosPerItem);
+                        } else {
+                            results[slot] = innerGetFromRow(batch.type, item.id(), item.fields(), batch.fetchSourceContexts.get(j), batch.docMapper, row, batch.cacheKeys.get(j));
+                            existsMetric.inc(nanosPerItem);
+                        }
+                    }
+                } catch (Exception e) {
+                    // documents of the failed batch are read one by one to report errors per item.
+                    logger.debug("failed to multi_get [{}] documents of type [{}]", e, to - from, batch.type);
+                    for (int j = from; j < to; j++)
+                        results[batch.slots.get(j)] = null;
+                } finally {
+                    currentMetric.dec(to - from);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Multi get items reading the same columns of a table.
+     */
+    private static class MultiGetBatch {
+        final String type;
+        final DocumentMapper docMapper;
+        final CFMetaData metadata;
+        final String[] columns;
+        final List<Integer> slots = new ArrayList<Integer>();
+        final List<Object> pkValues = new ArrayList<Object>();
+        final List<FetchSourceContext> fetchSourceContexts = new ArrayList<FetchSourceContext>();
+        final List<DocumentCache.Key> cacheKeys = new ArrayList<DocumentCache.Key>();
+
+        MultiGetBatch(String type, DocumentMapper docMapper, CFMetaData metadata, String[] columns) {
+            this.type = type;
+            this.docMapper = docMapper;
+            this.metadata = metadata;
+            this.columns = columns;
+        }
+
+        void add(int slot, Object pkValue, FetchSourceContext fetchSourceContext, DocumentCache.Key cacheKey) {
+            slots.add(slot);
+            pkValues.add(pkValue);
+            fetchSourceContexts.add(fetchSourceContext);
+            cacheKeys.add(cacheKey);
+        }
+    }
+
     /**
      * Returns {@link GetResult} based on the specified {@link Engine.GetResult} argument.
      * This method basically loads specified fields for the associated document in the engineGetResult.
@@ -187,34 +313,17 @@ public final class ShardGetService extends AbstractIndexShardComponent {
         }
 
         fetchSourceContext = normalizeFetchSourceContent(fetchSourceContext, gFields);
-        Set<String> columns = new HashSet<String>();
-        if ((gFields != null) && (!fetchSourceContext.fetchSource())) {
-            for (String field : gFields) {
-                int i = field.indexOf('.');
-                String colName = (i > 0) ? field.substring(0, i ) : field;
-                if (!columns.contains(colName))
-                    columns.add(colName);
-            }
-        } else {
-            try {
-                for(String s : clusterService.mappedColumns(mapperService.index().name(), new Uid(type, id) ))
-                    columns.add(s);
-            } catch (IOException e) {
-                throw new ElasticsearchException("Cannot parse id for type [" + type + "] and id [" + id + "]", e);
-            }
-        }
-
-        if (docMapper.parentFieldMapper().active()) {
-            columns.add(ParentFieldMapper.NAME);
-        }
-        if (docMapper.timestampFieldMapper().enabled()) {
-            columns.add(TimestampFieldMapper.NAME);
-        }
-        if (docMapper.TTLFieldMapper().enabled()) {
-            columns.add(TTLFieldMapper.NAME);
+        
+        // serve the whole source from the document cache.
+        DocumentCache.Key cacheKey = documentCacheKey(type, id, gFields, fetchSourceContext);
+        if (cacheKey != null) {
+            byte[] source = DocumentCache.instance.get(DocumentCache.Form.GET, cacheKey);
+            if (source != null)
+                return new GetResult(shardId.index().name(), type, id, 1L, true, new BytesArray(source), null);
         }
         
-        Map<String, GetField> fields = null;
+        Set<String> columns = columns(type, id, gFields, fetchSourceContext, docMapper);
+        
         /*
         SearchLookup searchLookup = null;
         try {
@@ -296,12 +405,8 @@ public final class ShardGetService extends AbstractIndexShardComponent {
                     }
                 }
 */
-        // deal with source, but only if it's enabled (we always have it from the translog)
-        Map<String, Object> sourceAsMap = null;
-        BytesReference sourceToBeReturned = null;
-        SourceFieldMapper sourceFieldMapper = docMapper.sourceMapper();
-        
         // In elassandra, Engine does not store the source any more, but fetch it from cassandra.
+        UntypedResultSet.Row row;
         try {
             UntypedResultSet result = clusterService.fetchRow(
                     clusterService.state().metaData().index(shardId.index().name()).keyspace(),
@@ -309,10 +414,29 @@ public final class ShardGetService extends AbstractIndexShardComponent {
             if (result.isEmpty()) {
                 return new GetResult(shardId.index().name(), type, id, -1, false, null, null);
             }
-            sourceAsMap = clusterService.rowAsMap(shardId.index().name(), type, result.one());
+            row = result.one();
+        } catch (RequestExecutionException | RequestValidationException | IOException e1) {
+            throw new ElasticsearchException("Cannot fetch source type [" + type + "] and id [" + id + "]", e1);
+        }
+        return innerGetFromRow(type, id, gFields, fetchSourceContext, docMapper, row, cacheKey);
+    }
+
+    /**
+     * Build the {@link GetResult} of a document from its Cassandra row.
+     */
+    private GetResult innerGetFromRow(String type, String id, String[] gFields, FetchSourceContext fetchSourceContext, DocumentMapper docMapper, UntypedResultSet.Row row, DocumentCache.Key cacheKey) {
+        Map<String, GetField> fields = null;
+        
+        // deal with source, but only if it's enabled (we always have it from the translog)
+        Map<String, Object> sourceAsMap = null;
+        BytesReference sourceToBeReturned = null;
+        SourceFieldMapper sourceFieldMapper = docMapper.sourceMapper();
+        
+        try {
+            sourceAsMap = clusterService.rowAsMap(shardId.index().name(), type, row);
             if (fetchSourceContext.fetchSource())
                 sourceToBeReturned = XContentFactory.contentBuilder(XContentType.JSON).map(sourceAsMap).bytes();
-        } catch (RequestExecutionException | RequestValidationException | IOException e1) {
+        } catch (IOException e1) {
             throw new ElasticsearchException("Cannot fetch source type [" + type + "] and id [" + id + "]", e1);
         }
         
@@ -347,10 +471,71 @@ public final class ShardGetService extends AbstractIndexShardComponent {
                 }
             }
         }
+        
+        if (cacheKey != null && sourceToBeReturned != null)
+            DocumentCache.instance.put(DocumentCache.Form.GET, cacheKey, sourceToBeReturned.toBytes());
 
         return new GetResult(shardId.index().name(), type, id, 1L, true, sourceToBeReturned, fields);
     }
 
+    /**
+     * @return the columns to read for the requested fields and the _source filtering.
+     */
+    private Set<String> columns(String type, String id, String[] gFields, FetchSourceContext fetchSourceContext, DocumentMapper docMapper) {
+        Set<String> columns = new HashSet<String>();
+        if (gFields != null) {
+            for (String field : gFields) {
+                int i = field.indexOf('.');
+                String colName = (i > 0) ? field.substring(0, i ) : field;
+                if (!columns.contains(colName))
+                    columns.add(colName);
+            }
+        }
+        final String[] mappedColumns;
+        try {
+            mappedColumns = clusterService.mappedColumns(mapperService.index().name(), new Uid(type, id));
+        } catch (IOException e) {
+            throw new ElasticsearchException("Cannot parse id for type [" + type + "] and id [" + id + "]", e);
+        }
+        if (fetchSourceContext.fetchSource()) {
+            // only read columns included by the _source filtering.
+            for(String s : mappedColumns)
+                if (fetchSourceContext.mayIncludeField(s))
+                    columns.add(s);
+        }
+        // read the row anyway to check that the document exists, even without _source nor fields.
+        if (columns.isEmpty())
+            columns.addAll(Arrays.asList(mappedColumns));
+
+        if (docMapper.parentFieldMapper().active()) {
+            columns.add(ParentFieldMapper.NAME);
+        }
+        if (docMapper.timestampFieldMapper().enabled()) {
+            columns.add(TimestampFieldMapper.NAME);
+        }
+        if (docMapper.TTLFieldMapper().enabled()) {
+            columns.add(TTLFieldMapper.NAME);
+        }
+        return columns;
+    }
+
+    /**
+     * @return the document cache key when the whole source is requested, null otherwise.
+     */
+    private DocumentCache.Key documentCacheKey(String type, String id, String[] gFields, FetchSourceContext fetchSourceContext) {
+        if (DocumentCache.instance == null || (gFields != null && gFields.length > 0) || !fetchSourceContext.fetchSource() || fetchSourceContext.transformSource()
+                || fetchSourceContext.includes().length > 0 || fetchSourceContext.excludes().length > 0)
+            return null;
+        try {
+            IndexMetaData indexMetaData = clusterService.state().metaData().index(shardId.index().name());
+            DocPrimaryKey docPk = clusterService.parseElasticId(shardId.index().name(), type, id);
+            CFMetaData metadata = InternalCassandraClusterService.getCFMetaData(indexMetaData.keyspace(), ClusterService.Utils.typeToCfName(type));
+            return DocumentCache.instance.key(shardId.index().name(), metadata, docPk.values, docPk.isStaticDocument);
+        } catch (IOException e) {
+            throw new ElasticsearchException("Cannot parse id for type [" + type + "] and id [" + id + "]", e);
+        }
+    }
+
     protected boolean shouldGetFromSource(boolean ignoreErrorsOnGeneratedFields, DocumentMapper docMapper, FieldMapper fieldMapper) {
         if (!fieldMapper.isGenerated()) {
             //if the field is always there we check if either source mapper is enabled, in which case we get the field
@@ -380,7 +565,21 @@ public final class ShardGetService extends AbstractIndexShardComponent {
             try {
                 // fetch source from cassandra
                 DocPrimaryKey docPk = clusterService.parseElasticId(shardId.index().name(), type, id);
-                String[] columns = clusterService.mappedColumns(shardId.index().name(), type, docPk.isStaticDocument);
+                // only read columns of requested fields or included by the _source filtering.
+                Set<String> fieldColumns = new HashSet<String>();
+                if (gFields != null) {
+                    for (String field : gFields) {
+                        int i = field.indexOf('.');
+                        fieldColumns.add((i > 0) ? field.substring(0, i) : field);
+                    }
+                }
+                String[] mappedColumns = clusterService.mappedColumns(shardId.index().name(), type, docPk.isStaticDocument);
+                Set<String> requiredColumns = new HashSet<String>();
+                for (String column : mappedColumns) {
+                    if (fieldColumns.contains(column) || (fetchSourceContext.fetchSource() && fetchSourceContext.mayIncludeField(column)))
+                        requiredColumns.add(column);
+                }
+                String[] columns = requiredColumns.isEmpty() ? mappedColumns : requiredColumns.toArray(new String[requiredColumns.size()]);
                 UntypedResultSet result = clusterService.fetchRow(
                         clusterService.state().metaData().index(shardId.index().name()).keyspace(),
                         shardId.index().name(), type, docPk, columns, ConsistencyLevel.LOCAL_ONE);
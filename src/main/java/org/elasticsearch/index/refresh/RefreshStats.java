@@ -19,6 +19,7 @@
 
 package org.elasticsearch.index.refresh;
 
+import org.elasticsearch.Version;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.io.stream.Streamable;
@@ -35,13 +36,23 @@ public class RefreshStats implements Streamable, ToXContent {
 
     private long totalTimeInMillis;
 
+    private long groupTotal;
+
+    private long groupWriters;
+
     public RefreshStats() {
 
     }
 
     public RefreshStats(long total, long totalTimeInMillis) {
+        this(total, totalTimeInMillis, 0, 0);
+    }
+
+    public RefreshStats(long total, long totalTimeInMillis, long groupTotal, long groupWriters) {
         this.total = total;
         this.totalTimeInMillis = totalTimeInMillis;
+        this.groupTotal = groupTotal;
+        this.groupWriters = groupWriters;
     }
 
     public void add(long total, long totalTimeInMillis) {
@@ -59,6 +70,8 @@ public class RefreshStats implements Streamable, ToXContent {
         }
         this.total += refreshStats.total;
         this.totalTimeInMillis += refreshStats.totalTimeInMillis;
+        this.groupTotal += refreshStats.groupTotal;
+        this.groupWriters += refreshStats.groupWriters;
     }
 
     /**
@@ -82,6 +95,27 @@ public class RefreshStats implements Streamable, ToXContent {
         return new TimeValue(totalTimeInMillis);
     }
 
+    /**
+     * The total number of grouped synchronous refreshes.
+     */
+    public long getGroupTotal() {
+        return this.groupTotal;
+    }
+
+    /**
+     * The total number of writers served by grouped synchronous refreshes.
+     */
+    public long getGroupWriters() {
+        return this.groupWriters;
+    }
+
+    /**
+     * The average number of writers served by a grouped synchronous refresh.
+     */
+    public double getGroupAvgBatchSize() {
+        return (groupTotal == 0) ? 0 : ((double) groupWriters) / groupTotal;
+    }
+
     public static RefreshStats readRefreshStats(StreamInput in) throws IOException {
         RefreshStats refreshStats = new RefreshStats();
         refreshStats.readFrom(in);
@@ -93,6 +127,11 @@ public class RefreshStats implements Streamable, ToXContent {
         builder.startObject(Fields.REFRESH);
         builder.field(Fields.TOTAL, total);
         builder.timeValueField(Fields.TOTAL_TIME_IN_MILLIS, Fields.TOTAL_TIME, totalTimeInMillis);
+        builder.startObject(Fields.SYNCHRONOUS);
+        builder.field(Fields.TOTAL, groupTotal);
+        builder.field(Fields.WRITERS, groupWriters);
+        builder.field(Fields.AVG_BATCH_SIZE, getGroupAvgBatchSize());
+        builder.endObject();
         builder.endObject();
         return builder;
     }
@@ -102,17 +141,28 @@ public class RefreshStats implements Streamable, ToXContent {
         static final XContentBuilderString TOTAL = new XContentBuilderString("total");
         static final XContentBuilderString TOTAL_TIME = new XContentBuilderString("total_time");
         static final XContentBuilderString TOTAL_TIME_IN_MILLIS = new XContentBuilderString("total_time_in_millis");
+        static final XContentBuilderString SYNCHRONOUS = new XContentBuilderString("synchronous");
+        static final XContentBuilderString WRITERS = new XContentBuilderString("writers");
+        static final XContentBuilderString AVG_BATCH_SIZE = new XContentBuilderString("avg_batch_size");
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         total = in.readVLong();
         totalTimeInMillis = in.readVLong();
+        if (in.getVersion().onOrAfter(Version.V_2_1_2)) {
+            groupTotal = in.readVLong();
+            groupWriters = in.readVLong();
+        }
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         out.writeVLong(total);
         out.writeVLong(totalTimeInMillis);
+        if (out.getVersion().onOrAfter(Version.V_2_1_2)) {
+            out.writeVLong(groupTotal);
+            out.writeVLong(groupWriters);
+        }
     }
 }
\ No newline at end of file
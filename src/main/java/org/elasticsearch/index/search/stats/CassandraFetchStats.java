@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.index.search.stats;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Cassandra reads of a fetch phase, accumulated while loading the stored fields of the hits
+ * and reported to {@link ShardSearchStats#onCassandraFetch}.
+ *
+ * @author vroyer
+ *
+ */
+public class CassandraFetchStats {
+    long queries;
+    long fetchNanos;
+    long rows;
+    long bytes;
+    long buildNanos;
+    long cacheHits;
+    long cacheMisses;
+
+    public void onFetchQuery(boolean cached) {
+        if (cached)
+            cacheHits++;
+        else
+            cacheMisses++;
+    }
+
+    public void onFetch(long tookInNanos, int rows, long bytes) {
+        this.queries++;
+        this.fetchNanos += tookInNanos;
+        this.rows += rows;
+        this.bytes += bytes;
+    }
+
+    public void onBuildDocument(long tookInNanos) {
+        this.buildNanos += tookInNanos;
+    }
+
+    public long queries() {
+        return queries;
+    }
+
+    public long fetchNanos() {
+        return fetchNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "cassandra_fetch[" + queries + "], cassandra_took[" + TimeValue.timeValueNanos(fetchNanos)
+                + "], cassandra_took_millis[" + TimeUnit.NANOSECONDS.toMillis(fetchNanos)
+                + "], rows[" + rows + "], bytes[" + new ByteSizeValue(bytes)
+                + "], build_document[" + TimeValue.timeValueNanos(buildNanos)
+                + "], fetch_query_cache_hits[" + cacheHits + "], fetch_query_cache_misses[" + cacheMisses + "], ";
+    }
+}
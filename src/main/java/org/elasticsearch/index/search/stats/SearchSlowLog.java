@@ -47,10 +47,16 @@ public final class SearchSlowLog{
     private long fetchDebugThreshold;
     private long fetchTraceThreshold;
 
+    private long cassandraFetchWarnThreshold;
+    private long cassandraFetchInfoThreshold;
+    private long cassandraFetchDebugThreshold;
+    private long cassandraFetchTraceThreshold;
+
     private String level;
 
     private final ESLogger queryLogger;
     private final ESLogger fetchLogger;
+    private final ESLogger cassandraFetchLogger;
 
     private static final String INDEX_SEARCH_SLOWLOG_PREFIX = "index.search.slowlog";
     public static final String INDEX_SEARCH_SLOWLOG_THRESHOLD_QUERY_WARN = INDEX_SEARCH_SLOWLOG_PREFIX + ".threshold.query.warn";
@@ -61,6 +67,10 @@ public final class SearchSlowLog{
     public static final String INDEX_SEARCH_SLOWLOG_THRESHOLD_FETCH_INFO = INDEX_SEARCH_SLOWLOG_PREFIX + ".threshold.fetch.info";
     public static final String INDEX_SEARCH_SLOWLOG_THRESHOLD_FETCH_DEBUG = INDEX_SEARCH_SLOWLOG_PREFIX + ".threshold.fetch.debug";
     public static final String INDEX_SEARCH_SLOWLOG_THRESHOLD_FETCH_TRACE = INDEX_SEARCH_SLOWLOG_PREFIX + ".threshold.fetch.trace";
+    public static final String INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_WARN = INDEX_SEARCH_SLOWLOG_PREFIX + ".threshold.cassandra_fetch.warn";
+    public static final String INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_INFO = INDEX_SEARCH_SLOWLOG_PREFIX + ".threshold.cassandra_fetch.info";
+    public static final String INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_DEBUG = INDEX_SEARCH_SLOWLOG_PREFIX + ".threshold.cassandra_fetch.debug";
+    public static final String INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_TRACE = INDEX_SEARCH_SLOWLOG_PREFIX + ".threshold.cassandra_fetch.trace";
     public static final String INDEX_SEARCH_SLOWLOG_REFORMAT = INDEX_SEARCH_SLOWLOG_PREFIX + ".reformat";
     public static final String INDEX_SEARCH_SLOWLOG_LEVEL = INDEX_SEARCH_SLOWLOG_PREFIX + ".level";
 
@@ -78,13 +88,20 @@ public final class SearchSlowLog{
         this.fetchDebugThreshold = indexSettings.getAsTime(INDEX_SEARCH_SLOWLOG_THRESHOLD_FETCH_DEBUG, TimeValue.timeValueNanos(-1)).nanos();
         this.fetchTraceThreshold = indexSettings.getAsTime(INDEX_SEARCH_SLOWLOG_THRESHOLD_FETCH_TRACE, TimeValue.timeValueNanos(-1)).nanos();
 
+        this.cassandraFetchWarnThreshold = indexSettings.getAsTime(INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_WARN, TimeValue.timeValueNanos(-1)).nanos();
+        this.cassandraFetchInfoThreshold = indexSettings.getAsTime(INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_INFO, TimeValue.timeValueNanos(-1)).nanos();
+        this.cassandraFetchDebugThreshold = indexSettings.getAsTime(INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_DEBUG, TimeValue.timeValueNanos(-1)).nanos();
+        this.cassandraFetchTraceThreshold = indexSettings.getAsTime(INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_TRACE, TimeValue.timeValueNanos(-1)).nanos();
+
         this.level = indexSettings.get(INDEX_SEARCH_SLOWLOG_LEVEL, "TRACE").toUpperCase(Locale.ROOT);
 
         this.queryLogger = Loggers.getLogger(INDEX_SEARCH_SLOWLOG_PREFIX + ".query");
         this.fetchLogger = Loggers.getLogger(INDEX_SEARCH_SLOWLOG_PREFIX + ".fetch");
+        this.cassandraFetchLogger = Loggers.getLogger(INDEX_SEARCH_SLOWLOG_PREFIX + ".cassandra_fetch");
 
         queryLogger.setLevel(level);
         fetchLogger.setLevel(level);
+        cassandraFetchLogger.setLevel(level);
     }
 
     void onQueryPhase(SearchContext context, long tookInNanos) {
@@ -111,6 +128,19 @@ public final class SearchSlowLog{
         }
     }
 
+    void onCassandraFetch(SearchContext context, CassandraFetchStats fetchStats) {
+        long tookInNanos = fetchStats.fetchNanos();
+        if (cassandraFetchWarnThreshold >= 0 && tookInNanos > cassandraFetchWarnThreshold) {
+            cassandraFetchLogger.warn("{}{}", fetchStats, new SlowLogSearchContextPrinter(context, tookInNanos, reformat));
+        } else if (cassandraFetchInfoThreshold >= 0 && tookInNanos > cassandraFetchInfoThreshold) {
+            cassandraFetchLogger.info("{}{}", fetchStats, new SlowLogSearchContextPrinter(context, tookInNanos, reformat));
+        } else if (cassandraFetchDebugThreshold >= 0 && tookInNanos > cassandraFetchDebugThreshold) {
+            cassandraFetchLogger.debug("{}{}", fetchStats, new SlowLogSearchContextPrinter(context, tookInNanos, reformat));
+        } else if (cassandraFetchTraceThreshold >= 0 && tookInNanos > cassandraFetchTraceThreshold) {
+            cassandraFetchLogger.trace("{}{}", fetchStats, new SlowLogSearchContextPrinter(context, tookInNanos, reformat));
+        }
+    }
+
     synchronized void onRefreshSettings(Settings settings) {
         long queryWarnThreshold = settings.getAsTime(INDEX_SEARCH_SLOWLOG_THRESHOLD_QUERY_WARN, TimeValue.timeValueNanos(this.queryWarnThreshold)).nanos();
         if (queryWarnThreshold != this.queryWarnThreshold) {
@@ -146,10 +176,28 @@ public final class SearchSlowLog{
             this.fetchTraceThreshold = fetchTraceThreshold;
         }
 
+        long cassandraFetchWarnThreshold = settings.getAsTime(INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_WARN, TimeValue.timeValueNanos(this.cassandraFetchWarnThreshold)).nanos();
+        if (cassandraFetchWarnThreshold != this.cassandraFetchWarnThreshold) {
+            this.cassandraFetchWarnThreshold = cassandraFetchWarnThreshold;
+        }
+        long cassandraFetchInfoThreshold = settings.getAsTime(INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_INFO, TimeValue.timeValueNanos(this.cassandraFetchInfoThreshold)).nanos();
+        if (cassandraFetchInfoThreshold != this.cassandraFetchInfoThreshold) {
+            this.cassandraFetchInfoThreshold = cassandraFetchInfoThreshold;
+        }
+        long cassandraFetchDebugThreshold = settings.getAsTime(INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_DEBUG, TimeValue.timeValueNanos(this.cassandraFetchDebugThreshold)).nanos();
+        if (cassandraFetchDebugThreshold != this.cassandraFetchDebugThreshold) {
+            this.cassandraFetchDebugThreshold = cassandraFetchDebugThreshold;
+        }
+        long cassandraFetchTraceThreshold = settings.getAsTime(INDEX_SEARCH_SLOWLOG_THRESHOLD_CASSANDRA_FETCH_TRACE, TimeValue.timeValueNanos(this.cassandraFetchTraceThreshold)).nanos();
+        if (cassandraFetchTraceThreshold != this.cassandraFetchTraceThreshold) {
+            this.cassandraFetchTraceThreshold = cassandraFetchTraceThreshold;
+        }
+
         String level = settings.get(INDEX_SEARCH_SLOWLOG_LEVEL, this.level);
         if (!level.equals(this.level)) {
             this.queryLogger.setLevel(level.toUpperCase(Locale.ROOT));
             this.fetchLogger.setLevel(level.toUpperCase(Locale.ROOT));
+            this.cassandraFetchLogger.setLevel(level.toUpperCase(Locale.ROOT));
             this.level = level;
         }
 
@@ -19,6 +19,7 @@
 
 package org.elasticsearch.index.search.stats;
 
+import org.elasticsearch.Version;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
@@ -51,6 +52,15 @@ public class SearchStats implements Streamable, ToXContent {
         private long scrollTimeInMillis;
         private long scrollCurrent;
 
+        // cassandra reads of the fetch phase
+        private long cassandraFetchCount;
+        private long cassandraFetchTimeInMillis;
+        private long cassandraRowsFetched;
+        private long cassandraBytesFetched;
+        private long buildDocumentTimeInMillis;
+        private long fetchQueryCacheHits;
+        private long fetchQueryCacheMisses;
+
         Stats() {
 
         }
@@ -58,7 +68,9 @@ public class SearchStats implements Streamable, ToXContent {
         public Stats(
                 long queryCount, long queryTimeInMillis, long queryCurrent,
                 long fetchCount, long fetchTimeInMillis, long fetchCurrent,
-                long scrollCount, long scrollTimeInMillis, long scrollCurrent
+                long scrollCount, long scrollTimeInMillis, long scrollCurrent,
+                long cassandraFetchCount, long cassandraFetchTimeInMillis, long cassandraRowsFetched, long cassandraBytesFetched,
+                long buildDocumentTimeInMillis, long fetchQueryCacheHits, long fetchQueryCacheMisses
         ) {
             this.queryCount = queryCount;
             this.queryTimeInMillis = queryTimeInMillis;
@@ -71,13 +83,23 @@ public class SearchStats implements Streamable, ToXContent {
             this.scrollCount = scrollCount;
             this.scrollTimeInMillis = scrollTimeInMillis;
             this.scrollCurrent = scrollCurrent;
+
+            this.cassandraFetchCount = cassandraFetchCount;
+            this.cassandraFetchTimeInMillis = cassandraFetchTimeInMillis;
+            this.cassandraRowsFetched = cassandraRowsFetched;
+            this.cassandraBytesFetched = cassandraBytesFetched;
+            this.buildDocumentTimeInMillis = buildDocumentTimeInMillis;
+            this.fetchQueryCacheHits = fetchQueryCacheHits;
+            this.fetchQueryCacheMisses = fetchQueryCacheMisses;
         }
 
         public Stats(Stats stats) {
             this(
                     stats.queryCount, stats.queryTimeInMillis, stats.queryCurrent,
                     stats.fetchCount, stats.fetchTimeInMillis, stats.fetchCurrent,
-                    stats.scrollCount, stats.scrollTimeInMillis, stats.scrollCurrent
+                    stats.scrollCount, stats.scrollTimeInMillis, stats.scrollCurrent,
+                    stats.cassandraFetchCount, stats.cassandraFetchTimeInMillis, stats.cassandraRowsFetched, stats.cassandraBytesFetched,
+                    stats.buildDocumentTimeInMillis, stats.fetchQueryCacheHits, stats.fetchQueryCacheMisses
             );
         }
 
@@ -93,6 +115,14 @@ public class SearchStats implements Streamable, ToXContent {
             scrollCount += stats.scrollCount;
             scrollTimeInMillis += stats.scrollTimeInMillis;
             scrollCurrent += stats.scrollCurrent;
+
+            cassandraFetchCount += stats.cassandraFetchCount;
+            cassandraFetchTimeInMillis += stats.cassandraFetchTimeInMillis;
+            cassandraRowsFetched += stats.cassandraRowsFetched;
+            cassandraBytesFetched += stats.cassandraBytesFetched;
+            buildDocumentTimeInMillis += stats.buildDocumentTimeInMillis;
+            fetchQueryCacheHits += stats.fetchQueryCacheHits;
+            fetchQueryCacheMisses += stats.fetchQueryCacheMisses;
         }
 
         public long getQueryCount() {
@@ -143,6 +173,45 @@ public class SearchStats implements Streamable, ToXContent {
             return scrollCurrent;
         }
 
+        /**
+         * @return the number of cassandra queries executed by fetch phases.
+         */
+        public long getCassandraFetchCount() {
+            return cassandraFetchCount;
+        }
+
+        public TimeValue getCassandraFetchTime() {
+            return new TimeValue(cassandraFetchTimeInMillis);
+        }
+
+        public long getCassandraFetchTimeInMillis() {
+            return cassandraFetchTimeInMillis;
+        }
+
+        public long getCassandraRowsFetched() {
+            return cassandraRowsFetched;
+        }
+
+        public long getCassandraBytesFetched() {
+            return cassandraBytesFetched;
+        }
+
+        public TimeValue getBuildDocumentTime() {
+            return new TimeValue(buildDocumentTimeInMillis);
+        }
+
+        public long getBuildDocumentTimeInMillis() {
+            return buildDocumentTimeInMillis;
+        }
+
+        public long getFetchQueryCacheHits() {
+            return fetchQueryCacheHits;
+        }
+
+        public long getFetchQueryCacheMisses() {
+            return fetchQueryCacheMisses;
+        }
+
         public static Stats readStats(StreamInput in) throws IOException {
             Stats stats = new Stats();
             stats.readFrom(in);
@@ -162,6 +231,16 @@ public class SearchStats implements Streamable, ToXContent {
             scrollCount = in.readVLong();
             scrollTimeInMillis = in.readVLong();
             scrollCurrent = in.readVLong();
+
+            if (in.getVersion().onOrAfter(Version.V_2_1_2)) {
+                cassandraFetchCount = in.readVLong();
+                cassandraFetchTimeInMillis = in.readVLong();
+                cassandraRowsFetched = in.readVLong();
+                cassandraBytesFetched = in.readVLong();
+                buildDocumentTimeInMillis = in.readVLong();
+                fetchQueryCacheHits = in.readVLong();
+                fetchQueryCacheMisses = in.readVLong();
+            }
         }
 
         @Override
@@ -177,6 +256,16 @@ public class SearchStats implements Streamable, ToXContent {
             out.writeVLong(scrollCount);
             out.writeVLong(scrollTimeInMillis);
             out.writeVLong(scrollCurrent);
+
+            if (out.getVersion().onOrAfter(Version.V_2_1_2)) {
+                out.writeVLong(cassandraFetchCount);
+                out.writeVLong(cassandraFetchTimeInMillis);
+                out.writeVLong(cassandraRowsFetched);
+                out.writeVLong(cassandraBytesFetched);
+                out.writeVLong(buildDocumentTimeInMillis);
+                out.writeVLong(fetchQueryCacheHits);
+                out.writeVLong(fetchQueryCacheMisses);
+            }
         }
 
         @Override
@@ -193,6 +282,14 @@ public class SearchStats implements Streamable, ToXContent {
             builder.timeValueField(Fields.SCROLL_TIME_IN_MILLIS, Fields.SCROLL_TIME, scrollTimeInMillis);
             builder.field(Fields.SCROLL_CURRENT, scrollCurrent);
 
+            builder.field(Fields.CASSANDRA_FETCH_TOTAL, cassandraFetchCount);
+            builder.timeValueField(Fields.CASSANDRA_FETCH_TIME_IN_MILLIS, Fields.CASSANDRA_FETCH_TIME, cassandraFetchTimeInMillis);
+            builder.field(Fields.CASSANDRA_ROWS_FETCHED, cassandraRowsFetched);
+            builder.byteSizeField(Fields.CASSANDRA_BYTES_FETCHED_IN_BYTES, Fields.CASSANDRA_BYTES_FETCHED, cassandraBytesFetched);
+            builder.timeValueField(Fields.BUILD_DOCUMENT_TIME_IN_MILLIS, Fields.BUILD_DOCUMENT_TIME, buildDocumentTimeInMillis);
+            builder.field(Fields.FETCH_QUERY_CACHE_HITS, fetchQueryCacheHits);
+            builder.field(Fields.FETCH_QUERY_CACHE_MISSES, fetchQueryCacheMisses);
+
             return builder;
         }
     }
@@ -292,6 +389,16 @@ public class SearchStats implements Streamable, ToXContent {
         static final XContentBuilderString SCROLL_TIME = new XContentBuilderString("scroll_time");
         static final XContentBuilderString SCROLL_TIME_IN_MILLIS = new XContentBuilderString("scroll_time_in_millis");
         static final XContentBuilderString SCROLL_CURRENT = new XContentBuilderString("scroll_current");
+        static final XContentBuilderString CASSANDRA_FETCH_TOTAL = new XContentBuilderString("cassandra_fetch_total");
+        static final XContentBuilderString CASSANDRA_FETCH_TIME = new XContentBuilderString("cassandra_fetch_time");
+        static final XContentBuilderString CASSANDRA_FETCH_TIME_IN_MILLIS = new XContentBuilderString("cassandra_fetch_time_in_millis");
+        static final XContentBuilderString CASSANDRA_ROWS_FETCHED = new XContentBuilderString("cassandra_rows_fetched");
+        static final XContentBuilderString CASSANDRA_BYTES_FETCHED = new XContentBuilderString("cassandra_bytes_fetched");
+        static final XContentBuilderString CASSANDRA_BYTES_FETCHED_IN_BYTES = new XContentBuilderString("cassandra_bytes_fetched_in_bytes");
+        static final XContentBuilderString BUILD_DOCUMENT_TIME = new XContentBuilderString("build_document_time");
+        static final XContentBuilderString BUILD_DOCUMENT_TIME_IN_MILLIS = new XContentBuilderString("build_document_time_in_millis");
+        static final XContentBuilderString FETCH_QUERY_CACHE_HITS = new XContentBuilderString("fetch_query_cache_hits");
+        static final XContentBuilderString FETCH_QUERY_CACHE_MISSES = new XContentBuilderString("fetch_query_cache_misses");
     }
 
     public static SearchStats readSearchStats(StreamInput in) throws IOException {
@@ -131,6 +131,21 @@ public final class ShardSearchStats {
         slowLogSearchService.onFetchPhase(searchContext, tookInNanos);
     }
 
+    /**
+     * Account the cassandra reads of a fetch phase, logged when slower than the cassandra_fetch slowlog thresholds.
+     */
+    public void onCassandraFetch(SearchContext searchContext, CassandraFetchStats fetchStats) {
+        if (fetchStats.queries == 0 && fetchStats.cacheHits == 0)
+            return;
+        totalStats.onCassandraFetch(fetchStats);
+        if (searchContext.groupStats() != null) {
+            for (int i = 0; i < searchContext.groupStats().size(); i++) {
+                groupStats(searchContext.groupStats().get(i)).onCassandraFetch(fetchStats);
+            }
+        }
+        slowLogSearchService.onCassandraFetch(searchContext, fetchStats);
+    }
+
     public void clear() {
         totalStats.clear();
         synchronized (this) {
@@ -189,15 +204,35 @@ public final class ShardSearchStats {
         public final CounterMetric queryCurrent = new CounterMetric();
         public final CounterMetric fetchCurrent = new CounterMetric();
         public final CounterMetric scrollCurrent = new CounterMetric();
+        // count is the number of cassandra queries, sum their time, rows and bytes.
+        public final MeanMetric cassandraFetchMetric = new MeanMetric();
+        public final MeanMetric cassandraRowsMetric = new MeanMetric();
+        public final MeanMetric cassandraBytesMetric = new MeanMetric();
+        public final MeanMetric buildDocumentMetric = new MeanMetric();
+        public final MeanMetric fetchQueryCacheHits = new MeanMetric();
+        public final MeanMetric fetchQueryCacheMisses = new MeanMetric();
 
         public SearchStats.Stats stats() {
             return new SearchStats.Stats(
                     queryMetric.count(), TimeUnit.NANOSECONDS.toMillis(queryMetric.sum()), queryCurrent.count(),
                     fetchMetric.count(), TimeUnit.NANOSECONDS.toMillis(fetchMetric.sum()), fetchCurrent.count(),
-                    scrollMetric.count(), TimeUnit.NANOSECONDS.toMillis(scrollMetric.sum()), scrollCurrent.count()
+                    scrollMetric.count(), TimeUnit.NANOSECONDS.toMillis(scrollMetric.sum()), scrollCurrent.count(),
+                    cassandraFetchMetric.count(), TimeUnit.NANOSECONDS.toMillis(cassandraFetchMetric.sum()), cassandraRowsMetric.sum(), cassandraBytesMetric.sum(),
+                    TimeUnit.NANOSECONDS.toMillis(buildDocumentMetric.sum()), fetchQueryCacheHits.sum(), fetchQueryCacheMisses.sum()
             );
         }
 
+        void onCassandraFetch(CassandraFetchStats fetchStats) {
+            if (fetchStats.queries > 0) {
+                cassandraFetchMetric.inc(fetchStats.queries, fetchStats.fetchNanos);
+                cassandraRowsMetric.inc(fetchStats.rows);
+                cassandraBytesMetric.inc(fetchStats.bytes);
+                buildDocumentMetric.inc(fetchStats.buildNanos);
+            }
+            fetchQueryCacheHits.inc(fetchStats.cacheHits);
+            fetchQueryCacheMisses.inc(fetchStats.cacheMisses);
+        }
+
         public long totalCurrent() {
             return queryCurrent.count() + fetchCurrent.count() + scrollCurrent.count();
         }
@@ -206,6 +241,12 @@ public final class ShardSearchStats {
             queryMetric.clear();
             fetchMetric.clear();
             scrollMetric.clear();
+            cassandraFetchMetric.clear();
+            cassandraRowsMetric.clear();
+            cassandraBytesMetric.clear();
+            buildDocumentMetric.clear();
+            fetchQueryCacheHits.clear();
+            fetchQueryCacheMisses.clear();
         }
     }
 }
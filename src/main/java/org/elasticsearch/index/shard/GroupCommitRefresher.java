@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.index.shard;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.metrics.MeanMetric;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Group commit of synchronous refreshes: writers needing read-your-writes register after indexing and wait,
+ * the first one becomes the leader, waits for the window to collect concurrent writers, and a single refresh
+ * serves every writer registered before it started.
+ */
+public class GroupCommitRefresher {
+
+    private final IndexShard indexShard;
+    private final long windowNanos;
+
+    private final Object mutex = new Object();
+    private long registered = 0;      // sequence of the last registered writer
+    private long visible = 0;         // writers up to this sequence are visible to search
+    private boolean refreshing = false;
+
+    private final CounterMetric refreshes = new CounterMetric();
+    private final MeanMetric batchSize = new MeanMetric();
+
+    public GroupCommitRefresher(IndexShard indexShard, TimeValue window) {
+        this.indexShard = indexShard;
+        this.windowNanos = window.nanos();
+    }
+
+    /**
+     * Wait until a refresh makes operations indexed before this call visible to search.
+     */
+    public void refreshAndWait(String source) throws InterruptedException {
+        final long seq;
+        synchronized (mutex) {
+            seq = ++registered;
+            while (visible < seq && refreshing) {
+                mutex.wait();
+            }
+            if (visible >= seq) {
+                return;
+            }
+            refreshing = true;
+        }
+
+        // leader, let concurrent writers join the batch.
+        if (windowNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(windowNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long target;
+        long previous;
+        synchronized (mutex) {
+            target = registered;
+            previous = visible;
+        }
+        boolean success = false;
+        try {
+            indexShard.refresh(source);
+            success = true;
+        } finally {
+            synchronized (mutex) {
+                // on failure, visible is left unchanged so that the next waiter of the batch becomes leader and retries.
+                if (success) {
+                    visible = target;
+                    refreshes.inc();
+                    batchSize.inc(target - previous);
+                }
+                refreshing = false;
+                mutex.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Number of grouped refreshes.
+     */
+    public long refreshCount() {
+        return refreshes.count();
+    }
+
+    /**
+     * Total number of writers served by grouped refreshes.
+     */
+    public long writerCount() {
+        return batchSize.sum();
+    }
+}
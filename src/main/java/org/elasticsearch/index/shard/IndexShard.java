@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledFuture;
@@ -30,6 +31,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.cassandra.db.commitlog.ReplayPosition;
 import org.apache.lucene.codecs.PostingsFormat;
 import org.apache.lucene.index.CheckIndex;
 import org.apache.lucene.index.LeafReaderContext;
@@ -41,6 +43,7 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.QueryCachingPolicy;
 import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
 import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.ThreadInterruptedException;
 import org.elasticsearch.ElasticsearchException;
@@ -209,6 +212,13 @@ public class IndexShard extends AbstractIndexShardComponent {
      * This setting is realtime updateable.
      */
     public static final String INDEX_FLUSH_ON_CLOSE = "index.flush_on_close";
+
+    /**
+     * Index setting to control how long a synchronous refresh waits for concurrent writers before refreshing.
+     */
+    public static final String INDEX_SYNCHRONOUS_REFRESH_WINDOW = "index.synchronous_refresh_window";
+    public static final TimeValue DEFAULT_SYNCHRONOUS_REFRESH_WINDOW = TimeValue.timeValueMillis(5);
+    private final GroupCommitRefresher groupCommitRefresher;
     private final ShardPath path;
 
     private final IndexShardOperationCounter indexShardOperationCounter;
@@ -267,6 +277,7 @@ public class IndexShard extends AbstractIndexShardComponent {
         state = IndexShardState.CREATED;
         this.refreshInterval = indexSettings.getAsTime(INDEX_REFRESH_INTERVAL, EngineConfig.DEFAULT_REFRESH_INTERVAL);
         this.flushOnClose = indexSettings.getAsBoolean(INDEX_FLUSH_ON_CLOSE, true);
+        this.groupCommitRefresher = new GroupCommitRefresher(this, indexSettings.getAsTime(INDEX_SYNCHRONOUS_REFRESH_WINDOW, DEFAULT_SYNCHRONOUS_REFRESH_WINDOW));
         indexSettingsService.addListener(applyRefreshSettings);
         this.path = path;
         this.mergePolicyConfig = new MergePolicyConfig(logger, indexSettings);
@@ -626,10 +637,55 @@ public class IndexShard extends AbstractIndexShardComponent {
         return created;
     }
 
+    /**
+     * Index a batch of documents in a single engine call, under a single acquisition of the engine lock and indexing throttle.
+     * Each document still goes through its own version lookup and Lucene update.
+     * @param failures for each operation, set to the failure of the operation, or left null on success.
+     * @return for each operation, whether the document was created.
+     */
+    public boolean[] index(List<Engine.Index> indices, Throwable[] failures) {
+        for (int i = 0; i < indices.size(); i++) {
+            Engine.Index index = indices.get(i);
+            ensureWriteAllowed(index);
+            markLastWrite(index);
+            indices.set(i, indexingService.preIndex(index));
+        }
+        final boolean[] created;
+        try {
+            if (logger.isTraceEnabled()) {
+                logger.trace("index batch of [{}] documents", indices.size());
+            }
+            created = engine().index(indices, failures);
+            final long endTime = System.nanoTime();
+            for (Engine.Index index : indices) {
+                index.endTime(endTime);
+            }
+        } catch (Throwable ex) {
+            for (Engine.Index index : indices) {
+                indexingService.postIndex(index, ex);
+            }
+            throw ex;
+        }
+        for (int i = 0; i < failures.length; i++) {
+            if (failures[i] == null)
+                indexingService.postIndex(indices.get(i));
+            else
+                indexingService.postIndex(indices.get(i), failures[i]);
+        }
+        return created;
+    }
+
     public Engine.Delete prepareDelete(String type, String id, long version, VersionType versionType, Engine.Operation.Origin origin) {
+        return prepareDelete(type, id, version, versionType, origin, false);
+    }
+
+    /**
+     * @param blindWrite when true, the delete was already resolved by Cassandra and the engine skips the version lookup.
+     */
+    public Engine.Delete prepareDelete(String type, String id, long version, VersionType versionType, Engine.Operation.Origin origin, boolean blindWrite) {
         long startTime = System.nanoTime();
         final DocumentMapper documentMapper = docMapper(type).getDocumentMapper();
-        return new Engine.Delete(type, id, documentMapper.uidMapper().term(Uid.createUid(type, id)), version, versionType, origin, startTime, false);
+        return new Engine.Delete(type, id, documentMapper.uidMapper().term(Uid.createUid(type, id)), version, versionType, origin, startTime, false, blindWrite);
     }
 
     public void delete(Engine.Delete delete) {
@@ -669,8 +725,17 @@ public class IndexShard extends AbstractIndexShardComponent {
         refreshMetric.inc(System.nanoTime() - time);
     }
 
+    /**
+     * Refresh and wait for previously indexed operations to be visible, sharing the refresh with concurrent callers.
+     */
+    public void refreshAndWait(String source) throws InterruptedException {
+        verifyNotClosed();
+        groupCommitRefresher.refreshAndWait(source);
+    }
+
     public RefreshStats refreshStats() {
-        return new RefreshStats(refreshMetric.count(), TimeUnit.NANOSECONDS.toMillis(refreshMetric.sum()));
+        return new RefreshStats(refreshMetric.count(), TimeUnit.NANOSECONDS.toMillis(refreshMetric.sum()),
+                groupCommitRefresher.refreshCount(), groupCommitRefresher.writerCount());
     }
 
     public FlushStats flushStats() {
@@ -1419,6 +1484,32 @@ public class IndexShard extends AbstractIndexShardComponent {
         recoveryState.getVerifyIndex().checkIndexTime(Math.max(0, TimeValue.nsecToMSec(System.nanoTime() - timeNS)));
     }
 
+    /**
+     * @return the Cassandra commitlog position covered by the last Lucene commit, or null when unknown.
+     */
+    @Nullable
+    public ReplayPosition committedCommitLogPosition() {
+        Engine engine = engineUnsafe();
+        return (engine == null) ? null : engine.committedCommitLogPosition();
+    }
+
+    /**
+     * Records local writes until closed, to skip the documents they overwrite or delete in {@link #addIndexes(Directory, Engine.WritesTracker)}.
+     */
+    public Engine.WritesTracker trackWrites() {
+        verifyStarted();
+        return engine().trackWrites();
+    }
+
+    /**
+     * Adds the documents of an external Lucene index not already indexed nor written by this shard, and refresh.
+     * @return the number of added documents.
+     */
+    public int addIndexes(Directory directory, Engine.WritesTracker writes) {
+        verifyStarted();
+        return engine().addIndexes(directory, writes);
+    }
+
     public Engine engine() {
         Engine engine = engineUnsafe();
         if (engine == null) {
@@ -24,6 +24,10 @@ import java.util.Map;
 
 import org.apache.lucene.analysis.hunspell.Dictionary;
 import org.elasticsearch.action.update.UpdateHelper;
+import org.elasticsearch.cassandra.indices.CassandraIndicesClusterStateService;
+import org.elasticsearch.cassandra.shard.IndexDigestService;
+import org.elasticsearch.cassandra.shard.LocalSnapshotService;
+import org.elasticsearch.cassandra.shard.TokenRangeSegmentsService;
 import org.elasticsearch.cluster.metadata.MetaDataIndexUpgradeService;
 import org.elasticsearch.common.geo.ShapesAvailability;
 import org.elasticsearch.common.inject.AbstractModule;
@@ -297,8 +301,12 @@ public class IndicesModule extends AbstractModule {
         bind(RecoverySettings.class).asEagerSingleton();
         bind(RecoveryTarget.class).asEagerSingleton();
         bind(RecoverySource.class).asEagerSingleton();
+        bind(TokenRangeSegmentsService.class).asEagerSingleton();
+        bind(LocalSnapshotService.class).asEagerSingleton();
+        bind(IndexDigestService.class).asEagerSingleton();
         bind(IndicesStore.class).asEagerSingleton();
         //bind(IndicesClusterStateService.class).asEagerSingleton();
+        bind(CassandraIndicesClusterStateService.class).asEagerSingleton();
         bind(IndexingMemoryController.class).asEagerSingleton();
         bind(SyncedFlushService.class).asEagerSingleton();
         bind(IndicesQueryCache.class).asEagerSingleton();
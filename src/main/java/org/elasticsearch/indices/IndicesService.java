@@ -31,9 +31,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -122,6 +124,9 @@ public class IndicesService extends AbstractLifecycleComponent<IndicesService> i
     private final TimeValue shardsClosedTimeout;
 
     private volatile Map<String, IndexServiceInjectorPair> indices = ImmutableMap.of();
+
+    // indices being created, guarded by this.
+    private final Set<String> creatingIndices = new HashSet<>();
     
     static class IndexServiceInjectorPair {
         private final IndexService indexService;
@@ -314,63 +319,73 @@ public class IndicesService extends AbstractLifecycleComponent<IndicesService> i
         return indexService;
     }
 
-    public synchronized IndexService createIndex(String sIndexName, Settings settings, String localNodeId) {
-        if (!lifecycle.started()) {
-            throw new IllegalStateException("Can't create an index [" + sIndexName + "], node is closed");
-        }
+    public IndexService createIndex(String sIndexName, Settings settings, String localNodeId) {
         Index index = new Index(sIndexName);
-        if (indices.containsKey(index.name())) {
-            throw new IndexAlreadyExistsException(index);
-        }
-
-        indicesLifecycle.beforeIndexCreated(index, settings);
-
-        logger.debug("creating Index [{}], shards [{}]/[{}{}]",
-                sIndexName,
-                settings.get(SETTING_NUMBER_OF_SHARDS),
-                settings.get(SETTING_NUMBER_OF_REPLICAS),
-                IndexMetaData.isIndexUsingShadowReplicas(settings) ? "s" : "");
-
-        Settings indexSettings = settingsBuilder()
-                .put(this.settings)
-                .put(settings)
-                .build();
-
-        ModulesBuilder modules = new ModulesBuilder();
-        modules.add(new IndexNameModule(index));
-        modules.add(new LocalNodeIdModule(localNodeId));
-        modules.add(new IndexSettingsModule(index, indexSettings));
-        // plugin modules must be added here, before others or we can get crazy injection errors...
-        for (Module pluginModule : pluginsService.indexModules(indexSettings)) {
-            modules.add(pluginModule);
+        synchronized (this) {
+            if (!lifecycle.started()) {
+                throw new IllegalStateException("Can't create an index [" + sIndexName + "], node is closed");
+            }
+            if (indices.containsKey(index.name()) || !creatingIndices.add(index.name())) {
+                throw new IndexAlreadyExistsException(index);
+            }
         }
-        modules.add(new IndexStoreModule(indexSettings));
-        modules.add(new AnalysisModule(indexSettings, indicesAnalysisService));
-        modules.add(new SimilarityModule(indexSettings));
-        modules.add(new IndexCacheModule(indexSettings));
-        modules.add(new IndexFieldDataModule(indexSettings));
-        modules.add(new MapperServiceModule());
-        modules.add(new IndexAliasesServiceModule());
-        modules.add(new IndexModule(indexSettings));
-        
-        pluginsService.processModules(modules);
 
-        Injector indexInjector;
+        // build the index injector out of the lock, so that indices can be opened concurrently.
         try {
-            indexInjector = modules.createChildInjector(injector);
-        } catch (CreationException e) {
-            throw new IndexCreationException(index, Injectors.getFirstErrorFailure(e));
-        } catch (Throwable e) {
-            throw new IndexCreationException(index, e);
-        }
+            indicesLifecycle.beforeIndexCreated(index, settings);
+
+            logger.debug("creating Index [{}], shards [{}]/[{}{}]",
+                    sIndexName,
+                    settings.get(SETTING_NUMBER_OF_SHARDS),
+                    settings.get(SETTING_NUMBER_OF_REPLICAS),
+                    IndexMetaData.isIndexUsingShadowReplicas(settings) ? "s" : "");
+
+            Settings indexSettings = settingsBuilder()
+                    .put(this.settings)
+                    .put(settings)
+                    .build();
+
+            ModulesBuilder modules = new ModulesBuilder();
+            modules.add(new IndexNameModule(index));
+            modules.add(new LocalNodeIdModule(localNodeId));
+            modules.add(new IndexSettingsModule(index, indexSettings));
+            // plugin modules must be added here, before others or we can get crazy injection errors...
+            for (Module pluginModule : pluginsService.indexModules(indexSettings)) {
+                modules.add(pluginModule);
+            }
+            modules.add(new IndexStoreModule(indexSettings));
+            modules.add(new AnalysisModule(indexSettings, indicesAnalysisService));
+            modules.add(new SimilarityModule(indexSettings));
+            modules.add(new IndexCacheModule(indexSettings));
+            modules.add(new IndexFieldDataModule(indexSettings));
+            modules.add(new MapperServiceModule());
+            modules.add(new IndexAliasesServiceModule());
+            modules.add(new IndexModule(indexSettings));
+        
+            pluginsService.processModules(modules);
 
-        IndexService indexService = indexInjector.getInstance(IndexService.class);
+            Injector indexInjector;
+            try {
+                indexInjector = modules.createChildInjector(injector);
+            } catch (CreationException e) {
+                throw new IndexCreationException(index, Injectors.getFirstErrorFailure(e));
+            } catch (Throwable e) {
+                throw new IndexCreationException(index, e);
+            }
 
-        indicesLifecycle.afterIndexCreated(indexService);
+            IndexService indexService = indexInjector.getInstance(IndexService.class);
 
-        indices = newMapBuilder(indices).put(index.name(), new IndexServiceInjectorPair(indexService, indexInjector)).immutableMap();
+            indicesLifecycle.afterIndexCreated(indexService);
 
-        return indexService;
+            synchronized (this) {
+                indices = newMapBuilder(indices).put(index.name(), new IndexServiceInjectorPair(indexService, indexInjector)).immutableMap();
+            }
+            return indexService;
+        } finally {
+            synchronized (this) {
+                creatingIndices.remove(index.name());
+            }
+        }
     }
 
     /**
@@ -19,28 +19,30 @@
 
 package org.elasticsearch.indices.ttl;
 
+import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
-import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.queries.TermsQuery;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.SimpleCollector;
-import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.bulk.TransportBulkAction;
-import org.elasticsearch.action.delete.DeleteRequest;
+import org.apache.lucene.search.join.BitSetProducer;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+import org.elasticsearch.cassandra.index.BaseElasticSecondaryIndex;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.inject.Inject;
-import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.lucene.search.Queries;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.index.engine.Engine;
-import org.elasticsearch.index.fieldvisitor.FieldsVisitor;
+import org.elasticsearch.index.fieldvisitor.JustUidFieldsVisitor;
 import org.elasticsearch.index.mapper.DocumentMapper;
 import org.elasticsearch.index.mapper.Uid;
 import org.elasticsearch.index.mapper.internal.TTLFieldMapper;
@@ -53,37 +55,39 @@ import org.elasticsearch.node.settings.NodeSettingsService;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
-
 /**
  * A node level service that delete expired docs on node primary shards.
+ * <p>
+ * Expired documents are not deleted through bulk deletes, which would write cassandra tombstones for cells expiring by themselves.
+ * Documents of partitions whose expired cells are purged by compactions are deleted from Lucene (see {@link BaseElasticSecondaryIndex#deleteExpired}),
+ * and time-bucketed indices with <code>index.ttl.drop_expired_segments</code> drop their fully expired segments.
  */
 public class IndicesTTLService extends AbstractLifecycleComponent<IndicesTTLService> {
 
     public static final String INDICES_TTL_INTERVAL = "indices.ttl.interval";
     public static final String INDEX_TTL_DISABLE_PURGE = "index.ttl.disable_purge";
+    public static final String INDEX_TTL_DROP_EXPIRED_SEGMENTS = "index.ttl.drop_expired_segments";
 
     private final ClusterService clusterService;
     private final IndicesService indicesService;
-    private final TransportBulkAction bulkAction;
 
-    private final int bulkSize;
     private PurgerThread purgerThread;
 
     @Inject
-    public IndicesTTLService(Settings settings, ClusterService clusterService, IndicesService indicesService, NodeSettingsService nodeSettingsService, TransportBulkAction bulkAction) {
+    public IndicesTTLService(Settings settings, ClusterService clusterService, IndicesService indicesService, NodeSettingsService nodeSettingsService) {
         super(settings);
         this.clusterService = clusterService;
         this.indicesService = indicesService;
         TimeValue interval = this.settings.getAsTime("indices.ttl.interval", TimeValue.timeValueSeconds(60));
-        this.bulkAction = bulkAction;
-        this.bulkSize = this.settings.getAsInt("indices.ttl.bulk_size", 10000);
         this.purgerThread = new PurgerThread(EsExecutors.threadName(settings, "[ttl_expire]"), interval);
 
         nodeSettingsService.addListener(new ApplySettings());
@@ -136,6 +140,7 @@ public class IndicesTTLService extends AbstractLifecycleComponent<IndicesTTLServ
             try {
                 while (running.get()) {
                     try {
+                        purgeExpiredPartitions();
                         List<IndexShard> shardsToPurge = getShardsToPurge();
                         purgeShards(shardsToPurge);
                     } catch (Throwable e) {
@@ -153,7 +158,7 @@ public class IndicesTTLService extends AbstractLifecycleComponent<IndicesTTLServ
         }
 
         /**
-         * Returns the shards to purge, i.e. the local started primary shards that have ttl enabled and disable_purge to false
+         * Returns the shards to purge, i.e. the local started primary shards that have ttl enabled, disable_purge to false and drop_expired_segments to true
          */
         private List<IndexShard> getShardsToPurge() {
             List<IndexShard> shardsToPurge = new ArrayList<>();
@@ -165,7 +170,8 @@ public class IndicesTTLService extends AbstractLifecycleComponent<IndicesTTLServ
                     continue;
                 }
                 boolean disablePurge = indexMetaData.getSettings().getAsBoolean(INDEX_TTL_DISABLE_PURGE, false);
-                if (disablePurge) {
+                boolean dropExpiredSegments = indexMetaData.getSettings().getAsBoolean(INDEX_TTL_DROP_EXPIRED_SEGMENTS, false);
+                if (disablePurge || !dropExpiredSegments) {
                     continue;
                 }
 
@@ -194,54 +200,90 @@ public class IndicesTTLService extends AbstractLifecycleComponent<IndicesTTLServ
         }
     }
 
+    /**
+     * Delete expired documents of partitions whose expired cells have been purged by cassandra compactions.
+     */
+    private void purgeExpiredPartitions() {
+        for (BaseElasticSecondaryIndex index : BaseElasticSecondaryIndex.elasticSecondayIndices.values()) {
+            try {
+                index.purgeExpired();
+            } catch (Throwable e) {
+                logger.warn("failed to purge expired documents of [{}]", e, index.getIndexName());
+            }
+        }
+    }
+
+    /**
+     * Delete the documents of fully expired segments, so that Lucene drops whole segments.
+     * Documents are deleted from Lucene only, cassandra cells expire by themselves without tombstones.
+     */
     private void purgeShards(List<IndexShard> shardsToPurge) {
         for (IndexShard shardToPurge : shardsToPurge) {
-            Query query = shardToPurge.indexService().mapperService().smartNameFieldType(TTLFieldMapper.NAME).rangeQuery(null, System.currentTimeMillis(), false, true);
-            Engine.Searcher searcher = shardToPurge.acquireSearcher("indices_ttl");
             try {
-                logger.debug("[{}][{}] purging shard", shardToPurge.routingEntry().index(), shardToPurge.routingEntry().id());
-                ExpiredDocsCollector expiredDocsCollector = new ExpiredDocsCollector();
-                searcher.searcher().search(query, expiredDocsCollector);
-                List<DocToPurge> docsToPurge = expiredDocsCollector.getDocsToPurge();
-
-                BulkRequest bulkRequest = new BulkRequest();
-                for (DocToPurge docToPurge : docsToPurge) {
-
-                    bulkRequest.add(new DeleteRequest().index(shardToPurge.routingEntry().index()).type(docToPurge.type).id(docToPurge.id).version(docToPurge.version).routing(docToPurge.routing));
-                    bulkRequest = processBulkIfNeeded(bulkRequest, false);
-                }
-                processBulkIfNeeded(bulkRequest, true);
+                final long now = System.currentTimeMillis();
+                final Set<Object> expiredSegments = expiredSegments(shardToPurge, now);
+                if (expiredSegments.isEmpty())
+                    continue;
+                final Query query = shardToPurge.indexService().mapperService().smartNameFieldType(TTLFieldMapper.NAME).rangeQuery(null, now, false, true);
+                int deleted = deleteExpiredDocuments(shardToPurge, query, expiredSegments);
+                logger.debug("[{}][{}] dropping {} expired segments, deleted {} documents", shardToPurge.routingEntry().index(), shardToPurge.routingEntry().id(), expiredSegments.size(), deleted);
             } catch (Exception e) {
                 logger.warn("failed to purge", e);
-            } finally {
-                searcher.close();
             }
         }
     }
 
-    private static class DocToPurge {
-        public final String type;
-        public final String id;
-        public final long version;
-        public final String routing;
-
-        public DocToPurge(String type, String id, long version, String routing) {
-            this.type = type;
-            this.id = id;
-            this.version = version;
-            this.routing = routing;
+    /**
+     * @return the core cache keys of the segments whose documents having a _ttl are all expired.
+     */
+    private Set<Object> expiredSegments(IndexShard indexShard, long now) throws IOException {
+        final Set<Object> expiredSegments = new HashSet<>();
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("indices_ttl")) {
+            for (LeafReaderContext context : searcher.reader().leaves()) {
+                Terms terms = context.reader().terms(TTLFieldMapper.NAME);
+                if (terms == null)
+                    continue;
+                Long maxExpire = NumericUtils.getMaxLong(terms);
+                if (maxExpire != null && maxExpire <= now)
+                    expiredSegments.add(context.reader().getCoreCacheKey());
+            }
         }
+        return expiredSegments;
     }
 
-    private class ExpiredDocsCollector extends SimpleCollector {
-        private LeafReaderContext context;
-        private List<DocToPurge> docsToPurge = new ArrayList<>();
-
-        public ExpiredDocsCollector() {
+    /**
+     * Delete from Lucene the live documents matching an expiration query, with their nested documents. Blind writes index every
+     * document with the same version, so the expiration query is deleted by query along with the uids found by the search: Lucene
+     * applies it to the documents indexed before the delete, so that a document updated since the search with a later _ttl is kept.
+     *
+     * @param query expiration query, matching documents having an expired _ttl.
+     * @param segments core cache keys of the segments to purge, or null for all segments.
+     * @return the number of expired documents found by the search.
+     */
+    public static int deleteExpiredDocuments(IndexShard indexShard, Query query, @Nullable Set<Object> segments) throws IOException {
+        final ExpiredDocsCollector collector = new ExpiredDocsCollector(segments);
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("indices_ttl")) {
+            searcher.searcher().search(query, collector);
         }
+        if (collector.uids.isEmpty())
+            return 0;
+        final Query deleteQuery = new BooleanQuery.Builder()
+                .add(query, Occur.FILTER)
+                .add(new TermsQuery(UidFieldMapper.NAME, collector.uids), Occur.FILTER)
+                .build();
+        final BitSetProducer parentFilter = indexShard.indexService().bitsetFilterCache().getBitSetProducer(Queries.newNonNestedFilter());
+        indexShard.engine().delete(new Engine.DeleteByQuery(deleteQuery, null, null, null, parentFilter, Engine.Operation.Origin.PRIMARY, System.currentTimeMillis()));
+        return collector.uids.size();
+    }
 
-        @Override
-        public void setScorer(Scorer scorer) {
+    private static class ExpiredDocsCollector extends SimpleCollector {
+        private final Set<Object> segments;
+        private final JustUidFieldsVisitor visitor = new JustUidFieldsVisitor();
+        private final List<BytesRef> uids = new ArrayList<>();
+        private LeafReader reader;
+
+        public ExpiredDocsCollector(@Nullable Set<Object> segments) {
+            this.segments = segments;
         }
 
         @Override
@@ -250,64 +292,20 @@ public class IndicesTTLService extends AbstractLifecycleComponent<IndicesTTLServ
         }
 
         @Override
-        public void collect(int doc) {
-            try {
-                FieldsVisitor fieldsVisitor = new FieldsVisitor(false);
-                context.reader().document(doc, fieldsVisitor);
-                Uid uid = fieldsVisitor.uid();
-                final long version = Versions.loadVersion(context.reader(), new Term(UidFieldMapper.NAME, uid.toBytesRef()));
-                docsToPurge.add(new DocToPurge(uid.type(), uid.id(), version, fieldsVisitor.routing()));
-            } catch (Exception e) {
-                logger.trace("failed to collect doc", e);
-            }
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            this.reader = (segments == null || segments.contains(context.reader().getCoreCacheKey())) ? context.reader() : null;
         }
 
         @Override
-        public void doSetNextReader(LeafReaderContext context) throws IOException {
-            this.context = context;
-        }
-
-        public List<DocToPurge> getDocsToPurge() {
-            return this.docsToPurge;
-        }
-    }
-
-    private BulkRequest processBulkIfNeeded(BulkRequest bulkRequest, boolean force) {
-        if ((force && bulkRequest.numberOfActions() > 0) || bulkRequest.numberOfActions() >= bulkSize) {
-            try {
-                bulkAction.executeBulk(bulkRequest, new ActionListener<BulkResponse>() {
-                    @Override
-                    public void onResponse(BulkResponse bulkResponse) {
-                        if (bulkResponse.hasFailures()) {
-                            int failedItems = 0;
-                            for (BulkItemResponse response : bulkResponse) {
-                                if (response.isFailed()) failedItems++;
-                            }
-                            if (logger.isTraceEnabled()) {
-                                logger.trace("bulk deletion failures for [{}]/[{}] items, failure message: [{}]", failedItems, bulkResponse.getItems().length, bulkResponse.buildFailureMessage());
-                            } else {
-                                logger.error("bulk deletion failures for [{}]/[{}] items", failedItems, bulkResponse.getItems().length);
-                            }
-                        } else {
-                            logger.trace("bulk deletion took " + bulkResponse.getTookInMillis() + "ms");
-                        }
-                    }
-
-                    @Override
-                    public void onFailure(Throwable e) {
-                        if (logger.isTraceEnabled()) {
-                            logger.trace("failed to execute bulk", e);
-                        } else {
-                            logger.warn("failed to execute bulk: [{}]", e.getMessage());
-                        }
-                    }
-                });
-            } catch (Exception e) {
-                logger.warn("failed to process bulk", e);
-            }
-            bulkRequest = new BulkRequest();
+        public void collect(int doc) throws IOException {
+            if (reader == null)
+                return;
+            visitor.reset();
+            reader.document(doc, visitor);
+            final Uid uid = visitor.uid();
+            if (uid != null)
+                uids.add(Uid.createUidAsBytes(uid.type(), uid.id()));
         }
-        return bulkRequest;
     }
 
     class ApplySettings implements NodeSettingsService.Listener {
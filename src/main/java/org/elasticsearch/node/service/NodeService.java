@@ -25,6 +25,9 @@ import org.elasticsearch.Version;
 import org.elasticsearch.action.admin.cluster.node.info.NodeInfo;
 import org.elasticsearch.action.admin.cluster.node.stats.NodeStats;
 import org.elasticsearch.action.admin.indices.stats.CommonStatsFlags;
+import org.elasticsearch.cassandra.index.SecondaryIndexStats;
+import org.elasticsearch.cassandra.indices.CassandraIndicesClusterStateService;
+import org.elasticsearch.cassandra.indices.CassandraIndicesClusterStateService.StartupTimings;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.collect.MapBuilder;
 import org.elasticsearch.common.component.AbstractComponent;
@@ -41,6 +44,7 @@ import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
 
 import java.io.IOException;
+import java.util.Collections;
 
 /**
  */
@@ -54,6 +58,9 @@ public class NodeService extends AbstractComponent {
     private final CircuitBreakerService circuitBreakerService;
     private ScriptService scriptService;
 
+    @Nullable
+    private CassandraIndicesClusterStateService indicesClusterStateService;
+
     @Nullable
     private HttpServer httpServer;
 
@@ -86,6 +93,11 @@ public class NodeService extends AbstractComponent {
         this.scriptService = scriptService;
     }
 
+    @Inject(optional = true)
+    public void setIndicesClusterStateService(CassandraIndicesClusterStateService indicesClusterStateService) {
+        this.indicesClusterStateService = indicesClusterStateService;
+    }
+
     public void setHttpServer(@Nullable HttpServer httpServer) {
         this.httpServer = httpServer;
     }
@@ -145,13 +157,14 @@ public class NodeService extends AbstractComponent {
                 transportService.stats(),
                 httpServer == null ? null : httpServer.stats(),
                 circuitBreakerService.stats(),
-                scriptService.stats()
+                scriptService.stats(),
+                secondaryIndexStats()
         );
     }
 
     public NodeStats stats(CommonStatsFlags indices, boolean os, boolean process, boolean jvm, boolean threadPool,
                            boolean fs, boolean transport, boolean http, boolean circuitBreaker,
-                           boolean script) {
+                           boolean script, boolean secondaryIndex) {
         // for indices stats we want to include previous allocated shards stats as well (it will
         // only be applied to the sensible ones to use, like refresh/merge/flush/indexing stats)
         return new NodeStats(discovery.localNode(), System.currentTimeMillis(),
@@ -164,7 +177,12 @@ public class NodeService extends AbstractComponent {
                 transport ? transportService.stats() : null,
                 http ? (httpServer == null ? null : httpServer.stats()) : null,
                 circuitBreaker ? circuitBreakerService.stats() : null,
-                script ? scriptService.stats() : null
+                script ? scriptService.stats() : null,
+                secondaryIndex ? secondaryIndexStats() : null
         );
     }
+
+    private SecondaryIndexStats secondaryIndexStats() {
+        return SecondaryIndexStats.stats(indicesClusterStateService == null ? Collections.<String, StartupTimings>emptyMap() : indicesClusterStateService.startupTimings());
+    }
 }
@@ -84,6 +84,7 @@ import org.elasticsearch.search.lookup.SearchLookup;
 import org.elasticsearch.search.query.QuerySearchResult;
 import org.elasticsearch.search.rescore.RescoreSearchContext;
 import org.elasticsearch.search.scan.ScanContext;
+import org.elasticsearch.search.slice.TokenRangeSlice;
 import org.elasticsearch.search.suggest.SuggestionSearchContext;
 
 import com.carrotsearch.hppc.ObjectObjectAssociativeContainer;
@@ -656,6 +657,16 @@ public class PercolateContext extends SearchContext {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public TokenRangeSlice slice() {
+        return null;
+    }
+
+    @Override
+    public void slice(TokenRangeSlice slice) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public MappedFieldType smartNameFieldType(String name) {
         return mapperService().smartNameFieldType(name, types);
@@ -22,8 +22,11 @@ package org.elasticsearch.search;
 import com.carrotsearch.hppc.ObjectHashSet;
 import com.carrotsearch.hppc.ObjectSet;
 import com.carrotsearch.hppc.cursors.ObjectCursor;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.google.common.collect.ImmutableMap;
 
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.MetricName;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.NumericDocValues;
@@ -43,6 +46,8 @@ import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.ParseFieldMatcher;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
@@ -88,6 +93,7 @@ import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.indices.IndicesWarmer;
 import org.elasticsearch.indices.IndicesWarmer.TerminationHandle;
 import org.elasticsearch.indices.IndicesWarmer.WarmerContext;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
 import org.elasticsearch.indices.cache.request.IndicesRequestCache;
 import org.elasticsearch.monitor.MonitorModule;
 import org.elasticsearch.node.NodeModule;
@@ -110,6 +116,7 @@ import org.elasticsearch.search.fetch.FetchPhase;
 import org.elasticsearch.search.fetch.FetchSearchResult;
 import org.elasticsearch.search.fetch.QueryFetchSearchResult;
 import org.elasticsearch.search.fetch.ScrollQueryFetchSearchResult;
+import org.elasticsearch.search.fetch.ScrollPrefetch;
 import org.elasticsearch.search.fetch.ShardFetchRequest;
 import org.elasticsearch.search.internal.DefaultSearchContext;
 import org.elasticsearch.search.internal.InternalScrollSearchRequest;
@@ -121,6 +128,7 @@ import org.elasticsearch.search.internal.ShardSearchRequest;
 import org.elasticsearch.search.query.QueryPhase;
 import org.elasticsearch.search.query.QuerySearchRequest;
 import org.elasticsearch.search.query.QuerySearchResult;
+import org.elasticsearch.search.slice.SliceParseElement;
 import org.elasticsearch.search.query.QuerySearchResultProvider;
 import org.elasticsearch.search.query.ScrollQuerySearchResult;
 import org.elasticsearch.search.warmer.IndexWarmersMetaData;
@@ -131,7 +139,11 @@ import org.elasticsearch.tribe.TribeModule;
 import org.elasticsearch.watcher.ResourceWatcherModule;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
@@ -139,6 +151,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static org.apache.cassandra.metrics.CassandraMetricsRegistry.Metrics;
 import static org.elasticsearch.common.Strings.hasLength;
 import static org.elasticsearch.common.unit.TimeValue.timeValueMillis;
 import static org.elasticsearch.common.unit.TimeValue.timeValueMinutes;
@@ -152,6 +165,20 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
 
     public static final TimeValue NO_TIMEOUT = timeValueMillis(-1);
 
+    /**
+     * Number of search contexts retaining their results and caches, above which the least recently accessed idle scroll contexts are spilled.
+     */
+    public static final int MAX_LIVE_CONTEXTS = Integer.getInteger("elassandra.max_live_search_contexts", 500);
+
+    /**
+     * Idle time after which a scroll context is spilled.
+     */
+    public static final long SPILL_IDLE_MILLIS = Long.getLong("elassandra.search_context_spill_idle_in_ms", 60000);
+
+    private static final String CONTEXT_BREAKER_LABEL = "<search_context>";
+    private static final String METRICS_GROUP = "org.apache.cassandra.metrics";
+    private static final String METRICS_TYPE = "ElasticSearchContexts";
+
     private final ThreadPool threadPool;
 
     private final ClusterService clusterService;
@@ -188,10 +215,16 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
 
     private final ParseFieldMatcher parseFieldMatcher;
 
+    private final CircuitBreaker breaker;
+
+    private final List<MetricName> metricNames = new ArrayList<>();
+
+    private final Counter spills;
+
     @Inject
     public SearchService(Settings settings, NodeSettingsService nodeSettingsService, ClusterService clusterService, IndicesService indicesService,IndicesWarmer indicesWarmer, ThreadPool threadPool,
                          ScriptService scriptService, PageCacheRecycler pageCacheRecycler, BigArrays bigArrays, DfsPhase dfsPhase, QueryPhase queryPhase, FetchPhase fetchPhase,
-                         IndicesRequestCache indicesQueryCache) {
+                         IndicesRequestCache indicesQueryCache, CircuitBreakerService circuitBreakerService) {
         super(settings);
         this.parseFieldMatcher = new ParseFieldMatcher(settings);
         this.threadPool = threadPool;
@@ -226,6 +259,31 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
         this.queryPhase = queryPhase;
         this.fetchPhase = fetchPhase;
         this.indicesQueryCache = indicesQueryCache;
+        this.breaker = circuitBreakerService.getBreaker(CircuitBreaker.REQUEST);
+        this.spills = registerMetric("Spills", new Counter());
+        registerMetric("LiveContexts", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return activeContexts.size() - spilledContexts();
+            }
+        });
+        registerMetric("SpilledContexts", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return spilledContexts();
+            }
+        });
+        registerMetric("AccountedBytes", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                long bytes = 0;
+                for (SearchContext context : activeContexts.values()) {
+                    if (context instanceof DefaultSearchContext)
+                        bytes += ((DefaultSearchContext) context).accountedBytes().get();
+                }
+                return bytes;
+            }
+        });
 
         TimeValue keepAliveInterval = settings.getAsTime(KEEPALIVE_INTERVAL_KEY, timeValueMinutes(1));
         // we can have 5 minutes here, since we make sure to clean with search requests and when shard/index closes
@@ -236,6 +294,7 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
         elementParsers.putAll(queryPhase.parseElements());
         elementParsers.putAll(fetchPhase.parseElements());
         elementParsers.put("stats", new StatsGroupsParseElement());
+        elementParsers.put("slice", new SliceParseElement());
         this.elementParsers = ImmutableMap.copyOf(elementParsers);
 
         this.keepAliveReaper = threadPool.scheduleWithFixedDelay(new Reaper(), keepAliveInterval);
@@ -262,6 +321,8 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
     protected void putContext(SearchContext context) {
         final SearchContext previous = activeContexts.put(context.id(), context);
         assert previous == null;
+        if (activeContexts.size() > MAX_LIVE_CONTEXTS)
+            spillContexts(Long.MAX_VALUE, MAX_LIVE_CONTEXTS);
     }
 
     protected SearchContext removeContext(long id) {
@@ -283,6 +344,94 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
     protected void doClose() {
         doStop();
         FutureUtils.cancel(keepAliveReaper);
+        for (MetricName name : metricNames)
+            Metrics.remove(name);
+    }
+
+    private <T extends com.codahale.metrics.Metric> T registerMetric(String name, T metric) {
+        MetricName metricName = new MetricName(METRICS_GROUP, METRICS_TYPE, name, null, METRICS_GROUP + ":type=" + METRICS_TYPE + ",name=" + name);
+        // a previous search service of this JVM may not have been closed.
+        Metrics.remove(metricName);
+        metricNames.add(metricName);
+        return Metrics.register(metricName, metric);
+    }
+
+    private int spilledContexts() {
+        int spilled = 0;
+        for (SearchContext context : activeContexts.values()) {
+            if (context instanceof DefaultSearchContext && ((DefaultSearchContext) context).spilled())
+                spilled++;
+        }
+        return spilled;
+    }
+
+    /**
+     * Spill the idle scroll contexts not accessed for idleMillis, and the least recently accessed ones while more than maxLive contexts are live.
+     * Spilled contexts keep their reader and last emitted doc, results and caches are rebuilt by the next scroll request.
+     */
+    private void spillContexts(long idleMillis, int maxLive) {
+        final long time = threadPool.estimatedTimeInMillis();
+        int live = 0;
+        List<DefaultSearchContext> idle = new ArrayList<>();
+        for (SearchContext context : activeContexts.values()) {
+            if (context instanceof DefaultSearchContext && ((DefaultSearchContext) context).spilled())
+                continue;
+            live++;
+            if (context instanceof DefaultSearchContext && context.scrollContext() != null && context.lastAccessTime() != -1)
+                idle.add((DefaultSearchContext) context);
+        }
+        Collections.sort(idle, new Comparator<DefaultSearchContext>() {
+            @Override
+            public int compare(DefaultSearchContext c1, DefaultSearchContext c2) {
+                return Long.compare(c1.lastAccessTime(), c2.lastAccessTime());
+            }
+        });
+        for (DefaultSearchContext context : idle) {
+            final long lastAccessTime = context.lastAccessTime();
+            if (live <= maxLive && (lastAccessTime == -1 || time - lastAccessTime < idleMillis))
+                break;
+            if (context.spill()) {
+                live--;
+                spills.inc();
+                accountContext(context);
+                logger.trace("spilled search context [{}], lastAccessTime [{}]", context.id(), lastAccessTime);
+            }
+        }
+    }
+
+    /**
+     * Account the heap retained by a context on the request circuit breaker, spilling the idle scroll contexts
+     * when the breaker trips before failing the request.
+     */
+    private void accountContext(SearchContext context) {
+        if (!(context instanceof DefaultSearchContext))
+            return;
+        final DefaultSearchContext defaultContext = (DefaultSearchContext) context;
+        final long bytes = defaultContext.ramBytesUsed();
+        final long delta = bytes - defaultContext.accountedBytes().getAndSet(bytes);
+        if (delta > 0) {
+            try {
+                breaker.addEstimateBytesAndMaybeBreak(delta, CONTEXT_BREAKER_LABEL);
+            } catch (CircuitBreakingException e) {
+                defaultContext.accountedBytes().addAndGet(-delta);
+                spillContexts(0, 0);
+                breaker.addEstimateBytesAndMaybeBreak(delta, CONTEXT_BREAKER_LABEL);
+                defaultContext.accountedBytes().addAndGet(delta);
+            }
+        } else if (delta < 0) {
+            breaker.addWithoutBreaking(delta);
+        }
+        if (activeContexts.get(context.id()) != context)
+            // freed concurrently.
+            releaseContext(context);
+    }
+
+    private void releaseContext(SearchContext context) {
+        if (context instanceof DefaultSearchContext) {
+            final long bytes = ((DefaultSearchContext) context).accountedBytes().getAndSet(0);
+            if (bytes != 0)
+                breaker.addWithoutBreaking(-bytes);
+        }
     }
 
     public DfsSearchResult executeDfsPhase(ShardSearchRequest request) {
@@ -506,6 +655,7 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
                     freeContext(context.id());
                 } else {
                     contextProcessedSuccessfully(context);
+                    prefetchNextScrollPage(context);
                 }
             } catch (Throwable e) {
                 shardSearchStats.onFailedFetchPhase(context);
@@ -546,6 +696,7 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
                     freeContext(request.id());
                 } else {
                     contextProcessedSuccessfully(context);
+                    prefetchNextScrollPage(context);
                 }
             } catch (Throwable e) {
                 shardSearchStats.onFailedFetchPhase(context);
@@ -586,6 +737,7 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
                     freeContext(request.id());
                 } else {
                     contextProcessedSuccessfully(context);
+                    prefetchNextScrollPage(context);
                 }
             } catch (Throwable e) {
                 shardSearchStats.onFailedFetchPhase(context);
@@ -618,6 +770,7 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
                 freeContext(request.id());
             } else {
                 contextProcessedSuccessfully(context);
+                prefetchNextScrollPage(context);
             }
             shardSearchStats.onFetchPhase(context, System.nanoTime() - time);
             return context.fetchResult();
@@ -631,6 +784,14 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
         }
     }
 
+    /**
+     * Read in background the Cassandra rows of the next page of a scroll, while the current page is returned.
+     */
+    private void prefetchNextScrollPage(SearchContext context) {
+        if (context.scrollContext() != null)
+            ScrollPrefetch.prefetchNextPage(context, clusterService, threadPool.executor(ThreadPool.Names.SEARCH));
+    }
+
     private SearchContext findContext(long id) throws SearchContextMissingException {
         SearchContext context = activeContexts.get(id);
         if (context == null) {
@@ -732,6 +893,7 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
                     context.indexShard().searchService().onFreeScrollContext(context);
                 }
             } finally {
+                releaseContext(context);
                 context.close();
             }
             return true;
@@ -753,6 +915,7 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
     }
 
     private void contextProcessedSuccessfully(SearchContext context) {
+        accountContext(context);
         context.accessed(threadPool.estimatedTimeInMillis());
     }
 
@@ -1233,6 +1396,7 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
                     freeContext(context.id());
                 }
             }
+            spillContexts(SPILL_IDLE_MILLIS, MAX_LIVE_CONTEXTS);
         }
     }
 }
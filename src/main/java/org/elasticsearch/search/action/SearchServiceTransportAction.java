@@ -26,6 +26,10 @@ import org.elasticsearch.action.OriginalIndices;
 import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cassandra.cluster.routing.SearchResponseCollector;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterStateListener;
 import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.common.component.AbstractComponent;
 import org.elasticsearch.common.inject.Inject;
@@ -45,6 +49,8 @@ import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.*;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * An encapsulation of {@link org.elasticsearch.search.SearchService} operations exposed through
@@ -69,12 +75,22 @@ public class SearchServiceTransportAction extends AbstractComponent {
 
     private final TransportService transportService;
     private final SearchService searchService;
+    private final ThreadPool threadPool;
 
     @Inject
-    public SearchServiceTransportAction(Settings settings, TransportService transportService, SearchService searchService) {
+    public SearchServiceTransportAction(Settings settings, TransportService transportService, SearchService searchService, ThreadPool threadPool, ClusterService clusterService) {
         super(settings);
         this.transportService = transportService;
         this.searchService = searchService;
+        this.threadPool = threadPool;
+
+        clusterService.add(new ClusterStateListener() {
+            @Override
+            public void clusterChanged(ClusterChangedEvent event) {
+                if (event.nodesRemoved())
+                    SearchResponseCollector.instance.retain(event.state().nodes());
+            }
+        });
 
         transportService.registerRequestHandler(FREE_CONTEXT_SCROLL_ACTION_NAME, ScrollFreeContextRequest.class, ThreadPool.Names.SAME, new FreeContextTransportHandler<>());
         transportService.registerRequestHandler(FREE_CONTEXT_ACTION_NAME, SearchFreeContextRequest.class, ThreadPool.Names.SAME, new FreeContextTransportHandler<SearchFreeContextRequest>());
@@ -130,7 +146,7 @@ public class SearchServiceTransportAction extends AbstractComponent {
     }
 
     public void sendExecuteDfs(DiscoveryNode node, final ShardSearchTransportRequest request, final ActionListener<DfsSearchResult> listener) {
-        transportService.sendRequest(node, DFS_ACTION_NAME, request, new ActionListenerResponseHandler<DfsSearchResult>(listener) {
+        transportService.sendRequest(node, DFS_ACTION_NAME, request, new ActionListenerResponseHandler<DfsSearchResult>(SearchResponseCollector.instance.wrap(node, listener)) {
             @Override
             public DfsSearchResult newInstance() {
                 return new DfsSearchResult();
@@ -139,7 +155,7 @@ public class SearchServiceTransportAction extends AbstractComponent {
     }
 
     public void sendExecuteQuery(DiscoveryNode node, final ShardSearchTransportRequest request, final ActionListener<QuerySearchResultProvider> listener) {
-        transportService.sendRequest(node, QUERY_ACTION_NAME, request, new ActionListenerResponseHandler<QuerySearchResultProvider>(listener) {
+        transportService.sendRequest(node, QUERY_ACTION_NAME, request, new ActionListenerResponseHandler<QuerySearchResultProvider>(SearchResponseCollector.instance.wrap(node, listener)) {
             @Override
             public QuerySearchResult newInstance() {
                 return new QuerySearchResult();
@@ -166,7 +182,7 @@ public class SearchServiceTransportAction extends AbstractComponent {
     }
 
     public void sendExecuteFetch(DiscoveryNode node, final ShardSearchTransportRequest request, final ActionListener<QueryFetchSearchResult> listener) {
-        transportService.sendRequest(node, QUERY_FETCH_ACTION_NAME, request, new ActionListenerResponseHandler<QueryFetchSearchResult>(listener) {
+        transportService.sendRequest(node, QUERY_FETCH_ACTION_NAME, request, new ActionListenerResponseHandler<QueryFetchSearchResult>(SearchResponseCollector.instance.wrap(node, listener)) {
             @Override
             public QueryFetchSearchResult newInstance() {
                 return new QueryFetchSearchResult();
@@ -210,7 +226,7 @@ public class SearchServiceTransportAction extends AbstractComponent {
     }
 
     public void sendExecuteScan(DiscoveryNode node, final ShardSearchTransportRequest request, final ActionListener<QuerySearchResult> listener) {
-        transportService.sendRequest(node, SCAN_ACTION_NAME, request, new ActionListenerResponseHandler<QuerySearchResult>(listener) {
+        transportService.sendRequest(node, SCAN_ACTION_NAME, request, new ActionListenerResponseHandler<QuerySearchResult>(SearchResponseCollector.instance.wrap(node, listener)) {
             @Override
             public QuerySearchResult newInstance() {
                 return new QuerySearchResult();
@@ -227,6 +243,16 @@ public class SearchServiceTransportAction extends AbstractComponent {
         });
     }
 
+    /**
+     * Add service time and search queue size headers to the response to feed the coordinator adaptive replica selection.
+     */
+    private void putSearchFeedbackHeaders(TransportResponse response, long startTime) {
+        response.putHeader(SearchResponseCollector.SERVICE_TIME_HEADER, System.nanoTime() - startTime);
+        Executor executor = threadPool.executor(ThreadPool.Names.SEARCH);
+        if (executor instanceof ThreadPoolExecutor)
+            response.putHeader(SearchResponseCollector.QUEUE_SIZE_HEADER, ((ThreadPoolExecutor) executor).getQueue().size());
+    }
+
     static class ScrollFreeContextRequest extends TransportRequest {
         private long id;
 
@@ -357,7 +383,9 @@ public class SearchServiceTransportAction extends AbstractComponent {
     class SearchDfsTransportHandler implements TransportRequestHandler<ShardSearchTransportRequest> {
         @Override
         public void messageReceived(ShardSearchTransportRequest request, TransportChannel channel) throws Exception {
+            long startTime = System.nanoTime();
             DfsSearchResult result = searchService.executeDfsPhase(request);
+            putSearchFeedbackHeaders(result, startTime);
             channel.sendResponse(result);
         }
     }
@@ -365,7 +393,9 @@ public class SearchServiceTransportAction extends AbstractComponent {
     class SearchQueryTransportHandler implements TransportRequestHandler<ShardSearchTransportRequest> {
         @Override
         public void messageReceived(ShardSearchTransportRequest request, TransportChannel channel) throws Exception {
+            long startTime = System.nanoTime();
             QuerySearchResultProvider result = searchService.executeQueryPhase(request);
+            putSearchFeedbackHeaders(result, startTime);
             channel.sendResponse(result);
         }
     }
@@ -389,7 +419,9 @@ public class SearchServiceTransportAction extends AbstractComponent {
     class SearchQueryFetchTransportHandler implements TransportRequestHandler<ShardSearchTransportRequest> {
         @Override
         public void messageReceived(ShardSearchTransportRequest request, TransportChannel channel) throws Exception {
+            long startTime = System.nanoTime();
             QueryFetchSearchResult result = searchService.executeFetchPhase(request);
+            putSearchFeedbackHeaders(result, startTime);
             channel.sendResponse(result);
         }
     }
@@ -422,7 +454,9 @@ public class SearchServiceTransportAction extends AbstractComponent {
     class SearchScanTransportHandler implements TransportRequestHandler<ShardSearchTransportRequest> {
         @Override
         public void messageReceived(ShardSearchTransportRequest request, TransportChannel channel) throws Exception {
+            long startTime = System.nanoTime();
             QuerySearchResult result = searchService.executeScan(request);
+            putSearchFeedbackHeaders(result, startTime);
             channel.sendResponse(result);
         }
     }
@@ -120,6 +120,9 @@ public class SearchSourceBuilder extends ToXContentToBytes {
 
     private String[] stats;
 
+    private Integer sliceId;
+    private Integer sliceMax;
+
     /**
      * Constructs a new search source builder.
      */
@@ -634,6 +637,16 @@ public class SearchSourceBuilder extends ToXContentToBytes {
         return this;
     }
 
+    /**
+     * Only search the slice <code>id</code> of <code>max</code> disjoint token range slices, so that
+     * several scrolls consume the documents in parallel.
+     */
+    public SearchSourceBuilder slice(int id, int max) {
+        this.sliceId = id;
+        this.sliceMax = max;
+        return this;
+    }
+
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
         builder.startObject();
@@ -823,6 +836,13 @@ public class SearchSourceBuilder extends ToXContentToBytes {
             }
             builder.endArray();
         }
+
+        if (sliceId != null) {
+            builder.startObject("slice");
+            builder.field("id", sliceId);
+            builder.field("max", sliceMax);
+            builder.endObject();
+        }
     }
 
     private static class ScriptField {
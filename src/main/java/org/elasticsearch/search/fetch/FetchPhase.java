@@ -22,6 +22,7 @@ package org.elasticsearch.search.fetch;
 import static org.elasticsearch.common.xcontent.XContentFactory.contentBuilder;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.cql3.QueryProcessor;
 import org.apache.cassandra.cql3.UntypedResultSet;
 import org.apache.log4j.Logger;
@@ -40,6 +42,11 @@ import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.util.BitSet;
 import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.cassandra.cluster.InternalCassandraClusterService;
+import org.elasticsearch.cassandra.index.DocumentCache;
+import org.elasticsearch.cassandra.index.SecondaryIndexMetrics;
+import org.elasticsearch.cassandra.index.SecondaryIndexMetrics.IndexMetrics;
+import org.elasticsearch.cassandra.index.SecondaryIndexMetrics.Phase;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterService.DocPrimaryKey;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
@@ -47,22 +54,29 @@ import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.regex.Regex;
 import org.elasticsearch.common.text.StringAndBytesText;
 import org.elasticsearch.common.text.Text;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.fielddata.ScriptDocValues;
 import org.elasticsearch.index.fieldvisitor.AllFieldsVisitor;
 import org.elasticsearch.index.fieldvisitor.CustomFieldsVisitor;
 import org.elasticsearch.index.fieldvisitor.FieldsVisitor;
 import org.elasticsearch.index.fieldvisitor.JustUidFieldsVisitor;
 import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.FieldMapper;
 import org.elasticsearch.index.mapper.MappedFieldType;
 import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.mapper.core.IntegerFieldMapper;
+import org.elasticsearch.index.mapper.core.LongFieldMapper;
+import org.elasticsearch.index.mapper.core.StringFieldMapper;
 import org.elasticsearch.index.mapper.internal.NodeFieldMapper;
 import org.elasticsearch.index.mapper.internal.SourceFieldMapper;
 import org.elasticsearch.index.mapper.object.ObjectMapper;
+import org.elasticsearch.index.search.stats.CassandraFetchStats;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHitField;
 import org.elasticsearch.search.SearchParseElement;
@@ -84,6 +98,8 @@ public class FetchPhase implements SearchPhase {
 
     private final FetchSubPhase[] fetchSubPhases;
     private final ClusterService clusterService;
+
+    private static final byte[] EMPTY_SOURCE = "{}".getBytes(StandardCharsets.UTF_8);
     
     @Inject
     public FetchPhase(Set<FetchSubPhase> fetchSubPhases, InnerHitsFetchSubPhase innerHitsFetchSubPhase, ClusterService clusterService) {
@@ -159,6 +175,7 @@ public class FetchPhase implements SearchPhase {
             }
         }
 
+        CassandraFetchContext fetchContext = new CassandraFetchContext(clusterService.state().metaData().index(context.request().index()));
         InternalSearchHit[] hits = new InternalSearchHit[context.docIdsToLoadSize()];
         FetchSubPhase.HitContext hitContext = new FetchSubPhase.HitContext();
         for (int index = 0; index < context.docIdsToLoadSize(); index++) {
@@ -171,9 +188,9 @@ public class FetchPhase implements SearchPhase {
             try {
                 int rootDocId = findRootDocumentIfNested(context, subReaderContext, subDocId);
                 if (rootDocId != -1) {
-                    searchHit = createNestedSearchHit(context, docId, subDocId, rootDocId, extractFieldNames, loadAllStored, fieldNames, subReaderContext);
+                    searchHit = createNestedSearchHit(context, docId, subDocId, rootDocId, extractFieldNames, loadAllStored, fieldNames, subReaderContext, fetchContext);
                 } else {
-                    searchHit = createSearchHit(context, fieldsVisitor, docId, subDocId, extractFieldNames, subReaderContext);
+                    searchHit = createSearchHit(context, fieldsVisitor, docId, subDocId, extractFieldNames, subReaderContext, fetchContext);
                 }
             } catch (IOException e) {
                 throw ExceptionsHelper.convertToElastic(e);
@@ -194,6 +211,10 @@ public class FetchPhase implements SearchPhase {
             }
         }
 
+        if (context.indexShard() != null) {
+            context.indexShard().searchService().onCassandraFetch(context, fetchContext.stats);
+        }
+
         context.fetchResult().hits(new InternalSearchHits(hits, context.queryResult().topDocs().totalHits, context.queryResult().topDocs().getMaxScore()));
     }
 
@@ -207,8 +228,8 @@ public class FetchPhase implements SearchPhase {
         return -1;
     }
 
-    private InternalSearchHit createSearchHit(SearchContext context, FieldsVisitor fieldsVisitor, int docId, int subDocId, List<String> extractFieldNames, LeafReaderContext subReaderContext) {
-        loadStoredFields(context, subReaderContext, fieldsVisitor, subDocId);
+    private InternalSearchHit createSearchHit(SearchContext context, FieldsVisitor fieldsVisitor, int docId, int subDocId, List<String> extractFieldNames, LeafReaderContext subReaderContext, CassandraFetchContext fetchContext) {
+        loadStoredFields(context, subReaderContext, fieldsVisitor, subDocId, fetchContext);
         fieldsVisitor.postProcess(context.mapperService());
 
         Map<String, SearchHitField> searchFields = null;
@@ -258,15 +279,15 @@ public class FetchPhase implements SearchPhase {
     }
 
     private InternalSearchHit createNestedSearchHit(SearchContext context, int nestedTopDocId, int nestedSubDocId, int rootSubDocId, List<String> extractFieldNames, boolean loadAllStored,
-            Set<String> fieldNames, LeafReaderContext subReaderContext) throws IOException {
+            Set<String> fieldNames, LeafReaderContext subReaderContext, CassandraFetchContext fetchContext) throws IOException {
         // Also if highlighting is requested on nested documents we need to fetch the _source from the root document,
         // otherwise highlighting will attempt to fetch the _source from the nested doc, which will fail,
         // because the entire _source is only stored with the root document.
         final FieldsVisitor rootFieldsVisitor = new FieldsVisitor(context.sourceRequested() || extractFieldNames != null || context.highlight() != null);
-        loadStoredFields(context, subReaderContext, rootFieldsVisitor, rootSubDocId);
+        loadStoredFields(context, subReaderContext, rootFieldsVisitor, rootSubDocId, fetchContext);
         rootFieldsVisitor.postProcess(context.mapperService());
 
-        Map<String, SearchHitField> searchFields = getSearchFields(context, nestedSubDocId, loadAllStored, fieldNames, subReaderContext);
+        Map<String, SearchHitField> searchFields = getSearchFields(context, nestedSubDocId, loadAllStored, fieldNames, subReaderContext, fetchContext);
         DocumentMapper documentMapper = context.mapperService().documentMapper(rootFieldsVisitor.uid().type());
         SourceLookup sourceLookup = context.lookup().source();
         sourceLookup.setSegmentAndDocument(subReaderContext, nestedSubDocId);
@@ -331,7 +352,7 @@ public class FetchPhase implements SearchPhase {
         return searchHit;
     }
 
-    private Map<String, SearchHitField> getSearchFields(SearchContext context, int nestedSubDocId, boolean loadAllStored, Set<String> fieldNames, LeafReaderContext subReaderContext) {
+    private Map<String, SearchHitField> getSearchFields(SearchContext context, int nestedSubDocId, boolean loadAllStored, Set<String> fieldNames, LeafReaderContext subReaderContext, CassandraFetchContext fetchContext) {
         Map<String, SearchHitField> searchFields = null;
         if (context.hasFieldNames() && !context.fieldNames().isEmpty()) {
             FieldsVisitor nestedFieldsVisitor = null;
@@ -342,7 +363,7 @@ public class FetchPhase implements SearchPhase {
             }
 
             if (nestedFieldsVisitor != null) {
-                loadStoredFields(context, subReaderContext, nestedFieldsVisitor, nestedSubDocId);
+                loadStoredFields(context, subReaderContext, nestedFieldsVisitor, nestedSubDocId, fetchContext);
                 nestedFieldsVisitor.postProcess(context.mapperService());
                 if (!nestedFieldsVisitor.fields().isEmpty()) {
                     searchFields = new HashMap<>(nestedFieldsVisitor.fields().size());
@@ -410,7 +431,104 @@ public class FetchPhase implements SearchPhase {
         return nestedIdentity;
     }
 
-    private void loadStoredFields(SearchContext searchContext, LeafReaderContext readerContext, FieldsVisitor fieldVisitor, int docId) {
+    /**
+     * Load requested fields, and the _source when only including such fields, from Lucene stored fields and doc values
+     * without reading cassandra, when enabled by index.fetch_from_doc_values and every field has doc values and at most one value.
+     * @return false when cassandra must be read.
+     */
+    private boolean loadFromDocValues(SearchContext searchContext, LeafReaderContext readerContext, FieldsVisitor fieldVisitor, int docId, IndexMetaData indexMetaData) throws IOException {
+        if (fieldVisitor instanceof AllFieldsVisitor)
+            return false;
+        if (!indexMetaData.getSettings().getAsBoolean(IndexMetaData.SETTING_FETCH_FROM_DOC_VALUES, false))
+            return false;
+
+        // fields not already loaded from lucene stored fields
+        Set<String> fields = new HashSet<String>();
+        for (String field : fieldVisitor.requestedFields()) {
+            if (!fieldVisitor.fields().containsKey(field))
+                fields.add(field);
+        }
+        String[] sourceFields = null;
+        if (fieldVisitor.loadSource()) {
+            if (!searchContext.hasFetchSourceContext() || searchContext.highlight() != null || searchContext.hasScriptFields() || searchContext.innerHits() != null)
+                return false;
+            FetchSourceContext fetchSourceContext = searchContext.fetchSourceContext();
+            if (fetchSourceContext.transformSource() || fetchSourceContext.includes().length == 0 || fetchSourceContext.excludes().length > 0)
+                return false;
+            for (String include : fetchSourceContext.includes()) {
+                if (Regex.isSimpleMatchPattern(include))
+                    return false;
+                fields.add(include);
+            }
+            sourceFields = fetchSourceContext.includes();
+        } else if (fieldVisitor.requestedFields().isEmpty()) {
+            return false;
+        }
+
+        DocumentMapper docMapper = searchContext.mapperService().documentMapper(fieldVisitor.uid().type());
+        Map<String, List<Object>> docValues = new HashMap<String, List<Object>>();
+        for (String field : fields) {
+            if (NodeFieldMapper.NAME.equals(field))
+                return false;
+            MappedFieldType fieldType = searchContext.smartNameFieldType(field);
+            if (fieldType == null || !fieldType.hasDocValues() || !hasExactDocValues(docMapper, field, fieldType))
+                return false;
+            ScriptDocValues<?> values = searchContext.fieldData().getForField(fieldType).load(readerContext).getScriptValues();
+            values.setNextDocId(docId);
+            // multi-valued fields are read from cassandra to keep the order and duplicates of values.
+            if (values.getValues().size() > 1)
+                return false;
+            docValues.put(field, new ArrayList<Object>(values.getValues()));
+        }
+
+        for (String field : fieldVisitor.requestedFields()) {
+            List<Object> values = docValues.get(field);
+            if (values != null && values.size() > 0)
+                fieldVisitor.setValues(field, values);
+        }
+        if (sourceFields != null) {
+            Map<String, Object> source = new HashMap<String, Object>();
+            for (String field : sourceFields) {
+                List<Object> values = docValues.get(field);
+                if (values.size() > 0)
+                    putPath(source, field, searchContext.smartNameFieldType(field).valueForSearch(values.get(0)));
+            }
+            fieldVisitor.source(contentBuilder(XContentType.JSON).map(source).bytes().toBytes());
+        }
+        return true;
+    }
+
+    /**
+     * @return true when doc values hold the exact value of the field, that is for long and integer fields 
+     * and strings without ignore_above, floats being widened to doubles and long strings not being indexed.
+     */
+    private static boolean hasExactDocValues(DocumentMapper docMapper, String field, MappedFieldType fieldType) {
+        if (fieldType instanceof LongFieldMapper.LongFieldType || fieldType instanceof IntegerFieldMapper.IntegerFieldType)
+            return true;
+        if (fieldType instanceof StringFieldMapper.StringFieldType && docMapper != null) {
+            FieldMapper mapper = docMapper.mappers().smartNameFieldMapper(field);
+            return (mapper instanceof StringFieldMapper) && ((StringFieldMapper) mapper).getIgnoreAbove() < 0;
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void putPath(Map<String, Object> map, String path, Object value) {
+        int i = path.indexOf('.');
+        if (i < 0) {
+            map.put(path, value);
+        } else {
+            String key = path.substring(0, i);
+            Object child = map.get(key);
+            if (!(child instanceof Map)) {
+                child = new HashMap<String, Object>();
+                map.put(key, child);
+            }
+            putPath((Map<String, Object>) child, path.substring(i + 1), value);
+        }
+    }
+
+    private void loadStoredFields(SearchContext searchContext, LeafReaderContext readerContext, FieldsVisitor fieldVisitor, int docId, CassandraFetchContext fetchContext) {
         fieldVisitor.reset();
         
         try {
@@ -421,16 +539,20 @@ public class FetchPhase implements SearchPhase {
 
         if (!(fieldVisitor instanceof JustUidFieldsVisitor) ) {
             try {
+                if (loadFromDocValues(searchContext, readerContext, fieldVisitor, docId, fetchContext.indexMetaData))
+                    return;
+
                 DocPrimaryKey docPk = clusterService.parseElasticId(searchContext.request().index(), fieldVisitor.uid().type(), fieldVisitor.uid().id());
                 String typeKey = fieldVisitor.uid().type();
                 if (docPk.isStaticDocument) 
                     typeKey += "_static";
                 
                 String cqlQuery = searchContext.getCqlFetchQuery( typeKey );
+                fetchContext.stats.onFetchQuery(cqlQuery != null);
                 if (cqlQuery == null) {
                     Set<String> requiredColumns = fieldVisitor.requiredColumns(clusterService, searchContext);
                     if (requiredColumns.size() > 0) {
-                    	IndexMetaData indexMetaData = clusterService.state().metaData().index(searchContext.request().index());
+                    	IndexMetaData indexMetaData = fetchContext.indexMetaData;
                     	if (requiredColumns.contains(NodeFieldMapper.NAME)) {
                         	searchContext.includeNode(indexMetaData.getSettings().getAsBoolean(IndexMetaData.SETTING_INCLUDE_NODE, false));
                         	requiredColumns.remove(NodeFieldMapper.NAME);
@@ -445,8 +567,39 @@ public class FetchPhase implements SearchPhase {
                 }
                 
                 if (cqlQuery != null) {
-                    UntypedResultSet result = QueryProcessor.executeInternal(cqlQuery, docPk.values);
+                    IndexMetaData indexMetaData = fetchContext.indexMetaData;
+                    
+                    // serve the whole source from the document cache.
+                    DocumentCache.Key cacheKey = null;
+                    if (DocumentCache.instance != null && fieldVisitor.loadSource() && !searchContext.includeNode() 
+                            && (fieldVisitor.requestedFields() == null || fieldVisitor.requestedFields().isEmpty())
+                            && !FieldsVisitor.filterColumns(searchContext)) {
+                        CFMetaData metadata = InternalCassandraClusterService.getCFMetaData(indexMetaData.keyspace(), ClusterService.Utils.typeToCfName(fieldVisitor.uid().type()));
+                        cacheKey = DocumentCache.instance.key(searchContext.request().index(), metadata, docPk.values, docPk.isStaticDocument);
+                        byte[] source = DocumentCache.instance.get(DocumentCache.Form.SEARCH, cacheKey);
+                        if (source != null) {
+                            fieldVisitor.source(source);
+                            return;
+                        }
+                    }
+                    
+                    IndexMetrics indexMetrics = fetchContext.metrics(fieldVisitor.uid().type());
+                    long start = System.nanoTime();
+                    ScrollPrefetch prefetch = (searchContext.scrollContext() == null) ? null : searchContext.scrollContext().prefetch;
+                    UntypedResultSet result = (prefetch == null) ? null : prefetch.take(readerContext.docBase + docId, cqlQuery);
+                    if (result == null)
+                        result = QueryProcessor.executeInternal(cqlQuery, docPk.values);
+                    else
+                        cacheKey = null; // read before the cache key timestamp, possibly before an update of the row.
+                    long fetchNanos = System.nanoTime() - start;
+                    long bytes = 0;
+                    for (UntypedResultSet.Row row : result)
+                        bytes += row.dataSize();
+                    fetchContext.stats.onFetch(fetchNanos, result.size(), bytes);
+                    if (indexMetrics != null)
+                        indexMetrics.update(Phase.CASSANDRA_FETCH, fetchNanos);
                     if (!result.isEmpty()) {
+                        start = System.nanoTime();
                         Map<String, Object> mapObject = clusterService.rowAsMap(searchContext.request().index(), fieldVisitor.uid().type(), result.one());
                         if (searchContext.includeNode()) {
                         	mapObject.put(NodeFieldMapper.NAME, clusterService.state().nodes().localNodeId());
@@ -463,10 +616,20 @@ public class FetchPhase implements SearchPhase {
                             // rebuild the source document from the cassandra row.
                             XContentBuilder builder = ClusterService.Utils.buildDocument(searchContext.mapperService().documentMapper(fieldVisitor.uid().type()), mapObject, true, clusterService.isStaticDocument(searchContext.request().index(), fieldVisitor.uid()));
                             builder.humanReadable(true);
-                            fieldVisitor.source(builder.bytes().toBytes());
+                            byte[] source = builder.bytes().toBytes();
+                            fieldVisitor.source(source);
+                            if (cacheKey != null)
+                                DocumentCache.instance.put(DocumentCache.Form.SEARCH, cacheKey, source);
                         }
+                        long buildNanos = System.nanoTime() - start;
+                        fetchContext.stats.onBuildDocument(buildNanos);
+                        if (indexMetrics != null)
+                            indexMetrics.update(Phase.BUILD_DOCUMENT, buildNanos);
                     }
                 } else {
+                    // no column to read, all fields are filtered out of _source.
+                    if (fieldVisitor.loadSource())
+                        fieldVisitor.source(EMPTY_SOURCE);
                 	// when only requesting for field _node
                 	if (searchContext.includeNode()) {
                 		List<Object> values = new ArrayList<Object>(1);
@@ -480,4 +643,24 @@ public class FetchPhase implements SearchPhase {
             }
         }
     }
+
+    /**
+     * Cassandra reads statistics and lookups shared by the hits of a fetch phase.
+     */
+    private static class CassandraFetchContext {
+        final CassandraFetchStats stats = new CassandraFetchStats();
+        final IndexMetaData indexMetaData;
+        // by document type, null when the table has no secondary index metrics.
+        private final Map<String, IndexMetrics> metrics = new HashMap<String, IndexMetrics>();
+
+        CassandraFetchContext(IndexMetaData indexMetaData) {
+            this.indexMetaData = indexMetaData;
+        }
+
+        IndexMetrics metrics(String type) {
+            if (!metrics.containsKey(type))
+                metrics.put(type, SecondaryIndexMetrics.of(indexMetaData.keyspace(), ClusterService.Utils.typeToCfName(type), indexMetaData.getIndex()));
+            return metrics.get(type);
+        }
+    }
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.search.fetch;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.queries.MinDocQuery;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SimpleCollector;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterService.DocPrimaryKey;
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.fieldvisitor.JustUidFieldsVisitor;
+import org.elasticsearch.search.internal.ScrollContext;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.search.query.QueryPhase;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+/**
+ * Background Cassandra reads of the next page of an index ordered scroll (sorted by <code>_doc</code> or with a constant score query),
+ * started when a page is fetched and consumed by the fetch phase of the next page. The next page is predicted by running the query
+ * after the last emitted document on the point in time reader of the search context.
+ * <p>
+ * Prefetched rows are released when consumed, when the next page is prefetched and when the search context is freed,
+ * and prefetching stops when the rows retained by a search context exceed <code>elassandra.scroll_prefetch_budget_in_kb</code>.
+ *
+ * @author vroyer
+ *
+ */
+public class ScrollPrefetch implements Releasable {
+
+    private static final ESLogger logger = Loggers.getLogger(ScrollPrefetch.class);
+
+    public static final long BUDGET_IN_BYTES = Long.getLong("elassandra.scroll_prefetch_budget_in_kb", 1024) * 1024;
+
+    private final ConcurrentMap<Integer, Prefetched> rows = new ConcurrentHashMap<>();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    // incremented for each page, stops the reads of the previous page.
+    private final AtomicInteger generation = new AtomicInteger();
+    // highest document read by the fetch phase
+    private volatile int fetchedUpTo = -1;
+    private volatile boolean closed = false;
+
+    class Prefetched {
+        final String cqlQuery;
+        final CompletableFuture<UntypedResultSet> result = new CompletableFuture<>();
+        private long bytes;
+        private boolean released;
+
+        Prefetched(String cqlQuery) {
+            this.cqlQuery = cqlQuery;
+        }
+
+        /**
+         * Account the size of the rows read, unless already released.
+         */
+        synchronized void retain(long bytes) {
+            if (!released) {
+                this.bytes = bytes;
+                retainedBytes.addAndGet(bytes);
+            }
+        }
+
+        synchronized void release() {
+            if (!released) {
+                released = true;
+                retainedBytes.addAndGet(-bytes);
+            }
+        }
+    }
+
+    /**
+     * Read in background the Cassandra rows of the next page of a scroll, once the current page has been fetched.
+     */
+    public static void prefetchNextPage(final SearchContext context, final ClusterService clusterService, final Executor executor) {
+        final ScrollContext scrollContext = context.scrollContext();
+        if (BUDGET_IN_BYTES <= 0 || scrollContext == null || scrollContext.lastEmittedDoc == null || context.size() == 0
+                || context.minimumScore() != null || !QueryPhase.returnsDocsInOrder(context.query(), context.sort()))
+            return;
+
+        if (scrollContext.prefetch == null) {
+            scrollContext.prefetch = new ScrollPrefetch();
+            context.addReleasable(scrollContext.prefetch, SearchContext.Lifetime.CONTEXT);
+        }
+        final ScrollPrefetch prefetch = scrollContext.prefetch;
+        final int pageGeneration = prefetch.nextPage();
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder()
+            .add(context.query(), BooleanClause.Occur.MUST)
+            .add(new MinDocQuery(scrollContext.lastEmittedDoc.doc + 1), BooleanClause.Occur.FILTER);
+        if (context.parsedPostFilter() != null)
+            builder.add(context.parsedPostFilter().query(), BooleanClause.Occur.FILTER);
+        final Query query = builder.build();
+        final IndexReader reader = context.searcher().getIndexReader();
+        final String index = context.request().index();
+        final int size = context.size();
+
+        // the point in time reader may be released by the search context while reading in background.
+        if (!reader.tryIncRef())
+            return;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        IntArrayList docIds = nextDocs(reader, query, size);
+                        for (int i = 0; i < docIds.size(); i++) {
+                            if (prefetch.generation.get() != pageGeneration || prefetch.retainedBytes.get() >= BUDGET_IN_BYTES)
+                                return;
+                            prefetch.read(context, clusterService, reader, index, docIds.get(i), pageGeneration);
+                        }
+                    } catch (Throwable t) {
+                        if (!prefetch.closed)
+                            logger.debug("index [{}] failed to prefetch scroll page", t, index);
+                    } finally {
+                        decRef(reader, index);
+                    }
+                }
+            });
+        } catch (EsRejectedExecutionException e) {
+            decRef(reader, index);
+            logger.trace("index [{}] scroll prefetch rejected", index);
+        }
+    }
+
+    private static void decRef(IndexReader reader, String index) {
+        try {
+            reader.decRef();
+        } catch (IOException e) {
+            logger.debug("index [{}] failed to release scroll prefetch reader", e, index);
+        }
+    }
+
+    /**
+     * @return the ids of the next size matching documents in index order.
+     */
+    private static IntArrayList nextDocs(IndexReader reader, Query query, final int size) throws IOException {
+        final IntArrayList docIds = new IntArrayList(size);
+        new IndexSearcher(reader).search(query, new SimpleCollector() {
+            int docBase;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                if (docIds.size() >= size)
+                    throw new CollectionTerminatedException();
+                docBase = context.docBase;
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+                docIds.add(docBase + doc);
+                if (docIds.size() >= size)
+                    throw new CollectionTerminatedException();
+            }
+
+            @Override
+            public boolean needsScores() {
+                return false;
+            }
+        });
+        return docIds;
+    }
+
+    private int nextPage() {
+        int pageGeneration = generation.incrementAndGet();
+        // reads of the previous generation release their rows themselves when put after this removal.
+        for (Integer docId : rows.keySet()) {
+            Prefetched prefetched = rows.remove(docId);
+            if (prefetched != null)
+                prefetched.release();
+        }
+        return pageGeneration;
+    }
+
+    private void read(SearchContext context, ClusterService clusterService, IndexReader reader, String index, int docId, int pageGeneration) throws IOException {
+        if (docId <= fetchedUpTo)
+            return;
+        JustUidFieldsVisitor visitor = new JustUidFieldsVisitor();
+        reader.document(docId, visitor);
+        if (visitor.uid() == null)
+            return;
+        DocPrimaryKey docPk = clusterService.parseElasticId(index, visitor.uid().type(), visitor.uid().id());
+        String cqlQuery = context.getCqlFetchQuery(docPk.isStaticDocument ? visitor.uid().type() + "_static" : visitor.uid().type());
+        if (cqlQuery == null)
+            return;
+
+        Prefetched prefetched = new Prefetched(cqlQuery);
+        if (generation.get() != pageGeneration)
+            return;
+        rows.put(docId, prefetched);
+        if (generation.get() != pageGeneration) {
+            // the page changed before the put, drop the entry missed by nextPage().
+            rows.remove(docId, prefetched);
+            prefetched.result.complete(null);
+            return;
+        }
+        try {
+            UntypedResultSet result = QueryProcessor.executeInternal(cqlQuery, docPk.values);
+            long bytes = 0;
+            for (UntypedResultSet.Row row : result)
+                bytes += row.dataSize();
+            if (generation.get() == pageGeneration)
+                prefetched.retain(bytes);
+            prefetched.result.complete(result);
+        } catch (Throwable t) {
+            prefetched.result.completeExceptionally(t);
+            throw t;
+        }
+    }
+
+    /**
+     * Remove the prefetched rows of a document, waiting for the read in progress.
+     * @return the rows read by cqlQuery, or null when not prefetched.
+     */
+    public UntypedResultSet take(int docId, String cqlQuery) {
+        if (docId > fetchedUpTo)
+            fetchedUpTo = docId;
+        Prefetched prefetched = rows.remove(docId);
+        if (prefetched == null)
+            return null;
+        try {
+            UntypedResultSet result = prefetched.result.get();
+            return prefetched.cqlQuery.equals(cqlQuery) ? result : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } finally {
+            prefetched.release();
+        }
+    }
+
+    /**
+     * @return size of the prefetched rows not consumed yet.
+     */
+    public long retainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * Drop the prefetched rows and stop the reads in progress, the next page is fetched from Cassandra.
+     */
+    public void clear() {
+        nextPage();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        nextPage();
+    }
+}
@@ -25,6 +25,7 @@ import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.regex.Regex;
 import org.elasticsearch.rest.RestRequest;
 
 import java.io.IOException;
@@ -119,6 +120,38 @@ public class FetchSourceContext implements Streamable {
         return this;
     }
 
+    /**
+     * @return false when the top-level field (a cassandra column) cannot appear in the filtered source,
+     * so that it does not need to be read.
+     */
+    public boolean mayIncludeField(String field) {
+        if (transformSource) {
+            return true;
+        }
+        for (String exclude : excludes) {
+            if (Regex.simpleMatch(exclude, field)) {
+                return false;
+            }
+        }
+        if (includes.length == 0) {
+            return true;
+        }
+        for (String include : includes) {
+            int wildcard = include.indexOf('*');
+            if (wildcard < 0) {
+                if (include.equals(field) || include.startsWith(field + ".")) {
+                    return true;
+                }
+            } else {
+                String prefix = include.substring(0, wildcard);
+                if ((field + ".").startsWith(prefix) || prefix.startsWith(field + ".")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public static FetchSourceContext optionalReadFromStream(StreamInput in) throws IOException {
         if (!in.readBoolean()) {
             return null;
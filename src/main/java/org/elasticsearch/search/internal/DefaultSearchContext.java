@@ -21,10 +21,13 @@ package org.elasticsearch.search.internal;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
@@ -36,6 +39,7 @@ import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.util.Counter;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.cache.recycler.PageCacheRecycler;
@@ -70,15 +74,18 @@ import org.elasticsearch.search.dfs.DfsSearchResult;
 import org.elasticsearch.search.fetch.FetchSearchResult;
 import org.elasticsearch.search.fetch.FetchSubPhase;
 import org.elasticsearch.search.fetch.FetchSubPhaseContext;
+import org.elasticsearch.search.fetch.ScrollPrefetch;
 import org.elasticsearch.search.fetch.innerhits.InnerHitsContext;
 import org.elasticsearch.search.fetch.script.ScriptFieldsContext;
 import org.elasticsearch.search.fetch.source.FetchSourceContext;
 import org.elasticsearch.search.highlight.SearchContextHighlight;
+import org.elasticsearch.search.lookup.CassandraSourceLookup;
 import org.elasticsearch.search.lookup.SearchLookup;
 import org.elasticsearch.search.query.QueryPhaseExecutionException;
 import org.elasticsearch.search.query.QuerySearchResult;
 import org.elasticsearch.search.rescore.RescoreSearchContext;
 import org.elasticsearch.search.scan.ScanContext;
+import org.elasticsearch.search.slice.TokenRangeSlice;
 import org.elasticsearch.search.suggest.SuggestionSearchContext;
 
 /**
@@ -100,6 +107,13 @@ public class DefaultSearchContext extends SearchContext {
         public static final int MAX_RESULT_WINDOW = 10000;
     }
 
+    // rough heap estimates of a parsed context, a score doc, a fetched hit and a decoded row.
+    private static final long CONTEXT_RAM_BYTES = 4096;
+    private static final long SCORE_DOC_RAM_BYTES = 32;
+    private static final long HIT_RAM_BYTES = 256;
+    private static final long ROW_RAM_BYTES = 512;
+    private static final ScoreDoc[] EMPTY_SCORE_DOCS = new ScoreDoc[0];
+
     private final long id;
     private final ShardSearchRequest request;
     private final SearchShardTarget shardTarget;
@@ -155,8 +169,12 @@ public class DefaultSearchContext extends SearchContext {
     private final ClusterState clusterState;
     private SearchProcessor searchProcessor;
     
-	private Map<String,String> cqlQueryCache = new HashMap<String,String>();
+	private Map<String,String> cqlQueryCache = new ConcurrentHashMap<String,String>();
     private boolean includeNode;
+    private TokenRangeSlice slice;
+    // heap estimate accounted by the request circuit breaker, see SearchService.
+    private final AtomicLong accountedBytes = new AtomicLong();
+    private boolean spilled = false;
     
     private final Map<String, FetchSubPhaseContext> subPhaseContexts = new HashMap<>();
     private final Map<Class<?>, Collector> queryCollectors = new HashMap<>();
@@ -238,7 +256,11 @@ public class DefaultSearchContext extends SearchContext {
         }
 
         Query tokenRangeQuery = null;
-        if ( (this.request.tokenRanges() != null) && 
+        if (this.slice != null) {
+            // only search the token ranges of this node within the slice.
+            Collection<Range<Token>> sliceRanges = this.slice.intersect(request.tokenRanges());
+            tokenRangeQuery = sliceRanges.isEmpty() ? Queries.newMatchNoDocsQuery() : Queries.newTokenRangeQuery(sliceRanges);
+        } else if ( (this.request.tokenRanges() != null) && 
         	 (this.aggregations == null ||  this.aggregations.factories() == null || !this.aggregations.factories().hasTokenRangeAggregation()) ) {
         	tokenRangeQuery = Queries.newTokenRangeQuery(request.tokenRanges());
         }
@@ -718,8 +740,78 @@ public class DefaultSearchContext extends SearchContext {
     }
 
     @Override
-    public void accessed(long accessTime) {
+    public synchronized void accessed(long accessTime) {
         this.lastAccessTime = accessTime;
+        if (accessTime == -1)
+            this.spilled = false;
+    }
+
+    /**
+     * @return true when the results and caches of this idle context have been released.
+     */
+    public synchronized boolean spilled() {
+        return spilled;
+    }
+
+    /**
+     * Release the results and caches of an idle scroll context, keeping its reader and the last emitted doc of
+     * its {@link ScrollContext}. Released state is rebuilt by the next scroll request.
+     * @return false when the context is being processed or already spilled.
+     */
+    public synchronized boolean spill() {
+        if (spilled || lastAccessTime == -1)
+            return false;
+        TopDocs topDocs = queryResult.topDocs();
+        if (topDocs != null)
+            // the fetch phase of query then fetch scrolls reports the total hits and max score of the query phase.
+            queryResult.topDocs(new TopDocs(topDocs.totalHits, EMPTY_SCORE_DOCS, topDocs.getMaxScore()));
+        queryResult.aggregations(null);
+        queryResult.suggest(null);
+        fetchResult.hits(null);
+        docIdsToLoad(null, 0, 0);
+        cqlQueryCache.clear();
+        if (searchLookup != null && searchLookup.source() instanceof CassandraSourceLookup)
+            ((CassandraSourceLookup) searchLookup.source()).clearCache();
+        if (scrollContext != null && scrollContext.prefetch != null)
+            scrollContext.prefetch.clear();
+        spilled = true;
+        return true;
+    }
+
+    /**
+     * @return an estimate of the heap retained by the results and caches of this context between two requests.
+     */
+    public synchronized long ramBytesUsed() {
+        long bytes = CONTEXT_RAM_BYTES;
+        if (spilled)
+            return bytes;
+        TopDocs topDocs = queryResult.topDocs();
+        if (topDocs != null)
+            bytes += topDocs.scoreDocs.length * SCORE_DOC_RAM_BYTES;
+        if (docIdsToLoad != null)
+            bytes += docIdsToLoad.length * 4;
+        if (fetchResult.hits() != null) {
+            for (InternalSearchHit hit : fetchResult.hits().internalHits()) {
+                bytes += HIT_RAM_BYTES;
+                if (hit.sourceRef() != null)
+                    bytes += hit.sourceRef().length();
+            }
+        }
+        for (Map.Entry<String, String> entry : cqlQueryCache.entrySet())
+            bytes += 2 * (entry.getKey().length() + entry.getValue().length());
+        if (searchLookup != null && searchLookup.source() instanceof CassandraSourceLookup)
+            bytes += ((CassandraSourceLookup) searchLookup.source()).cachedRows() * ROW_RAM_BYTES;
+        ScrollPrefetch prefetch = (scrollContext == null) ? null : scrollContext.prefetch;
+        if (prefetch != null)
+            bytes += prefetch.retainedBytes();
+        return bytes;
+    }
+
+    /**
+     * @return bytes of this context accounted by the request circuit breaker.
+     */
+    public AtomicLong accountedBytes() {
+        return accountedBytes;
     }
 
     @Override
@@ -741,7 +833,7 @@ public class DefaultSearchContext extends SearchContext {
     public SearchLookup lookup() {
         // TODO: The types should take into account the parsing context in QueryParserContext...
         if (searchLookup == null) {
-            searchLookup = new SearchLookup(mapperService(), fieldData(), request.types());
+            searchLookup = new SearchLookup(mapperService(), fieldData(), request.types(), this);
         }
         return searchLookup;
     }
@@ -769,6 +861,16 @@ public class DefaultSearchContext extends SearchContext {
         return scanContext;
     }
 
+    @Override
+    public TokenRangeSlice slice() {
+        return slice;
+    }
+
+    @Override
+    public void slice(TokenRangeSlice slice) {
+        this.slice = slice;
+    }
+
     @Override
     public MappedFieldType smartNameFieldType(String name) {
         return mapperService().smartNameFieldType(name, request.types());
@@ -58,6 +58,7 @@ import org.elasticsearch.search.lookup.SearchLookup;
 import org.elasticsearch.search.query.QuerySearchResult;
 import org.elasticsearch.search.rescore.RescoreSearchContext;
 import org.elasticsearch.search.scan.ScanContext;
+import org.elasticsearch.search.slice.TokenRangeSlice;
 import org.elasticsearch.search.suggest.SuggestionSearchContext;
 
 public abstract class FilteredSearchContext extends SearchContext {
@@ -515,6 +516,16 @@ public abstract class FilteredSearchContext extends SearchContext {
         return in.scanContext();
     }
 
+    @Override
+    public TokenRangeSlice slice() {
+        return in.slice();
+    }
+
+    @Override
+    public void slice(TokenRangeSlice slice) {
+        in.slice(slice);
+    }
+
     @Override
     public MappedFieldType smartNameFieldType(String name) {
         return in.smartNameFieldType(name);
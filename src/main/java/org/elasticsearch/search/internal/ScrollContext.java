@@ -21,6 +21,7 @@ package org.elasticsearch.search.internal;
 
 import org.apache.lucene.search.ScoreDoc;
 import org.elasticsearch.search.Scroll;
+import org.elasticsearch.search.fetch.ScrollPrefetch;
 
 /** Wrapper around information that needs to stay around when scrolling. */
 public class ScrollContext {
@@ -29,5 +30,6 @@ public class ScrollContext {
     public float maxScore;
     public ScoreDoc lastEmittedDoc;
     public Scroll scroll;
+    public ScrollPrefetch prefetch;
 
 }
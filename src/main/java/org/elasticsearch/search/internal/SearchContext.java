@@ -66,6 +66,7 @@ import org.elasticsearch.search.lookup.SearchLookup;
 import org.elasticsearch.search.query.QuerySearchResult;
 import org.elasticsearch.search.rescore.RescoreSearchContext;
 import org.elasticsearch.search.scan.ScanContext;
+import org.elasticsearch.search.slice.TokenRangeSlice;
 import org.elasticsearch.search.suggest.SuggestionSearchContext;
 
 import com.google.common.collect.Iterables;
@@ -359,6 +360,13 @@ public abstract class SearchContext extends DelegatingHasContextAndHeaders imple
 
     public abstract ScanContext scanContext();
 
+    /**
+     * @return the token range slice of the ring searched by a sliced scroll, or null.
+     */
+    public abstract TokenRangeSlice slice();
+
+    public abstract void slice(TokenRangeSlice slice);
+
     public abstract MappedFieldType smartNameFieldType(String name);
 
     /**
@@ -323,7 +323,7 @@ public class SubSearchContext extends FilteredSearchContext {
     @Override
     public SearchLookup lookup() {
         if (searchLookup == null) {
-            searchLookup = new SearchLookup(mapperService(), fieldData(), request().types());
+            searchLookup = new SearchLookup(mapperService(), fieldData(), request().types(), this);
         }
         return searchLookup;
     }
@@ -365,7 +365,6 @@ public class SubSearchContext extends FilteredSearchContext {
 
 	@Override
 	public ClusterService clusterService() {
-		// TODO Auto-generated method stub
-		return null;
+		return super.clusterService();
 	}
 }
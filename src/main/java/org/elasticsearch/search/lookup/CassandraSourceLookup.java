@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.search.lookup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Weight;
+import org.elasticsearch.cassandra.cluster.InternalCassandraClusterService;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterService.DocPrimaryKey;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.fieldvisitor.JustUidFieldsVisitor;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.search.internal.SearchContext;
+
+/**
+ * {@link SourceLookup} rebuilding the _source of documents from the local Cassandra table, because
+ * _source is not stored in Lucene. Used by scripts, highlighting and aggregations accessing _source.
+ * <p>
+ * Nested documents have the source of their root document. When documents are looked up in the order they match
+ * the query of the search context, as collected by aggregations, the rows of the next matching documents of the segment
+ * are read in a batch, with a multi-partition read for tables having a single column primary key. The batch doubles
+ * while lookups follow the matching documents, up to <code>elassandra.source_batch_size</code>, and falls back to a single
+ * row on random lookups, so that only the rows of looked up documents are read. Decoded rows are cached for the lifetime
+ * of the search context.
+ *
+ * @author vroyer
+ *
+ */
+public class CassandraSourceLookup extends SourceLookup {
+
+    public static final int CACHE_SIZE = Integer.getInteger("elassandra.source_cache_size", 1024);
+    public static final int BATCH_SIZE = Math.min(Integer.getInteger("elassandra.source_batch_size", 256), CACHE_SIZE);
+
+    private final ClusterService clusterService;
+    private final MapperService mapperService;
+    private final String index;
+    @Nullable
+    private final SearchContext searchContext;
+
+    // fetch queries by type, suffixed by _static for static documents.
+    private final Map<String, String> fetchQueries = new HashMap<>();
+
+    // decoded rows by uid, null values for missing rows.
+    private final Map<String, Map<String, Object>> rows = new LinkedHashMap<String, Map<String, Object>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    // documents of matchesReader matching the search query, positioned after the last batch.
+    private Weight weight;
+    private LeafReader matchesReader;
+    private DocIdSetIterator matches;
+    private int batchSize = 1;
+
+    public CassandraSourceLookup(ClusterService clusterService, MapperService mapperService, String index, @Nullable SearchContext searchContext) {
+        this.clusterService = clusterService;
+        this.mapperService = mapperService;
+        this.index = index;
+        this.searchContext = searchContext;
+    }
+
+    /**
+     * @return number of decoded rows cached.
+     */
+    public int cachedRows() {
+        return rows.size();
+    }
+
+    /**
+     * Drop the decoded rows, reloaded from Cassandra on next access.
+     */
+    public void clearCache() {
+        rows.clear();
+        weight = null;
+        matchesReader = null;
+        matches = null;
+        batchSize = 1;
+    }
+
+    @Override
+    protected Tuple<XContentType, Map<String, Object>> loadSource(LeafReader reader, int docId) throws Exception {
+        // nested documents are indexed in a block before their root document, having the stored _uid.
+        int rootDoc = docId;
+        Uid uid = null;
+        while (rootDoc < reader.maxDoc() && (uid = uid(reader, rootDoc)) == null)
+            rootDoc++;
+        if (uid == null)
+            return null;
+
+        String key = uid.toString();
+        if (!rows.containsKey(key))
+            load(batch(reader, rootDoc, uid));
+        Map<String, Object> source = rows.get(key);
+        return (source == null) ? null : new Tuple<XContentType, Map<String, Object>>(XContentType.JSON, source);
+    }
+
+    private Uid uid(LeafReader reader, int docId) throws Exception {
+        JustUidFieldsVisitor uidVisitor = new JustUidFieldsVisitor();
+        reader.document(docId, uidVisitor);
+        return uidVisitor.uid();
+    }
+
+    /**
+     * @return uid followed by the uncached uids of the next documents matching the search query, when rootDoc is the next match after the previous batch.
+     */
+    private List<Uid> batch(LeafReader reader, int rootDoc, Uid uid) throws Exception {
+        List<Uid> uids = new ArrayList<>();
+        uids.add(uid);
+        boolean sequential = (reader == matchesReader && matches != null && matches.docID() == rootDoc);
+        batchSize = sequential ? Math.min(batchSize * 2, BATCH_SIZE) : 1;
+        if (!sequential) {
+            if (reader != matchesReader || matches == null || matches.docID() > rootDoc) {
+                matchesReader = reader;
+                matches = matches(reader);
+            }
+            if (matches != null && matches.docID() < rootDoc)
+                matches.advance(rootDoc);
+        }
+        if (matches == null)
+            return uids;
+        if (matches.docID() == rootDoc)
+            matches.nextDoc();
+        while (uids.size() < batchSize && matches.docID() != DocIdSetIterator.NO_MORE_DOCS) {
+            Uid next = uid(reader, matches.docID());
+            if (next != null && !rows.containsKey(next.toString()))
+                uids.add(next);
+            matches.nextDoc();
+        }
+        return uids;
+    }
+
+    /**
+     * @return the documents of reader matching the search query, null when unknown.
+     */
+    private DocIdSetIterator matches(LeafReader reader) throws Exception {
+        if (searchContext == null || searchContext.query() == null)
+            return null;
+        if (weight == null)
+            weight = searchContext.searcher().createNormalizedWeight(searchContext.query(), false);
+        for (LeafReaderContext context : searchContext.searcher().getIndexReader().leaves()) {
+            if (context.reader() == reader)
+                return weight.scorer(context);
+        }
+        return null;
+    }
+
+    /**
+     * Load the rows of uids, with one multi-partition read per type for the documents of tables having a single column primary key.
+     */
+    private void load(List<Uid> uids) throws Exception {
+        if (uids.size() == 1) {
+            rows.put(uids.get(0).toString(), load(uids.get(0)));
+            return;
+        }
+        IndexMetaData indexMetaData = clusterService.state().metaData().index(index);
+        Map<String, List<Uid>> batches = new HashMap<>();
+        for (Uid uid : uids) {
+            CFMetaData metadata = InternalCassandraClusterService.getCFMetaData(indexMetaData.keyspace(), ClusterService.Utils.typeToCfName(uid.type()));
+            if (metadata.partitionKeyColumns().size() != 1 || metadata.clusteringColumns().size() > 0) {
+                rows.put(uid.toString(), load(uid));
+                continue;
+            }
+            List<Uid> batch = batches.get(uid.type());
+            if (batch == null)
+                batches.put(uid.type(), batch = new ArrayList<>());
+            batch.add(uid);
+        }
+        for (Map.Entry<String, List<Uid>> entry : batches.entrySet())
+            load(indexMetaData.keyspace(), entry.getKey(), entry.getValue());
+    }
+
+    private void load(String ksName, String type, List<Uid> uids) throws Exception {
+        String[] columns = clusterService.mappedColumns(index, type, false);
+        if (columns.length == 0) {
+            for (Uid uid : uids)
+                rows.put(uid.toString(), null);
+            return;
+        }
+        CFMetaData metadata = InternalCassandraClusterService.getCFMetaData(ksName, ClusterService.Utils.typeToCfName(type));
+        String pkName = metadata.partitionKeyColumns().get(0).name.toString();
+        AbstractType pkType = metadata.partitionKeyColumns().get(0).type;
+        List<Object> pkValues = new ArrayList<>(uids.size());
+        for (Uid uid : uids)
+            pkValues.add(clusterService.parseElasticId(index, type, uid.id()).values[0]);
+
+        Map<ByteBuffer, UntypedResultSet.Row> results = new HashMap<>();
+        for (UntypedResultSet.Row row : clusterService.fetchRowsInternal(ksName, index, type, pkValues, columns))
+            results.put(row.getBytes(pkName), row);
+        DocumentMapper documentMapper = mapperService.documentMapper(type);
+        for (int i = 0; i < uids.size(); i++) {
+            UntypedResultSet.Row row = results.get(pkType.decompose(pkValues.get(i)));
+            rows.put(uids.get(i).toString(), (row == null) ? null : source(documentMapper, type, row, false));
+        }
+    }
+
+    private Map<String, Object> load(Uid uid) throws Exception {
+        DocPrimaryKey docPk = clusterService.parseElasticId(index, uid.type(), uid.id());
+        String typeKey = docPk.isStaticDocument ? uid.type() + "_static" : uid.type();
+        String cqlQuery = fetchQueries.get(typeKey);
+        if (cqlQuery == null) {
+            String[] columns = clusterService.mappedColumns(index, uid.type(), docPk.isStaticDocument);
+            if (columns.length == 0)
+                return null;
+            IndexMetaData indexMetaData = clusterService.state().metaData().index(index);
+            cqlQuery = clusterService.buildFetchQuery(indexMetaData.keyspace(), index, uid.type(), columns, docPk.isStaticDocument);
+            fetchQueries.put(typeKey, cqlQuery);
+        }
+
+        UntypedResultSet result = QueryProcessor.executeInternal(cqlQuery, docPk.values);
+        if (result.isEmpty())
+            return null;
+        return source(mapperService.documentMapper(uid.type()), uid.type(), result.one(), docPk.isStaticDocument);
+    }
+
+    /**
+     * @return the same document as the one rebuilt by the fetch phase.
+     */
+    private Map<String, Object> source(DocumentMapper documentMapper, String type, UntypedResultSet.Row row, boolean isStaticDocument) throws Exception {
+        Map<String, Object> mapObject = clusterService.rowAsMap(index, type, row);
+        XContentBuilder builder = ClusterService.Utils.buildDocument(documentMapper, mapObject, true, isStaticDocument);
+        return sourceAsMap(builder.bytes());
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.lucene.index.LeafReaderContext;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.index.fielddata.IndexFieldDataService;
 import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.search.internal.SearchContext;
 
 /**
  *
@@ -41,9 +42,20 @@ public class SearchLookup {
     final ImmutableMap<String, Object> asMap;
 
     public SearchLookup(MapperService mapperService, IndexFieldDataService fieldDataService, @Nullable String[] types) {
+        this(mapperService, fieldDataService, types, new SourceLookup());
+    }
+
+    /**
+     * Search lookup loading _source from the Cassandra table of the documents matching the query of a search context.
+     */
+    public SearchLookup(MapperService mapperService, IndexFieldDataService fieldDataService, @Nullable String[] types, SearchContext context) {
+        this(mapperService, fieldDataService, types, new CassandraSourceLookup(context.clusterService(), mapperService, context.request().index(), context));
+    }
+
+    private SearchLookup(MapperService mapperService, IndexFieldDataService fieldDataService, @Nullable String[] types, SourceLookup sourceLookup) {
         ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
         docMap = new DocLookup(mapperService, fieldDataService, types);
-        sourceLookup = new SourceLookup();
+        this.sourceLookup = sourceLookup;
         fieldsLookup = new FieldsLookup(mapperService, types);
         indexLookup = new IndexLookup(builder);
         asMap = builder.build();
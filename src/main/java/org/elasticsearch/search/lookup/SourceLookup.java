@@ -67,14 +67,11 @@ public class SourceLookup implements Map {
             return source;
         }
         try {
-            FieldsVisitor sourceFieldVisitor = new FieldsVisitor(true);
-            reader.document(docId, sourceFieldVisitor);
-            BytesReference source = sourceFieldVisitor.source();
-            if (source == null) {
+            Tuple<XContentType, Map<String, Object>> tuple = loadSource(reader, docId);
+            if (tuple == null) {
                 this.source = ImmutableMap.of();
                 this.sourceContentType = null;
             } else {
-                Tuple<XContentType, Map<String, Object>> tuple = sourceAsMapAndType(source);
                 this.sourceContentType = tuple.v1();
                 this.source = tuple.v2();
             }
@@ -84,6 +81,16 @@ public class SourceLookup implements Map {
         return this.source;
     }
 
+    /**
+     * Load the source of a document of the segment, null if it has no source.
+     */
+    protected Tuple<XContentType, Map<String, Object>> loadSource(LeafReader reader, int docId) throws Exception {
+        FieldsVisitor sourceFieldVisitor = new FieldsVisitor(true);
+        reader.document(docId, sourceFieldVisitor);
+        BytesReference source = sourceFieldVisitor.source();
+        return (source == null) ? null : sourceAsMapAndType(source);
+    }
+
     public static Tuple<XContentType, Map<String, Object>> sourceAsMapAndType(BytesReference source) throws ElasticsearchParseException {
         return XContentHelper.convertToMap(source, false);
     }
@@ -134,7 +134,7 @@ public class QueryPhase implements SearchPhase {
         }
     }
 
-    private static boolean returnsDocsInOrder(Query query, Sort sort) {
+    public static boolean returnsDocsInOrder(Query query, Sort sort) {
         if (sort == null || Sort.RELEVANCE.equals(sort)) {
             // sort by score
             // queries that return constant scores will return docs in index
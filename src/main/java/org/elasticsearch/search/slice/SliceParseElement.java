@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.search.slice;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.search.SearchParseElement;
+import org.elasticsearch.search.SearchParseException;
+import org.elasticsearch.search.internal.SearchContext;
+
+/**
+ * Parses <code>"slice" : { "id" : 0, "max" : 4 }</code>.
+ *
+ * @author vroyer
+ *
+ */
+public class SliceParseElement implements SearchParseElement {
+
+    @Override
+    public void parse(XContentParser parser, SearchContext context) throws Exception {
+        Integer id = null;
+        Integer max = null;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                if ("id".equals(currentFieldName)) {
+                    id = parser.intValue();
+                } else if ("max".equals(currentFieldName)) {
+                    max = parser.intValue();
+                } else {
+                    throw new SearchParseException(context, "unknown slice field [" + currentFieldName + "]", parser.getTokenLocation());
+                }
+            }
+        }
+        if (id == null || max == null)
+            throw new SearchParseException(context, "slice requires [id] and [max]", parser.getTokenLocation());
+        try {
+            context.slice(new TokenRangeSlice(id, max));
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            throw new SearchParseException(context, e.getMessage(), parser.getTokenLocation(), e);
+        }
+    }
+}
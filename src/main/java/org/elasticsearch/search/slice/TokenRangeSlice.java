@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.search.slice;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.index.SecondaryIndexBuilder;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+
+/**
+ * Slice <code>id</code> of <code>max</code> disjoint slices of the Murmur3 token ring, so that several clients
+ * consume the documents of an index in parallel by scrolling one slice each. A slice is intersected with the token ranges
+ * searched on each node, so slices do not overlap across nodes nor between each other.
+ *
+ * @author vroyer
+ *
+ */
+public class TokenRangeSlice {
+
+    private final int id;
+    private final int max;
+    private final Range<Token> range;
+
+    public TokenRangeSlice(int id, int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("slice max must be greater than 0, got [" + max + "]");
+        if (id < 0 || id >= max)
+            throw new IllegalArgumentException("slice id must be in [0, " + max + "[, got [" + id + "]");
+        if (!(DatabaseDescriptor.getPartitioner() instanceof Murmur3Partitioner))
+            throw new UnsupportedOperationException("Sliced search requires the Murmur3Partitioner");
+        this.id = id;
+        this.max = max;
+        long[] bounds = SecondaryIndexBuilder.split(Long.MIN_VALUE, Long.MAX_VALUE, max);
+        this.range = new Range<Token>(new Murmur3Partitioner.LongToken(bounds[id]), new Murmur3Partitioner.LongToken(bounds[id + 1]));
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public int max() {
+        return max;
+    }
+
+    /**
+     * @return the token range ]left, right] of the slice.
+     */
+    public Range<Token> range() {
+        return range;
+    }
+
+    /**
+     * @param tokenRanges the token ranges searched on this node, null for the whole ring.
+     * @return the token ranges of the slice searched on this node, empty if none.
+     */
+    public Collection<Range<Token>> intersect(Collection<Range<Token>> tokenRanges) {
+        if (tokenRanges == null || tokenRanges.isEmpty())
+            return Collections.singletonList(range);
+        List<Range<Token>> intersection = new ArrayList<Range<Token>>();
+        for (Range<Token> tokenRange : tokenRanges)
+            intersection.addAll(range.intersectionWith(tokenRange));
+        return intersection;
+    }
+
+    @Override
+    public String toString() {
+        return "slice [" + id + "/" + max + "] " + range;
+    }
+}
@@ -20,13 +20,17 @@
 package org.elasticsearch.snapshots;
 
 import com.google.common.collect.ImmutableMap;
+
+import org.apache.cassandra.service.StorageService;
 import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.cassandra.shard.LocalSnapshotService;
 import org.elasticsearch.cluster.ClusterChangedEvent;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.ClusterStateListener;
 import org.elasticsearch.cluster.ClusterStateUpdateTask;
 import org.elasticsearch.cluster.SnapshotsInProgress;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.SnapshotId;
 import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
@@ -337,6 +341,10 @@ public class SnapshotShardsService extends AbstractLifecycleComponent<SnapshotSh
             // we flush first to make sure we get the latest writes snapshotted
             SnapshotIndexCommit snapshotIndexCommit = indexShard.snapshotIndex(true);
             try {
+                // then snapshot the underlying keyspace, so that snapshotted documents are in the snapshotted SSTables.
+                String keyspace = indexShard.indexSettings().get(IndexMetaData.SETTING_KEYSPACE, shardId.getIndex());
+                StorageService.instance.retakeSnapshot(LocalSnapshotService.keyspaceSnapshotTag(snapshotId, shardId.getIndex()), keyspace);
+
                 indexShardRepository.snapshot(snapshotId, shardId, snapshotIndexCommit, snapshotStatus);
                 if (logger.isDebugEnabled()) {
                     StringBuilder sb = new StringBuilder();
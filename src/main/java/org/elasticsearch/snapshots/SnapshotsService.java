@@ -24,6 +24,7 @@ import org.apache.lucene.util.CollectionUtil;
 import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.search.ShardSearchFailure;
 import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cassandra.shard.LocalSnapshotService;
 import org.elasticsearch.cluster.ClusterChangedEvent;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
@@ -100,15 +101,19 @@ public class SnapshotsService extends AbstractLifecycleComponent<SnapshotsServic
 
     private final ThreadPool threadPool;
 
+    private final LocalSnapshotService localSnapshotService;
+
     private final CopyOnWriteArrayList<SnapshotCompletionListener> snapshotCompletionListeners = new CopyOnWriteArrayList<>();
 
     @Inject
-    public SnapshotsService(Settings settings, ClusterService clusterService, IndexNameExpressionResolver indexNameExpressionResolver, RepositoriesService repositoriesService, ThreadPool threadPool) {
+    public SnapshotsService(Settings settings, ClusterService clusterService, IndexNameExpressionResolver indexNameExpressionResolver, RepositoriesService repositoriesService, ThreadPool threadPool,
+            LocalSnapshotService localSnapshotService) {
         super(settings);
         this.clusterService = clusterService;
         this.indexNameExpressionResolver = indexNameExpressionResolver;
         this.repositoriesService = repositoriesService;
         this.threadPool = threadPool;
+        this.localSnapshotService = localSnapshotService;
 
         if (DiscoveryNode.masterNode(settings)) {
             // addLast to make sure that Repository will be created before snapshot
@@ -994,7 +999,15 @@ public class SnapshotsService extends AbstractLifecycleComponent<SnapshotsServic
             public void run() {
                 try {
                     Repository repository = repositoriesService.repository(snapshotId.getRepository());
+                    List<String> indices = Collections.emptyList();
+                    try {
+                        indices = repository.readSnapshot(snapshotId).indices();
+                    } catch (Throwable t) {
+                        logger.warn("failed to read indices of snapshot [{}], keyspace snapshots are not removed", t, snapshotId);
+                    }
                     repository.deleteSnapshot(snapshotId);
+                    // remove the keyspace snapshots taken with the snapshot of each index.
+                    localSnapshotService.clearKeyspaceSnapshots(snapshotId, indices);
                     listener.onResponse();
                 } catch (Throwable t) {
                     listener.onFailure(t);